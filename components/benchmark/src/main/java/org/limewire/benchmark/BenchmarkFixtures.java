@@ -0,0 +1,128 @@
+package org.limewire.benchmark;
+
+import java.util.Random;
+
+import org.limewire.core.settings.SharingSettings;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.limegroup.gnutella.ActivityCallbackAdapter;
+import com.limegroup.gnutella.LimeWireCoreModule;
+
+/**
+ * The inputs of the benchmarks.  Everything is generated from fixed seeds,
+ * so runs are repeatable and need no network, shared files or settings from
+ * a previous session.
+ */
+final class BenchmarkFixtures {
+
+    static final long SEED = 0x4C696D6557697265L;
+
+    private static final String LETTERS = "etaoinshrdlcumwfgypbvkjxqz";
+
+    private static final String[] EXTENSIONS = { "mp3", "avi", "jpg", "ogg", "txt", "zip" };
+
+    /** The vocabulary file names and queries are made of. */
+    private static final String[] WORDS = createWords(4096);
+
+    private BenchmarkFixtures() {}
+
+    static Random random() {
+        return new Random(SEED);
+    }
+
+    /**
+     * Creates the core without starting it, and turns off the hashing and
+     * other throttles that are meant for an interactive user.
+     */
+    static Injector createInjector() {
+        SharingSettings.FRIENDLY_HASHING.setValue(false);
+        return Guice.createInjector(new LimeWireCoreModule(ActivityCallbackAdapter.class));
+    }
+
+    /**
+     * Returns file names of two to seven words.  The words are picked with
+     * a skewed distribution, so some keywords are much more common than
+     * others, like in real libraries.
+     */
+    static String[] fileNames(int count) {
+        Random random = random();
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int words = 2 + random.nextInt(6); words > 0; words--)
+                name.append(word(random)).append(' ');
+            name.setLength(name.length() - 1);
+            name.append('.').append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            names[i] = name.toString();
+        }
+        return names;
+    }
+
+    /** Returns queries of one to three words. */
+    static String[] queries(int count) {
+        Random random = new Random(SEED + 1);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder query = new StringBuilder();
+            for (int words = 1 + random.nextInt(3); words > 0; words--)
+                query.append(word(random)).append(' ');
+            queries[i] = query.substring(0, query.length() - 1);
+        }
+        return queries;
+    }
+
+    /** Returns 16 byte GUIDs. */
+    static byte[][] guids(int count) {
+        Random random = new Random(SEED + 2);
+        byte[][] guids = new byte[count][16];
+        for (byte[] guid : guids)
+            random.nextBytes(guid);
+        return guids;
+    }
+
+    /** Returns random, incompressible bytes. */
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(SEED + 3).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns text that compresses about as well as Gnutella traffic, which
+     * is mostly file names, queries and headers.
+     */
+    static byte[] text(int length) {
+        Random random = new Random(SEED + 4);
+        byte[] text = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            String word = word(random);
+            for (int i = 0; i < word.length() && offset < length; i++)
+                text[offset++] = (byte)word.charAt(i);
+            if (offset < length)
+                text[offset++] = (byte)(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return text;
+    }
+
+    private static String word(Random random) {
+        double skewed = random.nextDouble();
+        return WORDS[(int)(skewed * skewed * WORDS.length)];
+    }
+
+    private static String[] createWords(int count) {
+        Random random = new Random(SEED + 5);
+        String[] words = new String[count];
+        for (int i = 0; i < count; i++) {
+            char[] word = new char[2 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                // favor the common letters
+                double skewed = random.nextDouble();
+                word[j] = LETTERS.charAt((int)(skewed * skewed * LETTERS.length()));
+            }
+            words[i] = new String(word);
+        }
+        return words;
+    }
+}
@@ -0,0 +1,170 @@
+package org.limewire.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.limewire.nio.channel.DeflaterWriter;
+import org.limewire.nio.channel.InflaterReader;
+import org.limewire.nio.channel.InterestReadableByteChannel;
+import org.limewire.nio.channel.InterestWritableByteChannel;
+import org.limewire.nio.observer.WriteObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the compression of Gnutella connections: writing messages
+ * through a {@link DeflaterWriter} and reading them back through an
+ * {@link InflaterReader}.
+ * <p>
+ * Each invocation moves {@link #LENGTH} uncompressed bytes in messages of
+ * {@link #MESSAGE_LENGTH} bytes, flushing after each message like a
+ * connection does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    static final int LENGTH = 256 * 1024;
+
+    static final int MESSAGE_LENGTH = 256;
+
+    private byte[] text;
+
+    private byte[] compressed;
+
+    private DeflaterWriter writer;
+
+    private Sink sink;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4 * 1024);
+
+    @Setup
+    public void setUp() throws IOException {
+        text = BenchmarkFixtures.text(LENGTH);
+        sink = new Sink(true);
+        writer = new DeflaterWriter(new Deflater(), sink);
+        deflate();
+        compressed = sink.out.toByteArray();
+        // only count the bytes from now on
+        sink = new Sink(false);
+        writer = new DeflaterWriter(new Deflater(), sink);
+    }
+
+    @Benchmark
+    public long deflate() throws IOException {
+        for (int offset = 0; offset < text.length; offset += MESSAGE_LENGTH) {
+            ByteBuffer message = ByteBuffer.wrap(text, offset, Math.min(MESSAGE_LENGTH, text.length - offset));
+            while (message.hasRemaining()) {
+                writer.write(message);
+                writer.handleWrite();
+            }
+        }
+        return sink.written;
+    }
+
+    @Benchmark
+    public long inflate() throws IOException {
+        InflaterReader reader = new InflaterReader(new Source(compressed), new Inflater());
+        long read = 0;
+        int got;
+        while ((got = reader.read(readBuffer)) != -1) {
+            read += got;
+            readBuffer.clear();
+        }
+        if (read != text.length)
+            throw new IOException("inflated " + read + " of " + text.length);
+        return read;
+    }
+
+    /** A connection that takes everything written to it. */
+    private static class Sink implements InterestWritableByteChannel {
+
+        private final ByteArrayOutputStream out;
+
+        private long written;
+
+        Sink(boolean keep) {
+            out = keep ? new ByteArrayOutputStream() : null;
+        }
+
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            if (out != null)
+                out.write(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+            written += length;
+            return length;
+        }
+
+        public void interestWrite(WriteObserver observer, boolean status) {
+        }
+
+        public boolean hasBufferedOutput() {
+            return false;
+        }
+
+        public boolean handleWrite() {
+            return false;
+        }
+
+        public void handleIOException(IOException iox) {
+        }
+
+        public void shutdown() {
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    /** A connection that has received the data. */
+    private static class Source implements InterestReadableByteChannel {
+
+        private final ByteBuffer data;
+
+        Source(byte[] data) {
+            this.data = ByteBuffer.wrap(data);
+        }
+
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining())
+                return -1;
+            int length = Math.min(dst.remaining(), data.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + length);
+            dst.put(data);
+            data.limit(limit);
+            return length;
+        }
+
+        public void interestRead(boolean status) {
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
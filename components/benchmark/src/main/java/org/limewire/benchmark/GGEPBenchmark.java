@@ -0,0 +1,77 @@
+package org.limewire.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.io.BadGGEPBlockException;
+import org.limewire.io.BadGGEPPropertyException;
+import org.limewire.io.GGEP;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing and writing GGEP blocks shaped like those of queries
+ * and pongs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GGEPBenchmark {
+
+    /**
+     * query: a few small extensions.  pong: packed hosts and a compressed
+     * value, which must be inflated when parsed.
+     */
+    @Param({ "query", "pong" })
+    public String block;
+
+    private GGEP ggep;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        ggep = new GGEP();
+        if (block.equals("query")) {
+            ggep.put("M", 0x1C);
+            ggep.put("SO");
+            ggep.put("NP");
+            ggep.put("H", BenchmarkFixtures.bytes(21));
+        } else {
+            ggep.put("DU", 86400);
+            ggep.put("UP", new byte[] { 0x20, 3, 2 });
+            ggep.put("LOC", "en");
+            ggep.put("IPP", BenchmarkFixtures.bytes(10 * 6));
+            ggep.put("DHTIPP", BenchmarkFixtures.bytes(10 * 6));
+            ggep.putCompressed("XQ", BenchmarkFixtures.text(1024));
+        }
+        bytes = ggep.toByteArray();
+    }
+
+    @Benchmark
+    public GGEP parse() throws BadGGEPBlockException {
+        return new GGEP(bytes, 0, null);
+    }
+
+    @Benchmark
+    public byte[] parseAndGet() throws BadGGEPBlockException, BadGGEPPropertyException {
+        GGEP parsed = new GGEP(bytes, 0, null);
+        return parsed.getBytes(block.equals("query") ? "H" : "IPP");
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return ggep.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+package org.limewire.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.core.settings.SharingSettings;
+import org.limewire.security.SHA1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.security.MerkleTree;
+import com.limegroup.gnutella.security.Tiger;
+
+/**
+ * Measures hashing shared files: the SHA1 and Tiger digests over data in
+ * memory, and creating the URNs of a file on disk, with and without the
+ * Tiger tree calculated from the same reads.
+ * <p>
+ * Each invocation hashes <code>size</code> bytes, so the throughput in
+ * bytes is the score times the size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashingBenchmark {
+
+    @Param({ "1048576", "16777216" })
+    public int size;
+
+    private byte[] data;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        // don't throttle hashing to an idle user
+        SharingSettings.FRIENDLY_HASHING.setValue(false);
+        data = BenchmarkFixtures.bytes(size);
+        file = File.createTempFile("hashing", ".bench");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] sha1() {
+        return digest(new SHA1());
+    }
+
+    @Benchmark
+    public byte[] tiger() {
+        return digest(new Tiger());
+    }
+
+    @Benchmark
+    public byte[] tigerTree() {
+        return digest(new MerkleTree(new Tiger()));
+    }
+
+    @Benchmark
+    public URN sha1Urn() throws IOException, InterruptedException {
+        return URN.createSHA1Urn(file);
+    }
+
+    @Benchmark
+    public void sha1UrnAndTigerTree(Blackhole blackhole) throws IOException, InterruptedException {
+        MessageDigest tree = new MerkleTree(new Tiger());
+        blackhole.consume(URN.generateUrnsFromFile(file, tree));
+        blackhole.consume(tree.digest());
+    }
+
+    /** Digests the data in blocks, the way files are read. */
+    private byte[] digest(MessageDigest digest) {
+        for (int offset = 0; offset < data.length; offset += 64 * 1024)
+            digest.update(data, offset, Math.min(64 * 1024, data.length - offset));
+        return digest.digest();
+    }
+}
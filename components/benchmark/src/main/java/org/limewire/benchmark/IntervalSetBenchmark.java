@@ -0,0 +1,142 @@
+package org.limewire.benchmark;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.collection.IntervalSet;
+import org.limewire.collection.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the {@link IntervalSet} operations of a swarmed download: adding
+ * the chunks as they are written, checking which ranges are present, and
+ * working out the ranges still needed.
+ * 
+ * @see LongIntervalSetBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalSetBenchmark {
+
+    static final long FILE_SIZE = 700L * 1024 * 1024;
+
+    static final int CHUNK_SIZE = 128 * 1024;
+
+    static final int LOOKUPS = 1000;
+
+    /**
+     * sequential: the chunks are added in order and merge into one range.
+     * random: the chunks arrive in any order, as from many sources, and
+     * half of them are added, leaving a set of many ranges.
+     */
+    @Param({ "sequential", "random" })
+    public String order;
+
+    private Range[] chunks;
+
+    private Range[] lookups;
+
+    private IntervalSet set;
+
+    @Setup
+    public void setUp() {
+        chunks = chunks(order);
+        lookups = lookups();
+        set = add();
+    }
+
+    /** Returns the chunks of the file, in the given order. */
+    static Range[] chunks(String order) {
+        int count = (int)(FILE_SIZE / CHUNK_SIZE);
+        Random random = BenchmarkFixtures.random();
+        Range[] chunks = new Range[order.equals("random") ? count / 2 : count];
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++)
+            indexes[i] = i;
+        if (order.equals("random")) {
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = indexes[i];
+                indexes[i] = indexes[j];
+                indexes[j] = swap;
+            }
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long)indexes[i] * CHUNK_SIZE;
+            chunks[i] = Range.createRange(start, start + CHUNK_SIZE - 1);
+        }
+        return chunks;
+    }
+
+    /** Returns ranges of up to a chunk anywhere in the file. */
+    static Range[] lookups() {
+        Random random = BenchmarkFixtures.random();
+        Range[] lookups = new Range[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            long start = (long)(random.nextDouble() * (FILE_SIZE - CHUNK_SIZE));
+            lookups[i] = Range.createRange(start, start + random.nextInt(CHUNK_SIZE));
+        }
+        return lookups;
+    }
+
+    @Benchmark
+    public IntervalSet add() {
+        IntervalSet set = new IntervalSet();
+        for (Range chunk : chunks)
+            set.add(chunk);
+        return set;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void contains(Blackhole blackhole) {
+        for (Range range : lookups)
+            blackhole.consume(set.contains(range));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void containsAny(Blackhole blackhole) {
+        for (Range range : lookups)
+            blackhole.consume(set.containsAny(range));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getOverlapIntervals(Blackhole blackhole) {
+        for (Range range : lookups)
+            blackhole.consume(set.getOverlapIntervals(range));
+    }
+
+    @Benchmark
+    public long getNeededIntervals() {
+        long needed = 0;
+        for (Iterator<Range> iter = set.getNeededIntervals(FILE_SIZE); iter.hasNext();) {
+            Range range = iter.next();
+            needed += range.getHigh() - range.getLow() + 1;
+        }
+        return needed;
+    }
+
+    @Benchmark
+    public IntervalSet.ByteIntervals toBytes() {
+        return set.toBytes();
+    }
+}
@@ -0,0 +1,124 @@
+package org.limewire.benchmark;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.collection.IntervalSet;
+import org.limewire.collection.LongIntervalSet;
+import org.limewire.collection.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the same operations as {@link IntervalSetBenchmark}, on the same
+ * ranges, with a {@link LongIntervalSet}, so the two sets can be compared
+ * method by method.  The <code>Bounds</code> methods use the primitive
+ * methods that create no ranges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongIntervalSetBenchmark {
+
+    private static final int LOOKUPS = IntervalSetBenchmark.LOOKUPS;
+
+    /** @see IntervalSetBenchmark#order */
+    @Param({ "sequential", "random" })
+    public String order;
+
+    private Range[] chunks;
+
+    private Range[] lookups;
+
+    private LongIntervalSet set;
+
+    @Setup
+    public void setUp() {
+        chunks = IntervalSetBenchmark.chunks(order);
+        lookups = IntervalSetBenchmark.lookups();
+        set = add();
+    }
+
+    @Benchmark
+    public LongIntervalSet add() {
+        LongIntervalSet set = new LongIntervalSet();
+        for (Range chunk : chunks)
+            set.add(chunk);
+        return set;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void contains(Blackhole blackhole) {
+        for (Range range : lookups)
+            blackhole.consume(set.contains(range));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void containsAny(Blackhole blackhole) {
+        for (Range range : lookups)
+            blackhole.consume(set.containsAny(range));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getOverlapIntervals(Blackhole blackhole) {
+        for (Range range : lookups)
+            blackhole.consume(set.getOverlapIntervals(range));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getOverlapBounds(Blackhole blackhole) {
+        for (Range range : lookups) {
+            long low = range.getLow();
+            long high = range.getHigh();
+            int i = set.getFirstOverlap(low, high);
+            if (i == -1)
+                continue;
+            for (; i < set.getNumberOfIntervals() && set.getLow(i) <= high; i++) {
+                blackhole.consume(Math.max(low, set.getLow(i)));
+                blackhole.consume(Math.min(high, set.getHigh(i)));
+            }
+        }
+    }
+
+    @Benchmark
+    public long getNeededIntervals() {
+        long needed = 0;
+        for (Iterator<Range> iter = set.getNeededIntervals(IntervalSetBenchmark.FILE_SIZE); iter.hasNext();) {
+            Range range = iter.next();
+            needed += range.getHigh() - range.getLow() + 1;
+        }
+        return needed;
+    }
+
+    @Benchmark
+    public long getNeededBounds() {
+        LongIntervalSet needed = set.invert(IntervalSetBenchmark.FILE_SIZE);
+        long size = 0;
+        for (int i = 0; i < needed.getNumberOfIntervals(); i++)
+            size += needed.getHigh(i) - needed.getLow(i) + 1;
+        return size;
+    }
+
+    @Benchmark
+    public IntervalSet.ByteIntervals toBytes() {
+        return set.toBytes();
+    }
+}
@@ -0,0 +1,78 @@
+package org.limewire.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.inject.Injector;
+import com.limegroup.gnutella.messages.BadPacketException;
+import com.limegroup.gnutella.messages.Message;
+import com.limegroup.gnutella.messages.MessageFactory;
+import com.limegroup.gnutella.messages.PingRequestFactory;
+import com.limegroup.gnutella.messages.QueryRequestFactory;
+import com.limegroup.gnutella.messages.Message.Network;
+
+/**
+ * Measures {@link MessageFactory#read(InputStream, Network, byte[], byte)},
+ * the parsing every message received over TCP goes through, on a stream of
+ * queries with GGEP blocks and pings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageReadBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    private MessageFactory messageFactory;
+
+    private byte[] stream;
+
+    private final byte[] header = new byte[23];
+
+    @Setup
+    public void setUp() throws IOException {
+        Injector injector = BenchmarkFixtures.createInjector();
+        messageFactory = injector.getInstance(MessageFactory.class);
+        QueryRequestFactory queryRequestFactory = injector.getInstance(QueryRequestFactory.class);
+        PingRequestFactory pingRequestFactory = injector.getInstance(PingRequestFactory.class);
+
+        String[] queries = BenchmarkFixtures.queries(MESSAGES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            Message message;
+            if (i % 4 == 0)
+                message = pingRequestFactory.createPingRequest((byte)1);
+            else
+                message = queryRequestFactory.createQuery(queries[i]);
+            message.write(out);
+        }
+        stream = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void read(Blackhole blackhole) throws IOException, BadPacketException {
+        InputStream in = new ByteArrayInputStream(stream);
+        for (int i = 0; i < MESSAGES; i++)
+            blackhole.consume(messageFactory.read(in, Network.TCP, header, (byte)4));
+    }
+}
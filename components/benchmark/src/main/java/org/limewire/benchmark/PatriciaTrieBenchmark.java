@@ -0,0 +1,92 @@
+package org.limewire.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.collection.CharSequenceKeyAnalyzer;
+import org.limewire.collection.PatriciaTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures building a {@link PatriciaTrie} of file names, and exact,
+ * nearest and prefix lookups in it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatriciaTrieBenchmark {
+
+    private static final int LOOKUPS = 1000;
+
+    @Param({ "1000", "50000" })
+    public int keys;
+
+    private String[] names;
+
+    private String[] lookups;
+
+    private String[] prefixes;
+
+    private PatriciaTrie<String, Integer> trie;
+
+    @Setup
+    public void setUp() {
+        names = BenchmarkFixtures.fileNames(keys);
+        trie = put();
+
+        Random random = BenchmarkFixtures.random();
+        String[] queries = BenchmarkFixtures.queries(LOOKUPS);
+        lookups = new String[LOOKUPS];
+        prefixes = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            // half of the exact lookups hit
+            lookups[i] = i % 2 == 0 ? names[random.nextInt(keys)] : queries[i];
+            prefixes[i] = queries[i].substring(0, Math.min(3, queries[i].length()));
+        }
+    }
+
+    @Benchmark
+    public PatriciaTrie<String, Integer> put() {
+        PatriciaTrie<String, Integer> trie =
+            new PatriciaTrie<String, Integer>(new CharSequenceKeyAnalyzer());
+        for (int i = 0; i < names.length; i++)
+            trie.put(names[i], i);
+        return trie;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void get(Blackhole blackhole) {
+        for (String key : lookups)
+            blackhole.consume(trie.get(key));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void select(Blackhole blackhole) {
+        for (String key : lookups)
+            blackhole.consume(trie.select(key));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getPrefixedBy(Blackhole blackhole) {
+        for (String prefix : prefixes)
+            blackhole.consume(trie.getPrefixedBy(prefix).size());
+    }
+}
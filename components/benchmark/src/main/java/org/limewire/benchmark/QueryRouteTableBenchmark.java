@@ -0,0 +1,91 @@
+package org.limewire.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.limegroup.gnutella.messages.BadPacketException;
+import com.limegroup.gnutella.messages.QueryRequest;
+import com.limegroup.gnutella.messages.QueryRequestFactory;
+import com.limegroup.gnutella.routing.PatchTableMessage;
+import com.limegroup.gnutella.routing.QueryRouteTable;
+import com.limegroup.gnutella.routing.ResetTableMessage;
+import com.limegroup.gnutella.routing.RouteTableMessage;
+
+/**
+ * Measures matching queries against a leaf's {@link QueryRouteTable}, and
+ * building and applying the reset and patches that carry the table to its
+ * ultrapeers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryRouteTableBenchmark {
+
+    private static final int QUERIES = 1000;
+
+    /** The number of files shared by the leaf. */
+    @Param({ "1000", "20000" })
+    public int files;
+
+    private QueryRouteTable table;
+
+    private List<RouteTableMessage> messages;
+
+    private QueryRequest[] queries;
+
+    @Setup
+    public void setUp() {
+        table = new QueryRouteTable(64 * 1024);
+        for (String name : BenchmarkFixtures.fileNames(files))
+            table.add(name);
+        messages = table.encode(null);
+
+        QueryRequestFactory queryRequestFactory =
+            BenchmarkFixtures.createInjector().getInstance(QueryRequestFactory.class);
+        String[] strings = BenchmarkFixtures.queries(QUERIES);
+        queries = new QueryRequest[QUERIES];
+        for (int i = 0; i < QUERIES; i++)
+            queries[i] = queryRequestFactory.createQuery(strings[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void contains(Blackhole blackhole) {
+        for (QueryRequest query : queries)
+            blackhole.consume(table.contains(query));
+    }
+
+    @Benchmark
+    public List<RouteTableMessage> encode() {
+        return table.encode(null);
+    }
+
+    @Benchmark
+    public QueryRouteTable patch() throws BadPacketException {
+        QueryRouteTable received = new QueryRouteTable(64 * 1024);
+        for (RouteTableMessage message : messages) {
+            if (message instanceof ResetTableMessage)
+                received.reset((ResetTableMessage)message);
+            else
+                received.patch((PatchTableMessage)message);
+        }
+        return received;
+    }
+}
@@ -0,0 +1,211 @@
+package org.limewire.benchmark;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.limegroup.gnutella.ReplyHandler;
+import com.limegroup.gnutella.RouteTable;
+import com.limegroup.gnutella.messages.Message;
+import com.limegroup.gnutella.messages.PingReply;
+import com.limegroup.gnutella.messages.PushRequest;
+import com.limegroup.gnutella.messages.QueryReply;
+import com.limegroup.gnutella.messages.vendor.SimppVM;
+
+/**
+ * Measures the {@link RouteTable} operations done for every routed query
+ * and reply: adding a route for a new GUID, turning away a duplicate, and
+ * looking up the route of a reply, from one thread and from several.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteTableBenchmark {
+
+    private static final int GUIDS = 16 * 1024;
+
+    private static final int CONNECTIONS = 32;
+
+    private RouteTable table;
+
+    private byte[][] guids;
+
+    private ReplyHandler[] handlers;
+
+    /** Spreads the threads adding routes over the GUIDs. */
+    private final AtomicInteger nextGuid = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        // like the query route table of MessageRouterImpl
+        table = new RouteTable(5 * 60, 50000);
+        guids = BenchmarkFixtures.guids(GUIDS);
+        handlers = new ReplyHandler[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++)
+            handlers[i] = new Connection(i);
+        for (int i = 0; i < GUIDS; i++)
+            table.routeReply(guids[i], handlers[i % CONNECTIONS]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GUIDS)
+    public void routeReply(Blackhole blackhole) {
+        int offset = nextGuid.getAndAdd(GUIDS);
+        for (int i = 0; i < GUIDS; i++)
+            blackhole.consume(table.routeReply(guids[i], handlers[(i + offset) % CONNECTIONS]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GUIDS)
+    public void tryToRouteDuplicate(Blackhole blackhole) {
+        for (int i = 0; i < GUIDS; i++)
+            blackhole.consume(table.tryToRouteReply(guids[i], handlers[i % CONNECTIONS]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GUIDS)
+    public void getReplyHandler(Blackhole blackhole) {
+        for (int i = 0; i < GUIDS; i++)
+            blackhole.consume(table.getReplyHandler(guids[i], 1024, (short)4, (short)0));
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(GUIDS)
+    public void getReplyHandlerConcurrently(Blackhole blackhole) {
+        getReplyHandler(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(GUIDS)
+    public void routeReplyConcurrently(Blackhole blackhole) {
+        routeReply(blackhole);
+    }
+
+    /** An open connection that drops everything it is asked to send. */
+    private static class Connection implements ReplyHandler {
+
+        private final InetSocketAddress address;
+
+        Connection(int i) {
+            address = new InetSocketAddress("10.0.0." + (i + 1), 6346);
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void handlePingReply(PingReply pingReply, ReplyHandler handler) {
+        }
+
+        public void handleQueryReply(QueryReply queryReply, ReplyHandler handler) {
+        }
+
+        public void handlePushRequest(PushRequest pushRequest, ReplyHandler handler) {
+        }
+
+        public void handleSimppVM(SimppVM simppVM) {
+        }
+
+        public void reply(Message m) {
+        }
+
+        public int getNumMessagesReceived() {
+            return 0;
+        }
+
+        public void countDroppedMessage() {
+        }
+
+        public boolean isPersonalSpam(Message m) {
+            return false;
+        }
+
+        public boolean isOutgoing() {
+            return false;
+        }
+
+        public boolean isKillable() {
+            return true;
+        }
+
+        public boolean isSupernodeClientConnection() {
+            return false;
+        }
+
+        public boolean isLeafConnection() {
+            return false;
+        }
+
+        public boolean isHighDegreeConnection() {
+            return true;
+        }
+
+        public boolean isUltrapeerQueryRoutingConnection() {
+            return true;
+        }
+
+        public boolean isGoodUltrapeer() {
+            return true;
+        }
+
+        public boolean isGoodLeaf() {
+            return false;
+        }
+
+        public boolean supportsPongCaching() {
+            return true;
+        }
+
+        public boolean allowNewPings() {
+            return true;
+        }
+
+        public boolean isStable() {
+            return true;
+        }
+
+        public String getLocalePref() {
+            return "en";
+        }
+
+        public byte[] getClientGUID() {
+            return new byte[16];
+        }
+
+        public InetAddress getInetAddress() {
+            return address.getAddress();
+        }
+
+        public int getPort() {
+            return address.getPort();
+        }
+
+        public String getAddress() {
+            return address.getAddress().getHostAddress();
+        }
+
+        public InetSocketAddress getInetSocketAddress() {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.limewire.collection;
+
+/**
+ * Maps string keys to sets of ints and looks up the ints of all keys
+ * starting with a prefix, as needed for keyword searches over files.
+ * <p>
+ * Implementations are not thread-safe.
+ */
+public interface IntPrefixIndex {
+
+    /**
+     * Returns the canonical version of the given string, as keys are
+     * stored.  Prefixes passed to {@link #getPrefixedBy(String, int, int)}
+     * must already be in canonical form.
+     */
+    String canonicalCase(String s);
+
+    /**
+     * Adds the value to the set of the key.
+     * 
+     * @return true if the value was not already in the set
+     */
+    boolean add(String key, int value);
+
+    /**
+     * Removes the value from the set of the key.  Keys whose set becomes
+     * empty are removed.
+     * 
+     * @return true if the value was in the set
+     */
+    boolean remove(String key, int value);
+
+    /**
+     * Returns the union of the sets of all keys starting with
+     * <code>prefix.substring(startOffset, stopOffset)</code>, or null if
+     * there are none.  The caller must not modify the returned set.
+     * <p>
+     * Canonicalization of the prefix is NOT performed here.
+     */
+    IntSet getPrefixedBy(String prefix, int startOffset, int stopOffset);
+
+    /** Returns the number of keys. */
+    int size();
+
+    /** Removes all keys. */
+    void clear();
+
+    /**
+     * Ensures this takes the minimum amount of space.  Only affects
+     * performance, not correctness.
+     */
+    void trim();
+}
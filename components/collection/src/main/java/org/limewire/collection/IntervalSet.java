@@ -744,7 +744,7 @@ public class IntervalSet implements Iterable<Range>, Serializable{
      */
     public static class ByteIntervals {
         public final byte[] ints, longs;
-        private ByteIntervals(byte[] ranges, byte []ranges5) {
+        ByteIntervals(byte[] ranges, byte []ranges5) {
             this.ints = ranges;
             this.longs = ranges5;
         }
@@ -0,0 +1,598 @@
+package org.limewire.collection;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.limewire.util.ByteUtils;
+
+/**
+ * A long-offset counterpart of {@link IntervalSet} with the same
+ * operations, which keeps its ranges in a sorted array of <code>long</code>
+ * bounds instead of a list of {@link Range} objects.
+ * <p>
+ * Finding a range is a binary search, adding or deleting one shifts the
+ * array once, and the ranges can be read by index without creating any
+ * objects, see {@link #getLow(int)}, {@link #getHigh(int)} and
+ * {@link #getFirstOverlap(long, long)}.  The methods taking and returning
+ * <code>Range</code> work like the ones of <code>IntervalSet</code>, the
+ * ranges are created as they are asked for.
+ * <p>
+ * Like <code>IntervalSet</code>, adjacent ranges are merged into one:
+ * adding [0-9] and [10-19] gives [0-19].
+ <pre>
+    LongIntervalSet set = new LongIntervalSet();
+    set.add(1, 4);
+    set.add(11, 14);
+    set.add(5, 10);
+    set.delete(3, 3);
+    System.out.println(set + " intervals: " + set.getNumberOfIntervals());
+
+    Output:
+        [1-2, 4-14] intervals: 2
+</pre>
+ * <b>This class is not synchronized.</b>
+ */
+public class LongIntervalSet implements Iterable<Range>, Serializable, Cloneable {
+
+    private static final long serialVersionUID = 4427213406981375447L;
+
+    /**
+     * The bounds of the ranges, <code>low, high</code> for each range, sorted
+     * and neither overlapping nor adjacent.
+     */
+    private transient long[] bounds;
+
+    /** The number of ranges in {@link #bounds}. */
+    private transient int count;
+
+    public LongIntervalSet() {
+        bounds = new long[8];
+    }
+
+    /**
+     * Creates a set with the ranges of <code>set</code>.
+     */
+    public LongIntervalSet(IntervalSet set) {
+        bounds = new long[Math.max(8, set.getNumberOfIntervals() * 2)];
+        for (Range range : set)
+            append(range.getLow(), range.getHigh());
+    }
+
+    /**
+     * Creates a set representing a single range.
+     */
+    public static LongIntervalSet createSingletonSet(long low, long high) {
+        LongIntervalSet ret = new LongIntervalSet();
+        ret.add(low, high);
+        return ret;
+    }
+
+    public void add(Range range) {
+        add(range.getLow(), range.getHigh());
+    }
+
+    /**
+     * Adds the range [<code>low</code>-<code>high</code>], merging it with the
+     * ranges it overlaps or touches.
+     * 
+     * @throws IllegalArgumentException if the range is not a valid {@link Range}
+     */
+    public void add(long low, long high) {
+        if (low > high || low < 0 || high > Range.MAX_VALUE)
+            throw new IllegalArgumentException("low: " + low + " high: " + high);
+        // the ranges from first to last touch [low-high]
+        int first = firstEndingAtOrAfter(low - 1);
+        int last = lastStartingAtOrBefore(high + 1);
+        if (first > last) {
+            replace(first, first, 1);
+            bounds[2 * first] = low;
+            bounds[2 * first + 1] = high;
+        } else {
+            low = Math.min(low, bounds[2 * first]);
+            high = Math.max(high, bounds[2 * last + 1]);
+            replace(first, last + 1, 1);
+            bounds[2 * first] = low;
+            bounds[2 * first + 1] = high;
+        }
+    }
+
+    /**
+     * Adds all the ranges of <code>set</code> to this set.
+     */
+    public void add(LongIntervalSet set) {
+        for (int i = 0; i < set.count; i++)
+            add(set.bounds[2 * i], set.bounds[2 * i + 1]);
+    }
+
+    public void delete(Range range) {
+        delete(range.getLow(), range.getHigh());
+    }
+
+    /**
+     * Removes [<code>low</code>-<code>high</code>] from the ranges of this
+     * set, splitting the ranges that only partly overlap it.
+     */
+    public void delete(long low, long high) {
+        if (low > high)
+            return;
+        int first = firstEndingAtOrAfter(low);
+        int last = lastStartingAtOrBefore(high);
+        if (first > last)
+            return;
+        long firstLow = bounds[2 * first];
+        long lastHigh = bounds[2 * last + 1];
+        boolean left = firstLow < low;
+        boolean right = lastHigh > high;
+        int kept = (left ? 1 : 0) + (right ? 1 : 0);
+        replace(first, last + 1, kept);
+        int i = first;
+        if (left) {
+            bounds[2 * i] = firstLow;
+            bounds[2 * i + 1] = low - 1;
+            i++;
+        }
+        if (right) {
+            bounds[2 * i] = high + 1;
+            bounds[2 * i + 1] = lastHigh;
+        }
+    }
+
+    /**
+     * Deletes all the ranges of <code>set</code> from this set.
+     */
+    public void delete(LongIntervalSet set) {
+        for (int i = 0; i < set.count; i++)
+            delete(set.bounds[2 * i], set.bounds[2 * i + 1]);
+    }
+
+    /**
+     * @throws NoSuchElementException if the set is empty
+     */
+    public Range getFirst() throws NoSuchElementException {
+        if (count == 0)
+            throw new NoSuchElementException();
+        return getRange(0);
+    }
+
+    /**
+     * @throws NoSuchElementException if the set is empty
+     */
+    public Range getLast() throws NoSuchElementException {
+        if (count == 0)
+            throw new NoSuchElementException();
+        return getRange(count - 1);
+    }
+
+    public int getNumberOfIntervals() {
+        return count;
+    }
+
+    /**
+     * Returns the start of the <code>index</code>th range.
+     */
+    public long getLow(int index) {
+        checkIndex(index);
+        return bounds[2 * index];
+    }
+
+    /**
+     * Returns the end, inclusive, of the <code>index</code>th range.
+     */
+    public long getHigh(int index) {
+        checkIndex(index);
+        return bounds[2 * index + 1];
+    }
+
+    public boolean contains(Range range) {
+        return contains(range.getLow(), range.getHigh());
+    }
+
+    /**
+     * Returns true if one range of this set contains all of
+     * [<code>low</code>-<code>high</code>].
+     */
+    public boolean contains(long low, long high) {
+        int i = lastStartingAtOrBefore(low);
+        return i >= 0 && bounds[2 * i + 1] >= high;
+    }
+
+    public boolean containsAny(Range range) {
+        return containsAny(range.getLow(), range.getHigh());
+    }
+
+    /**
+     * Returns true if any part of [<code>low</code>-<code>high</code>] is in
+     * this set.
+     */
+    public boolean containsAny(long low, long high) {
+        return getFirstOverlap(low, high) != -1;
+    }
+
+    /**
+     * Returns the index of the first range that overlaps
+     * [<code>low</code>-<code>high</code>], or -1 if none does.  The ranges
+     * that overlap follow it, up to the first one starting after
+     * <code>high</code>:
+     * <pre>
+     * for (int i = set.getFirstOverlap(low, high);
+     *         i != -1 && i < set.getNumberOfIntervals() && set.getLow(i) <= high; i++)
+     *     ...
+     * </pre>
+     */
+    public int getFirstOverlap(long low, long high) {
+        if (low > high)
+            return -1;
+        int i = firstEndingAtOrAfter(low);
+        return i < count && bounds[2 * i] <= high ? i : -1;
+    }
+
+    /**
+     * Returns the number of values of [<code>low</code>-<code>high</code>]
+     * that are in this set.
+     */
+    public long getOverlapSize(long low, long high) {
+        long size = 0;
+        int i = getFirstOverlap(low, high);
+        if (i == -1)
+            return 0;
+        for (; i < count && bounds[2 * i] <= high; i++)
+            size += Math.min(high, bounds[2 * i + 1]) - Math.max(low, bounds[2 * i]) + 1;
+        return size;
+    }
+
+    /**
+     * Returns the parts of the ranges of this set that overlap
+     * <code>range</code>, in order.  If there are no overlaps the list is
+     * empty.
+     */
+    public List<Range> getOverlapIntervals(Range range) {
+        long low = range.getLow();
+        long high = range.getHigh();
+        List<Range> overlaps = new ArrayList<Range>();
+        int i = getFirstOverlap(low, high);
+        if (i == -1)
+            return overlaps;
+        for (; i < count && bounds[2 * i] <= high; i++)
+            overlaps.add(Range.createRange(Math.max(low, bounds[2 * i]), Math.min(high, bounds[2 * i + 1])));
+        return overlaps;
+    }
+
+    public Iterator<Range> getAllIntervals() {
+        return iterator();
+    }
+
+    /**
+     * Returns an iterator over the ranges of this set, creating each range as
+     * it is returned.
+     */
+    public Iterator<Range> iterator() {
+        return new Iterator<Range>() {
+            private int next;
+
+            private boolean removable;
+
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            public Range next() {
+                if (next >= count)
+                    throw new NoSuchElementException();
+                removable = true;
+                return getRange(next++);
+            }
+
+            public void remove() {
+                if (!removable)
+                    throw new IllegalStateException();
+                removable = false;
+                next--;
+                replace(next, next + 1, 0);
+            }
+        };
+    }
+
+    public List<Range> getAllIntervalsAsList() {
+        List<Range> list = new ArrayList<Range>(count);
+        for (int i = 0; i < count; i++)
+            list.add(getRange(i));
+        return list;
+    }
+
+    /**
+     * Returns the number of values in the ranges of this set.
+     */
+    public long getSize() {
+        long sum = 0;
+        for (int i = 0; i < count; i++)
+            sum += bounds[2 * i + 1] - bounds[2 * i] + 1;
+        return sum;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Returns the ranges of [0-<code>maxSize</code>) that are not in this
+     * set.
+     */
+    public LongIntervalSet invert(long maxSize) {
+        LongIntervalSet ret = new LongIntervalSet();
+        if (maxSize < 1)
+            return ret;
+        long next = 0;
+        for (int i = 0; i < count && next < maxSize; i++) {
+            long low = bounds[2 * i];
+            if (low > next)
+                ret.append(next, Math.min(low - 1, maxSize - 1));
+            next = bounds[2 * i + 1] + 1;
+        }
+        if (next < maxSize)
+            ret.append(next, maxSize - 1);
+        return ret;
+    }
+
+    /**
+     * Returns the ranges needed to fill the holes in [0-<code>maxSize</code>).
+     */
+    public Iterator<Range> getNeededIntervals(long maxSize) {
+        return invert(maxSize).iterator();
+    }
+
+    /**
+     * Encodes this set as defined in
+     * http://www.limewire.org/wiki/index.php?title=HashTreeRangeEncoding
+     *
+     * @see IntervalSet#encode(long)
+     */
+    public Collection<Integer> encode(long maxSize) {
+        return toIntervalSet().encode(maxSize);
+    }
+
+    /**
+     * Adds the ranges of a set encoded with
+     * http://www.limewire.org/wiki/index.php?title=HashTreeRangeEncoding
+     *
+     * @see IntervalSet#decode(long, Integer...)
+     */
+    public void decode(long maxSize, Integer... id) {
+        IntervalSet set = new IntervalSet();
+        set.decode(maxSize, id);
+        for (Range range : set)
+            add(range);
+    }
+
+    /**
+     * Returns an {@link IntervalSet} with the ranges of this set.
+     */
+    public IntervalSet toIntervalSet() {
+        IntervalSet ret = new IntervalSet();
+        for (int i = 0; i < count; i++)
+            ret.add(getRange(i));
+        return ret;
+    }
+
+    /**
+     * Returns the ranges packed like {@link IntervalSet#toBytes()}: the ones
+     * that fit in 31 bits first, then the ones that need 40 bits.
+     */
+    public IntervalSet.ByteIntervals toBytes() {
+        int longRanges = 0;
+        for (int i = 0; i < count; i++) {
+            if (isLong(i))
+                longRanges++;
+        }
+        byte[] ints = new byte[(count - longRanges) * 8];
+        byte[] longs = new byte[longRanges * 10];
+        int pos = 0;
+        int pos2 = 0;
+        for (int i = 0; i < count; i++) {
+            if (isLong(i)) {
+                long2beb5(bounds[2 * i], longs, pos2);
+                long2beb5(bounds[2 * i + 1], longs, pos2 + 5);
+                pos2 += 10;
+            } else {
+                ByteUtils.int2beb((int)bounds[2 * i], ints, pos);
+                ByteUtils.int2beb((int)bounds[2 * i + 1], ints, pos + 4);
+                pos += 8;
+            }
+        }
+        return new IntervalSet.ByteIntervals(ints, longs);
+    }
+
+    /**
+     * Parses the ranges packed by {@link #toBytes()}.
+     */
+    public static LongIntervalSet parseBytes(byte[] ranges, byte[] ranges5) throws IOException {
+        if (ranges.length % 8 != 0 || ranges5.length % 10 != 0)
+            throw new IOException();
+
+        LongIntervalSet ret = new LongIntervalSet();
+        for (int i = 0; i < ranges.length / 8; i++) {
+            int low = (int)ByteUtils.uint2long(ByteUtils.beb2int(ranges, i * 8));
+            int high = (int)ByteUtils.uint2long(ByteUtils.beb2int(ranges, i * 8 + 4));
+            if (high < low || low < 0)
+                throw new IOException();
+            ret.add(low, high);
+        }
+        for (int i = 0; i < ranges5.length / 10; i++) {
+            long low = ByteUtils.beb2long(ranges5, i * 10, 5);
+            long high = ByteUtils.beb2long(ranges5, i * 10 + 5, 5);
+            if (high < low || low < 0)
+                throw new IOException();
+            ret.add(low, high);
+        }
+        return ret;
+    }
+
+    @Override
+    public LongIntervalSet clone() {
+        LongIntervalSet ret;
+        try {
+            ret = (LongIntervalSet)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        ret.bounds = bounds.clone();
+        return ret;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof LongIntervalSet))
+            return false;
+        LongIntervalSet other = (LongIntervalSet)o;
+        if (count != other.count)
+            return false;
+        for (int i = 0; i < 2 * count; i++) {
+            if (bounds[i] != other.bounds[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < 2 * count; i++)
+            hash = 31 * hash + (int)(bounds[i] ^ (bounds[i] >>> 32));
+        return hash;
+    }
+
+    /**
+     * Lists the ranges, like <code>IntervalSet</code> does.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(bounds[2 * i]);
+            if (bounds[2 * i + 1] != bounds[2 * i])
+                sb.append('-').append(bounds[2 * i + 1]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Writes the number of ranges and their bounds.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(count);
+        for (int i = 0; i < 2 * count; i++)
+            out.writeLong(bounds[i]);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int ranges = in.readInt();
+        if (ranges < 0)
+            throw new InvalidObjectException("ranges: " + ranges);
+        bounds = new long[Math.max(8, ranges * 2)];
+        for (int i = 0; i < ranges; i++) {
+            long low = in.readLong();
+            long high = in.readLong();
+            if (high < low || low < 0 || high > Range.MAX_VALUE
+                    || (count > 0 && low <= bounds[2 * count - 1] + 1))
+                throw new InvalidObjectException("bad range " + low + "-" + high + " after " + this);
+            append(low, high);
+        }
+    }
+
+    /** Adds a range after all the others. */
+    private void append(long low, long high) {
+        replace(count, count, 1);
+        bounds[2 * count - 2] = low;
+        bounds[2 * count - 1] = high;
+    }
+
+    /**
+     * Replaces the ranges [<code>from</code>, <code>to</code>) with
+     * <code>length</code> ranges, whose bounds are left to the caller.
+     */
+    private void replace(int from, int to, int length) {
+        int newCount = count - (to - from) + length;
+        if (2 * newCount > bounds.length) {
+            long[] grown = new long[Math.max(2 * newCount, bounds.length * 3 / 2)];
+            System.arraycopy(bounds, 0, grown, 0, 2 * from);
+            System.arraycopy(bounds, 2 * to, grown, 2 * (from + length), 2 * (count - to));
+            bounds = grown;
+        } else if (to - from != length) {
+            System.arraycopy(bounds, 2 * to, bounds, 2 * (from + length), 2 * (count - to));
+        }
+        count = newCount;
+    }
+
+    /**
+     * Returns the index of the first range ending at or after
+     * <code>value</code>, or {@link #count} if there is none.
+     */
+    private int firstEndingAtOrAfter(long value) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[2 * mid + 1] < value)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the last range starting at or before
+     * <code>value</code>, or -1 if there is none.
+     */
+    private int lastStartingAtOrBefore(long value) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[2 * mid] <= value)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+
+    private Range getRange(int index) {
+        return Range.createRange(bounds[2 * index], bounds[2 * index + 1]);
+    }
+
+    /** Writes the low 40 bits of <code>value</code>, like {@link LongInterval} does. */
+    private static void long2beb5(long value, byte[] dest, int offset) {
+        for (int i = 4; i >= 0; i--) {
+            dest[offset + i] = (byte)value;
+            value >>= 8;
+        }
+    }
+
+    /** Returns true if the range at <code>index</code> needs more than 31 bits. */
+    private boolean isLong(int index) {
+        return bounds[2 * index + 1] > Integer.MAX_VALUE;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("index: " + index + " size: " + count);
+    }
+}
@@ -0,0 +1,493 @@
+package org.limewire.collection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link IntPrefixIndex} that stores its keys in a sorted dictionary and
+ * the values of each key in a posting list of primitive ints, so that a
+ * large index is a handful of flat buffers instead of a graph of nodes,
+ * sets and intervals.  The buffers can be allocated outside of the heap.
+ * <p>
+ * The dictionary is the characters of all keys, back to back in sorted
+ * order, along with the offset where each key starts.  The posting lists
+ * are stored the same way, each one sorted.  Keys starting with a prefix
+ * are found by a binary search for the first one, followed by a scan
+ * until the keys no longer match.
+ * <p>
+ * The buffers are immutable.  Values added are kept in a small sorted map
+ * of ordinary sets and values removed are remembered per key, both of them
+ * consulted by lookups, until enough changes have accumulated to merge
+ * them into new buffers.  {@link #trim()} merges them right away.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class SortedIntPrefixIndex implements IntPrefixIndex {
+
+    /** The number of changes that are always kept before merging. */
+    private static final int MIN_CHANGES_BEFORE_MERGE = 1024;
+
+    private final boolean ignoreCase;
+
+    /** Whether the buffers are allocated outside of the heap. */
+    private final boolean direct;
+
+    /** The merged keys and values. */
+    private Segment segment;
+
+    /** Values added since the last merge. */
+    private final TreeMap<String, IntSet> added = new TreeMap<String, IntSet>();
+
+    /** Values removed from keys of the segment since the last merge, by key index. */
+    private final Map<Integer, IntSet> removed = new HashMap<Integer, IntSet>();
+
+    /** The number of changes since the last merge. */
+    private int changes;
+
+    /**
+     * Creates an index that keeps its buffers in the heap.
+     *
+     * @param ignoreCase if true, keys will be canonicalized to lowercase
+     */
+    public SortedIntPrefixIndex(boolean ignoreCase) {
+        this(ignoreCase, false);
+    }
+
+    /**
+     * @param ignoreCase if true, keys will be canonicalized to lowercase
+     * @param direct if true, the buffers are allocated outside of the heap
+     */
+    public SortedIntPrefixIndex(boolean ignoreCase, boolean direct) {
+        this.ignoreCase = ignoreCase;
+        this.direct = direct;
+        this.segment = new SegmentBuilder(0, 0).build(direct);
+    }
+
+    /**
+     * Canonicalizes the same way as {@link StringTrie#canonicalCase(String)}.
+     */
+    public String canonicalCase(String s) {
+        if (!ignoreCase)
+            return s;
+        return s.toUpperCase(Locale.US).toLowerCase(Locale.US);
+    }
+
+    public boolean add(String key, int value) {
+        key = canonicalCase(key);
+        int term = segment.indexOf(key);
+        if (term >= 0) {
+            IntSet removedValues = removed.get(term);
+            if (removedValues != null && removedValues.remove(value)) {
+                if (removedValues.size() == 0)
+                    removed.remove(term);
+                return true;
+            }
+            if (segment.contains(term, value))
+                return false;
+        }
+
+        IntSet addedValues = added.get(key);
+        if (addedValues == null) {
+            addedValues = new IntSet();
+            added.put(key, addedValues);
+        }
+        if (!addedValues.add(value))
+            return false;
+        changed();
+        return true;
+    }
+
+    public boolean remove(String key, int value) {
+        key = canonicalCase(key);
+        IntSet addedValues = added.get(key);
+        if (addedValues != null && addedValues.remove(value)) {
+            if (addedValues.size() == 0)
+                added.remove(key);
+            return true;
+        }
+
+        int term = segment.indexOf(key);
+        if (term < 0 || !segment.contains(term, value))
+            return false;
+        IntSet removedValues = removed.get(term);
+        if (removedValues == null) {
+            removedValues = new IntSet();
+            removed.put(term, removedValues);
+        }
+        if (!removedValues.add(value))
+            return false;
+        changed();
+        return true;
+    }
+
+    public IntSet getPrefixedBy(String prefix, int startOffset, int stopOffset) {
+        // Gather the values of all matching keys, then sort them once so
+        // the set is built by appending.
+        int[] values = null;
+        int count = 0;
+        int keys = 0;
+        for (int term = segment.lowerBound(prefix, startOffset, stopOffset);
+             term < segment.size() && segment.startsWith(term, prefix, startOffset, stopOffset);
+             term++) {
+            IntSet removedValues = removed.isEmpty() ? null : removed.get(term);
+            int from = segment.postingsStart(term);
+            int to = segment.postingsStart(term + 1);
+            if (values == null)
+                values = new int[Math.max(16, to - from)];
+            else if (count + to - from > values.length)
+                values = Arrays.copyOf(values, Math.max(values.length * 2, count + to - from));
+            for (int i = from; i < to; i++) {
+                int value = segment.posting(i);
+                if (removedValues == null || !removedValues.contains(value))
+                    values[count++] = value;
+            }
+            keys++;
+        }
+
+        IntSet matches = null;
+        if (count > 0) {
+            if (keys > 1)
+                Arrays.sort(values, 0, count);
+            matches = new IntSet(count);
+            for (int i = 0; i < count; i++)
+                matches.add(values[i]);
+        }
+
+        if (!added.isEmpty()) {
+            String key = prefix.substring(startOffset, stopOffset);
+            for (Map.Entry<String, IntSet> entry : added.tailMap(key).entrySet()) {
+                if (!entry.getKey().startsWith(key))
+                    break;
+                if (matches == null)
+                    matches = new IntSet();
+                matches.addAll(entry.getValue());
+            }
+        }
+        return matches;
+    }
+
+    public int size() {
+        int size = segment.size();
+        for (String key : added.keySet()) {
+            if (segment.indexOf(key) < 0)
+                size++;
+        }
+        for (Map.Entry<Integer, IntSet> entry : removed.entrySet()) {
+            int term = entry.getKey();
+            if (entry.getValue().size() == segment.postingsStart(term + 1) - segment.postingsStart(term)
+                    && !added.containsKey(segment.key(term)))
+                size--;
+        }
+        return size;
+    }
+
+    public void clear() {
+        segment = new SegmentBuilder(0, 0).build(direct);
+        added.clear();
+        removed.clear();
+        changes = 0;
+    }
+
+    public void trim() {
+        if (!added.isEmpty() || !removed.isEmpty())
+            merge();
+    }
+
+    /** Returns the number of bytes used by the buffers. */
+    public long getBufferSize() {
+        return segment.byteSize();
+    }
+
+    /**
+     * Counts a change, merging once there are many compared to the size
+     * of the segment.
+     */
+    private void changed() {
+        if (++changes > Math.max(MIN_CHANGES_BEFORE_MERGE, segment.postingsStart(segment.size()) / 4))
+            merge();
+    }
+
+    /**
+     * Replaces the segment with one that includes all changes.
+     */
+    private void merge() {
+        SegmentBuilder builder = new SegmentBuilder(segment.size() + added.size(),
+                segment.postingsStart(segment.size()) + changes);
+        Iterator<Map.Entry<String, IntSet>> adds = added.entrySet().iterator();
+        Map.Entry<String, IntSet> add = adds.hasNext() ? adds.next() : null;
+        int term = 0;
+        while (term < segment.size() || add != null) {
+            int cmp;
+            if (term == segment.size())
+                cmp = 1;
+            else if (add == null)
+                cmp = -1;
+            else
+                cmp = segment.compare(term, add.getKey(), 0, add.getKey().length());
+
+            if (cmp <= 0) {
+                builder.addKey(segment, term);
+                IntSet removedValues = removed.get(term);
+                IntSet.IntSetIterator addedValues = cmp == 0 ? add.getValue().iterator() : null;
+                int next = addedValues != null && addedValues.hasNext() ? addedValues.next() : Integer.MAX_VALUE;
+                boolean hasNext = addedValues != null;
+                for (int i = segment.postingsStart(term), to = segment.postingsStart(term + 1); i < to; i++) {
+                    int value = segment.posting(i);
+                    while (hasNext && next < value) {
+                        builder.addPosting(next);
+                        if (addedValues.hasNext())
+                            next = addedValues.next();
+                        else
+                            hasNext = false;
+                    }
+                    if (removedValues == null || !removedValues.contains(value))
+                        builder.addPosting(value);
+                }
+                while (hasNext) {
+                    builder.addPosting(next);
+                    if (addedValues.hasNext())
+                        next = addedValues.next();
+                    else
+                        hasNext = false;
+                }
+                term++;
+                if (cmp == 0)
+                    add = adds.hasNext() ? adds.next() : null;
+            } else {
+                builder.addKey(add.getKey());
+                for (IntSet.IntSetIterator iter = add.getValue().iterator(); iter.hasNext();)
+                    builder.addPosting(iter.next());
+                add = adds.hasNext() ? adds.next() : null;
+            }
+            builder.endKey();
+        }
+
+        segment = builder.build(direct);
+        added.clear();
+        removed.clear();
+        changes = 0;
+    }
+
+    /**
+     * Immutable sorted keys and their posting lists.
+     */
+    private static class Segment {
+        /** The number of keys. */
+        private final int size;
+
+        /** The offset of each key in chars, and the end of the last one. */
+        private final ByteBuffer keyOffsets;
+
+        /** The characters of all keys. */
+        private final ByteBuffer chars;
+
+        /** The offset of each posting list in postings, and the end of the last one. */
+        private final ByteBuffer postingOffsets;
+
+        /** The posting lists of all keys. */
+        private final ByteBuffer postings;
+
+        Segment(int size, ByteBuffer keyOffsets, ByteBuffer chars, ByteBuffer postingOffsets,
+                ByteBuffer postings) {
+            this.size = size;
+            this.keyOffsets = keyOffsets;
+            this.chars = chars;
+            this.postingOffsets = postingOffsets;
+            this.postings = postings;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long byteSize() {
+            return keyOffsets.capacity() + chars.capacity() + postingOffsets.capacity()
+                    + postings.capacity();
+        }
+
+        int keyStart(int term) {
+            return keyOffsets.getInt(term << 2);
+        }
+
+        char charAt(int offset) {
+            return chars.getChar(offset << 1);
+        }
+
+        int postingsStart(int term) {
+            return postingOffsets.getInt(term << 2);
+        }
+
+        int posting(int i) {
+            return postings.getInt(i << 2);
+        }
+
+        String key(int term) {
+            int start = keyStart(term);
+            int end = keyStart(term + 1);
+            char[] key = new char[end - start];
+            for (int i = 0; i < key.length; i++)
+                key[i] = charAt(start + i);
+            return new String(key);
+        }
+
+        /**
+         * Compares the key with <code>s.substring(start, stop)</code>.
+         */
+        int compare(int term, String s, int start, int stop) {
+            int from = keyStart(term);
+            int length = keyStart(term + 1) - from;
+            int n = Math.min(length, stop - start);
+            for (int i = 0; i < n; i++) {
+                int diff = charAt(from + i) - s.charAt(start + i);
+                if (diff != 0)
+                    return diff;
+            }
+            return length - (stop - start);
+        }
+
+        /**
+         * Returns true if the key starts with <code>s.substring(start, stop)</code>.
+         */
+        boolean startsWith(int term, String s, int start, int stop) {
+            int from = keyStart(term);
+            if (keyStart(term + 1) - from < stop - start)
+                return false;
+            for (int i = start; i < stop; i++) {
+                if (charAt(from + i - start) != s.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the index of the first key not less than
+         * <code>s.substring(start, stop)</code>.
+         */
+        int lowerBound(String s, int start, int stop) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, s, start, stop) < 0)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        /** Returns the index of the key, or -1 if it isn't stored. */
+        int indexOf(String key) {
+            int term = lowerBound(key, 0, key.length());
+            if (term < size && compare(term, key, 0, key.length()) == 0)
+                return term;
+            return -1;
+        }
+
+        /** Returns true if the posting list of the key contains the value. */
+        boolean contains(int term, int value) {
+            int low = postingsStart(term);
+            int high = postingsStart(term + 1) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int posting = posting(mid);
+                if (posting < value)
+                    low = mid + 1;
+                else if (posting > value)
+                    high = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Collects keys in sorted order and their postings in growable arrays,
+     * then copies them into the buffers of a segment.  Keys that end up
+     * without any postings are dropped.
+     */
+    private static class SegmentBuilder {
+        private int[] keyOffsets;
+        private char[] chars;
+        private int[] postingOffsets;
+        private int[] postings;
+        private int size;
+        private int charCount;
+        private int postingCount;
+
+        SegmentBuilder(int expectedKeys, int expectedPostings) {
+            keyOffsets = new int[expectedKeys + 1];
+            chars = new char[Math.max(16, expectedKeys * 8)];
+            postingOffsets = new int[expectedKeys + 1];
+            postings = new int[Math.max(16, expectedPostings)];
+        }
+
+        void addKey(String key) {
+            ensureChars(key.length());
+            key.getChars(0, key.length(), chars, charCount);
+            charCount += key.length();
+        }
+
+        void addKey(Segment segment, int term) {
+            int start = segment.keyStart(term);
+            int length = segment.keyStart(term + 1) - start;
+            ensureChars(length);
+            for (int i = 0; i < length; i++)
+                chars[charCount++] = segment.charAt(start + i);
+        }
+
+        void addPosting(int value) {
+            if (postingCount == postings.length)
+                postings = Arrays.copyOf(postings, postings.length * 2);
+            postings[postingCount++] = value;
+        }
+
+        void endKey() {
+            if (postingCount == postingOffsets[size]) {
+                // no postings, drop the key
+                charCount = keyOffsets[size];
+                return;
+            }
+            size++;
+            if (size + 1 > keyOffsets.length) {
+                keyOffsets = Arrays.copyOf(keyOffsets, keyOffsets.length * 2);
+                postingOffsets = Arrays.copyOf(postingOffsets, postingOffsets.length * 2);
+            }
+            keyOffsets[size] = charCount;
+            postingOffsets[size] = postingCount;
+        }
+
+        Segment build(boolean direct) {
+            ByteBuffer keyOffsetBuffer = allocate((size + 1) * 4, direct);
+            for (int i = 0; i <= size; i++)
+                keyOffsetBuffer.putInt(i << 2, keyOffsets[i]);
+            ByteBuffer charBuffer = allocate(charCount * 2, direct);
+            for (int i = 0; i < charCount; i++)
+                charBuffer.putChar(i << 1, chars[i]);
+            ByteBuffer postingOffsetBuffer = allocate((size + 1) * 4, direct);
+            for (int i = 0; i <= size; i++)
+                postingOffsetBuffer.putInt(i << 2, postingOffsets[i]);
+            ByteBuffer postingBuffer = allocate(postingCount * 4, direct);
+            for (int i = 0; i < postingCount; i++)
+                postingBuffer.putInt(i << 2, postings[i]);
+            return new Segment(size, keyOffsetBuffer, charBuffer, postingOffsetBuffer, postingBuffer);
+        }
+
+        private void ensureChars(int length) {
+            if (charCount + length > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+
+        private static ByteBuffer allocate(int bytes, boolean direct) {
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+            return buffer.order(ByteOrder.nativeOrder());
+        }
+    }
+}
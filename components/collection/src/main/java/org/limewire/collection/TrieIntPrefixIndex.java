@@ -0,0 +1,76 @@
+package org.limewire.collection;
+
+import java.util.Iterator;
+
+/**
+ * An {@link IntPrefixIndex} that keeps an {@link IntSet} for each key in a
+ * {@link StringTrie}.
+ */
+public class TrieIntPrefixIndex implements IntPrefixIndex {
+
+    private final StringTrie<IntSet> trie;
+
+    /**
+     * @param ignoreCase if true, keys will be canonicalized to lowercase
+     */
+    public TrieIntPrefixIndex(boolean ignoreCase) {
+        trie = new StringTrie<IntSet>(ignoreCase);
+    }
+
+    public String canonicalCase(String s) {
+        return trie.canonicalCase(s);
+    }
+
+    public boolean add(String key, int value) {
+        IntSet indices = trie.get(key);
+        if (indices == null) {
+            indices = new IntSet();
+            trie.add(key, indices);
+        }
+        return indices.add(value);
+    }
+
+    public boolean remove(String key, int value) {
+        IntSet indices = trie.get(key);
+        if (indices == null || !indices.remove(value))
+            return false;
+        if (indices.size() == 0)
+            trie.remove(key);
+        return true;
+    }
+
+    /**
+     * Returns the set of the key without copying it if it's the only key
+     * with the prefix.
+     */
+    public IntSet getPrefixedBy(String prefix, int startOffset, int stopOffset) {
+        Iterator<IntSet> iter = trie.getPrefixedBy(prefix, startOffset, stopOffset);
+        if (!iter.hasNext())
+            return null;
+        IntSet first = iter.next();
+        if (!iter.hasNext())
+            return first;
+        IntSet matches = new IntSet();
+        matches.addAll(first);
+        while (iter.hasNext())
+            matches.addAll(iter.next());
+        return matches;
+    }
+
+    public int size() {
+        return trie.size();
+    }
+
+    public void clear() {
+        trie.clear();
+    }
+
+    public void trim() {
+        trie.trim(new Function<IntSet, IntSet>() {
+            public IntSet apply(IntSet intSet) {
+                intSet.trim();
+                return intSet;
+            }
+        });
+    }
+}
@@ -0,0 +1,212 @@
+package org.limewire.collection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+/**
+ * Unit tests for LongIntervalSet.
+ */
+public class LongIntervalSetTest extends BaseTestCase {
+
+    private LongIntervalSet set;
+
+    public LongIntervalSetTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(LongIntervalSetTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    public void setUp() {
+        set = new LongIntervalSet();
+    }
+
+    public void testAddMerges() {
+        set.add(1, 4);
+        set.add(11, 14);
+        set.add(21, 24);
+        assertEquals("[1-4, 11-14, 21-24]", set.toString());
+        set.add(5, 10);
+        assertEquals("[1-14, 21-24]", set.toString());
+        set.add(3, 3);
+        assertEquals("[1-14, 21-24]", set.toString());
+        set.add(0, 30);
+        assertEquals("[0-30]", set.toString());
+        set.add(40, 40);
+        assertEquals("[0-30, 40]", set.toString());
+        assertEquals(2, set.getNumberOfIntervals());
+        assertEquals(32, set.getSize());
+        assertEquals(Range.createRange(0, 30), set.getFirst());
+        assertEquals(Range.createRange(40), set.getLast());
+    }
+
+    public void testDeleteSplits() {
+        set.add(0, 99);
+        set.delete(10, 19);
+        assertEquals("[0-9, 20-99]", set.toString());
+        set.delete(5, 24);
+        assertEquals("[0-4, 25-99]", set.toString());
+        set.delete(0, 0);
+        set.delete(99, 200);
+        assertEquals("[1-4, 25-98]", set.toString());
+        set.delete(0, 1000);
+        assertTrue(set.isEmpty());
+    }
+
+    public void testContains() {
+        set.add(10, 20);
+        set.add(30, 40);
+        assertTrue(set.contains(10, 20));
+        assertTrue(set.contains(Range.createRange(15)));
+        assertFalse(set.contains(10, 30));
+        assertFalse(set.contains(21, 29));
+        assertFalse(set.contains(0, 9));
+
+        assertTrue(set.containsAny(0, 10));
+        assertTrue(set.containsAny(20, 30));
+        assertTrue(set.containsAny(Range.createRange(0, 50)));
+        assertFalse(set.containsAny(21, 29));
+        assertFalse(set.containsAny(41, 50));
+    }
+
+    public void testOverlaps() {
+        set.add(1, 4);
+        set.add(6, 10);
+        assertEquals(Arrays.asList(Range.createRange(3, 4), Range.createRange(6, 8)),
+                set.getOverlapIntervals(Range.createRange(3, 8)));
+        assertTrue(set.getOverlapIntervals(Range.createRange(5)).isEmpty());
+        assertEquals(0, set.getFirstOverlap(0, 1));
+        assertEquals(1, set.getFirstOverlap(5, 6));
+        assertEquals(-1, set.getFirstOverlap(11, 20));
+        assertEquals(5, set.getOverlapSize(3, 8));
+        assertEquals(0, set.getOverlapSize(5, 5));
+    }
+
+    public void testInvert() {
+        assertEquals("[0-49]", set.invert(50).toString());
+        set.add(1, 4);
+        set.add(11, 14);
+        set.add(21, 24);
+        assertEquals("[0, 5-10, 15-20, 25-49]", set.invert(50).toString());
+        assertEquals("[0, 5-10, 15-20]", set.invert(21).toString());
+        assertEquals("[0]", set.invert(1).toString());
+        assertTrue(set.invert(0).isEmpty());
+
+        Iterator<Range> needed = set.getNeededIntervals(25);
+        assertEquals(Range.createRange(0), needed.next());
+        assertEquals(Range.createRange(5, 10), needed.next());
+        assertEquals(Range.createRange(15, 20), needed.next());
+        assertFalse(needed.hasNext());
+    }
+
+    public void testIteratorRemove() {
+        set.add(1, 4);
+        set.add(11, 14);
+        set.add(21, 24);
+        Iterator<Range> iter = set.iterator();
+        iter.next();
+        iter.next();
+        iter.remove();
+        assertEquals(Range.createRange(21, 24), iter.next());
+        assertFalse(iter.hasNext());
+        assertEquals("[1-4, 21-24]", set.toString());
+    }
+
+    public void testBytes() throws Exception {
+        set.add(3, 7);
+        set.add(28, 33);
+        set.add(0xFFFFFFFF0L, 0xFFFFFFFFFL);
+        IntervalSet.ByteIntervals bytes = set.toBytes();
+        IntervalSet.ByteIntervals expected = set.toIntervalSet().toBytes();
+        assertEquals(expected.ints, bytes.ints);
+        assertEquals(expected.longs, bytes.longs);
+        assertEquals(set, LongIntervalSet.parseBytes(bytes.ints, bytes.longs));
+    }
+
+    public void testSerialization() throws Exception {
+        for (int i = 0; i < 100; i++)
+            set.add(i * 10, i * 10 + 5);
+        set.add(0xFFFFFFFFF0L, 0xFFFFFFFFFFL);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(set);
+        oos.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()));
+        LongIntervalSet read = (LongIntervalSet)in.readObject();
+        assertEquals(set, read);
+        assertEquals(set.hashCode(), read.hashCode());
+        read.add(1000, 2000);
+        assertNotEquals(set, read);
+    }
+
+    public void testClone() {
+        set.add(1, 4);
+        LongIntervalSet clone = set.clone();
+        clone.add(10, 20);
+        assertEquals("[1-4]", set.toString());
+        assertEquals("[1-4, 10-20]", clone.toString());
+    }
+
+    public void testInvalidRanges() {
+        try {
+            set.add(5, 4);
+            fail("added a backwards range");
+        } catch (IllegalArgumentException expected) {}
+        try {
+            set.add(-1, 4);
+            fail("added a negative range");
+        } catch (IllegalArgumentException expected) {}
+        try {
+            set.add(0, Range.MAX_VALUE + 1);
+            fail("added a range past the maximum");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    /** Adds and deletes random ranges, checking against an IntervalSet. */
+    public void testAgreesWithIntervalSet() throws Exception {
+        Random random = new Random(7);
+        IntervalSet expected = new IntervalSet();
+        for (int i = 0; i < 5000; i++) {
+            long low = random.nextInt(100000);
+            Range range = Range.createRange(low, low + random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                expected.delete(range);
+                set.delete(range);
+            } else {
+                expected.add(range);
+                set.add(range);
+            }
+            assertEquals(expected.getAllIntervalsAsList(), set.getAllIntervalsAsList());
+
+            long checkLow = random.nextInt(100000);
+            Range check = Range.createRange(checkLow, checkLow + random.nextInt(500));
+            assertEquals(check.toString(), expected.contains(check), set.contains(check));
+            // IntervalSet lists an overlap twice when it is inside one range
+            List<Range> overlaps = new ArrayList<Range>(new LinkedHashSet<Range>(expected.getOverlapIntervals(check)));
+            assertEquals(check.toString(), overlaps, set.getOverlapIntervals(check));
+        }
+        assertEquals(expected.getSize(), set.getSize());
+        assertEquals(expected.invert(200000).getAllIntervalsAsList(),
+                set.invert(200000).getAllIntervalsAsList());
+        assertEquals(expected, set.toIntervalSet());
+        assertEquals(set, new LongIntervalSet(expected));
+    }
+}
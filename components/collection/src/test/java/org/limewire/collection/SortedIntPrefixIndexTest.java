@@ -0,0 +1,104 @@
+package org.limewire.collection;
+
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class SortedIntPrefixIndexTest extends BaseTestCase {
+
+    public SortedIntPrefixIndexTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(SortedIntPrefixIndexTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public void testAddRemove() {
+        SortedIntPrefixIndex index = new SortedIntPrefixIndex(true);
+        assertNull(index.getPrefixedBy("a", 0, 1));
+        assertEquals(0, index.size());
+
+        assertTrue(index.add("Apple", 1));
+        assertFalse(index.add("apple", 1));
+        assertTrue(index.add("apply", 2));
+        assertTrue(index.add("banana", 3));
+        assertEquals(3, index.size());
+        assertEquals("[1-2]", index.getPrefixedBy("appl", 0, 4).toString());
+        assertEquals("[1]", index.getPrefixedBy("xapple", 1, 6).toString());
+        assertNull(index.getPrefixedBy("applesauce", 0, 10));
+        assertEquals("[1-3]", index.getPrefixedBy("", 0, 0).toString());
+
+        index.trim();
+        assertEquals(3, index.size());
+        assertFalse(index.add("apple", 1));
+        assertEquals("[1-2]", index.getPrefixedBy("appl", 0, 4).toString());
+
+        assertTrue(index.remove("APPLE", 1));
+        assertFalse(index.remove("apple", 1));
+        assertEquals(2, index.size());
+        assertEquals("[2]", index.getPrefixedBy("appl", 0, 4).toString());
+        assertNull(index.getPrefixedBy("apple", 0, 5));
+
+        assertTrue(index.add("apple", 1));
+        assertEquals(3, index.size());
+        assertEquals("[1-2]", index.getPrefixedBy("appl", 0, 4).toString());
+
+        index.remove("apple", 1);
+        index.trim();
+        assertEquals(2, index.size());
+        assertNull(index.getPrefixedBy("apple", 0, 5));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.getPrefixedBy("", 0, 0));
+    }
+
+    public void testAgreesWithTrie() {
+        agreesWithTrie(new SortedIntPrefixIndex(true), 1);
+    }
+
+    public void testDirectAgreesWithTrie() {
+        agreesWithTrie(new SortedIntPrefixIndex(true, true), 2);
+    }
+
+    private void agreesWithTrie(SortedIntPrefixIndex index, long seed) {
+        Random random = new Random(seed);
+        TrieIntPrefixIndex trie = new TrieIntPrefixIndex(true);
+        // enough changes to merge several times
+        for (int i = 0; i < 20000; i++) {
+            String key = randomKey(random);
+            int value = random.nextInt(200);
+            if (random.nextInt(3) == 0)
+                assertEquals(trie.remove(key, value), index.remove(key, value));
+            else
+                assertEquals(trie.add(key, value), index.add(key, value));
+
+            if (i % 100 == 0) {
+                assertEquals(trie.size(), index.size());
+                for (int j = 0; j < 20; j++) {
+                    String prefix = randomKey(random);
+                    prefix = prefix.substring(0, random.nextInt(prefix.length() + 1));
+                    assertEquals(prefix, String.valueOf(trie.getPrefixedBy(prefix, 0, prefix.length())),
+                            String.valueOf(index.getPrefixedBy(prefix, 0, prefix.length())));
+                }
+            }
+            if (i % 5000 == 0)
+                index.trim();
+        }
+    }
+
+    private static String randomKey(Random random) {
+        String alphabet = "abcde";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1 + random.nextInt(4); i > 0; i--)
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package org.limewire.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.limewire.concurrent.ExecutorsHelper;
+
+/**
+ * An <code>EventListener</code> that receives its events in batches on
+ * an executor of its own, instead of one at a time on the thread that
+ * broadcasts them.  This is useful for listeners that do real work for
+ * every event and are sent many events at once, such as when the library
+ * is loaded.
+ * <p>
+ * {@link #handleEvent(Object)} only queues the event.  The events queued
+ * while a delivery is waiting on the executor are passed to
+ * {@link #handleEvents(List)} together, in the order they were handled.
+ * At most <code>maxQueued</code> events are queued; the thread that fills
+ * the queue delivers it itself, so a broadcaster faster than the listener
+ * is slowed down rather than using up memory.
+ * <p>
+ * Batches are never delivered concurrently.  Owners should call
+ * {@link #flush()} when they stop, and before reading state that the
+ * events update, to deliver the events still queued.
+ */
+public abstract class BatchingEventListener<E> implements EventListener<E> {
+
+    /** The default number of events that can be queued. */
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+
+    private final Executor executor;
+
+    private final int maxQueued;
+
+    /** Held while delivering a batch, so batches are delivered one at a time. */
+    private final Object deliveryLock = new Object();
+
+    /** The events waiting to be delivered.  LOCKING: this. */
+    private List<E> queue = new ArrayList<E>();
+
+    /** Whether a delivery is waiting on the executor.  LOCKING: this. */
+    private boolean scheduled;
+
+    private final Runnable flusher = new Runnable() {
+        public void run() {
+            synchronized(BatchingEventListener.this) {
+                scheduled = false;
+            }
+            flush();
+        }
+    };
+
+    /**
+     * Creates a listener that delivers its events on a processing queue
+     * named <code>name</code>, queueing at most {@link #DEFAULT_MAX_QUEUED}.
+     */
+    public BatchingEventListener(String name) {
+        this(ExecutorsHelper.newProcessingQueue(name), DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * @param executor the executor to deliver events on, should run
+     * one task at a time
+     * @param maxQueued the number of queued events at which the thread
+     * handling an event delivers the queue itself
+     */
+    public BatchingEventListener(Executor executor, int maxQueued) {
+        if(maxQueued < 1)
+            throw new IllegalArgumentException("max queued: " + maxQueued);
+        this.executor = executor;
+        this.maxQueued = maxQueued;
+    }
+
+    /** Queues the event to be delivered with the next batch. */
+    @Override
+    public void handleEvent(E event) {
+        boolean full;
+        boolean schedule = false;
+        synchronized(this) {
+            queue.add(event);
+            full = queue.size() >= maxQueued;
+            if(!full && !scheduled) {
+                scheduled = true;
+                schedule = true;
+            }
+        }
+        if(full)
+            flush();
+        else if(schedule)
+            executor.execute(flusher);
+    }
+
+    /**
+     * Delivers the queued events on the calling thread, after any batch
+     * that is being delivered.
+     */
+    public void flush() {
+        synchronized(deliveryLock) {
+            List<E> events;
+            synchronized(this) {
+                if(queue.isEmpty())
+                    return;
+                events = queue;
+                queue = new ArrayList<E>();
+            }
+            handleEvents(Collections.unmodifiableList(events));
+        }
+    }
+
+    /** Returns the number of events waiting to be delivered. */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Handles events in the order they were broadcast.  Never called
+     * concurrently.
+     */
+    protected abstract void handleEvents(List<E> events);
+}
@@ -28,6 +28,9 @@ import org.limewire.util.Objects;
  * is called via {@link EventListenerList#dispatch(EventListener, Object, EventListenerListContext)}.  This
  * ensures that the event is dispatched appropriately, according to the 
  * annotation on the delegate listener.
+ * <p>
+ * Listeners that do work for every event can extend {@link BatchingEventListener}
+ * to receive their events in batches on a thread of their own.
  */
 public class EventListenerList<E> implements ListenerSupport<E>, EventBroadcaster<E> {
     
@@ -0,0 +1,104 @@
+package org.limewire.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class BatchingEventListenerTest extends BaseTestCase {
+
+    /** Holds tasks until they are run by the test. */
+    private List<Runnable> tasks;
+
+    private Executor executor;
+
+    private List<List<Integer>> batches;
+
+    public BatchingEventListenerTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(BatchingEventListenerTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        tasks = new ArrayList<Runnable>();
+        batches = new ArrayList<List<Integer>>();
+        executor = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+    }
+
+    public void testEventsAreCoalesced() {
+        EventListenerList<Integer> list = new EventListenerList<Integer>();
+        list.addListener(new RecordingListener(100));
+        for(int i = 0; i < 5; i++)
+            list.broadcast(i);
+        assertTrue(batches.isEmpty());
+        assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+        assertEquals(1, batches.size());
+        assertEquals(range(0, 5), batches.get(0));
+
+        list.broadcast(5);
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(range(5, 6), batches.get(1));
+    }
+
+    public void testFullQueueIsDeliveredByBroadcaster() {
+        RecordingListener listener = new RecordingListener(3);
+        for(int i = 0; i < 7; i++)
+            listener.handleEvent(i);
+        assertEquals(2, batches.size());
+        assertEquals(range(0, 3), batches.get(0));
+        assertEquals(range(3, 6), batches.get(1));
+        assertEquals(1, listener.getQueuedCount());
+
+        for(Runnable task : tasks)
+            task.run();
+        assertEquals(3, batches.size());
+        assertEquals(range(6, 7), batches.get(2));
+    }
+
+    public void testFlush() {
+        RecordingListener listener = new RecordingListener(100);
+        listener.flush();
+        assertTrue(batches.isEmpty());
+        listener.handleEvent(1);
+        listener.handleEvent(2);
+        listener.flush();
+        assertEquals(range(1, 3), batches.get(0));
+
+        // the scheduled delivery finds nothing left
+        tasks.remove(0).run();
+        assertEquals(1, batches.size());
+        assertEquals(0, listener.getQueuedCount());
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<Integer>();
+        for(int i = from; i < to; i++)
+            range.add(i);
+        return range;
+    }
+
+    private class RecordingListener extends BatchingEventListener<Integer> {
+        RecordingListener(int maxQueued) {
+            super(executor, maxQueued);
+        }
+
+        @Override
+        protected void handleEvents(List<Integer> events) {
+            batches.add(new ArrayList<Integer>(events));
+        }
+    }
+}
@@ -168,6 +168,22 @@ public final class ConnectionSettings extends LimeProps {
      */
     public static final BooleanSetting ENCODE_DEFLATE =
         FACTORY.createBooleanSetting("ENCODE_GNUTELLA_DEFLATE", true);
+
+    /**
+     * The deflate level for connections from our leaves.  An ultrapeer has
+     * many of these, so it trades compression for CPU time.
+     */
+    public static final IntSetting LEAF_DEFLATE_LEVEL =
+        FACTORY.createRemoteIntSetting("LEAF_DEFLATE_LEVEL", 3,
+                "ConnectionSettings.leafDeflateLevel", 1, 9);
+
+    /**
+     * The deflate level for connections to ultrapeers, or from other
+     * ultrapeers.
+     */
+    public static final IntSetting ULTRAPEER_DEFLATE_LEVEL =
+        FACTORY.createRemoteIntSetting("ULTRAPEER_DEFLATE_LEVEL", 6,
+                "ConnectionSettings.ultrapeerDeflateLevel", 1, 9);
     
     /**
 	 * The time to live.
@@ -385,5 +401,12 @@ public final class ConnectionSettings extends LimeProps {
      */
     public static final IntSetting STABLE_TOTAL_MESSAGES_THRESHOLD 
         = FACTORY.createIntSetting("STABLE_TOTAL_MESSAGES_THRESHOLD", 45);    
-}
 
+    /**
+     * The number of selectors (each with its own thread) that sockets are
+     * spread across by the NIODispatcher.  1 handles all sockets on the
+     * single dispatch thread.
+     */
+    public static final IntSetting NIO_SELECTOR_THREADS
+        = FACTORY.createIntSetting("NIO_SELECTOR_THREADS", 1);
+}
@@ -105,6 +105,20 @@ public class DownloadSettings extends LimeProps {
                 defaultPreviewableExtensions,
                 "PREVIEWABLE_EXTENSIONS");
     
+    /**
+     * The number of threads downloads are written to disk on.  The chunks
+     * of a file are always written by the same thread, in order.
+     */
+    public static final IntSetting DISK_WRITE_THREADS =
+        FACTORY.createIntSetting("DISK_WRITE_THREADS", 1);
+    
+    /**
+     * The number of threads that verify downloaded data against its
+     * hash tree.  A file is verified by one thread at a time.
+     */
+    public static final IntSetting DISK_VERIFY_THREADS =
+        FACTORY.createIntSetting("DISK_VERIFY_THREADS", 1);
+    
     /** Whether to report disk problems to the bug server */
     public static final ProbabilisticBooleanSetting REPORT_DISK_PROBLEMS =
         FACTORY.createRemoteProbabilisticBooleanSetting("REPORT_HTTP_DISK_PROBLEMS", 0f, 
@@ -83,4 +83,11 @@ public class MessageSettings extends LimeProps {
      */
     public static final IntSetting MAX_BUFFERED_OOB_REPLIES =
         FACTORY.createIntSetting("MAX_BUFFERED_OOB_REPLIES", 250);
+    
+    /**
+     * The number of threads incoming messages are handled on.  Messages
+     * from the same connection or address are always handled in order.
+     */
+    public static final IntSetting MESSAGE_DISPATCH_THREADS =
+        FACTORY.createIntSetting("MESSAGE_DISPATCH_THREADS", 1);
 }
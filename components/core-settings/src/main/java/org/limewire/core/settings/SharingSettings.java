@@ -354,7 +354,21 @@ public class SharingSettings extends LimeProps {
      * Whether to throttle hashing of shared files.
      */
     public static final BooleanSetting FRIENDLY_HASHING =
-        FACTORY.createBooleanSetting("FRIENDLY_HASHING", true);	
+        FACTORY.createBooleanSetting("FRIENDLY_HASHING", true);
+
+    /**
+     * The maximum number of files that are hashed at the same time.
+     */
+    public static final IntSetting HASHING_THREADS =
+        FACTORY.createIntSetting("HASHING_THREADS",
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The maximum number of files on the same disk that are hashed at
+     * the same time.
+     */
+    public static final IntSetting HASHING_THREADS_PER_DISK =
+        FACTORY.createIntSetting("HASHING_THREADS_PER_DISK", 1);
     
     /** 
      * Setting for the threshold of when to warn the user that a lot of 
@@ -435,6 +449,21 @@ public class SharingSettings extends LimeProps {
     public static final BooleanSetting LOAD_PARTIAL_KEYWORDS = 
         FACTORY.createRemoteBooleanSetting("LOAD_PARTIAL_KEYWORDS", true, "SharingSettings.loadPartialKeywords");
     
+    /**
+     * Whether the keywords of shared files are indexed in sorted arrays of
+     * primitives instead of tries of sets, which takes less memory for large
+     * libraries.
+     */
+    public static final BooleanSetting COMPACT_KEYWORD_INDEX = 
+        FACTORY.createBooleanSetting("COMPACT_KEYWORD_INDEX", false);
+    
+    /**
+     * Whether the arrays of the compact keyword index are allocated outside
+     * of the heap.
+     */
+    public static final BooleanSetting DIRECT_KEYWORD_INDEX = 
+        FACTORY.createBooleanSetting("DIRECT_KEYWORD_INDEX", false);
+    
     public static final StringSetting LAST_WARNED_SAVE_DIRECTORY =
         FACTORY.createStringSetting("LAST_WARNED_SAVED_DIRECTORY", "");
     
@@ -109,4 +109,12 @@ public final class UploadSettings extends LimeProps {
     
     public static final BooleanSetting CHECK_DUPES =
         FACTORY.createBooleanSetting("CHECK_DUPE_UPLOADS", true);
+
+    /**
+     * Whether file uploads over plain, unthrottled sockets are transferred
+     * straight from the file channel. Other uploads are then read into direct
+     * instead of heap buffers by the separate disk reader.
+     */
+    public static final BooleanSetting FILE_CHANNEL_UPLOADS =
+        FACTORY.createBooleanSetting("FILE_CHANNEL_UPLOADS", false);
 }
@@ -26,10 +26,13 @@ public interface BTChannelWriter extends ChannelWriter {
 	 * Initializes this writer (optional).
 	 * @param scheduler the <tt>SchedulingThreadPool</tt> to use when performing
 	 * time-related tasks
+	 * @param networkScheduler the <tt>ScheduledExecutorService</tt> running
+	 * tasks on the thread that handles the socket, used to flush delayed data
 	 * @param keepAliveInterval how often to send keepalives if there is no
 	 * other traffic
 	 * @param bwManager controls upload and download rate
 	 */
-	public void init(ScheduledExecutorService scheduler, int keepAliveInterval, BandwidthManager bwManager);
+	public void init(ScheduledExecutorService scheduler, ScheduledExecutorService networkScheduler,
+			int keepAliveInterval, BandwidthManager bwManager);
 
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import org.limewire.nio.channel.ChannelReadObserver;
 import org.limewire.nio.channel.ThrottleReader;
 
 import com.limegroup.bittorrent.disk.TorrentDiskManager;
+import com.limegroup.bittorrent.handshaking.piecestrategy.PieceStrategy;
 import com.limegroup.bittorrent.messages.BTBitField;
 import com.limegroup.bittorrent.messages.BTCancel;
 import com.limegroup.bittorrent.messages.BTChoke;
@@ -77,7 +78,7 @@ PieceSendListener, PieceReadListener {
 	/*
 	 * Reader for the messages
 	 */
-	private final ChannelReadObserver _reader;
+	private ChannelReadObserver _reader;
 
 	/*
 	 * Writer for the messages
@@ -120,7 +121,7 @@ PieceSendListener, PieceReadListener {
 	 * whether we choke them: if we are choking, all requests from the remote
 	 * host will be ignored
 	 */
-	private boolean _isChoked;
+	private volatile boolean _isChoked;
 
 	/**
 	 * whether they choke us: only send requests if they are not choking us
@@ -168,8 +169,14 @@ PieceSendListener, PieceReadListener {
 	/** Listener for events generated by this connection */
 	private BTLinkListener listener;
 	
-	/** executor of network-related tasks */
-	private ScheduledExecutorService invoker;
+	/** 
+	 * executor of network-related tasks, runs them on the thread that
+	 * handles the socket
+	 */
+	private volatile ScheduledExecutorService invoker;
+	
+	/** Picks the pieces to request from the remote host */
+	private PieceStrategy pieceStrategy;
 	
 	/**
 	 * Constructs instance of this.
@@ -195,9 +202,6 @@ PieceSendListener, PieceReadListener {
 		downLong = new SimpleBandwidthTracker(5000);
 		
 		_writer = new BTMessageWriter(this, this);
-		_reader = new BTMessageReader(this, this,
-				NIODispatcher.instance().getScheduledExecutorService(),
-				NIODispatcher.instance().getBufferCache());
 
 	}
 
@@ -205,7 +209,7 @@ PieceSendListener, PieceReadListener {
 	 * Initializes the connection 
 	 */
 	public void init(AbstractNBSocket socket, 
-			BTLinkListener listener, ScheduledExecutorService invoker) {
+			BTLinkListener listener, PieceStrategy pieceStrategy) {
 		// if we were shutdown before initializing, return.
 		if (closing)
 			return;
@@ -219,10 +223,15 @@ PieceSendListener, PieceReadListener {
 		}
 
 		this.listener = listener;
-		this.invoker = invoker;
+		this.pieceStrategy = pieceStrategy;
 		_startTime = System.currentTimeMillis();
 		
-		_writer.init(invoker, CONNECTION_TIMEOUT - 5000, bwManager);
+		// everything that touches the reader or the writer runs on the
+		// thread that handles the socket
+		invoker = NIODispatcher.instance().getScheduledExecutorService(socket.getChannel());
+		_writer.init(invoker, invoker, CONNECTION_TIMEOUT - 5000, bwManager);
+		_reader = new BTMessageReader(this, this, invoker,
+				NIODispatcher.instance().getBufferCache());
 		
 		ThrottleReader readThrottle = new ThrottleReader(
 				bwManager.getReadThrottle());
@@ -365,21 +374,43 @@ PieceSendListener, PieceReadListener {
 	}
 	
 	public void shutdown() {
-		close();
+		execute(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Runs the task on the thread that handles the socket, or right away
+	 * if the connection is not initialized yet.
+	 */
+	private void execute(Runnable task) {
+		ScheduledExecutorService executor = invoker;
+		if (executor == null)
+			task.run();
+		else
+			executor.execute(task);
 	}
 
 	/**
 	 * Chokes the connection
 	 */
 	public void choke() {
-		_requested.clear();
-		if (!_isChoked) {
-			if (LOG.isDebugEnabled())
-				LOG.debug(this+" choking");
-			cancelSlotRequest();
-			_writer.enqueue(BTChoke.createMessage());
-			_isChoked = true;
-		} 
+		// the choker reads the flag right away, the messages follow
+		final boolean wasChoked = _isChoked;
+		_isChoked = true;
+		execute(new Runnable() {
+			public void run() {
+				_requested.clear();
+				if (!wasChoked) {
+					if (LOG.isDebugEnabled())
+						LOG.debug(BTConnection.this+" choking");
+					cancelSlotRequest();
+					_writer.enqueue(BTChoke.createMessage());
+				}
+			}
+		});
 	}
 
 	
@@ -387,13 +418,17 @@ PieceSendListener, PieceReadListener {
 	 * Unchokes the connection
 	 * @param now the unchoking round.
 	 */
-	public void unchoke(int now) {
+	public void unchoke(final int now) {
 		unchokeRound = now;
 		if (_isChoked) {
-			if (LOG.isDebugEnabled())
-				LOG.debug(this +" unchoking, round "+now);
-			_writer.enqueue(BTUnchoke.createMessage());
 			_isChoked = false;
+			execute(new Runnable() {
+				public void run() {
+					if (LOG.isDebugEnabled())
+						LOG.debug(BTConnection.this +" unchoking, round "+now);
+					_writer.enqueue(BTUnchoke.createMessage());
+				}
+			});
 		}
 	}
 	
@@ -441,7 +476,15 @@ PieceSendListener, PieceReadListener {
 	 * 
 	 * @param have the <tt>BTHave</tt> message representing a complete piece.
 	 */
-	public void sendHave(BTHave have) {
+	public void sendHave(final BTHave have) {
+		execute(new Runnable() {
+			public void run() {
+				sendHaveNow(have);
+			}
+		});
+	}
+
+	private void sendHaveNow(BTHave have) {
 		int pieceNum = have.getPieceNum();
 		
 		// As a minor optimization we will not inform the remote host of any
@@ -551,7 +594,7 @@ PieceSendListener, PieceReadListener {
 				_writer.enqueue(new BTPieceMessage(in, data));
 			}
 		};
-		invoker.execute(pieceSender);
+		execute(pieceSender);
 	}
 	
 	/* (non-Javadoc)
@@ -705,7 +748,7 @@ PieceSendListener, PieceReadListener {
 		
 		// get new ranges to request if necessary
 		while (_requesting.size() < MAX_REQUESTS) {
-			BTInterval in = context.getDiskManager().leaseBTInterval(_available, _requesting, null);
+			BTInterval in = context.getDiskManager().leaseBTInterval(_available, _requesting, pieceStrategy);
 			if (in == null)
 				break;
 			_requesting.add(in);
@@ -736,14 +779,19 @@ PieceSendListener, PieceReadListener {
 					"bad bitfield received! " + _endpoint.toString()));
 
 		boolean willBeInteresting = false;
+		BitSet added = new BitSet(numBits);
 		for (int i = 0; i < numBits; i++) {
 			byte mask = (byte) (0x80 >>> (i % 8));
 			if ((mask & field.get(i / 8)) == mask) {
 				if (!willBeInteresting && !context.getDiskManager().hasBlock(i))
 					willBeInteresting = true;
+				if (!_available.get(i))
+					added.set(i);
 				_availableRanges.set(i);
 			}
 		}
+		if (!added.isEmpty())
+			listener.linkHasPieces(this, new BitFieldSet(added, numBits));
 		
 		if (_available.cardinality() == numBits) {
 			_availableRanges = null;
@@ -771,6 +819,7 @@ PieceSendListener, PieceReadListener {
 		
 		TorrentDiskManager v = context.getDiskManager();
 		_availableRanges.set(pieceNum);
+		listener.linkHasPiece(this, pieceNum);
 
 		
 		// tell the remote host we are interested if we don't have that range
@@ -831,7 +880,7 @@ PieceSendListener, PieceReadListener {
 	
 	
 	public void releaseSlot() {
-		invoker.execute(getSlotReleaser());
+		execute(getSlotReleaser());
 	}
 	
 	private Runnable getSlotReleaser() {
@@ -848,7 +897,7 @@ PieceSendListener, PieceReadListener {
 	}
 	
 	public void slotAvailable() {
-		invoker.execute(getSlotNotifier());
+		execute(getSlotNotifier());
 	}
 
 	private Runnable getSlotNotifier() {
@@ -912,7 +961,11 @@ PieceSendListener, PieceReadListener {
 	 * @see com.limegroup.bittorrent.BTLink#suspendTraffic()
 	 */
 	public void suspendTraffic() {
-		sendNotInterested();
+		execute(new Runnable() {
+			public void run() {
+				sendNotInterested();
+			}
+		});
 		choke();
 	}
 
@@ -923,4 +976,11 @@ PieceSendListener, PieceReadListener {
     public boolean hasPiece(int pieceIndex) {
         return _available.get(pieceIndex);
     }
+
+	/* (non-Javadoc)
+	 * @see com.limegroup.bittorrent.BTLink#getAvailablePieces()
+	 */
+	public BitField getAvailablePieces() {
+		return _available;
+	}
 }
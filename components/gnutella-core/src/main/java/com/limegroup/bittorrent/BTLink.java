@@ -1,5 +1,6 @@
 package com.limegroup.bittorrent;
 
+import org.limewire.collection.BitField;
 import org.limewire.nio.observer.IOErrorObserver;
 
 import com.limegroup.bittorrent.messages.BTHave;
@@ -41,6 +42,11 @@ interface BTLink extends Chokable, IOErrorObserver, BandwidthTracker {
 	 */
 	public boolean isInteresting();
 	
+	/**
+	 * @return the pieces the remote host has
+	 */
+	public BitField getAvailablePieces();
+	
 	/**
 	 * sends a <tt>BTHave</tt> message on this link. 
 	 */
@@ -1,5 +1,7 @@
 package com.limegroup.bittorrent;
 
+import org.limewire.collection.BitField;
+
 /**
  * Defines an interface to listen to links between two BitTorrent hosts.
  */
@@ -8,4 +10,6 @@ public interface BTLinkListener {
 	public void countDownloaded(int downloaded);
 	public void linkInterested(BTLink interested);
 	public void linkNotInterested(BTLink notInterested);
+	public void linkHasPieces(BTLink link, BitField pieces);
+	public void linkHasPiece(BTLink link, int piece);
 }
@@ -4,11 +4,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import org.limewire.collection.BitField;
 import org.limewire.collection.NECallable;
 import org.limewire.io.Address;
 import org.limewire.net.address.StrictIpPortSet;
 import org.limewire.nio.observer.Shutdownable;
 
+import com.limegroup.bittorrent.handshaking.piecestrategy.PieceAvailability;
 import com.limegroup.bittorrent.messages.BTHave;
 
 /**
@@ -29,10 +31,16 @@ public class BTLinkManager implements Shutdownable,
 	 */
 	private final Set<TorrentLocation> endpoints; 
 		
+	/**
+	 * How many of the connected peers have each piece.
+	 */
+	private final PieceAvailability availability;
 	
-	BTLinkManager() {
+	
+	BTLinkManager(int numPieces) {
 		_connections = new ArrayList<BTConnection>();
 		endpoints = new StrictIpPortSet<TorrentLocation>();
+		availability = new PieceAvailability(numPieces);
 	}
 	
 	public void shutdown() {
@@ -42,6 +50,7 @@ public class BTLinkManager implements Shutdownable,
 			endpoints.clear();
 			copy = new ArrayList<BTLink>(_connections);
 			_connections.clear();
+			availability.clear();
 		}
 		
 		for (BTLink toClose : copy)
@@ -75,10 +84,34 @@ public class BTLinkManager implements Shutdownable,
 	}
 	
 	public synchronized void removeLink(BTLink link) {
-		_connections.remove(link);
+		if (_connections.remove(link))
+			availability.removePieces(link.getAvailablePieces());
 		endpoints.remove(link.getEndpoint());
 	}
 	
+	/**
+	 * Counts the pieces a connected peer announced in its bitfield.
+	 */
+	public synchronized void piecesAvailable(BTLink link, BitField pieces) {
+		if (_connections.contains(link))
+			availability.addPieces(pieces);
+	}
+	
+	/**
+	 * Counts a piece a connected peer announced in a have message.
+	 */
+	public synchronized void pieceAvailable(BTLink link, int piece) {
+		if (_connections.contains(link))
+			availability.addPiece(piece);
+	}
+	
+	/**
+	 * @return how many of the connected peers have each piece
+	 */
+	public PieceAvailability getPieceAvailability() {
+		return availability;
+	}
+	
 	public void disconnectSeedsChokeRest() {
 		List<BTLink> seeds = new ArrayList<BTLink>(_connections.size());
 		List<BTLink> notSeeds = new ArrayList<BTLink>(_connections.size());
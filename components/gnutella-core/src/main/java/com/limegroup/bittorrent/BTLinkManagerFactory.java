@@ -5,7 +5,7 @@ import com.google.inject.Singleton;
 @Singleton
 public class BTLinkManagerFactory {
     
-    public BTLinkManager getLinkManager() {
-        return new BTLinkManager();
+    public BTLinkManager getLinkManager(int numPieces) {
+        return new BTLinkManager(numPieces);
     }
 }
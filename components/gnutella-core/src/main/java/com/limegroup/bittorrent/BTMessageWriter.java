@@ -97,9 +97,10 @@ public class BTMessageWriter implements BTChannelWriter {
 		myKeepAlive.flip();
 	}
 
-	public void init(ScheduledExecutorService scheduler, int keepAliveInterval, BandwidthManager bwManager) {
+	public void init(ScheduledExecutorService scheduler, ScheduledExecutorService networkScheduler,
+			int keepAliveInterval, BandwidthManager bwManager) {
 		ThrottleWriter throttle = new ThrottleWriter(bwManager.getWriteThrottle());
-		delayer = new DelayedBufferWriter(1400, 3000);
+		delayer = new DelayedBufferWriter(1400, 3000, networkScheduler);
 		_channel = throttle; 
 		delayer.setWriteChannel(throttle);
 		keepAliveSender = new Periodic(new Runnable() {
@@ -3,6 +3,7 @@ package com.limegroup.bittorrent;
 import java.util.concurrent.ScheduledExecutorService;
 
 import com.limegroup.bittorrent.handshaking.BTConnectionFetcher;
+import com.limegroup.bittorrent.handshaking.piecestrategy.PieceStrategy;
 
 /**
  * Defines an interface for keeping track of a single torrent.
@@ -122,6 +123,11 @@ public interface ManagedTorrent extends Torrent, BTLinkListener {
      */
     BTLinkManager getLinkManager();
 
+    /**
+     * Returns the strategy picking which pieces to request from peers.
+     */
+    PieceStrategy getPieceStrategy();
+
     /**
      * Returns the number of peers you are currently uploading to. 
      */
@@ -14,6 +14,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.limewire.collection.BitField;
 import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.concurrent.SyncWrapper;
 import org.limewire.core.settings.BittorrentSettings;
@@ -37,7 +38,11 @@ import com.limegroup.bittorrent.disk.DiskManagerListener;
 import com.limegroup.bittorrent.disk.TorrentDiskManager;
 import com.limegroup.bittorrent.handshaking.BTConnectionFetcher;
 import com.limegroup.bittorrent.handshaking.BTConnectionFetcherFactory;
+import com.limegroup.bittorrent.handshaking.piecestrategy.ChainedPieceStrategy;
 import com.limegroup.bittorrent.handshaking.piecestrategy.LargestGapStartPieceStrategy;
+import com.limegroup.bittorrent.handshaking.piecestrategy.PieceStrategy;
+import com.limegroup.bittorrent.handshaking.piecestrategy.RandomPieceStrategy;
+import com.limegroup.bittorrent.handshaking.piecestrategy.RarestFirstPieceStrategy;
 import com.limegroup.bittorrent.messages.BTHave;
 import com.limegroup.bittorrent.swarm.BTSwarmCoordinator;
 import com.limegroup.bittorrent.swarm.BTSwarmHttpSource;
@@ -115,6 +120,9 @@ public class ManagedTorrentImpl implements ManagedTorrent, DiskManagerListener {
     /** Manager of the BT links of this torrent */
     private final BTLinkManager linkManager;
 
+    /** Picks the pieces to request from our BT links */
+    private final PieceStrategy pieceStrategy;
+
     /** Factory for our chokers */
     private final ChokerFactory chokerFactory;
 
@@ -186,7 +194,9 @@ public class ManagedTorrentImpl implements ManagedTorrent, DiskManagerListener {
         _info = context.getMetaInfo();
         _folder = getContext().getDiskManager();
         _peers = Collections.emptySet();
-        linkManager = linkManagerFactory.getLinkManager();
+        linkManager = linkManagerFactory.getLinkManager(_info.getNumBlocks());
+        pieceStrategy = new ChainedPieceStrategy(new RarestFirstPieceStrategy(_info, linkManager
+                .getPieceAvailability()), new RandomPieceStrategy(_info));
         trackerManager = trackerManagerFactory.getTrackerManager(this);
         this.firstChunkVerifiedEventDispatched = new AtomicBoolean(false);
 
@@ -560,6 +570,28 @@ public class ManagedTorrentImpl implements ManagedTorrent, DiskManagerListener {
             rechoke();
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.limegroup.bittorrent.BTLinkListener#linkHasPieces(com.limegroup.
+     * bittorrent.BTLink, org.limewire.collection.BitField)
+     */
+    public void linkHasPieces(BTLink link, BitField pieces) {
+        linkManager.piecesAvailable(link, pieces);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.limegroup.bittorrent.BTLinkListener#linkHasPiece(com.limegroup.
+     * bittorrent.BTLink, int)
+     */
+    public void linkHasPiece(BTLink link, int piece) {
+        linkManager.pieceAvailable(link, piece);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1228,6 +1260,14 @@ public class ManagedTorrentImpl implements ManagedTorrent, DiskManagerListener {
         return linkManager;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.limegroup.bittorrent.ManagedTorrent#getPieceStrategy()
+     */
+    public PieceStrategy getPieceStrategy() {
+        return pieceStrategy;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.limegroup.bittorrent.ManagedTorrent#getSwarmer()
@@ -538,12 +538,13 @@ class VerifyingFolder implements TorrentDiskManager {
     }
     
     /**
-     * returns a random available range that has preferably not yet been
-     * requested
+     * returns an available range that has preferably not yet been
+     * requested, picked by the piece strategy or at random if there is none
      * 
      * @param bs the BitField of available ranges
      * @param exclude the set of ranges that the connection is already about to
      * request
+     * @param pieceStrategy picks among the unrequested pieces, can be null
      * @return a BTInterval that should be requested next.
      */
     public synchronized BTInterval leaseBTInterval(BitField bs, Set<BTInterval> exclude,
@@ -138,7 +138,7 @@ ChannelWriter, ChannelReadObserver, IpPort {
 				
 				// add the connection and re-schedule fetching.
 				if (torrent.addConnection(btc))
-					btc.init(sock, torrent, torrent.getNetworkScheduledExecutorService());
+					btc.init(sock, torrent, torrent.getPieceStrategy());
 				observer.handshakerDone(this);
 			}
 			else {
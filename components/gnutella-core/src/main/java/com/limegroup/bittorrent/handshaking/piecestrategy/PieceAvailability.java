@@ -0,0 +1,105 @@
+package com.limegroup.bittorrent.handshaking.piecestrategy;
+
+import java.util.Random;
+
+import org.limewire.collection.BitField;
+
+/**
+ * Counts how many of the peers we are connected to have each piece of a
+ * torrent.  The counts are updated as peers send their bitfields and have
+ * messages and as they disconnect, so they never have to be recomputed
+ * from all connections.
+ * <p>
+ * Thread safe.
+ */
+public class PieceAvailability {
+
+    /** The number of connected peers that have each piece. */
+    private final int[] counts;
+
+    /** The number of pieces at least one connected peer has. */
+    private int available;
+
+    public PieceAvailability(int numPieces) {
+        counts = new int[numPieces];
+    }
+
+    /**
+     * Counts the pieces a peer announced.
+     */
+    public synchronized void addPieces(BitField pieces) {
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < counts.length; i = pieces.nextSetBit(i + 1))
+            increment(i);
+    }
+
+    /**
+     * Counts a single piece a peer announced.
+     */
+    public synchronized void addPiece(int piece) {
+        if (piece >= 0 && piece < counts.length)
+            increment(piece);
+    }
+
+    /**
+     * Stops counting the pieces of a peer that disconnected.
+     */
+    public synchronized void removePieces(BitField pieces) {
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < counts.length; i = pieces.nextSetBit(i + 1)) {
+            if (counts[i] > 0 && --counts[i] == 0)
+                available--;
+        }
+    }
+
+    private void increment(int piece) {
+        if (counts[piece]++ == 0)
+            available++;
+    }
+
+    /**
+     * @return the number of connected peers that have the piece
+     */
+    public synchronized int getAvailability(int piece) {
+        return counts[piece];
+    }
+
+    /**
+     * @return true if no connected peer has announced any piece
+     */
+    public synchronized boolean isEmpty() {
+        return available == 0;
+    }
+
+    /**
+     * Returns the rarest of the set pieces of <code>interesting</code>, or
+     * -1 if there are none.  A piece no peer is known to have is not picked.
+     *
+     * @param randomizer picks one of equally rare pieces at random
+     */
+    public synchronized int getRarest(BitField interesting, Random randomizer) {
+        int rarest = -1;
+        int rarestCount = Integer.MAX_VALUE;
+        int seen = 0;
+        for (int i = interesting.nextSetBit(0); i >= 0 && i < counts.length; i = interesting.nextSetBit(i + 1)) {
+            int count = counts[i];
+            if (count == 0 || count > rarestCount)
+                continue;
+            if (count < rarestCount) {
+                rarest = i;
+                rarestCount = count;
+                seen = 1;
+            } else if (randomizer.nextFloat() < 1f / ++seen) {
+                rarest = i;
+            }
+        }
+        return rarest;
+    }
+
+    /**
+     * Resets all counts, when all peers have disconnected.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = 0;
+        available = 0;
+    }
+}
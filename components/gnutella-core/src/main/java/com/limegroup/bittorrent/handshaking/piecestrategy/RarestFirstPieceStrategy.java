@@ -0,0 +1,51 @@
+package com.limegroup.bittorrent.handshaking.piecestrategy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.limewire.collection.AndView;
+import org.limewire.collection.BitField;
+
+import com.limegroup.bittorrent.BTInterval;
+import com.limegroup.bittorrent.BTMetaInfo;
+
+/**
+ * Picks the available piece that the fewest connected peers have, so that
+ * pieces that are about to disappear from the swarm are copied first.  Ties
+ * are broken at random.
+ * <p>
+ * Returns nothing until a peer has announced a piece, so it should be
+ * chained with a strategy that doesn't depend on availability.
+ */
+public class RarestFirstPieceStrategy extends AbstractPieceStrategy {
+
+    private final PieceAvailability availability;
+
+    private final Random randomizer;
+
+    public RarestFirstPieceStrategy(BTMetaInfo btMetaInfo, PieceAvailability availability) {
+        this(btMetaInfo, availability, new Random());
+    }
+
+    public RarestFirstPieceStrategy(BTMetaInfo btMetaInfo, PieceAvailability availability,
+            Random randomizer) {
+        super(btMetaInfo);
+        this.availability = availability;
+        this.randomizer = randomizer;
+    }
+
+    public List<BTInterval> getNextPieces(BitField availableBlocks, BitField neededBlocks) {
+        if (availability.isEmpty())
+            return Collections.emptyList();
+
+        BitField interestingBlocks = new AndView(availableBlocks, neededBlocks);
+        int selected = availability.getRarest(interestingBlocks, randomizer);
+
+        if (selected != -1) {
+            BTInterval piece = getBtMetaInfo().getPiece(selected);
+            return Collections.singletonList(piece);
+        }
+        return Collections.emptyList();
+    }
+}
@@ -109,10 +109,10 @@ public class HTTPAcceptor extends BasicHttpAcceptor {
 
     /**
      * Handles an incoming HTTP push request. This needs to be called from the
-     * NIO thread.
+     * NIO thread of the socket.
      */
     public void acceptConnection(Socket socket, HTTPConnectionData data) {
-        assert NIODispatcher.instance().isDispatchThread();
+        assert NIODispatcher.instance().isDispatchThread(socket.getChannel());
 
         if (getReactor() == null) {
             LOG.warn("Received upload request before reactor was initialized");
@@ -11,12 +11,14 @@ import org.apache.commons.logging.LogFactory;
 import org.limewire.concurrent.ThreadExecutor;
 import org.limewire.core.api.lifecycle.LifeCycleEvent;
 import org.limewire.core.settings.ApplicationSettings;
+import org.limewire.core.settings.ConnectionSettings;
 import org.limewire.inspection.Inspectable;
 import org.limewire.inspection.InspectablePrimitive;
 import org.limewire.inspection.InspectionPoint;
 import org.limewire.lifecycle.ServiceRegistry;
 import org.limewire.listener.EventListener;
 import org.limewire.listener.EventListenerList;
+import org.limewire.nio.NIODispatcher;
 import org.limewire.service.ErrorService;
 import org.limewire.setting.SettingsGroupManager;
 import org.limewire.util.OSUtils;
@@ -266,6 +268,7 @@ public class LifecycleManagerImpl implements LifecycleManager {
 
     /** Runs all tasks that can be done in the background while the gui inits. */
     private void doBackgroundTasks() {
+        NIODispatcher.instance().setSelectorCount(ConnectionSettings.NIO_SELECTOR_THREADS.getValue());
         serviceRegistry.start("SuperEarly");
         serviceRegistry.start("EarlyBackground");
         backgroundDone.set(true);
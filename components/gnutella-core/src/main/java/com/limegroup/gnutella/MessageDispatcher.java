@@ -1,9 +1,22 @@
 package com.limegroup.gnutella;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.core.settings.MessageSettings;
+import org.limewire.inspection.Inspectable;
 import org.limewire.inspection.InspectionPoint;
+import org.limewire.service.ErrorService;
+import org.limewire.statistic.LatencyTimer;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -14,21 +27,47 @@ import com.limegroup.gnutella.util.LimeWireUtils;
 
 /**
  * Dispatches messages to the MessageRouter.
+ * <p>
+ * Messages can be handled by several threads, as set by
+ * {@link MessageSettings#MESSAGE_DISPATCH_THREADS}.  Each connection and
+ * each remote address is assigned to one of the threads, so the messages
+ * of a connection, or from an address, are still handled one at a time and
+ * in the order they arrived.  Runnables dispatched without a connection
+ * are run on the "messageExecutor", which is also the thread for the first
+ * partition.
  */
 @Singleton
 public class MessageDispatcher {
     
     private final Executor DISPATCH;
 
+    /** The partitions messages are spread over; the first uses DISPATCH. */
+    private final Partition[] partitions;
+
     private final MessageRouter messageRouter;
     
     @InspectionPoint("routed messages")
     private final Message.MessageCounter messageCounter = new Message.MessageCounter(LimeWireUtils.isBetaRelease() ? 300 : 30);
     
+    @InspectionPoint("message dispatch stats")
+    private final DispatchStats dispatchStats = new DispatchStats();
+    
+    /** The time to handle a message, across all message types. */
+    @InspectionPoint("message handle times")
+    private final LatencyTimer handleTimer = new LatencyTimer();
+
     @Inject
     public MessageDispatcher(MessageRouter messageRouter, @Named("messageExecutor") Executor dispatch) {
+        this(messageRouter, dispatch, MessageSettings.MESSAGE_DISPATCH_THREADS.getValue());
+    }
+
+    MessageDispatcher(MessageRouter messageRouter, Executor dispatch, int threads) {
         this.messageRouter = messageRouter;
         this.DISPATCH = dispatch;
+        this.partitions = new Partition[Math.max(1, threads)];
+        partitions[0] = new Partition(dispatch);
+        for (int i = 1; i < partitions.length; i++)
+            partitions[i] = new Partition(ExecutorsHelper.newProcessingQueue("Message-Executor-" + i));
     }
     
     /** Dispatches a runnable, to allow arbitrary runnables to be processed on the message thread. */
@@ -36,32 +75,111 @@ public class MessageDispatcher {
         DISPATCH.execute(r);
     }
     
+    /**
+     * Dispatches a runnable to be processed after all messages of the
+     * connection that were dispatched before it.
+     */
+    public void dispatch(RoutedConnection conn, Runnable r) {
+        partitionFor(System.identityHashCode(conn)).executor.execute(r);
+    }
+
     /**
      * Dispatches a UDP message.
      */
     public void dispatchUDP(Message m, InetSocketAddress addr) {
-        DISPATCH.execute(new UDPDispatch(messageRouter, m, addr, messageCounter));
+        partitionFor(addr).execute(new UDPDispatch(messageRouter, m, addr, messageCounter));
+    }
+    
+    /**
+     * Dispatches UDP messages that were read together.  The messages for
+     * each partition are handed to its thread as a single task, in the order
+     * they are listed.
+     * 
+     * @param addrs the addresses the messages came from, by index
+     */
+    public void dispatchUDP(List<? extends Message> messages, List<InetSocketAddress> addrs) {
+        Map<Partition, List<Dispatch>> batches = new HashMap<Partition, List<Dispatch>>();
+        for (int i = 0; i < messages.size(); i++) {
+            InetSocketAddress addr = addrs.get(i);
+            Partition partition = partitionFor(addr);
+            List<Dispatch> batch = batches.get(partition);
+            if (batch == null) {
+                batch = new ArrayList<Dispatch>(messages.size());
+                batches.put(partition, batch);
+            }
+            batch.add(new UDPDispatch(messageRouter, messages.get(i), addr, messageCounter));
+        }
+        for (Map.Entry<Partition, List<Dispatch>> entry : batches.entrySet())
+            entry.getKey().execute(entry.getValue());
     }
     
     /**
      * Dispatches a Multicast message.
      */
     public void dispatchMulticast(Message m, InetSocketAddress addr) {
-        DISPATCH.execute(new MulticastDispatch(messageRouter, m, addr, messageCounter));
+        partitionFor(addr).execute(new MulticastDispatch(messageRouter, m, addr, messageCounter));
     }
     
     /**
      * Dispatches a TCP message.
      */
     public void dispatchTCP(Message m, RoutedConnection conn) {
-        DISPATCH.execute(new TCPDispatch(messageRouter, m, conn, messageCounter));
+        partitionFor(System.identityHashCode(conn)).execute(new TCPDispatch(messageRouter, m, conn, messageCounter));
     }
     
+    /** Returns the partition for messages from the address, ignoring the port. */
+    private Partition partitionFor(InetSocketAddress addr) {
+        return partitionFor(addr.getAddress() != null ? addr.getAddress().hashCode() : addr.hashCode());
+    }
     
-    private static abstract class Dispatch implements Runnable {
+    private Partition partitionFor(int hash) {
+        if (partitions.length == 1)
+            return partitions[0];
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return partitions[(hash & Integer.MAX_VALUE) % partitions.length];
+    }
+
+    /** An executor along with the number of messages waiting for it. */
+    private class Partition {
+        private final Executor executor;
+        private final AtomicInteger queued = new AtomicInteger();
+
+        Partition(Executor executor) {
+            this.executor = executor;
+        }
+
+        void execute(Dispatch dispatch) {
+            dispatch.partition = this;
+            queued.incrementAndGet();
+            executor.execute(dispatch);
+        }
+
+        /** Runs the dispatches one after another, as one task. */
+        void execute(final List<Dispatch> batch) {
+            for (Dispatch dispatch : batch)
+                dispatch.partition = this;
+            queued.addAndGet(batch.size());
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (Dispatch dispatch : batch) {
+                        try {
+                            dispatch.run();
+                        } catch (RuntimeException e) {
+                            ErrorService.error(e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private abstract class Dispatch implements Runnable {
         protected final MessageRouter messageRouter;
         protected final Message m;
         protected final Message.MessageCounter counter;
+        private final long created = System.nanoTime();
+        private Partition partition;
         
         Dispatch(MessageRouter messageRouter, Message m, 
                 Message.MessageCounter counter) {
@@ -71,14 +189,21 @@ public class MessageDispatcher {
         }
         
         public void run() {
+            partition.queued.decrementAndGet();
             counter.countMessage(m);
-            dispatch();
+            long start = System.nanoTime();
+            try {
+                dispatch();
+            } finally {
+                long handled = handleTimer.stop(start);
+                dispatchStats.countMessage(m, start - created, handled);
+            }
         }
         
         protected abstract void dispatch();
     }
     
-    private static class UDPDispatch extends Dispatch {
+    private class UDPDispatch extends Dispatch {
         
         private final InetSocketAddress addr;
 
@@ -96,7 +221,7 @@ public class MessageDispatcher {
         }
     }
     
-    private static class MulticastDispatch extends Dispatch {
+    private class MulticastDispatch extends Dispatch {
         
         private final InetSocketAddress addr;
         
@@ -114,7 +239,7 @@ public class MessageDispatcher {
         }
     }
     
-    private static class TCPDispatch extends Dispatch {
+    private class TCPDispatch extends Dispatch {
         
         private final RoutedConnection conn;
         
@@ -131,4 +256,60 @@ public class MessageDispatcher {
             messageRouter.handleMessage(m, conn);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Keeps track of how long messages of each type wait to be handled
+     * and how long handling them takes, and of the number of messages
+     * waiting in each partition.
+     */
+    private class DispatchStats implements Inspectable {
+        private final ConcurrentMap<Class<? extends Message>, TypeStats> types = new ConcurrentHashMap<Class<? extends Message>, TypeStats>();
+
+        void countMessage(Message m, long waitNanos, long handleNanos) {
+            TypeStats stats = types.get(m.getClass());
+            if (stats == null) {
+                TypeStats existing = types.putIfAbsent(m.getClass(), stats = new TypeStats());
+                if (existing != null)
+                    stats = existing;
+            }
+            stats.count(waitNanos, handleNanos);
+        }
+
+        public Object inspect() {
+            Map<String, Object> ret = new HashMap<String, Object>();
+            List<Integer> queued = new ArrayList<Integer>(partitions.length);
+            for (Partition partition : partitions)
+                queued.add(partition.queued.get());
+            ret.put("queued", queued);
+            for (Map.Entry<Class<? extends Message>, TypeStats> entry : types.entrySet())
+                ret.put(entry.getKey().getSimpleName(), entry.getValue().inspect());
+            return ret;
+        }
+    }
+
+    /** Latencies of one message type, in microseconds when inspected. */
+    private static class TypeStats {
+        private final AtomicLong num = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong handleNanos = new AtomicLong();
+        private final AtomicLong maxHandleNanos = new AtomicLong();
+
+        void count(long wait, long handle) {
+            num.incrementAndGet();
+            waitNanos.addAndGet(wait);
+            handleNanos.addAndGet(handle);
+            long max;
+            while ((max = maxHandleNanos.get()) < handle && !maxHandleNanos.compareAndSet(max, handle));
+        }
+
+        Map<String, Object> inspect() {
+            Map<String, Object> ret = new HashMap<String, Object>();
+            long n = num.get();
+            ret.put("num", n);
+            ret.put("wait", n == 0 ? 0 : waitNanos.get() / n / 1000);
+            ret.put("time", n == 0 ? 0 : handleNanos.get() / n / 1000);
+            ret.put("max", maxHandleNanos.get() / 1000);
+            return ret;
+        }
+    }
+}
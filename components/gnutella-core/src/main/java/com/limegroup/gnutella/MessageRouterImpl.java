@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -112,6 +113,7 @@ import com.limegroup.gnutella.messages.vendor.UDPCrawlerPing;
 import com.limegroup.gnutella.messages.vendor.UpdateRequest;
 import com.limegroup.gnutella.messages.vendor.UpdateResponse;
 import com.limegroup.gnutella.messages.vendor.VendorMessage;
+import com.limegroup.gnutella.routing.LeafRoutingIndex;
 import com.limegroup.gnutella.routing.QRPUpdater;
 import com.limegroup.gnutella.routing.PatchTableMessage;
 import com.limegroup.gnutella.routing.QueryRouteTable;
@@ -241,7 +243,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
      * for this node.  If this node is an Ultrapeer, the routing
      * table will include the tables from its leaves.
      */
-    private QueryRouteTable _lastQueryRouteTable;
+    private volatile QueryRouteTable _lastQueryRouteTable;
 
     /**
      * The maximum number of response to send to a query that has
@@ -262,7 +264,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
     /**
      * The time we last received a request for a query key.
      */
-    private long _lastQueryKeyTime;
+    private volatile long _lastQueryKeyTime;
     
     /** Handlers for TCP messages. */
     private ConcurrentMap<Class<? extends Message>, MessageHandler> messageHandlers =
@@ -298,6 +300,9 @@ public abstract class MessageRouterImpl implements MessageRouter {
     @InspectablePrimitive("leaf connection qrp hits")
     private final InspectionHistogram<Integer> leafQRPHits = new InspectionHistogram<Integer>();
     
+    /** The query route tables of our leaves, for routing queries to all of them at once. */
+    private final LeafRoutingIndex leafRoutingIndex = new LeafRoutingIndex();
+    
     protected final NetworkManager networkManager;
     protected final QueryRequestFactory queryRequestFactory;
     protected final QueryHandlerFactory queryHandlerFactory;
@@ -689,6 +694,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
         _queryRouteTable.removeReplyHandler(rh);
         _pushRouteTable.removeReplyHandler(rh);
         _headPongRouteTable.removeReplyHandler(rh);
+        leafRoutingIndex.remove(rh);
     }
 
 	/* (non-Javadoc)
@@ -1574,9 +1580,17 @@ public abstract class MessageRouterImpl implements MessageRouter {
         //table has been received
         List<RoutedConnection> list = connectionManager.getInitializedClientConnections();
         List<RoutedConnection> hitConnections = new ArrayList<RoutedConnection>();
+        // hash the query once for all leaves whose tables are indexed,
+        // the others are asked one by one
+        LeafRoutingIndex.Match match = leafRoutingIndex.match(query);
         for(RoutedConnection mc : list) {
             if(mc == handler) continue;
-            if(mc.shouldForwardQuery(query)) {
+            boolean hit;
+            if(match != null && match.isIndexed(mc))
+                hit = match.hits(mc);
+            else
+                hit = mc.shouldForwardQuery(query);
+            if(hit) {
                 hitConnections.add(mc);
             }
         }
@@ -2249,6 +2263,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
         // reset the query route table for this connection
         synchronized (mc.getQRPLock()) {
             mc.resetQueryRouteTable(rtm);
+            updateLeafRoutingIndex(mc);
         }
 
         // if this is coming from a leaf, make sure we update
@@ -2277,6 +2292,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
         // patch the query route table for this connection
         synchronized(mc.getQRPLock()) {
             mc.patchQueryRouteTable(ptm);
+            updateLeafRoutingIndex(mc);
         }
 
         // if this is coming from a leaf, make sure we update
@@ -2287,6 +2303,27 @@ public abstract class MessageRouterImpl implements MessageRouter {
         }
     }
 
+    /**
+     * Copies the query route table of the given connection into the index
+     * of leaf tables, if the connection is to a leaf that is still connected.
+     * This must be called holding the connection's QRP lock.
+     */
+    private void updateLeafRoutingIndex(RoutedConnection mc) {
+        if(!mc.isSupernodeClientConnection() || !isConnectedLeaf(mc))
+            return;
+        leafRoutingIndex.update(mc,
+                mc.getRoutedConnectionStatistics().getQueryRouteTableReceived());
+        // the leaf is dropped from the index once it's closed, which may
+        // have happened while it was being added.
+        if(!isConnectedLeaf(mc))
+            leafRoutingIndex.remove(mc);
+    }
+
+    /** Returns true if the leaf is open and one of our leaves. */
+    private boolean isConnectedLeaf(RoutedConnection mc) {
+        return mc.isOpen() && connectionManager.getInitializedClientConnections().contains(mc);
+    }
+
     private void updateMessage(QueryRequest request, ReplyHandler handler) {
         
         if (SearchSettings.SEND_LIME_RESPONSES.getBoolean() &&
@@ -2358,8 +2395,11 @@ public abstract class MessageRouterImpl implements MessageRouter {
 		List<RoutedConnection> list =
             connectionManager.getInitializedConnections();
 		QueryRouteTable table = null;
-		List<RouteTableMessage> patches = null;
-		QueryRouteTable lastSent = null;
+		// The patches from each table sent before to the new table.  Most
+		// connections were sent the same table last time, so this encodes
+		// and compresses the patches once for all of them.
+		Map<QueryRouteTable, List<RouteTableMessage>> patchesBySent =
+		    new IdentityHashMap<QueryRouteTable, List<RouteTableMessage>>();
 		
 		for(RoutedConnection c : list) {
 
@@ -2391,30 +2431,29 @@ public abstract class MessageRouterImpl implements MessageRouter {
 			// Create a new query route table if we need to
 			if (table == null) {
 				table = createRouteTable();     //  Ignores busy leaves
+				// If nothing changed, keep the table the connections were
+				// sent, so their patches are empty and found by identity.
+				if (table.equals(_lastQueryRouteTable))
+				    table = _lastQueryRouteTable;
                 _lastQueryRouteTable = table;
 			} 
 
 			//..and send each piece.
 			
-			// Because we tend to send the same list of patches to lots of
-			// Connections, we can reuse the list of RouteTableMessages
-			// between those connections if their last sent
-			// table is exactly the same.
-			// This allows us to only reduce the amount of times we have
-			// to call encode.
-			
-			//  (This if works for 'null' sent tables too)
-			if( lastSent == c.getRoutedConnectionStatistics().getQueryRouteTableSent() ) {
-			    // if we have not constructed the patches yet, then do so.
-			    if( patches == null )
+			// RouteTableMessages are immutable, so the same patches are
+			// sent to every connection that was sent the same table.
+			//  (This works for 'null' sent tables too)
+			QueryRouteTable lastSent = c.getRoutedConnectionStatistics().getQueryRouteTableSent();
+			List<RouteTableMessage> patches;
+			if (lastSent == table) {
+			    patches = Collections.emptyList();
+			} else {
+			    patches = patchesBySent.get(lastSent);
+			    if (patches == null) {
 			        patches = table.encode(lastSent, true);
+			        patchesBySent.put(lastSent, patches);
+			    }
 			}
-			// If they aren't the same, we have to encode a new set of
-			// patches for this connection.
-			else {
-			    lastSent = c.getRoutedConnectionStatistics().getQueryRouteTableSent();
-			    patches = table.encode(lastSent, true);
-            }
             
             // If sending QRP tables is turned off, don't send them.  
             if(!ConnectionSettings.SEND_QRP.getValue()) {
@@ -26,6 +26,7 @@ import org.limewire.io.IpPort;
 import org.limewire.io.IpPortSet;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.io.NetworkUtils;
+import org.limewire.io.ReadableGGEP;
 import org.limewire.service.ErrorService;
 import org.limewire.util.ByteUtils;
 import org.limewire.util.NameValue;
@@ -483,7 +484,7 @@ public class ResponseFactoryImpl implements ResponseFactory {
      * 
      * Default access for testing.
      */
-    GGEPContainer getGGEP(GGEP ggep, long size) {
+    GGEPContainer getGGEP(ReadableGGEP ggep, long size) {
         if (ggep == null)
             return GGEPContainer.EMPTY;
 
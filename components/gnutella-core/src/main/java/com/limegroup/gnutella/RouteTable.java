@@ -7,12 +7,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.limewire.collection.MultiIterable;
 import org.limewire.core.settings.MessageSettings;
 import org.limewire.inspection.Inspectable;
 import org.limewire.io.GUID;
 import org.limewire.util.Base32;
+import org.limewire.util.ByteUtils;
 
 import com.limegroup.gnutella.messages.QueryReply;
 import com.limegroup.gnutella.messages.Message.Network;
@@ -41,51 +46,84 @@ public final class RouteTable implements Inspectable {
      * the entire table to clean all references (which wastes time AND removes
      * valuable information for preventing duplicate queries).
      *
-     * Instead we use a layer of indirection.  _newMap/_oldMap maps GUIDs to
-     * integers, which act as IDs for each connection.  _idMap maps IDs to
-     * ReplyHandlers.  _handlerMap maps ReplyHandler to IDs.  So to clean up a
-     * connection, we just purge the entries from _handlerMap and _idMap; there
-     * is no need to iterate through the entire GUID mapping.  Adding GUIDs and
-     * routing replies are still constant-time operations.
-     *
-     * IDs are allocated sequentially according with the nextID variable.  The
-     * field does "wrap around" after reaching the maximum integer value.
-     * Though no two open connections will have the same ID--we check
-     * _idMap--there is a very low probability that an ID in _map could be
-     * prematurely reused.
+     * Instead we use a layer of indirection.  _newMap/_oldMap map GUIDs to
+     * entries, which refer to the connection through a HandlerRef.
+     * _handlerMap maps ReplyHandlers to their HandlerRef.  So to clean up a
+     * connection, we just clear the handler of its HandlerRef and purge it
+     * from _handlerMap; there is no need to iterate through the entire GUID
+     * mapping.  Adding GUIDs and routing replies are still constant-time
+     * operations.
      *
      * To approximate FIFO behavior, we keep two sets around, _newMap and
      * _oldMap.  Every few seconds, when the system time is greater than
-     * nextSwitch, we clear _oldMap and replace it with _newMap.
+     * nextSwitch, we drop _oldMap and replace it with _newMap.
      * (DuplicateFilter uses the same trick.)  In this way, we remember the last
      * N to 2N minutes worth of GUIDs.  This is superior to a fixed size route
-     * table.
+     * table.  Both maps are held by a single Generations object, so they are
+     * always swapped together.
      *
      * For flow-control reasons, we also store the number of bytes routed per
      * GUID in each table.  Hence the RouteTableEntry class.
      *
-     * INVARIANT: keys of _newMap and _oldMap are disjoint
-     * INVARIANT: _idMap and _replyMap are inverses
+     * Every routed query and reply passes through here, so the table must not
+     * be a point of contention.  The GUID maps are open-addressed hash tables
+     * keyed on the 16 GUID bytes, held as two longs, and split into STRIPES
+     * segments.  Lookups neither lock nor allocate: a slot's key is written
+     * before its value is published with a volatile write, and a reader only
+     * compares the key of a slot after reading a non-null value.  Changes
+     * lock the stripe of the GUID, which is the same in both generations, so
+     * an entry can be moved from _oldMap to _newMap atomically.  Swapping
+     * the generations locks all stripes.  The counters of an entry are
+     * guarded by the entry itself.
      *
-     * TODO3: if IDs were stored in each ReplyHandler, we would not need
-     *  _replyMap.  Better yet, if the values of _map were indices (with tags)
-     *  into ConnectionManager._initialized[Client]Connections, we would not
-     *  need _idMap either.  However, this increases dependencies.  
+     * INVARIANT: keys of _newMap and _oldMap are disjoint, except while
+     *  an entry is being moved from _oldMap to _newMap under its stripe lock
      */
-    private Map<byte[], RouteTableEntry> _newMap = new ExperimentalGUIDMap();
-    private Map<byte[], RouteTableEntry> _oldMap= new ExperimentalGUIDMap();
-    private int _mseconds;
-    private long _nextSwitchTime;
-    private int _maxSize;
-
-    private Map<Integer, ReplyHandler> _idMap  = new HashMap<Integer, ReplyHandler>();
-    private Map<ReplyHandler, Integer> _handlerMap = new HashMap<ReplyHandler, Integer>();
-    private int _nextID;
+    private volatile Generations _maps = new Generations(new GUIDMap(), new GUIDMap());
+    private final ReentrantLock[] _locks = new ReentrantLock[STRIPES];
+    private final int _mseconds;
+    private volatile long _nextSwitchTime;
+    private final int _maxSize;
+
+    private final ConcurrentMap<ReplyHandler, HandlerRef> _handlerMap =
+        new ConcurrentHashMap<ReplyHandler, HandlerRef>();
+    private final AtomicInteger _nextID = new AtomicInteger();
     
-    /** Values stored in _newMap/_oldMap. */
+    /** The number of lock stripes of the GUID maps, a power of two. */
+    private static final int STRIPES = 16;
+
+    /** The shift that turns a hash into a stripe. */
+    private static final int STRIPE_SHIFT = 32 - Integer.numberOfTrailingZeros(STRIPES);
+
+    /** The initial number of slots in each segment of a GUID map. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Masks that zero the OOB-mutated bytes 0-3 and 13-14 of a GUID. */
+    private static final long HIGH_OOB_MASK = 0x00000000FFFFFFFFL;
+    private static final long LOW_OOB_MASK = 0xFFFFFFFFFF0000FFL;
+
+    /** Marks a slot in a GUID map whose entry has been removed. */
+    private static final RouteTableEntry REMOVED = new RouteTableEntry(null);
+
+    /** 
+     * The reply handler of a connection, cleared when the connection
+     * is removed.
+     */
+    private static final class HandlerRef {
+        /** The numeric ID of the connection, for inspection. */
+        private final int id;
+        private volatile ReplyHandler handler;
+
+        HandlerRef(int id, ReplyHandler handler) {
+            this.id = id;
+            this.handler = handler;
+        }
+    }
+    
+    /** Values stored in _newMap/_oldMap.  LOCKING: obtain this. */
     private static final class RouteTableEntry implements ResultCounter {
-        /** The numericID of the reply connection. */
-        private int handlerID;
+        /** The reply connection. */
+        private volatile HandlerRef handler;
         /** The bytes already routed for this GUID. */
         private int bytesRouted;
         /** The number of replies already routed for this GUID. */
@@ -111,32 +149,37 @@ public final class RouteTable implements Inspectable {
         /** The ttls of the replies */
         private final int[] ttls = new int[5];
         
-        /** Creates a new entry for the given ID, with zero bytes routed. */
-        RouteTableEntry(int handlerID) {
-            this.handlerID = handlerID;
+        /** Creates a new entry for the given handler, with zero bytes routed. */
+        RouteTableEntry(HandlerRef handler) {
+            this.handler = handler;
             this.bytesRouted = 0;
 			this.repliesRouted = 0;
             this.repliesNotCounted = 0;
         }
 		
-        public void setTTL(byte ttl) { this.ttl = ttl; }
-        public byte getTTL() { return ttl; }
+        public synchronized void setTTL(byte ttl) { this.ttl = ttl; }
+        public synchronized byte getTTL() { return ttl; }
 
 		/** Accessor for the number of results for this entry. */
-        public int getNumResults() {
+        public synchronized int getNumResults() {
             return Math.max(0, repliesRouted - partialRepliesRouted);
         }
         
+        /** Returns the reply handler, or null if it was removed. */
+        ReplyHandler getReplyHandler() {
+            return handler.handler;
+        }
+        
         void updateClassCNetworks(int classCNetwork, int numReplies) {
             classCnetworks.add(classCNetwork, numReplies);
         }
         
-        void timeStampResults(int count) {
+        synchronized void timeStampResults(int count) {
             resultTimeStamps.add((double)(System.currentTimeMillis() - creationTime));
             resultCounts.add((double)count);
         }
         
-        void countHopsTTLNet(Network network, byte hop, byte ttl) {
+        synchronized void countHopsTTLNet(Network network, byte hop, byte ttl) {
             networks[Math.max(0,Math.min(network.ordinal(),networks.length - 1))]++;
             hops[Math.min(hops.length - 1, Math.max(0,hop-1))]++;
             ttls[Math.min(ttls.length - 1, Math.max(0,ttl-1))]++;
@@ -156,6 +199,8 @@ public final class RouteTable implements Inspectable {
         this._mseconds=seconds*1000;
         this._nextSwitchTime=System.currentTimeMillis()+_mseconds;
         this._maxSize=maxSize;
+        for (int i = 0; i < _locks.length; i++)
+            _locks[i] = new ReentrantLock();
     }
 
     /**
@@ -170,9 +215,8 @@ public final class RouteTable implements Inspectable {
 	 * @return the <tt>RouteTableEntry</tt> entered into the routing 
 	 *  tables, or <tt>null</tt> if it could not be entered
      */
-    public synchronized ResultCounter routeReply(byte[] guid,
+    public ResultCounter routeReply(byte[] guid,
 												 ReplyHandler replyHandler) {
-        repOk();
         purge();
 		if(replyHandler == null) {
 			throw new NullPointerException("null reply handler");
@@ -181,22 +225,38 @@ public final class RouteTable implements Inspectable {
         if (! replyHandler.isOpen())
             return null;
 
-        //First clear out any old entries for the guid, memorizing the volume
-        //routed if found.  Note that if the guid is found in _newMap, we don't
-        //need to look in _oldMap.
-        int id=handler2id(replyHandler).intValue();
-        RouteTableEntry entry = _newMap.remove(guid);
-        if (entry==null)
-            entry = _oldMap.remove(guid);
-
-        //Now map the guid to the new reply handler, using the volume routed if
-        //found, or zero otherwise.
-        if (entry==null)
-            entry=new RouteTableEntry(id);
-        else
-            entry.handlerID=id;            //avoids allocation
-        _newMap.put(guid, entry);
-		return entry;
+        HandlerRef handler=handler2ref(replyHandler);
+        boolean zero = MessageSettings.GUID_ZERO_EXPERIMENT.getValue();
+        long high = high(guid, zero);
+        long low = low(guid, zero);
+        int hash = hash(high, low);
+        ReentrantLock lock = _locks[hash >>> STRIPE_SHIFT];
+        lock.lock();
+        try {
+            //Reuse the entry for the guid if found, memorizing the volume
+            //routed.  An entry found in _oldMap is added to _newMap before
+            //it is removed from _oldMap, so lookups always find it.
+            Generations maps = _maps;
+            RouteTableEntry entry = maps.newMap.get(high, low, hash);
+            boolean old = false;
+            if (entry==null) {
+                entry = maps.oldMap.get(high, low, hash);
+                old = entry != null;
+            }
+            if (entry==null) {
+                entry=new RouteTableEntry(handler);
+                maps.newMap.put(high, low, hash, entry);
+            } else {
+                entry.handler=handler;            //avoids allocation
+                if (old) {
+                    maps.newMap.put(high, low, hash, entry);
+                    maps.oldMap.remove(high, low, hash);
+                }
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -209,9 +269,8 @@ public final class RouteTable implements Inspectable {
      *  replyHandler is still open, adds the routing entry to this
      *  and returns true.  Otherwise returns false, without modifying this.
      */
-    public synchronized ResultCounter tryToRouteReply(byte[] guid,
+    public ResultCounter tryToRouteReply(byte[] guid,
 													  ReplyHandler replyHandler) {
-        repOk();
         purge();
         assert replyHandler != null;
         assert guid!=null : "Null GUID in tryToRouteReply";
@@ -219,14 +278,29 @@ public final class RouteTable implements Inspectable {
         if (! replyHandler.isOpen())
             return null;
 
-        if(!_newMap.containsKey(guid) && !_oldMap.containsKey(guid)) {
-            int id=handler2id(replyHandler).intValue();
-			RouteTableEntry entry = new RouteTableEntry(id);
-			_newMap.put(guid, entry);
-            //_newMap.put(guid, new RouteTableEntry(id));
-            return entry;
-        } else {
+        boolean zero = MessageSettings.GUID_ZERO_EXPERIMENT.getValue();
+        long high = high(guid, zero);
+        long low = low(guid, zero);
+        int hash = hash(high, low);
+        //Most duplicates are turned away here, without locking.
+        if (find(high, low, hash) != null)
             return null;
+
+        HandlerRef handler=handler2ref(replyHandler);
+        ReentrantLock lock = _locks[hash >>> STRIPE_SHIFT];
+        lock.lock();
+        try {
+            Generations maps = _maps;
+            if(maps.newMap.get(high, low, hash) == null
+                    && maps.oldMap.get(high, low, hash) == null) {
+                RouteTableEntry entry = new RouteTableEntry(handler);
+                maps.newMap.put(high, low, hash, entry);
+                return entry;
+            } else {
+                return null;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -237,7 +311,7 @@ public final class RouteTable implements Inspectable {
      *  @exception IllegalArgumentException thrown if !(ttl > 0), or if entry is
      *  null or is not something I recognize.  So only put in what I dole out.
      */
-    public synchronized void setTTL(ResultCounter entry, byte ttl) {
+    public void setTTL(ResultCounter entry, byte ttl) {
         if (entry == null)
             throw new IllegalArgumentException("Null entry!!");
         if (!(entry instanceof RouteTableEntry))
@@ -256,19 +330,20 @@ public final class RouteTable implements Inspectable {
      *  @throws IllegalArgumentException if getTTL or setTTL is less than 1, or
      *  if setTTL < getTTL
      */
-    public synchronized boolean getAndSetTTL(byte[] guid, byte getTTL, 
+    public boolean getAndSetTTL(byte[] guid, byte getTTL, 
                                              byte setTTL) {
         if ((getTTL < 1) || (setTTL <= getTTL))
             throw new IllegalArgumentException("Bad ttl input (get/set): " +
                                                getTTL + "/" + setTTL);
 
-        RouteTableEntry entry = _newMap.get(guid);
-        if (entry==null)
-            entry = _oldMap.get(guid);
-        
-        if ((entry != null) && (entry.getTTL() == getTTL)) {
-                entry.setTTL(setTTL);
-                return true;
+        RouteTableEntry entry = find(guid);
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.getTTL() == getTTL) {
+                    entry.setTTL(setTTL);
+                    return true;
+                }
+            }
         }
         return false;
     }
@@ -282,20 +357,15 @@ public final class RouteTable implements Inspectable {
      *  Returns null if no mapping for guid, or guid maps to null (i.e., 
      *  to a removed ReplyHandler.
      */
-    public synchronized ReplyHandler getReplyHandler(byte[] guid) {        
+    public ReplyHandler getReplyHandler(byte[] guid) {        
         //no purge
-        repOk();
-
-        //Look up guid in _newMap. If not there, check _oldMap. 
-        RouteTableEntry entry = _newMap.get(guid);
-        if (entry==null)
-            entry = _oldMap.get(guid);
+        RouteTableEntry entry = find(guid);
 
-        //Note that id2handler may return null.
-        return (entry==null) ? null : id2handler(new Integer(entry.handlerID));
+        //Note that the handler may have been removed.
+        return (entry==null) ? null : entry.getReplyHandler();
     }
 
-    public synchronized ReplyRoutePair getReplyHandler(byte[] guid, 
+    public ReplyRoutePair getReplyHandler(byte[] guid, 
             int replyBytes, short numReplies, short partialReplies) {
         return getReplyHandler(guid, replyBytes, numReplies, partialReplies, 0, true);
     }
@@ -315,57 +385,50 @@ public final class RouteTable implements Inspectable {
      *  messages already routed for that guid.  Afterwards, increments the reply
      *  count by replyBytes.
      */
-    public synchronized ReplyRoutePair getReplyHandler(byte[] guid, 
+    public ReplyRoutePair getReplyHandler(byte[] guid, 
                                                        int replyBytes,
 													   short numReplies,
 													   short partialReplies,
                                                        int classCNetwork,
                                                        boolean count) {
         //no purge
-        repOk();
-
-        //Look up guid in _newMap. If not there, check _oldMap. 
-        RouteTableEntry entry = _newMap.get(guid);
-        if (entry==null)
-            entry = _oldMap.get(guid);
+        RouteTableEntry entry = find(guid);
         
         //If no mapping for guid, or guid maps to a removed reply handler,
         //return null.
         if (entry==null)
             return null;
-        ReplyHandler handler=id2handler(new Integer(entry.handlerID));
+        ReplyHandler handler=entry.getReplyHandler();
         if (handler==null)
             return null;
             
         //Increment count, returning old count in tuple.
-        ReplyRoutePair ret = 
-            new ReplyRoutePair(handler, entry.bytesRouted, entry.repliesRouted);
-        if(count) {
-            entry.bytesRouted += replyBytes;
-            entry.repliesRouted += numReplies;
-            entry.partialRepliesRouted += partialReplies;
-        } else {
-            entry.repliesNotCounted += numReplies;
+        synchronized (entry) {
+            ReplyRoutePair ret = 
+                new ReplyRoutePair(handler, entry.bytesRouted, entry.repliesRouted);
+            if(count) {
+                entry.bytesRouted += replyBytes;
+                entry.repliesRouted += numReplies;
+                entry.partialRepliesRouted += partialReplies;
+            } else {
+                entry.repliesNotCounted += numReplies;
+            }
+            if (classCNetwork != 0)
+                entry.updateClassCNetworks(classCNetwork, numReplies);
+            return ret;
         }
-        if (classCNetwork != 0)
-            entry.updateClassCNetworks(classCNetwork, numReplies);
-        return ret;
     }
     
     /** Remembers that the specified number of results came now */
-    public synchronized void timeStampResults(QueryReply reply) {
-        RouteTableEntry entry = _newMap.get(reply.getGUID());
-        if (entry==null)
-            entry = _oldMap.get(reply.getGUID());
+    public void timeStampResults(QueryReply reply) {
+        RouteTableEntry entry = find(reply.getGUID());
         if (entry==null)
             return;
         entry.timeStampResults(reply.getUniqueResultCount());
     }
     
-    public synchronized void countHopsTTLNet(QueryReply reply) {
-        RouteTableEntry entry = _newMap.get(reply.getGUID());
-        if (entry==null)
-            entry = _oldMap.get(reply.getGUID());
+    public void countHopsTTLNet(QueryReply reply) {
+        RouteTableEntry entry = find(reply.getGUID());
         if (entry==null)
             return;
         entry.countHopsTTLNet(reply.getNetwork(), reply.getHops(), reply.getTTL());
@@ -406,54 +469,61 @@ public final class RouteTable implements Inspectable {
      *  rh2.equals(replyHandler) with entries [guid, null].  This operation
      *  runs in constant time. [sic]
      */
-    public synchronized void removeReplyHandler(ReplyHandler replyHandler) {        
+    public void removeReplyHandler(ReplyHandler replyHandler) {        
         //no purge
-        repOk();
         //The aggressive asserts below are to make sure bug X75 has been fixed.
         assert replyHandler!=null : "Null replyHandler in removeReplyHandler";
 
-        //Note that _map is not modified.  See overview of class for rationale.
-        //Also, handler2id may actually allocate a new ID for replyHandler, when
-        //killing a connection for which we've routed no replies.  That's ok;
-        //we'll just clean up the new ID immediately.
-        Integer id=handler2id(replyHandler);
-        _idMap.remove(id);
-        _handlerMap.remove(replyHandler);
+        //Note that the GUID maps are not modified.  See overview of class for
+        //rationale.
+        HandlerRef ref = _handlerMap.remove(replyHandler);
+        if (ref != null)
+            ref.handler = null;
     }
 
     /** 
-     * @modifies nextID, _handlerMap, _idMap
-     * @effects returns a unique ID for the given handler, updating
-     *  _handlerMap and _idMap if handler has not been encountered before.
-     *  With very low probability, the returned id may be a value _map.
+     * @modifies _nextID, _handlerMap
+     * @effects returns the HandlerRef for the given handler, adding one to
+     *  _handlerMap if handler has not been encountered before.
      */
-    private Integer handler2id(ReplyHandler handler) {
-        //Have we encountered this handler recently?  If so, return the id.
-        Integer id = _handlerMap.get(handler);
-        if (id!=null)
-            return id;
+    private HandlerRef handler2ref(ReplyHandler handler) {
+        //Have we encountered this handler recently?  If so, return the ref.
+        HandlerRef ref = _handlerMap.get(handler);
+        if (ref!=null)
+            return ref;
     
-        //Otherwise return the next free id, searching in extremely rare cases
-        //if needed.  Note that his enters an infinite loop if all 2^32 IDs are
-        //taken up.  BFD.
-        while (true) {
-            //don't worry about overflow; Java wraps around TODO1?
-            id=new Integer(_nextID++);
-            if (_idMap.get(id)==null)
-                break;            
-        }
+        //don't worry about overflow; the id is only informational.
+        ref = new HandlerRef(_nextID.getAndIncrement(), handler);
+        HandlerRef existing = _handlerMap.putIfAbsent(handler, ref);
+        if (existing != null)
+            return existing;
     
-        _handlerMap.put(handler, id);
-        _idMap.put(id, handler);
-        return id;
+        //The handler may have been closed and removed while we added it,
+        //in which case nobody would remove it again.
+        if (!handler.isOpen())
+            removeReplyHandler(handler);
+        return ref;
     }
 
     /**
-     * Returns the ReplyHandler associated with the following ID, or
-     * null if none.
+     * Returns the entry for the guid, or null if none.  Does not lock or
+     * allocate.
      */
-    private ReplyHandler id2handler(Integer id) {
-        return _idMap.get(id);
+    private RouteTableEntry find(byte[] guid) {
+        boolean zero = MessageSettings.GUID_ZERO_EXPERIMENT.getValue();
+        long high = high(guid, zero);
+        long low = low(guid, zero);
+        return find(high, low, hash(high, low));
+    }
+
+    private RouteTableEntry find(long high, long low, int hash) {
+        //Look up guid in _oldMap first.  Entries moving to _newMap are
+        //added there before they are removed from _oldMap.
+        Generations maps = _maps;
+        RouteTableEntry entry = maps.oldMap.get(high, low, hash);
+        if (entry==null)
+            entry = maps.newMap.get(high, low, hash);
+        return entry;
     }
 
     /**
@@ -461,33 +531,42 @@ public final class RouteTable implements Inspectable {
      *
      * @modifies _nextSwitchTime, _newMap, _oldMap
      * @effects if the system time is less than _nextSwitchTime, returns
-     *  false.  Otherwise, clears _oldMap and swaps _oldMap and _newMap,
-     *  updates _nextSwitchTime, and returns true.
+     *  false.  Otherwise, drops _oldMap, replaces it with _newMap and
+     *  starts a new _newMap, updates _nextSwitchTime, and returns true.
      */
     private final boolean purge() {
         long now=System.currentTimeMillis();
-        if (now<_nextSwitchTime && _newMap.size()<_maxSize) 
+        if (!needsPurge(now)) 
             //not enough time has elapsed and sets too small
             return false;
 
-        //System.out.println(now+" "+this.hashCode()+" purging "
-        //                   +_oldMap.size()+" old, "
-        //                   +_newMap.size()+" new");
-        _oldMap.clear();
-        Map<byte[], RouteTableEntry> tmp=_oldMap;
-        _oldMap=_newMap;
-        _newMap=tmp;
-        _nextSwitchTime=now+_mseconds;
-        return true;
+        for (ReentrantLock lock : _locks)
+            lock.lock();
+        try {
+            //someone else may have purged while we were waiting
+            if (!needsPurge(now))
+                return false;
+            _maps = new Generations(new GUIDMap(), _maps.newMap);
+            _nextSwitchTime=now+_mseconds;
+            return true;
+        } finally {
+            for (ReentrantLock lock : _locks)
+                lock.unlock();
+        }
+    }
+
+    private boolean needsPurge(long now) {
+        return now>=_nextSwitchTime || _maps.newMap.size()>=_maxSize;
     }
 
     @Override
-    public synchronized String toString() {
+    public String toString() {
         //Inefficient, but this is only for debugging anyway.
         StringBuilder buf=new StringBuilder("{");
         Map<byte[], RouteTableEntry> bothMaps=new TreeMap<byte[], RouteTableEntry>(new GUID.GUIDByteComparator());
-        bothMaps.putAll(_oldMap);
-        bothMaps.putAll(_newMap);
+        Generations maps = _maps;
+        maps.oldMap.copyInto(bothMaps);
+        maps.newMap.copyInto(bothMaps);
 
         
         Iterator<byte[]> iter=bothMaps.keySet().iterator();
@@ -495,8 +574,7 @@ public final class RouteTable implements Inspectable {
             byte[] key = iter.next();
             buf.append(new GUID(key)); // GUID
             buf.append("->");
-            int id= bothMaps.get(key).handlerID;
-            ReplyHandler handler=id2handler(new Integer(id));
+            ReplyHandler handler=bothMaps.get(key).getReplyHandler();
             buf.append(handler==null ? "null" : handler.toString());//connection
             if (iter.hasNext())
                 buf.append(", ");
@@ -505,93 +583,210 @@ public final class RouteTable implements Inspectable {
         return buf.toString();
     }
 
-//    private static boolean warned=false;
-    /** Tests internal consistency.  VERY slow. */
-    private final void repOk() {
-        /*
-        if (!warned) {
-            System.err.println(
-                "WARNING: RouteTable.repOk enabled.  Expect performance problems!");
-            warned=true;
+    /** For testing, returns the number of entries in _newMap. */
+    int getNewEntryCount() {
+        return _maps.newMap.size();
+    }
+
+    /** For testing, returns the number of entries in _oldMap. */
+    int getOldEntryCount() {
+        return _maps.oldMap.size();
+    }
+    
+    /** For testing, returns the number of known reply handlers. */
+    int getReplyHandlerCount() {
+        return _handlerMap.size();
+    }
+    
+    /**
+     * Returns the first 8 bytes of the guid as a key, with the oob-affected
+     * bytes zeroed if the zero guid experiment is enabled.
+     */
+    private static long high(byte[] guid, boolean zeroOOBBytes) {
+        long high = ByteUtils.beb2long(guid, 0, 8);
+        return zeroOOBBytes ? high & HIGH_OOB_MASK : high;
+    }
+
+    /**
+     * Returns the last 8 bytes of the guid as a key, with the oob-affected
+     * bytes zeroed if the zero guid experiment is enabled.
+     */
+    private static long low(byte[] guid, boolean zeroOOBBytes) {
+        long low = ByteUtils.beb2long(guid, 8, 8);
+        return zeroOOBBytes ? low & LOW_OOB_MASK : low;
+    }
+
+    private static int hash(long high, long low) {
+        long h = (high ^ (low * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Both generations of GUID mappings, replaced together when purging. */
+    private static final class Generations {
+        private final GUIDMap newMap;
+        private final GUIDMap oldMap;
+
+        Generations(GUIDMap newMap, GUIDMap oldMap) {
+            this.newMap = newMap;
+            this.oldMap = oldMap;
         }
+    }
+
+    /**
+     * A map from GUIDs to entries, split into one segment per stripe.
+     * Lookups may happen at any time; changes require the lock of the
+     * stripe of the GUID.
+     */
+    private static final class GUIDMap {
+        private final Segment[] segments = new Segment[STRIPES];
 
-        //Check that _idMap is inverse of _handlerMap...
-        for (Iterator iter=_idMap.keySet().iterator(); iter.hasNext(); ) {
-            Integer key=(Integer)iter.next();
-            ReplyHandler value=(ReplyHandler)_idMap.get(key);
-            Assert.that(_handlerMap.get(value)==key);
+        GUIDMap() {
+            for (int i = 0; i < segments.length; i++)
+                segments[i] = new Segment();
         }
-        //..and vice versa
-        for (Iterator iter=_handlerMap.keySet().iterator(); iter.hasNext(); ) {
-            ReplyHandler key=(ReplyHandler)iter.next();
-            Integer value=(Integer)_handlerMap.get(key);
-            Assert.that(_idMap.get(value)==key);
+
+        RouteTableEntry get(long high, long low, int hash) {
+            return segments[hash >>> STRIPE_SHIFT].get(high, low, hash);
         }
-        
-        //Check that keys of _newMap aren't in _oldMap, values are RouteTableEntry
-        for (Iterator iter=_newMap.keySet().iterator(); iter.hasNext(); ) {
-            byte[] guid=(byte[])iter.next();
-            Assert.that(! _oldMap.containsKey(guid));
-            Assert.that(_newMap.get(guid) instanceof RouteTableEntry);
+
+        void put(long high, long low, int hash, RouteTableEntry entry) {
+            segments[hash >>> STRIPE_SHIFT].put(high, low, hash, entry);
         }
-        
-        //Check that keys of _oldMap aren't in _newMap
-        for (Iterator iter=_oldMap.keySet().iterator(); iter.hasNext(); ) {
-            byte[] guid=(byte[])iter.next();
-            Assert.that(! _newMap.containsKey(guid));
-            Assert.that(_oldMap.get(guid) instanceof RouteTableEntry);
+
+        RouteTableEntry remove(long high, long low, int hash) {
+            return segments[hash >>> STRIPE_SHIFT].remove(high, low, hash);
         }
-        */
-    }
 
-    
-    /**
-     * @param guid a guid of a message we wish to route
-     * @return the same guid if the zero guid experiment is enabled,
-     * otherwise a clone with the oob-affected bytes zeroed.
-     */
-    private static final byte [] zeroOOBBytes(byte [] guid) {
-        if (!MessageSettings.GUID_ZERO_EXPERIMENT.getValue())
-            return guid;
-        guid = guid.clone();
-        for (int i : new int[]{0,1,2,3,13,14})
-            guid[i] = 0;
-        return guid;
+        int size() {
+            int size = 0;
+            for (Segment segment : segments)
+                size += segment.size;
+            return size;
+        }
+
+        /** Copies the mappings into the given map, for debugging. */
+        void copyInto(Map<byte[], RouteTableEntry> map) {
+            for (Segment segment : segments) {
+                Table table = segment.table;
+                for (int i = 0; i <= table.mask; i++) {
+                    RouteTableEntry entry = table.values.get(i);
+                    if (entry != null && entry != REMOVED) {
+                        byte[] guid = new byte[16];
+                        ByteUtils.long2beb(table.keys[2 * i], guid, 0);
+                        ByteUtils.long2beb(table.keys[2 * i + 1], guid, 8);
+                        map.put(guid, entry);
+                    }
+                }
+            }
+        }
     }
-    
-    /**
-     * A map that can optionally zero out the OOB-mutated bytes of a guid.
+
+    /** 
+     * An open-addressed hash table with linear probing.  Removed entries
+     * leave their key behind, so a slot only ever holds one key until the
+     * table is rebuilt.
      */
-    private static class ExperimentalGUIDMap extends TreeMap<byte [], RouteTableEntry> {
-        ExperimentalGUIDMap() {
-            super(GUID.GUID_BYTE_COMPARATOR);
+    private static final class Segment {
+        private volatile Table table = new Table(INITIAL_CAPACITY);
+        /** The number of entries, read without locking. */
+        private volatile int size;
+        /** The number of slots holding a key, including removed entries. */
+        private int used;
+
+        RouteTableEntry get(long high, long low, int hash) {
+            Table t = table;
+            for (int i = hash & t.mask; ; i = (i + 1) & t.mask) {
+                //read the value first; the key is visible once it is set
+                RouteTableEntry entry = t.values.get(i);
+                if (entry == null)
+                    return null;
+                if (t.keys[2 * i] == high && t.keys[2 * i + 1] == low)
+                    return entry == REMOVED ? null : entry;
+            }
         }
 
-        @Override
-        public boolean containsKey(Object key) {
-            if (key instanceof byte[])
-                key = zeroOOBBytes((byte[]) key);
-            return super.containsKey(key);
+        void put(long high, long low, int hash, RouteTableEntry entry) {
+            Table t = table;
+            int i = t.indexOf(high, low, hash);
+            RouteTableEntry old = t.values.get(i);
+            if (old != null) {
+                if (old == REMOVED)
+                    size++;
+                t.values.set(i, entry);
+                return;
+            }
+
+            if ((used + 1) * 2 > t.mask + 1) {
+                t = rebuild();
+                i = t.indexOf(high, low, hash);
+            }
+            t.keys[2 * i] = high;
+            t.keys[2 * i + 1] = low;
+            t.values.set(i, entry);
+            used++;
+            size++;
         }
 
-        @Override
-        public RouteTableEntry get(Object key) {
-            if (key instanceof byte[])
-                key = zeroOOBBytes((byte[]) key);
-            return super.get(key);
+        RouteTableEntry remove(long high, long low, int hash) {
+            Table t = table;
+            int i = t.indexOf(high, low, hash);
+            RouteTableEntry old = t.values.get(i);
+            if (old == null || old == REMOVED)
+                return null;
+            t.values.set(i, REMOVED);
+            size--;
+            return old;
+        }
+
+        /**
+         * Copies the entries into a new table, dropping removed ones,
+         * and publishes it.
+         */
+        private Table rebuild() {
+            Table old = table;
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < (size + 1) * 4)
+                capacity <<= 1;
+            Table t = new Table(capacity);
+            for (int i = 0; i <= old.mask; i++) {
+                RouteTableEntry entry = old.values.get(i);
+                if (entry != null && entry != REMOVED) {
+                    long high = old.keys[2 * i];
+                    long low = old.keys[2 * i + 1];
+                    int j = t.indexOf(high, low, hash(high, low));
+                    t.keys[2 * j] = high;
+                    t.keys[2 * j + 1] = low;
+                    t.values.set(j, entry);
+                }
+            }
+            used = size;
+            table = t;
+            return t;
         }
+    }
+
+    /** The slots of a segment: two longs of key and one value per slot. */
+    private static final class Table {
+        private final long[] keys;
+        private final AtomicReferenceArray<RouteTableEntry> values;
+        private final int mask;
 
-        @Override
-        public RouteTableEntry put(byte[] key, RouteTableEntry value) {
-            key = zeroOOBBytes(key);
-            return super.put(key, value);
+        Table(int capacity) {
+            keys = new long[2 * capacity];
+            values = new AtomicReferenceArray<RouteTableEntry>(capacity);
+            mask = capacity - 1;
         }
 
-        @Override
-        public RouteTableEntry remove(Object key) {
-            if (key instanceof byte[])
-                key = zeroOOBBytes((byte[]) key);
-            return super.remove(key);
+        /**
+         * Returns the slot holding the key, or the empty slot where it
+         * belongs.  Only for use while holding the stripe lock.
+         */
+        int indexOf(long high, long low, int hash) {
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (values.get(i) == null
+                        || (keys[2 * i] == high && keys[2 * i + 1] == low))
+                    return i;
+            }
         }
     }
     
@@ -601,35 +796,41 @@ public final class RouteTable implements Inspectable {
      * entries there are.
      */
     @Override
-    public synchronized Object inspect() {
+    public Object inspect() {
         Map<String, Object> ret = new HashMap<String, Object>();
-        Iterable<Map.Entry<byte[], RouteTableEntry>> bothMaps = 
-            new MultiIterable<Map.Entry<byte[],RouteTableEntry>>(_newMap.entrySet(),_oldMap.entrySet());
-        for (Map.Entry<byte[], RouteTableEntry> entry : bothMaps) {
+        Map<byte[], RouteTableEntry> bothMaps = new HashMap<byte[], RouteTableEntry>();
+        Generations maps = _maps;
+        maps.newMap.copyInto(bothMaps);
+        maps.oldMap.copyInto(bothMaps);
+        for (Map.Entry<byte[], RouteTableEntry> entry : bothMaps.entrySet()) {
             RouteTableEntry e = entry.getValue();
             Map<String, Object> m = new HashMap<String, Object>();
-            m.put("br", e.bytesRouted);
-            m.put("ttl", e.ttl);
-            m.put("rr", e.repliesRouted);
-            m.put("rnc", e.repliesNotCounted);
-            m.put("prr", e.partialRepliesRouted);
-            m.put("cc", e.classCnetworks.getMap());
-            m.put("rt", e.resultTimeStamps);
-            m.put("rc", e.resultCounts);
-            m.put("ct", e.creationTime);
-            m.put("id", e.handlerID);
-            m.put("nets", getBytes(e.networks));
-            m.put("hops", getBytes(e.hops));
-            m.put("ttls", getBytes(e.ttls));
+            synchronized (e) {
+                m.put("br", e.bytesRouted);
+                m.put("ttl", e.ttl);
+                m.put("rr", e.repliesRouted);
+                m.put("rnc", e.repliesNotCounted);
+                m.put("prr", e.partialRepliesRouted);
+                m.put("cc", e.classCnetworks.getMap());
+                m.put("rt", new ArrayList<Double>(e.resultTimeStamps));
+                m.put("rc", new ArrayList<Double>(e.resultCounts));
+                m.put("ct", e.creationTime);
+                m.put("id", e.handler.id);
+                m.put("nets", getBytes(e.networks));
+                m.put("hops", getBytes(e.hops));
+                m.put("ttls", getBytes(e.ttls));
+            }
             ret.put(Base32.encode(entry.getKey()), m);
         }
-        for (int id : _idMap.keySet()) {
-            ReplyHandler r = _idMap.get(id);
+        for (HandlerRef ref : _handlerMap.values()) {
+            ReplyHandler r = ref.handler;
+            if (r == null)
+                continue;
             Map<String,Object> m = new HashMap<String,Object>();
             m.put("ip",r.getAddress());
             m.put("port", r.getPort());
             m.put("cguid",r.getClientGUID());
-            ret.put(String.valueOf(id),m);
+            ret.put(String.valueOf(ref.id),m);
         }
         return ret;
     }
@@ -640,5 +841,3 @@ public final class RouteTable implements Inspectable {
         return b.array();
     }
 }
-
-
@@ -9,10 +9,16 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -81,14 +87,43 @@ public class UDPService implements ReadWriteObserver {
 	private DatagramChannel _channel;
 	
 	/**
-	 * The list of messages to be sent, as SendBundles.
+	 * The queue of messages to be sent, as SendBundles.  Any thread can add
+	 * to it, only the NIO thread takes from it.
 	 */
-	private final List<SendBundle> OUTGOING_MSGS;
+	private final Queue<SendBundle> OUTGOING_MSGS;
 	
 	/**
-	 * The buffer that's re-used for reading incoming messages.
+	 * A bundle taken from OUTGOING_MSGS that couldn't be sent yet, it is sent
+	 * before the queued bundles.  Only used on the NIO thread.
+	 */
+	private SendBundle _unsent;
+	
+	/**
+	 * Whether interest in writing is on because bundles are queued.
+	 */
+	private final AtomicBoolean _writeInterest = new AtomicBoolean(false);
+	
+	/**
+	 * The direct buffer that's re-used for reading incoming messages.
 	 */
 	private final ByteBuffer BUFFER;
+	
+	/**
+	 * The array incoming messages are copied to, to be parsed.
+	 */
+	private final byte[] READ_ARRAY;
+	
+	/**
+	 * The most messages read in one go that are dispatched together.
+	 */
+	private static final int MAX_READ_BATCH = 32;
+	
+	/**
+	 * The messages read in the current handleRead, and where they came from,
+	 * that weren't dispatched yet.  Only used on the NIO thread.
+	 */
+	private final List<Message> _readMessages = new ArrayList<Message>(MAX_READ_BATCH);
+	private final List<InetSocketAddress> _readAddrs = new ArrayList<InetSocketAddress>(MAX_READ_BATCH);
     
 	/**
 	 * The maximum size of a UDP message we'll accept.
@@ -189,6 +224,9 @@ public class UDPService implements ReadWriteObserver {
     @InspectionPoint("udp sent messages")
     private final Message.MessageCounter sentMessageCounter = new Message.MessageCounter(50);
     
+    @InspectionPoint("udp packet stats")
+    private final PacketStats packetStats = new PacketStats();
+    
     @InspectionPoint("fwt capable")
     @SuppressWarnings("unused")
     private final Inspectable fwtCapable = new Inspectable() {
@@ -226,9 +264,9 @@ public class UDPService implements ReadWriteObserver {
         this.networkInstanceUtils = networkInstanceUtils;
         this.fwtStatusBroadcaster = fwtStatusBroadcaster;
 
-        OUTGOING_MSGS = new LinkedList<SendBundle>();
-	    byte[] backing = new byte[BUFFER_SIZE];
-	    BUFFER = ByteBuffer.wrap(backing);
+        OUTGOING_MSGS = new ConcurrentLinkedQueue<SendBundle>();
+	    BUFFER = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	    READ_ARRAY = new byte[BUFFER_SIZE];
         // TODO convert this to a Service and move this
         // TODO initialize()
         fwtStatusBroadcaster.broadcast(new FirewallTransferStatusEvent(
@@ -352,10 +390,12 @@ public class UDPService implements ReadWriteObserver {
 	}
 	
 	/**
-	 * Notification that a read can happen.
+	 * Notification that a read can happen.  Reads every datagram waiting and
+	 * dispatches the messages in batches.
 	 */
 	public void handleRead() throws IOException {
         try {
+            packetStats.reads.incrementAndGet();
             while (true) {
                 BUFFER.clear();
 
@@ -373,48 +413,78 @@ public class UDPService implements ReadWriteObserver {
                 if (from == null)
                     break;
 
+                packetStats.received.incrementAndGet();
+
                 if (!(from instanceof InetSocketAddress)) {
                     ErrorService.error(new RuntimeException("non-inet SocketAddress: " + from));
+                    packetStats.receivedDropped.incrementAndGet();
                     continue;
                 }
 
                 InetSocketAddress addr = (InetSocketAddress) from;
 
-                if (!NetworkUtils.isValidAddress(addr.getAddress()))
-                    continue;
-                if (!NetworkUtils.isValidPort(addr.getPort()))
+                if (!NetworkUtils.isValidAddress(addr.getAddress()) ||
+                        !NetworkUtils.isValidPort(addr.getPort())) {
+                    packetStats.receivedDropped.incrementAndGet();
                     continue;
+                }
 
                 // don't go further if filtered.
                 if(!ipFilter.get().allow(addr.getAddress().getAddress())) {
                     LOG.debug("Received packet from hostile host");
-                    return;
+                    packetStats.receivedDropped.incrementAndGet();
+                    continue;
                 }
                 
-                byte[] data = BUFFER.array();
-                int length = BUFFER.position();
+                BUFFER.flip();
+                int length = BUFFER.remaining();
+                BUFFER.get(READ_ARRAY, 0, length);
                 try {
                     // we do things the old way temporarily
-                    InputStream in = new ByteArrayInputStream(data, 0, length);
+                    InputStream in = new ByteArrayInputStream(READ_ARRAY, 0, length);
                     Message message = messageFactory.read(in, Network.UDP, IN_HEADER_BUF, addr);
                     if(message == null) {
                         LOG.debug("Received a null message");
+                        packetStats.receivedDropped.incrementAndGet();
                         continue;
                     }
-                    processMessage(message, addr);
+                    if(prepareMessage(message, addr)) {
+                        _readMessages.add(message);
+                        _readAddrs.add(addr);
+                        if(_readMessages.size() == MAX_READ_BATCH)
+                            dispatchReadMessages();
+                    } else {
+                        packetStats.receivedDropped.incrementAndGet();
+                    }
                 } catch(IOException e) {
                     LOG.debug("Could not parse message", e);
+                    packetStats.receivedDropped.incrementAndGet();
                 } catch(BadPacketException e) {
                     LOG.debug("Could not parse message", e);
+                    packetStats.receivedDropped.incrementAndGet();
                 }
             } 
         } catch(Throwable t) {
             // Do not let the exceptions propogate out, as that could
             // close UDPService.
             ErrorService.error(t);
+        } finally {
+            dispatchReadMessages();
         }
 	}
 	
+	/** Dispatches the messages collected by handleRead. */
+	private void dispatchReadMessages() {
+	    if(_readMessages.isEmpty())
+	        return;
+	    try {
+	        messageDispatcher.get().dispatchUDP(_readMessages, _readAddrs);
+	    } finally {
+	        _readMessages.clear();
+	        _readAddrs.clear();
+	    }
+	}
+	
 	/**
 	 * Notification that an IOException occurred while reading/writing.
 	 */
@@ -429,16 +499,26 @@ public class UDPService implements ReadWriteObserver {
 	 * Processes a single message.
 	 */
     protected void processMessage(Message message, InetSocketAddress addr) {
+        if(prepareMessage(message, addr))
+            messageDispatcher.get().dispatchUDP(message, addr);
+    }
+    
+    /**
+     * Updates our state with a message that was read, before it is dispatched.
+     * 
+     * @return false if the message should not be dispatched
+     */
+    private boolean prepareMessage(Message message, InetSocketAddress addr) {
         // FIXME: redundant check?
         if(!ipFilter.get().allow(message)) {
             LOG.debug("Received packet from hostile host");
-            return;
+            return false;
         }
         // FIXME: why do we mutate the GUIDs of ping replies?
         if(message instanceof PingReply)
             mutateGUID(message.getGUID(), addr.getAddress(), addr.getPort());
         updateState(message, addr);
-        messageDispatcher.get().dispatchUDP(message, addr);
+        return true;
     }
 	
 	/** Updates internal state of the UDP Service. */
@@ -568,6 +648,7 @@ public class UDPService implements ReadWriteObserver {
             throw new IllegalArgumentException("Invalid addr: " + addr);
         if(_channel == null || _channel.socket().isClosed()) {
             LOG.debug("Socket not ready for writing");
+            packetStats.sendDropped.incrementAndGet();
             return;
         }
         int length = msg.getTotalLength();
@@ -599,11 +680,11 @@ public class UDPService implements ReadWriteObserver {
     }
     
     public void send(ByteBuffer buffer, InetSocketAddress addr, boolean custom) { 
-        synchronized(OUTGOING_MSGS) {
-            OUTGOING_MSGS.add(new SendBundle(buffer, addr, custom));
-            if(_channel != null)
-                NIODispatcher.instance().interestWrite(_channel, true);
-        }
+        OUTGOING_MSGS.offer(new SendBundle(buffer, addr, custom));
+        // only the sender that turns interest on needs to tell the dispatcher
+        DatagramChannel channel = _channel;
+        if(channel != null && _writeInterest.compareAndSet(false, true))
+            NIODispatcher.instance().interestWrite(channel, true);
 	}
 	
 	/**
@@ -611,35 +692,46 @@ public class UDPService implements ReadWriteObserver {
 	 */
 	public boolean handleWrite() throws IOException {
         try {
-    	    synchronized(OUTGOING_MSGS) {
-    	        while(!OUTGOING_MSGS.isEmpty()) {
-                    boolean releaseBuffer = true;
-                    SendBundle bundle = OUTGOING_MSGS.remove(0);
-    	            try {
-        	            if(_channel.send(bundle.buffer, bundle.addr) == 0) {
-        	                // we removed the bundle from the list but couldn't send it,
-        	                // so we have to put it back in.
-        	                OUTGOING_MSGS.add(0, bundle);
-                            releaseBuffer = false;
-        	                return true; // no room left to send.
-                        }
-                    } catch(IOException ignored) {
-                        LOG.warn("Ignoring exception on socket", ignored);
-                    } finally {
-                        if(bundle.custom) {
-                            bundle.buffer.rewind();
-                            releaseBuffer = false;
-                        }
+            while(true) {
+                SendBundle bundle = _unsent;
+                _unsent = null;
+                if(bundle == null)
+                    bundle = OUTGOING_MSGS.poll();
                         
-                        if (releaseBuffer)
-                            NIODispatcher.instance().getBufferCache().release(bundle.buffer);
+                if(bundle == null) {
+                    // if there's no data left to send, we don't wanna be notified of write events.
+                    NIODispatcher.instance().interestWrite(_channel, false);
+                    _writeInterest.set(false);
+                    // a bundle added before interest was marked off didn't turn it on again
+                    if(OUTGOING_MSGS.isEmpty() || !_writeInterest.compareAndSet(false, true))
+                        return false;
+                    NIODispatcher.instance().interestWrite(_channel, true);
+                    continue;
+                }
+                
+                boolean releaseBuffer = true;
+                try {
+                    if(_channel.send(bundle.buffer, bundle.addr) == 0) {
+                        // we took the bundle but couldn't send it,
+                        // so we have to keep it for the next time.
+                        _unsent = bundle;
+                        releaseBuffer = false;
+                        return true; // no room left to send.
+                    }
+                    packetStats.sent.incrementAndGet();
+                } catch(IOException ignored) {
+                    LOG.warn("Ignoring exception on socket", ignored);
+                    packetStats.sendDropped.incrementAndGet();
+                } finally {
+                    if(bundle.custom) {
+                        bundle.buffer.rewind();
+                        releaseBuffer = false;
                     }
-    	        }
     	        
-    	        // if there's no data left to send, we don't wanna be notified of write events.
-    	        NIODispatcher.instance().interestWrite(_channel, false);
-    	        return false;
-    	    }
+                    if (releaseBuffer)
+                        NIODispatcher.instance().getBufferCache().release(bundle.buffer);
+                }
+            }
         } catch(Throwable t) {
             // Don't let it propogate, since that could close UDPService!
             ErrorService.error(t);
@@ -878,6 +970,46 @@ public class UDPService implements ReadWriteObserver {
 		return "UDPService::channel: " + _channel;
 	}
 
+    /**
+     * Counts the packets read and sent, and those that were dropped.  Also
+     * reports the rates since it was last inspected, in packets per second.
+     */
+    private static class PacketStats implements Inspectable {
+        /** The number of times handleRead was called. */
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        /** Packets that were read but not dispatched. */
+        final AtomicLong receivedDropped = new AtomicLong();
+        final AtomicLong sent = new AtomicLong();
+        /** Packets that could not be sent. */
+        final AtomicLong sendDropped = new AtomicLong();
+        
+        /** When this was last inspected, and the counts then.  LOCKING: this */
+        private long lastInspected = System.currentTimeMillis();
+        private long lastReceived, lastSent;
+        
+        public synchronized Object inspect() {
+            long now = System.currentTimeMillis();
+            long seconds = Math.max(1, (now - lastInspected) / 1000);
+            long receivedNow = received.get();
+            long sentNow = sent.get();
+            
+            Map<String, Object> ret = new HashMap<String, Object>();
+            ret.put("reads", reads.get());
+            ret.put("received", receivedNow);
+            ret.put("received dropped", receivedDropped.get());
+            ret.put("sent", sentNow);
+            ret.put("sent dropped", sendDropped.get());
+            ret.put("received per second", (receivedNow - lastReceived) / seconds);
+            ret.put("sent per second", (sentNow - lastSent) / seconds);
+            
+            lastInspected = now;
+            lastReceived = receivedNow;
+            lastSent = sentNow;
+            return ret;
+        }
+    }
+
     private static class MLImpl implements MessageListener {
         public boolean _gotIncoming = false;
 
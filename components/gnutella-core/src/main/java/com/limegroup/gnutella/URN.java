@@ -20,9 +20,11 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.limewire.core.settings.SharingSettings;
+import org.limewire.inspection.InspectionPoint;
 import org.limewire.io.GUID;
 import org.limewire.io.IOUtils;
 import org.limewire.security.SHA1;
+import org.limewire.statistic.LatencyTimer;
 import org.limewire.util.Base32;
 import org.limewire.util.SystemUtils;
 
@@ -226,6 +228,10 @@ public final class URN implements HTTPHeaderValue, Serializable {
         }
         
     };
+    
+    /** The time to hash each buffer of a file. */
+    @InspectionPoint("hash buffer times")
+    private static final LatencyTimer HASH_TIMER = new LatencyTimer();
 	
 	/**
 	 * Gets the amount of bytes hashed for a file that is being hashed.
@@ -239,6 +245,20 @@ public final class URN implements HTTPHeaderValue, Serializable {
 	        return progress.get();
 	}
 
+	/**
+	 * Returns the amount of bytes hashed for each file that is currently
+	 * being hashed.  Files are hashed by several workers at once, so this
+	 * contains one entry per busy worker.
+	 */
+	public static Map<File, Integer> getHashingProgress() {
+	    Map<File, Integer> progress = new HashMap<File, Integer>();
+	    synchronized(progressMap) {
+	        for(Map.Entry<File, AtomicInteger> entry : progressMap.entrySet())
+	            progress.put(entry.getKey(), entry.getValue().get());
+	    }
+	    return progress;
+	}
+
 	/**
 	 * Creates a new <tt>URN</tt> instance with a SHA1 hash.
 	 *
@@ -778,37 +798,60 @@ public final class URN implements HTTPHeaderValue, Serializable {
 	
 	public static URN createTTRootFile(File file) throws IOException, InterruptedException {
 	    MessageDigest tt = new MerkleTree(new Tiger());
-	    byte[] buffer = threadLocal.get();
-        int read;
-        InputStream fis = null;        
-        
-        try {
-            // this is purposely NOT a BufferedInputStream because we
-            // read it in the chunks that we want to.
-            fis = new FileInputStream(file);
-            while ((read=fis.read(buffer))!=-1) {
-                long start = System.nanoTime();
-                tt.update(buffer,0,read);
-                if(SystemUtils.getIdleTime() < MIN_IDLE_TIME && SharingSettings.FRIENDLY_HASHING.getValue()) {
-                    long interval = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
-                    if (interval > 0) 
-                        Thread.sleep(interval * 3);
-                    else 
-                        Thread.yield();
-                }
-            }
-        } finally {
-            IOUtils.close(fis);
-        }
-
+	    hashFile(file, null, tt);
         URN ttroot = new URN(Type.URN_NAMESPACE_ID + Type.TTROOT.getDescriptor() + Base32.encode(tt.digest()), Type.TTROOT);
         return ttroot;
 	}
+	
+	/**
+	 * Reads the file once, feeding every buffer to each of the given digests.
+	 * If progress is non-null, the file is registered in the progress map
+	 * while it is being hashed.
+	 */
+	private static void hashFile(File file, AtomicInteger progress, MessageDigest... digests)
+	  throws IOException, InterruptedException {
+	    byte[] buffer = threadLocal.get();
+	    int read;
+	    if(progress != null)
+	        progressMap.put(file, progress);
+	    InputStream fis = null;        
+	    
+	    try {
+	        // this is purposely NOT a BufferedInputStream because we
+	        // read it in the chunks that we want to.
+	        fis = new FileInputStream(file);
+	        while ((read=fis.read(buffer))!=-1) {
+	            long start = HASH_TIMER.start();
+	            for(MessageDigest md : digests)
+	                md.update(buffer,0,read);
+	            long elapsed = HASH_TIMER.stop(start);
+	            if(progress != null)
+	                progress.addAndGet( read );
+	            if(SystemUtils.getIdleTime() < MIN_IDLE_TIME && SharingSettings.FRIENDLY_HASHING.getValue()) {
+	                long interval = TimeUnit.NANOSECONDS.toMillis(elapsed);
+	                if (interval > 0) 
+	                    Thread.sleep(interval * 3);
+	                else 
+	                    Thread.yield();
+	            }
+	        }
+	    } finally {
+	        if(progress != null)
+	            progressMap.remove(file);
+	        IOUtils.close(fis);
+	    }
+	}
 
 	/**
 	 * Create a new SHA1 hash string for the specified file on disk.
+	 * <p>
+	 * Any additional digests are updated from the same buffers as the SHA1,
+	 * so that other hashes (such as a hash tree) can be calculated without
+	 * reading the file again.  The caller is responsible for retrieving
+	 * their results.
 	 *
 	 * @param file the file to construct the hash from
+	 * @param additionalDigests digests to feed the file's data to as well
 	 * @return the SHA1 hash string
 	 * @throws <tt>IOException</tt> if there is an error creating the hash
 	 *  or if the specified algorithm cannot be found
@@ -816,36 +859,13 @@ public final class URN implements HTTPHeaderValue, Serializable {
      *  interrupted while hashing.  (This method can take a while to
      *  execute.)
 	 */
-	public static UrnSet generateUrnsFromFile(final File file) 
+	public static UrnSet generateUrnsFromFile(final File file, MessageDigest... additionalDigests) 
       throws IOException, InterruptedException {
 		MessageDigest md = new SHA1();
-        byte[] buffer = threadLocal.get();
-        int read;
-        AtomicInteger progress = new AtomicInteger(0);
-        progressMap.put( file, progress );
-        InputStream fis = null;        
-        
-        try {
-            // this is purposely NOT a BufferedInputStream because we
-            // read it in the chunks that we want to.
-		    fis = new FileInputStream(file);
-            while ((read=fis.read(buffer))!=-1) {
-                long start = System.nanoTime();
-                md.update(buffer,0,read);
-                progress.addAndGet( read );
-                if(SystemUtils.getIdleTime() < MIN_IDLE_TIME && SharingSettings.FRIENDLY_HASHING.getValue()) {
-                    long interval = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
-                    if (interval > 0) 
-                        Thread.sleep(interval * 3);
-                    else 
-                        Thread.yield();
-                }
-            }
-        } finally {		
-            progressMap.remove(file);
-            IOUtils.close(fis);
-        }
-
+		MessageDigest[] digests = new MessageDigest[additionalDigests.length + 1];
+		digests[0] = md;
+		System.arraycopy(additionalDigests, 0, digests, 1, additionalDigests.length);
+        hashFile(file, new AtomicInteger(0), digests);
 
 		// preferred casing: lowercase "urn:sha1:", uppercase encoded value
 		// note that all URNs are case-insensitive for the "urn:<type>:" part,
@@ -14,20 +14,35 @@ import org.limewire.nio.ProtocolBandwidthTracker;
  */
 public class CompressionBandwidthTrackerImpl implements ProtocolBandwidthTracker {
 
-    private final Inflater inflater;
+    private volatile Inflater inflater;
 
-    private final Deflater deflater;
+    private volatile Deflater deflater;
+
+    private volatile long writtenConsumed, writtenProduced, readConsumed, readProduced;
 
     public CompressionBandwidthTrackerImpl(Inflater inflater, Deflater deflater) {
         this.inflater = inflater;
         this.deflater = deflater;
     }
 
+    /**
+     * Keeps the current totals and stops looking at the inflater and
+     * deflater, so they can be reset and reused elsewhere.
+     */
+    public void freeze() {
+        writtenConsumed = getWrittenBytesConsumed();
+        writtenProduced = getWrittenBytesProduced();
+        readConsumed = getReadBytesConsumed();
+        readProduced = getReadBytesProduced();
+        deflater = null;
+        inflater = null;
+    }
+
     public long getWrittenBytesConsumed() {
         try {
             return deflater.getTotalIn();
         } catch (NullPointerException npe) {
-            return 0;
+            return writtenConsumed;
         }
     }
 
@@ -35,7 +50,7 @@ public class CompressionBandwidthTrackerImpl implements ProtocolBandwidthTracker
         try {
             return deflater.getTotalOut();
         } catch (NullPointerException npe) {
-            return 0;
+            return writtenProduced;
         }
     }
 
@@ -43,7 +58,7 @@ public class CompressionBandwidthTrackerImpl implements ProtocolBandwidthTracker
         try {
             return inflater.getTotalIn();
         } catch (NullPointerException npe) {
-            return 0;
+            return readConsumed;
         }
     }
 
@@ -51,7 +66,7 @@ public class CompressionBandwidthTrackerImpl implements ProtocolBandwidthTracker
         try {
             return inflater.getTotalOut();
         } catch (NullPointerException npe) {
-            return 0;
+            return readProduced;
         }
     }
 
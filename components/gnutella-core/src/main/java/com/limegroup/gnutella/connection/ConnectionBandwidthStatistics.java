@@ -1,6 +1,8 @@
 package com.limegroup.gnutella.connection;
 
 import org.limewire.nio.ProtocolBandwidthTracker;
+import org.limewire.nio.channel.DeflaterWriter;
+import org.limewire.nio.channel.InflaterReader;
 
 /**
  * Defines the interface that allows bandwidth statistics of a
@@ -15,6 +17,13 @@ public interface ConnectionBandwidthStatistics {
     public void setCompressionOption(boolean writeDeflated, boolean readDeflated,
             ProtocolBandwidthTracker compressionBandwidthTracker);
 
+    /**
+     * Sets the channels that compress and decompress, to track the time they
+     * take.  Either may be null.
+     */
+    public void setCompressionChannels(DeflaterWriter deflaterWriter,
+            InflaterReader inflaterReader);
+
     /** Sets how this will track the raw bandwidth. */
     public void setRawBandwidthTracker(ProtocolBandwidthTracker rawBandwidthTracker);
 
@@ -36,6 +45,29 @@ public interface ConnectionBandwidthStatistics {
      */
     public float getSentSavedFromCompression();
 
+    /**
+     * Returns how many times larger the incoming data is once decompressed,
+     * or 1 if it isn't compressed.
+     */
+    public float getReadCompressionRatio();
+
+    /**
+     * Returns how many times larger the outgoing data is before it is
+     * compressed, or 1 if it isn't compressed.
+     */
+    public float getSentCompressionRatio();
+
+    /**
+     * Returns the time spent decompressing the incoming data, in
+     * nanoseconds.
+     */
+    public long getDecompressionTime();
+
+    /**
+     * Returns the time spent compressing the outgoing data, in nanoseconds.
+     */
+    public long getCompressionTime();
+
     /**
      * Returns the number of uncompressed bytes read on this connection. This is
      * equal to the size of all messages received through this connection.
@@ -1,6 +1,8 @@
 package com.limegroup.gnutella.connection;
 
 import org.limewire.nio.ProtocolBandwidthTracker;
+import org.limewire.nio.channel.DeflaterWriter;
+import org.limewire.nio.channel.InflaterReader;
 
 /**
  * Default implementation for retrieving statistics about the bandwidth of
@@ -24,6 +26,10 @@ public class ConnectionBandwidthStatisticsImpl implements ConnectionBandwidthSta
 
     private volatile ProtocolBandwidthTracker compressionBandwidthTracker;
 
+    private volatile DeflaterWriter deflaterWriter;
+
+    private volatile InflaterReader inflaterReader;
+
     private volatile ProtocolBandwidthTracker rawBandwidthTracker;
 
     public void setTlsOption(boolean useTls, ProtocolBandwidthTracker sslBandwidthTracker) {
@@ -38,6 +44,12 @@ public class ConnectionBandwidthStatisticsImpl implements ConnectionBandwidthSta
         this.compressionBandwidthTracker = compressionBandwidthTracker;
     }
 
+    public void setCompressionChannels(DeflaterWriter deflaterWriter,
+            InflaterReader inflaterReader) {
+        this.deflaterWriter = deflaterWriter;
+        this.inflaterReader = inflaterReader;
+    }
+
     public void setRawBandwidthTracker(ProtocolBandwidthTracker rawBandwidthTracker) {
         this.rawBandwidthTracker = rawBandwidthTracker;
     }
@@ -103,6 +115,34 @@ public class ConnectionBandwidthStatisticsImpl implements ConnectionBandwidthSta
         return getReadSavings(readDeflated, compressionBandwidthTracker);
     }
 
+    public float getSentCompressionRatio() {
+        if (writeDeflated) {
+            long produced = compressionBandwidthTracker.getWrittenBytesProduced();
+            if (produced != 0)
+                return (float) compressionBandwidthTracker.getWrittenBytesConsumed() / (float) produced;
+        }
+        return 1;
+    }
+
+    public float getReadCompressionRatio() {
+        if (readDeflated) {
+            long consumed = compressionBandwidthTracker.getReadBytesConsumed();
+            if (consumed != 0)
+                return (float) compressionBandwidthTracker.getReadBytesProduced() / (float) consumed;
+        }
+        return 1;
+    }
+
+    public long getCompressionTime() {
+        DeflaterWriter writer = deflaterWriter;
+        return writer != null ? writer.getDeflateTime() : 0;
+    }
+
+    public long getDecompressionTime() {
+        InflaterReader reader = inflaterReader;
+        return reader != null ? reader.getInflateTime() : 0;
+    }
+
     /** Returns the percentage lost from outgoing SSL transformations. */
     public float getSentLostFromSSL() {
         return getWriteLosings(useTls, sslBandwidthTracker);
@@ -17,7 +17,6 @@ import org.limewire.core.settings.MessageSettings;
 import org.limewire.core.settings.SearchSettings;
 import org.limewire.inspection.Inspectable;
 import org.limewire.io.GUID;
-import org.limewire.io.IOUtils;
 import org.limewire.io.IpPortImpl;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.listener.ListenerSupport;
@@ -27,8 +26,11 @@ import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
 import org.limewire.net.SocketsManager;
 import org.limewire.net.SocketsManager.ConnectType;
+import org.limewire.nio.AdaptiveDeflateLevel;
 import org.limewire.nio.NBThrottle;
+import org.limewire.nio.NIODispatcher;
 import org.limewire.nio.Throttle;
+import org.limewire.nio.ZlibCache;
 import org.limewire.nio.channel.ChannelWriter;
 import org.limewire.nio.channel.DeflaterWriter;
 import org.limewire.nio.channel.DelayedBufferWriter;
@@ -268,6 +270,12 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
 
     private volatile Inflater inflater;
 
+    private volatile DeflaterWriter deflaterWriter;
+
+    private volatile InflaterReader inflaterReader;
+
+    private volatile CompressionBandwidthTrackerImpl compressionTracker;
+
     /**
      * The last clientGUID a Hops=0 QueryReply had.
      */
@@ -551,20 +559,37 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
     private void postHandshakeInitialize(Handshaker shaker) {
         handshakeInitialized(shaker);
         
+        ZlibCache zlibCache = NIODispatcher.instance().getZlibCache();
         if (isWriteDeflated()) {
-            deflater = new Deflater();
+            int level = getDeflateLevel();
+            deflater = zlibCache.getDeflater(level);
+            deflaterWriter = new DeflaterWriter(deflater, new AdaptiveDeflateLevel(level));
         }
 
         if (isReadDeflated()) {
-            inflater = new Inflater();
+            inflater = zlibCache.getInflater();
+            inflaterReader = new InflaterReader(inflater);
         }
 
+        compressionTracker = new CompressionBandwidthTrackerImpl(inflater, deflater);
         getConnectionBandwidthStatistics().setCompressionOption(isWriteDeflated(),
-                isReadDeflated(), new CompressionBandwidthTrackerImpl(inflater, deflater));
+                isReadDeflated(), compressionTracker);
+        getConnectionBandwidthStatistics().setCompressionChannels(deflaterWriter, inflaterReader);
 
         startOutput();
     }
 
+    /**
+     * Returns the level to deflate at, which is lower for our leaves because
+     * an ultrapeer has many of them.
+     */
+    private int getDeflateLevel() {
+        if (isSupernodeClientConnection())
+            return ConnectionSettings.LEAF_DEFLATE_LEVEL.getValue();
+        else
+            return ConnectionSettings.ULTRAPEER_DEFLATE_LEVEL.getValue();
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -742,12 +767,13 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
             writer = addWriter(writer, statsWriters.get(StatsWriters.TOP));
 
         if (isWriteDeflated()) {
-            writer = addWriter(writer, new DeflaterWriter(deflater));
+            writer = addWriter(writer, deflaterWriter);
             if (statsWriters.containsKey(StatsWriters.DEFLATER))
                 writer = addWriter(writer, statsWriters.get(StatsWriters.DEFLATER));
         }
         
-        writer = addWriter(writer, new DelayedBufferWriter(1400));
+        writer = addWriter(writer, new DelayedBufferWriter(1400,
+                NIODispatcher.instance().getScheduledExecutorService(getSocket().getChannel())));
         if (statsWriters.containsKey(StatsWriters.DELAYER))
             writer = addWriter(writer, statsWriters.get(StatsWriters.DELAYER));
         
@@ -847,8 +873,7 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
      */
     @Override
     protected void closeImpl() {
-        IOUtils.close(deflater);
-        IOUtils.close(inflater);
+        releaseCompression();
 
         if (_outputRunner != null)
             _outputRunner.shutdown();
@@ -857,6 +882,37 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
         guidMapManager.removeMap(guidMap);
     }
 
+    /**
+     * Returns the deflater and inflater to the cache, keeping their totals
+     * for the statistics.  This is done on the NIO thread of the socket, so
+     * that they aren't reused while it may still be compressing, and only
+     * after the writer and reader stopped using them.
+     */
+    private void releaseCompression() {
+        final Deflater deflater = this.deflater;
+        final Inflater inflater = this.inflater;
+        final DeflaterWriter deflaterWriter = this.deflaterWriter;
+        final InflaterReader inflaterReader = this.inflaterReader;
+        final CompressionBandwidthTrackerImpl tracker = compressionTracker;
+        if (tracker == null)
+            return;
+
+        NIODispatcher.instance().executeLaterAlways(getSocket().getChannel(), new Runnable() {
+            public void run() {
+                tracker.freeze();
+                if (deflaterWriter != null)
+                    deflaterWriter.release();
+                if (inflaterReader != null)
+                    inflaterReader.release();
+                ZlibCache zlibCache = NIODispatcher.instance().getZlibCache();
+                if (deflater != null)
+                    zlibCache.release(deflater);
+                if (inflater != null)
+                    zlibCache.release(inflater);
+            }
+        });
+    }
+
     // ////////////////////////////////////////////////////////////////////////
 
     /**
@@ -887,7 +943,7 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
 
         MessageReader reader = messageReaderFactory.createMessageReader(this);
         if (isReadDeflated())
-            reader.setReadChannel(new InflaterReader(inflater));
+            reader.setReadChannel(inflaterReader);
 
         ((NIOMultiplexor) getSocket()).setReadObserver(reader);
     }
@@ -899,9 +955,10 @@ public class GnutellaConnection extends AbstractConnection implements ReplyHandl
      */
     public void messagingClosed() {
         // we must run this in another thread, as manager.remove
-        // obtains locks, but this can be called from the NIO thread
+        // obtains locks, but this can be called from the NIO thread.
+        // it is dispatched after the messages still queued for us.
         if (connectionManager != null) {
-            messageDispatcher.dispatch(new Runnable() {
+            messageDispatcher.dispatch(this, new Runnable() {
                 public void run() {
                     connectionManager.remove(GnutellaConnection.this);
                 }
@@ -33,6 +33,14 @@ public class MessageWriter implements ChannelWriter, OutputRunner {
      */
     private final ByteBufferOutputStream out;
     
+    /**
+     * The payload of the message whose header is in out, written after it.
+     * The payload is shared with every other connection the message is sent
+     * to, so only the header is copied into out.  Null if the whole message
+     * is in out.
+     */
+    private ByteBuffer payload;
+    
     /**
      * The statistics object that keeps track of how many messages were sent,
      * how many tried to be sent, how many dropped, etc...
@@ -136,7 +144,11 @@ public class MessageWriter implements ChannelWriter, OutputRunner {
                 return false;
             }
             
-            m.writeQuickly(out);
+            payload = m.getPayloadBuffer();
+            if(payload != null)
+                m.writeHeader(out);
+            else
+                m.writeQuickly(out);
             sendHandler.processSentMessage(m);
             if(writeRemaining()) // still have data to send.
                 return true;
@@ -144,7 +156,8 @@ public class MessageWriter implements ChannelWriter, OutputRunner {
     }
     
     /**
-     * Writes any data that was left in the buffer.  As an optimization,
+     * Writes any data that was left in the buffer, followed by the payload
+     * of the last message.  As an optimization,
      * we do not recompact the buffer if more data can be written.  Instead,
      * we just wait till we can completely write the buffer & then clear it
      * entirely.  This prevents the need to compact the buffer.
@@ -174,6 +187,14 @@ public class MessageWriter implements ChannelWriter, OutputRunner {
             flipped = false;
             buffer.clear();
         }
+        
+        // then the payload that follows the header.
+        if(payload != null) {
+            channel.write(payload);
+            if(payload.hasRemaining())
+                return true; // still have data to write.
+            payload = null;
+        }
         return false; // wrote everything.
     }
     
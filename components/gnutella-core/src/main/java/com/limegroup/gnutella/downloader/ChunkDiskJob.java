@@ -1,12 +1,25 @@
 package com.limegroup.gnutella.downloader;
 
+import java.util.List;
+
 /** A job to be performed on the disk, using a chunk. */
 public abstract class ChunkDiskJob {
     
     private final byte[] buf;
     
+    private final Object owner;
+    
     public ChunkDiskJob(byte[] buf) {
+        this(buf, null);
+    }
+    
+    /**
+     * @param owner what the job writes to, jobs with the same owner are
+     * run in order and may be run together
+     */
+    public ChunkDiskJob(byte[] buf, Object owner) {
         this.buf = buf;
+        this.owner = owner;
     }
     
     /** Retrieves the chunk. */
@@ -14,9 +27,24 @@ public abstract class ChunkDiskJob {
         return buf;
     }
     
+    /** Retrieves what the job writes to. */
+    Object getOwner() {
+        return owner;
+    }
+    
     /** Runs the actual job. */
     abstract void runChunkJob(byte[] buf);
     
+    /**
+     * Runs this job, the first of <code>jobs</code>, and the jobs of the same
+     * owner that were queued after it.  Runs each job on its own by default,
+     * subclasses can combine the work of the jobs.
+     */
+    void runChunkJobs(List<ChunkDiskJob> jobs) {
+        for(ChunkDiskJob job : jobs)
+            job.runChunkJob(job.getChunk());
+    }
+    
     /** Runs any cleanup code. */
     abstract void finish();
     
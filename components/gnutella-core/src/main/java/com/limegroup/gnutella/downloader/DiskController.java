@@ -1,7 +1,11 @@
 package com.limegroup.gnutella.downloader;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -13,38 +17,77 @@ import org.limewire.collection.ByteArrayCache;
 import org.limewire.collection.PowerOf2ByteArrayCache;
 import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.concurrent.ManagedThread;
+import org.limewire.core.settings.DownloadSettings;
+import org.limewire.inspection.InspectionPoint;
 import org.limewire.lifecycle.ServiceScheduler;
+import org.limewire.statistic.LatencyTimer;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
-/** Manages writing / reading from / to disk. */
+/**
+ * Manages writing / reading from / to disk.
+ * <p>
+ * Chunks are written by {@link DownloadSettings#DISK_WRITE_THREADS} threads.
+ * Each file is assigned to one of them, so the chunks of a file are written
+ * in order while different files are written in parallel.  The chunks of a
+ * file that are waiting when its thread gets to them are handed to the
+ * first job together, so adjacent chunks can be written with one call.
+ * Verifying written data against a hash tree is CPU bound and is done by a
+ * separate pool of {@link DownloadSettings#DISK_VERIFY_THREADS} threads.
+ */
 @Singleton
 public class DiskController {
     
     private final Log LOG = LogFactory.getLog(DiskController.class);
 
-    /** The thread that does the actual verification & writing */
-    private final ThreadPoolExecutor QUEUE = ExecutorsHelper.newSingleThreadExecutor(
-            new ThreadFactory() {
-                public Thread newThread(Runnable r) {
-                    Thread t = new ManagedThread(r, "BlockingVF");
-                    t.setDaemon(true);
-                    t.setPriority(Thread.NORM_PRIORITY+1);
-                    return t;
-                }
-            });
+    /** The threads that do the actual writing, each file is written by one of them. */
+    private final ThreadPoolExecutor[] WRITERS;
+    
+    /** The threads that verify written chunks. */
+    private final ThreadPoolExecutor VERIFIERS;
+    
+    /**
+     * The jobs waiting to be written, by owner.  An owner has a list here
+     * exactly while a job that writes it is queued on its writer.
+     * LOCKING: SCHEDULE_LOCK.
+     */
+    private final Map<Object, List<ChunkDiskJob>> PENDING = new HashMap<Object, List<ChunkDiskJob>>();
     
     /**
      * A list of DelayedWrites that will write when space becomes available in the cache.
      * LOCKING: Lock on the below CACHE.
      */
     private final List<DelayedWrite> DELAYED = new LinkedList<DelayedWrite>();   
+    /** Held while running the delayed writes, so only one thread runs them. */
+    private final Object DELAYED_LOCK = new Object();
+    
+    /** The time to write the chunks a writer picks up for a file at once. */
+    @InspectionPoint("disk write times")
+    private final LatencyTimer writeTimer = new LatencyTimer();
+    
+    /** The time to run a verify job. */
+    @InspectionPoint("disk verify times")
+    private final LatencyTimer verifyTimer = new LatencyTimer();
     /**  A cache for byte[]s. */
     private final ByteArrayCache CACHE = new ByteArrayCache(512, HTTPDownloader.BUF_LENGTH);    
-    /** a bunch of cached byte[]s for verifiable chunks */
-    private final PowerOf2ByteArrayCache CHUNK_CACHE = new PowerOf2ByteArrayCache();
+    /**
+     * Cached byte[]s for verifiable chunks, one cache per verifying thread
+     * since a PowerOf2ByteArrayCache hands out the same array to every caller.
+     * LOCKING: Lock on CHUNK_CACHES for the list, and on each cache to use it.
+     */
+    private final List<PowerOf2ByteArrayCache> CHUNK_CACHES = new ArrayList<PowerOf2ByteArrayCache>();
+    private final ThreadLocal<PowerOf2ByteArrayCache> CHUNK_CACHE = new ThreadLocal<PowerOf2ByteArrayCache>() {
+        @Override
+        protected PowerOf2ByteArrayCache initialValue() {
+            PowerOf2ByteArrayCache cache = new PowerOf2ByteArrayCache();
+            synchronized(CHUNK_CACHES) {
+                CHUNK_CACHES.add(cache);
+            }
+            return cache;
+        }
+    };
     /** The number of chunks scheduled to be written. */
     private int chunksScheduled = 0;
     /** A lock to use for the queue size + chunksScheduled. */
@@ -52,7 +95,34 @@ public class DiskController {
     
     @Inject
     public DiskController() {
+        this(DownloadSettings.DISK_WRITE_THREADS.getValue(),
+                DownloadSettings.DISK_VERIFY_THREADS.getValue());
+    }
+        
+    DiskController(int writeThreads, int verifyThreads) {
+        WRITERS = new ThreadPoolExecutor[Math.max(1, writeThreads)];
+        for(int i = 0; i < WRITERS.length; i++)
+            WRITERS[i] = ExecutorsHelper.newSingleThreadExecutor(
+                    new DiskThreadFactory(WRITERS.length == 1 ? "BlockingVF" : "BlockingVF-" + i));
+        int verifiers = Math.max(1, verifyThreads);
+        VERIFIERS = new ThreadPoolExecutor(verifiers, verifiers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), ExecutorsHelper.daemonThreadFactory("VerifyingVF"));
+    }
+    
+    /** Creates the writing threads, which run just above normal priority. */
+    private static class DiskThreadFactory implements ThreadFactory {
+        private final String name;
+        
+        DiskThreadFactory(String name) {
+            this.name = name;
+        }
         
+        public Thread newThread(Runnable r) {
+            Thread t = new ManagedThread(r, name);
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY+1);
+            return t;
+        }
     }
     
     @Inject
@@ -79,54 +149,108 @@ public class DiskController {
         return CACHE.getQuick();
     }
     
-    /** Adds a job to be performed on the disk. */
-    public void addDiskJob(final ChunkDiskJob job) {
+    /**
+     * Adds a job to be performed on the disk.  Jobs with the same owner are
+     * run in the order they were added.
+     */
+    public void addDiskJob(ChunkDiskJob job) {
+        Object owner = job.getOwner();
         synchronized(SCHEDULE_LOCK) {
             chunksScheduled++;
-            QUEUE.execute(new Runnable() {
-                public void run() {
-                    try {
-                        job.runChunkJob(job.getChunk());
-                    } finally {
-                        synchronized(SCHEDULE_LOCK) {
-                            chunksScheduled--;
-                        }
-                        
-                        releaseChunk(job.getChunk(), true);
-                        
-                        job.finish();
-                    }
-                }
-            });
+            List<ChunkDiskJob> jobs = PENDING.get(owner);
+            if(jobs != null) {
+                jobs.add(job);
+                return;
+            }
+            jobs = new ArrayList<ChunkDiskJob>();
+            jobs.add(job);
+            PENDING.put(owner, jobs);
+            getWriter(owner).execute(new JobRunner(owner));
         }
     }
     
     /** Adds a job to be performed on the disk that doesn't involve chunks. */
     public void addDiskJobWithoutChunk(Runnable job) {
-        QUEUE.execute(job);
+        WRITERS[0].execute(job);
+    }
+    
+    /** Adds a job that verifies data already written to disk. */
+    public void addVerifyJob(final Runnable job) {
+        VERIFIERS.execute(new Runnable() {
+            public void run() {
+                long start = verifyTimer.start();
+                try {
+                    job.run();
+                } finally {
+                    verifyTimer.stop(start);
+                }
+            }
+        });
     }
     
     /** Gets a byte[] to the closest power of 2. */
     public byte[] getPowerOf2Chunk(int size) {
-        return CHUNK_CACHE.get(size);
+        PowerOf2ByteArrayCache cache = CHUNK_CACHE.get();
+        synchronized(cache) {
+            return cache.get(size);
+        }
+    }
+    
+    /** Returns the thread that writes the jobs of <code>owner</code>. */
+    private ThreadPoolExecutor getWriter(Object owner) {
+        if(owner == null)
+            return WRITERS[0];
+        return WRITERS[(owner.hashCode() & Integer.MAX_VALUE) % WRITERS.length];
+    }
+    
+    /** Runs all the jobs of an owner that are waiting when it is run. */
+    private class JobRunner implements Runnable {
+        private final Object owner;
+        
+        JobRunner(Object owner) {
+            this.owner = owner;
+        }
+        
+        public void run() {
+            List<ChunkDiskJob> jobs;
+            synchronized(SCHEDULE_LOCK) {
+                jobs = PENDING.remove(owner);
+            }
+            
+            long start = writeTimer.start();
+            try {
+                jobs.get(0).runChunkJobs(jobs);
+            } finally {
+                writeTimer.stop(start);
+                for(ChunkDiskJob job : jobs) {
+                    synchronized(SCHEDULE_LOCK) {
+                        chunksScheduled--;
+                    }
+                    
+                    releaseChunk(job.getChunk(), false);
+                    
+                    job.finish();
+                }
+                runDelayedWrites();
+            }
+        }
     }
     
     /**
      * A Runnable that clears the cache used for storing byte[]s used for
-     * writing data read from network to disk, and schedules a ChunkCacheCleaner.
+     * writing data read from network to disk, and the caches used for verifying.
      */
     private class CacheCleaner implements Runnable {
         public void run() {
             LOG.info("clearing cache");
             CACHE.clear();
-            QUEUE.execute(new ChunkCacheCleaner());
-        }
-    }
-    
-    /** A Runnable that clears the cache storing byte[]s used for verifying. */
-    private class ChunkCacheCleaner implements Runnable {
-        public void run() {
-            CHUNK_CACHE.clear();
+            synchronized(CHUNK_CACHES) {
+                for(PowerOf2ByteArrayCache cache : CHUNK_CACHES) {
+                    synchronized(cache) {
+                        cache.clear();
+                    }
+                }
+            }
         }
     }
 
@@ -136,39 +260,45 @@ public class DiskController {
             runDelayedWrites();
     }
 
+    /**
+     * Runs the delayed writes once no chunks are scheduled.  Writers finish
+     * their jobs concurrently, so only one of them runs the delayed writes.
+     */
     private void runDelayedWrites() {
-        synchronized(SCHEDULE_LOCK) {
-            if(chunksScheduled > 0)
-                return;
-        }
-        
-        while(CACHE.isBufferAvailable()) {
-            DelayedWrite dw;
-            
-            synchronized(CACHE) {
-                if(DELAYED.isEmpty()) {
-                    LOG.debug("Nothing delayed to run.");
+        synchronized(DELAYED_LOCK) {
+            synchronized(SCHEDULE_LOCK) {
+                if(chunksScheduled > 0)
                     return;
-                }
-                dw = DELAYED.get(0);
             }
     
-            // write & notify outside of lock
-            if(dw.write()) {
-                // if we wrote succesfully, remove the item from the cache.
+            while(CACHE.isBufferAvailable()) {
+                DelayedWrite dw;
+                
                 synchronized(CACHE) {
-                    DELAYED.remove(0);
+                    if(DELAYED.isEmpty()) {
+                        LOG.debug("Nothing delayed to run.");
+                        return;
+                    }
+                    dw = DELAYED.get(0);
                 }
-            } else {
-                // otherwise, something went wrong, so reschedule another
-                // delayed write later on.
-                // NOTE: this should be impossible to happen, but it's happening,
-                //       and its no huge deal, so we're preparing for it.
-                QUEUE.execute(new Runnable() {
-                    public void run() {
-                        runDelayedWrites();
+        
+                // write & notify outside of lock
+                if(dw.write()) {
+                    // if we wrote succesfully, remove the item from the cache.
+                    synchronized(CACHE) {
+                        DELAYED.remove(0);
                     }
-                });
+                } else {
+                    // otherwise, something went wrong, so reschedule another
+                    // delayed write later on.
+                    // NOTE: this should be impossible to happen, but it's happening,
+                    //       and its no huge deal, so we're preparing for it.
+                    WRITERS[0].execute(new Runnable() {
+                        public void run() {
+                            runDelayedWrites();
+                        }
+                    });
+                }
             }
         }
     }
@@ -186,11 +316,20 @@ public class DiskController {
 
     /** Returns the number of bytes cached in the verifying cache. */
     public int getSizeOfVerifyingCache() {
-        return CHUNK_CACHE.getCacheSize();
+        int size = 0;
+        synchronized(CHUNK_CACHES) {
+            for(PowerOf2ByteArrayCache cache : CHUNK_CACHES)
+                size += cache.getCacheSize();
+        }
+        return size;
     }
 
+    /** Returns the number of jobs waiting to be written or verified. */
     public int getNumPendingItems() {
-        return QUEUE.getQueue().size();
+        int pending = VERIFIERS.getQueue().size();
+        for(ThreadPoolExecutor writer : WRITERS)
+            pending += writer.getQueue().size();
+        return pending;
     }
 
 }
@@ -5,6 +5,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -655,7 +656,10 @@ public class DownloadWorker {
                     }
                 }
 
-                nioExecutor.execute(
+                // continue on the thread that handles the socket
+                HTTPDownloader downloader = _downloader;
+                Executor executor = downloader != null ? downloader.getSocketExecutor() : nioExecutor;
+                executor.execute(
                         new Runnable() {
                             public void run() {
                                 incrementState(null);
@@ -8,6 +8,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,6 +20,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -418,7 +420,7 @@ public class HTTPDownloader implements BandwidthTracker {
             LOG.warn("couldn't set keepalive");
         }
         observerHandler = new Observer();
-        _stateMachine = new IOStateMachine(observerHandler, new LinkedList<IOState>(), BUF_LENGTH);
+        _stateMachine = new IOStateMachine(observerHandler, new LinkedList<IOState>(), BUF_LENGTH, _socket);
         _stateMachine.setReadChannel(new ThrottleReader(bandwidthManager.getReadThrottle()));
         ((NIOMultiplexor)_socket).setReadObserver(_stateMachine);
         ((NIOMultiplexor)_socket).setWriteObserver(_stateMachine);
@@ -1599,7 +1601,7 @@ public class HTTPDownloader implements BandwidthTracker {
     					irc.interestRead(false);
     					doingWrite = true;
     					_incompleteFile.registerWriteCallback(request,
-    							new DownloadRestarter(irc, buffer, this));
+    							new DownloadRestarter(irc, buffer, this, _socket.getChannel()));
     					return true;
     				}
     			} catch (AssertFailure bad) {
@@ -1639,16 +1641,20 @@ public class HTTPDownloader implements BandwidthTracker {
         private final DownloadState downloader;
         private final InterestReadableByteChannel irc;
         private final ByteBuffer buffer;
+        /** The channel whose NIO thread the download continues on. */
+        private final SelectableChannel channel;
         
-        DownloadRestarter(InterestReadableByteChannel irc, ByteBuffer buffer, DownloadState downloader) {
+        DownloadRestarter(InterestReadableByteChannel irc, ByteBuffer buffer, DownloadState downloader,
+                SelectableChannel channel) {
             this.irc = irc;
             this.buffer = buffer;
             this.downloader = downloader;
+            this.channel = channel;
         }
         
         public void writeScheduled() {
             LOG.debug("Delayed write scheduled");
-            NIODispatcher.instance().executeLaterAlways(this);
+            NIODispatcher.instance().executeLaterAlways(channel, this);
         }
         
         public void run() {
@@ -1669,13 +1675,21 @@ public class HTTPDownloader implements BandwidthTracker {
 	        _isActive = false;
 	    }
         
-        // Close in the NIO thread, so everything stays there.
-        NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+        // Close in the socket's NIO thread, so everything stays there.
+        final Socket socket = _socket;
+        getSocketExecutor().execute(new Runnable() {
             public void run() {
-                IOUtils.close(_socket);
+                IOUtils.close(socket);
             }
         });
 	}
+	
+	/** Returns an executor that runs tasks on the NIO thread of the socket. */
+	Executor getSocketExecutor() {
+	    Socket socket = _socket;
+	    SelectableChannel channel = socket != null ? socket.getChannel() : null;
+	    return NIODispatcher.instance().getScheduledExecutorService(channel);
+	}
 
     /**
      * Instructs this stop just before reading the given byte.
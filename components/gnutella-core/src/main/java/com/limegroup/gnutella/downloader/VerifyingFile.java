@@ -4,7 +4,11 @@ package com.limegroup.gnutella.downloader;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -152,6 +156,15 @@ public class VerifyingFile {
      */
     private int chunksScheduledPerFile = 0;
     
+    /** Whether a Verifier is scheduled or running for this file. */
+    private boolean verifierScheduled;
+    
+    /** Whether the Verifier should (again) look for verifiable partial blocks. */
+    private boolean verifyPartial;
+    
+    /** The size of the file the Verifier should scan, or -1. */
+    private long verifyScanSize = -1;
+    
     /**
      * Holds the iterable for all blocks, is lazily instantiated when
      * needed for the first time.
@@ -714,7 +727,7 @@ public class VerifyingFile {
             if (verifiedBlocks.getSize() > 0) {
                 partialBlocks.add(verifiedBlocks);
                 verifiedBlocks.clear();
-                diskController.get().addDiskJobWithoutChunk(new EmptyVerifier(existingFileSize));
+                scheduleVerifier(existingFileSize);
             }
         }
         
@@ -728,7 +741,7 @@ public class VerifyingFile {
         if (previous == null && tree != null && (existingFileSize != -1 ||
                 (pendingBlocks.getSize() == 0 && partialBlocks.getSize() > 0))
            ) {
-            diskController.get().addDiskJobWithoutChunk(new EmptyVerifier(existingFileSize));
+            scheduleVerifier(existingFileSize);
             existingFileSize = -1;
         }
         return true;
@@ -754,10 +767,22 @@ public class VerifyingFile {
     }
     
     /**
-     * Stub for calling verifyChunks(-1).
+     * Schedules a Verifier that looks for verifiable partial blocks, and
+     * scans the first <code>existingFileSize</code> bytes of the file if that
+     * isn't -1.  Only one Verifier runs per file; if one is already scheduled
+     * it makes another pass.
      */
-    private void verifyChunks() {
-        verifyChunks(-1);
+    private synchronized void scheduleVerifier(long existingFileSize) {
+        if (existingFileSize != -1)
+            verifyScanSize = existingFileSize;
+        else
+            verifyPartial = true;
+        
+        if (verifierScheduled)
+            return;
+        verifierScheduled = true;
+        chunksScheduledPerFile++;
+        diskController.get().addVerifyJob(new Verifier());
     }
     
 	/**
@@ -845,7 +870,9 @@ public class VerifyingFile {
     }
     
     /**
-     * Runnable that writes chunks to disk & verifies partial blocks.
+     * Writes chunks to disk & schedules the verification of partial blocks.
+     * The chunks queued for the file are written together, with one write
+     * for each run of adjacent chunks.
      */
     private class ChunkHandler extends ChunkDiskJob {
         
@@ -856,7 +883,7 @@ public class VerifyingFile {
         private boolean freedPending = false;
         
         public ChunkHandler(byte[] buf, Range intvl) {
-            super(buf);
+            super(buf, VerifyingFile.this);
             this.intvl = intvl;
             long length = intvl.getHigh() - intvl.getLow() + 1;
             assert length <= buf.length : 
@@ -865,27 +892,78 @@ public class VerifyingFile {
         
         @Override
         public void runChunkJob(byte[] buf) {
+            runChunkJobs(Collections.<ChunkDiskJob>singletonList(this));
+        }
+        
+        @Override
+        void runChunkJobs(List<ChunkDiskJob> jobs) {
+            List<ChunkHandler> handlers = new ArrayList<ChunkHandler>(jobs.size());
+            for (ChunkDiskJob job : jobs)
+                handlers.add((ChunkHandler)job);
+            Collections.sort(handlers, new Comparator<ChunkHandler>() {
+                public int compare(ChunkHandler a, ChunkHandler b) {
+                    long low = a.intvl.getLow();
+                    long otherLow = b.intvl.getLow();
+                    return low < otherLow ? -1 : (low == otherLow ? 0 : 1);
+                }
+            });
+            
+            boolean wrote = false;
+            int start = 0;
+            while (start < handlers.size()) {
+                int end = start + 1;
+                while (end < handlers.size() &&
+                        handlers.get(end).intvl.getLow() == handlers.get(end - 1).intvl.getHigh() + 1)
+                    end++;
+                wrote |= write(handlers.subList(start, end));
+                start = end;
+            }
+            
+            if (wrote)
+                scheduleVerifier(-1);
+        }
+        
+        /**
+         * Writes the chunks of <code>run</code>, which are adjacent, with a
+         * single gathering write.
+         * @return true if they were written
+         */
+        private boolean write(List<ChunkHandler> run) {
+            long low = run.get(0).intvl.getLow();
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                Range range = run.get(i).intvl;
+                buffers[i] = ByteBuffer.wrap(run.get(i).getChunk(), 0,
+                        (int)(range.getHigh() - range.getLow() + 1));
+            }
+            
     		try {
     		    if(LOG.isTraceEnabled())
-    		        LOG.trace("Writing intvl: " + intvl);
+    		        LOG.trace("Writing " + run.size() + " chunks from: " + low +
+    		                " to: " + run.get(run.size() - 1).intvl.getHigh());
                 
     			synchronized(fos) {
-    				fos.seek(intvl.getLow());
-    				fos.write(buf, 0, (int)(intvl.getHigh() - intvl.getLow() + 1));
+    			    FileChannel channel = fos.getChannel();
+    			    channel.position(low);
+    			    while (buffers[buffers.length - 1].hasRemaining())
+    			        channel.write(buffers);
     			}
     			
     			synchronized(VerifyingFile.this) {
-    			    pendingBlocks.delete(intvl);
-    			    partialBlocks.add(intvl);
-                    freedPending = true;
+    			    for (ChunkHandler handler : run) {
+    			        pendingBlocks.delete(handler.intvl);
+    			        partialBlocks.add(handler.intvl);
+    			        handler.freedPending = true;
+    			    }
     			}
-    			
-    			verifyChunks();
+    			return true;
             } catch(IOException diskIO) {
                 synchronized(VerifyingFile.this) {
-                    pendingBlocks.delete(intvl);
+                    for (ChunkHandler handler : run)
+                        pendingBlocks.delete(handler.intvl);
                     storedException = diskIO;
                 }
+                return false;
             }
         }
         
@@ -904,18 +982,41 @@ public class VerifyingFile {
         }
 	}
     
-    /**  A simple Runnable that schedules a verification of the file. */
-    private class EmptyVerifier implements Runnable {
-    	private final long existingFileSize;
-    	
-    	EmptyVerifier(long existingFileSize) {
-    	    this.existingFileSize = existingFileSize;
-    	}
-        
+    /**
+     * Verifies the partial blocks, and scans the file if asked to, until
+     * no more verification is requested.
+     */
+    private class Verifier implements Runnable {
         public void run() {
-            verifyChunks(existingFileSize);
-            synchronized(VerifyingFile.this) {
-                VerifyingFile.this.notify();
+            boolean done = false;
+            try {
+                while (true) {
+                    long scanSize;
+                    boolean partial;
+                    synchronized (VerifyingFile.this) {
+                        scanSize = verifyScanSize;
+                        partial = verifyPartial;
+                        verifyScanSize = -1;
+                        verifyPartial = false;
+                        if (scanSize == -1 && !partial) {
+                            verifierScheduled = false;
+                            done = true;
+                            return;
+                        }
+                    }
+    	
+                    if (scanSize != -1)
+                        verifyChunks(scanSize);
+                    if (partial)
+                        verifyChunks(-1);
+                }
+            } finally {
+                synchronized (VerifyingFile.this) {
+                    if (!done)
+                        verifierScheduled = false;
+                    --chunksScheduledPerFile;
+                    VerifyingFile.this.notifyAll();
+                }
             }
         }
     }
@@ -1,6 +1,8 @@
 package com.limegroup.gnutella.filters;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
@@ -14,10 +16,40 @@ import com.limegroup.gnutella.messages.QueryRequest;
  * A spam filter that removes certain "bad" keywords. 
  * If <i>any</i> words in a query are in the banned set, the
  * query is disallowed.
+ * <p>
+ * The banned words are compiled into a {@link KeywordMatcher}, which is
+ * rebuilt lazily when words are added.
  */
 public class KeywordFilter implements SpamFilter {
+    /** Well-known "adult" words, banned by {@link #disallowAdult()}. */
+    static final List<String> ADULT_WORDS = Collections.unmodifiableList(Arrays.asList(
+            "adult", "anal", "anul", "ass", "boob", "blow", "bondage", "centerfold",
+            "cock", "cum", "cumshot", "cunt", "dick", "dicks", "dildo", "facial", "fuck",
+            "gangbang", "hentai", "horny", "incest", "jenna", "masturbat", "milf",
+            "nipple", "orgasm", "pedo", "penis", "playboy", "porn", "porno", "pussy",
+            "rape", "sex", "slut", "squirt", "stripper", "suck", "tits", "tittie",
+            "titty", "twat", "underage", "vagina", "whore", "xxx"));
+
     /** INVARIANT: strings in ban contain only lowercase */
     private List<String> ban=new ArrayList<String>();
+
+    /**
+     * The automaton for the words in ban, or null if it has to be rebuilt
+     * because words were added.
+     */
+    private volatile KeywordMatcher matcher;
+
+    public KeywordFilter() {
+    }
+
+    /**
+     * Creates a filter banning the words of the given matcher, which
+     * can be shared with other filters.
+     */
+    KeywordFilter(KeywordMatcher matcher) {
+        ban.addAll(matcher.getWords());
+        this.matcher = matcher;
+    }
     
     /** 
      * @modifies this
@@ -25,8 +57,10 @@ public class KeywordFilter implements SpamFilter {
      */
     public void disallow(String phrase) { 
         String canonical = phrase.toLowerCase(Locale.US);
-        if (!ban.contains(canonical))
+        if (!ban.contains(canonical)) {
             ban.add(canonical);
+            matcher = null;
+        }
     }
 
     /** 
@@ -34,52 +68,8 @@ public class KeywordFilter implements SpamFilter {
      * @effects bans several well-known "adult" words.
      */
     public void disallowAdult() {
-        disallow("adult");
-        disallow("anal");
-        disallow("anul");
-        disallow("ass");
-        disallow("boob");
-        disallow("blow");
-        disallow("bondage");
-        disallow("centerfold");
-        disallow("cock");
-        disallow("cum");
-        disallow("cumshot");
-        disallow("cunt");
-        disallow("dick");
-        disallow("dicks");
-        disallow("dildo");
-        disallow("facial");
-        disallow("fuck");
-        disallow("gangbang");
-        disallow("hentai");
-        disallow("horny");
-        disallow("incest");
-        disallow("jenna");
-        disallow("masturbat");
-        disallow("milf");
-        disallow("nipple");
-        disallow("orgasm");
-        disallow("pedo");
-        disallow("penis");
-        disallow("playboy");
-        disallow("porn");
-        disallow("porno");
-        disallow("pussy");
-        disallow("rape");
-        disallow("sex");
-        disallow("slut");
-        disallow("squirt");
-        disallow("stripper");
-        disallow("suck");
-        disallow("tits");
-        disallow("tittie");
-        disallow("titty");
-        disallow("twat");
-        disallow("underage");
-        disallow("vagina");
-        disallow("whore");
-        disallow("xxx");
+        for (String word : ADULT_WORDS)
+            disallow(word);
     }
 
     /**
@@ -125,12 +115,19 @@ public class KeywordFilter implements SpamFilter {
      * Returns true if phrase matches any of the entries in ban.
      */
     protected boolean matches(String phrase) {
-        String canonical=phrase.toLowerCase(Locale.US);
-        for (int i=0; i<ban.size(); i++) {
-            String badWord = ban.get(i);
-            if (canonical.indexOf(badWord)!=-1)
-                return true;
+        return getMatcher().matches(phrase);
+    }
+
+    /**
+     * Returns the automaton for the banned words, building it if words
+     * were added since it was last used.
+     */
+    KeywordMatcher getMatcher() {
+        KeywordMatcher current = matcher;
+        if (current == null) {
+            current = new KeywordMatcher(ban);
+            matcher = current;
         }
-        return false;
+        return current;
     }
 }
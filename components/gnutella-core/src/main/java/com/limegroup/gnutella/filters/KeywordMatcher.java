@@ -0,0 +1,193 @@
+package com.limegroup.gnutella.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds whether any of a set of keywords occurs in a phrase, ignoring case.
+ * <p>
+ * The keywords are compiled into an Aho-Corasick automaton, so a phrase is
+ * checked in a single pass over its characters regardless of how many
+ * keywords there are, and without allocating anything.  Instances are
+ * immutable and can be shared by any number of filters and threads; to
+ * change the keywords, build a new matcher.
+ * <p>
+ * The automaton is stored as a dense transition table over the characters
+ * that occur in the keywords; all other characters lead back to the start
+ * state.
+ */
+public final class KeywordMatcher {
+
+    /** Value in the transition table for a transition into a matching state. */
+    private static final int MATCH = -1;
+
+    /** Value in the transition table for a missing transition while building. */
+    private static final int NONE = -2;
+
+    /** The lowercased keywords, in the order they were given. */
+    private final List<String> words;
+
+    /** True if the empty keyword is banned, which matches every phrase. */
+    private final boolean matchesEverything;
+
+    /** The alphabet index of each ASCII character, 0 if not in the alphabet. */
+    private final int[] asciiIndex = new int[128];
+
+    /** The sorted non-ASCII characters of the alphabet. */
+    private final char[] otherChars;
+
+    /** The number of columns in the transition table. */
+    private final int alphabetSize;
+
+    /**
+     * The transition table.  A state is the offset of its row, the next
+     * state for a character is found at <code>state + index(char)</code>.
+     */
+    private final int[] transitions;
+
+    /**
+     * Compiles the given keywords.  Capitalization does not matter.
+     */
+    public KeywordMatcher(Collection<String> keywords) {
+        Set<String> canonical = new LinkedHashSet<String>();
+        for(String keyword : keywords)
+            canonical.add(canonicalize(keyword));
+        words = Collections.unmodifiableList(new ArrayList<String>(canonical));
+        matchesEverything = canonical.contains("");
+
+        // Build the alphabet; index 0 stands for all other characters.
+        StringBuilder others = new StringBuilder();
+        int nextIndex = 1;
+        int length = 1;
+        for(String word : words) {
+            length += word.length();
+            for(int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                if(c < 128) {
+                    if(asciiIndex[c] == 0)
+                        asciiIndex[c] = nextIndex++;
+                } else if(others.indexOf(String.valueOf(c)) == -1) {
+                    others.append(c);
+                }
+            }
+        }
+        otherChars = others.toString().toCharArray();
+        Arrays.sort(otherChars);
+        alphabetSize = nextIndex + otherChars.length;
+        for(char c = 'A'; c <= 'Z'; c++)
+            asciiIndex[c] = asciiIndex[Character.toLowerCase(c)];
+
+        transitions = build(length);
+    }
+
+    /**
+     * Returns the keywords this matches, lowercased.
+     */
+    public List<String> getWords() {
+        return words;
+    }
+
+    /**
+     * Returns true if any of the keywords is a substring of the phrase,
+     * ignoring case.
+     */
+    public boolean matches(CharSequence phrase) {
+        if(matchesEverything)
+            return true;
+        int state = 0;
+        for(int i = 0, length = phrase.length(); i < length; i++) {
+            state = transitions[state + index(phrase.charAt(i))];
+            if(state == MATCH)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lowercases the keyword the way {@link #index(char)} lowercases each
+     * character of a phrase.
+     */
+    private static String canonicalize(String keyword) {
+        char[] chars = keyword.toLowerCase(Locale.US).toCharArray();
+        for(int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(chars[i]);
+        return new String(chars);
+    }
+
+    /** Returns the alphabet index of the character. */
+    private int index(char c) {
+        if(c < 128)
+            return asciiIndex[c];
+        c = Character.toLowerCase(c);
+        if(c < 128)
+            return asciiIndex[c];
+        int i = Arrays.binarySearch(otherChars, c);
+        return i < 0 ? 0 : alphabetSize - otherChars.length + i;
+    }
+
+    /**
+     * Builds the trie of the keywords, then turns it into a complete
+     * automaton by following the failure links breadth first.
+     * Matching states are never left, so nothing below them is needed.
+     */
+    private int[] build(int maxStates) {
+        int[] next = new int[maxStates * alphabetSize];
+        Arrays.fill(next, NONE);
+        boolean[] terminal = new boolean[maxStates];
+        int states = 1;
+        for(String word : words) {
+            int state = 0;
+            for(int i = 0; i < word.length() && !terminal[state]; i++) {
+                int slot = state * alphabetSize + index(word.charAt(i));
+                if(next[slot] == NONE)
+                    next[slot] = states++;
+                state = next[slot];
+            }
+            terminal[state] = true;
+        }
+
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for(int c = 0; c < alphabetSize; c++) {
+            if(next[c] == NONE)
+                next[c] = 0;
+            else if(next[c] != 0)
+                queue[tail++] = next[c];
+        }
+        while(head < tail) {
+            int state = queue[head++];
+            if(terminal[state])
+                continue;
+            int row = state * alphabetSize;
+            int failRow = fail[state] * alphabetSize;
+            for(int c = 0; c < alphabetSize; c++) {
+                int target = next[row + c];
+                if(target == NONE) {
+                    next[row + c] = next[failRow + c];
+                } else {
+                    fail[target] = next[failRow + c];
+                    if(terminal[fail[target]])
+                        terminal[target] = true;
+                    queue[tail++] = target;
+                }
+            }
+        }
+
+        int[] table = new int[states * alphabetSize];
+        for(int i = 0; i < table.length; i++) {
+            int target = next[i];
+            if(target == NONE)
+                table[i] = 0;
+            else
+                table[i] = terminal[target] ? MATCH : target * alphabetSize;
+        }
+        return table;
+    }
+}
@@ -1,5 +1,8 @@
 package com.limegroup.gnutella.filters;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
 
 import org.limewire.core.settings.FilterSettings;
@@ -17,6 +20,15 @@ class SpamFilterFactoryImpl implements SpamFilterFactory {
     private final Provider<URNFilter> urnFilter;
     private final Provider<AnomalousQueryFilter> anomalousQueryFilter;
 
+    /**
+     * The keyword automaton shared by all personal filters, and the words
+     * it was built from.  Rebuilt only when the banned words change.
+     * 
+     * LOCKING: this
+     */
+    private KeywordMatcher keywordMatcher;
+    private List<String> keywordMatcherWords;
+
     @Inject
     public SpamFilterFactoryImpl(Provider<MutableGUIDFilter> mutableGUIDFilter, 
             Provider<HostileFilter> hostileFilter,
@@ -49,15 +61,13 @@ class SpamFilterFactoryImpl implements SpamFilterFactory {
         boolean filterAdult = FilterSettings.FILTER_ADULT.getValue();
         
         if (badWords.length!=0 || badExtensions.length!=0 || filterAdult) {
-            KeywordFilter kf=new KeywordFilter();
-            for (String badWord : badWords)
-                kf.disallow(badWord);
-            for (String badExt : badExtensions)
-                kf.disallow(badExt);
+            List<String> words = new ArrayList<String>();
+            words.addAll(Arrays.asList(badWords));
+            words.addAll(Arrays.asList(badExtensions));
             if (filterAdult)
-                kf.disallowAdult();
+                words.addAll(KeywordFilter.ADULT_WORDS);
 
-            buf.add(kf);
+            buf.add(new KeywordFilter(getKeywordMatcher(words)));
         }
 
         //3. Spammy Replies
@@ -110,6 +120,18 @@ class SpamFilterFactoryImpl implements SpamFilterFactory {
         return compose(buf);
     }
 
+    /**
+     * Returns the shared automaton for the given words, building a new one
+     * if they differ from the last ones.
+     */
+    private synchronized KeywordMatcher getKeywordMatcher(List<String> words) {
+        if (keywordMatcher == null || !words.equals(keywordMatcherWords)) {
+            keywordMatcher = new KeywordMatcher(words);
+            keywordMatcherWords = words;
+        }
+        return keywordMatcher;
+    }
+
     /**
      * Returns a composite filter of the given filters.
      * @param filters a Vector of SpamFilter.
@@ -25,7 +25,7 @@ public class AsyncIncomingHandshaker implements Handshaker, IOStateObserver {
         this.socket = socket;
         this.support = new HandshakeSupport(socket.getInetAddress().getHostAddress());
         List<IOState> states = HandshakeState.getIncomingHandshakeStates(support, responder);
-        this.shaker = new IOStateMachine(this, states);
+        this.shaker = new IOStateMachine(this, states, socket);
         this.observer = observer;
     }
 
@@ -30,7 +30,7 @@ public class AsyncOutgoingHandshaker implements Handshaker, IOStateObserver {
         this.socket = socket;
         this.support = new HandshakeSupport(socket.getInetAddress().getHostAddress());
         List<IOState> states = HandshakeState.getOutgoingHandshakeStates(support, requestHeaders, responder);
-        this.shaker = new IOStateMachine(this, states);
+        this.shaker = new IOStateMachine(this, states, socket);
         this.observer = observer;
     }
 
@@ -0,0 +1,280 @@
+package com.limegroup.gnutella.library;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.io.IOUtils;
+import org.limewire.util.ByteUtils;
+
+/**
+ * A file of records that can be appended to, used to persist the library
+ * caches without serializing the whole cache on every change.
+ * <p>
+ * The file starts with a header of a magic number, the kind of cache stored
+ * and the version of its record format.  It is followed by records, each one
+ * the length of its data, a CRC32 of the data and the data itself.  Reading
+ * stops at the first record that is cut short or fails its checksum, which
+ * is what a crash in the middle of an append leaves behind; the next append
+ * overwrites it.
+ * <p>
+ * Records usually describe changes (an entry was added or removed), so the
+ * file grows as the cache changes.  Callers should {@link #rewrite(Collection)}
+ * the file with one record per live entry when {@link #shouldCompact(int)}
+ * says so.  Rewriting goes to a temporary file that is renamed over the log
+ * once it is complete.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class CacheLog {
+
+    private static final Log LOG = LogFactory.getLog(CacheLog.class);
+
+    /** The first four bytes of every log, "LWCL". */
+    private static final int MAGIC = 0x4C57434C;
+
+    /** The length of the header. */
+    private static final int HEADER_LENGTH = 12;
+
+    /** The length of the length and checksum in front of each record. */
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    /** The largest record that will be read. */
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    /** Records beyond the live ones that are tolerated before compacting. */
+    private static final int MIN_GARBAGE = 256;
+
+    /** A record as written by a cache. */
+    static interface Record {
+        void write(DataOutput out) throws IOException;
+    }
+
+    /** Receives the records of a log as they're read. */
+    static interface RecordReader {
+        /**
+         * Reads one record.  An IOException only skips this record.
+         */
+        void read(DataInput in) throws IOException;
+    }
+
+    private final File file;
+
+    private final File tmpFile;
+
+    private final int kind;
+
+    private final int version;
+
+    /** The length of the valid part of the file, -1 if not known. */
+    private long validLength = -1;
+
+    /** The number of records in the valid part of the file. */
+    private int records;
+
+    /** Reused to build records before they are written. */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param file the log
+     * @param kind identifies the cache stored in the log
+     * @param version the version of the cache's record format, logs with
+     * another version are not read
+     */
+    CacheLog(File file, int kind, int version) {
+        this.file = file;
+        this.tmpFile = new File(file.getPath() + ".tmp");
+        this.kind = kind;
+        this.version = version;
+    }
+
+    /** Returns the file of the log. */
+    File getFile() {
+        return file;
+    }
+
+    /** Returns true if the log or a complete rewrite of it exists. */
+    boolean exists() {
+        return file.exists() || tmpFile.exists();
+    }
+
+    /** Returns the number of records that were read or written. */
+    int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Returns true if the log has so many records more than the cache has
+     * live entries that it should be rewritten.
+     */
+    boolean shouldCompact(int liveEntries) {
+        return records > 2 * liveEntries + MIN_GARBAGE;
+    }
+
+    /**
+     * Reads all records of the log, in the order they were written.
+     *
+     * @return false if the log does not exist or is not a log of
+     * this kind and version
+     */
+    boolean read(RecordReader reader) throws IOException {
+        // a rewrite completed but was not renamed before the last shutdown
+        if(!file.exists() && tmpFile.exists())
+            tmpFile.renameTo(file);
+
+        validLength = -1;
+        records = 0;
+        if(!file.exists())
+            return false;
+
+        byte[] data = readFully();
+        if(data.length < HEADER_LENGTH)
+            return false;
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data, 0, HEADER_LENGTH));
+        if(header.readInt() != MAGIC || header.readInt() != kind || header.readInt() != version) {
+            LOG.warn("Not a log of this kind or version: " + file);
+            return false;
+        }
+
+        int offset = HEADER_LENGTH;
+        while(data.length - offset >= RECORD_HEADER_LENGTH) {
+            int length = ByteUtils.beb2int(data, offset);
+            int checksum = ByteUtils.beb2int(data, offset + 4);
+            int start = offset + RECORD_HEADER_LENGTH;
+            if(length < 0 || length > MAX_RECORD_LENGTH || length > data.length - start)
+                break;
+            crc.reset();
+            crc.update(data, start, length);
+            if((int)crc.getValue() != checksum)
+                break;
+
+            try {
+                reader.read(new DataInputStream(new ByteArrayInputStream(data, start, length)));
+            } catch(IOException iox) {
+                LOG.warn("Skipping unreadable record in " + file, iox);
+            }
+            records++;
+            offset = start + length;
+        }
+        if(offset != data.length)
+            LOG.warn("Ignoring " + (data.length - offset) + " trailing bytes in " + file);
+        validLength = offset;
+        return true;
+    }
+
+    /**
+     * Appends the records to the log.  If the log was not read before or
+     * could not be read, it is rewritten with just these records.
+     */
+    void append(Collection<? extends Record> toAppend) throws IOException {
+        if(validLength < 0 || !file.exists()) {
+            rewrite(toAppend);
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // drop whatever an interrupted append left behind
+            raf.setLength(validLength);
+            raf.seek(validLength);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(raf.getFD()));
+            long written = writeRecords(out, toAppend);
+            out.flush();
+            validLength += written;
+            records += toAppend.size();
+        } finally {
+            IOUtils.close(raf);
+        }
+    }
+
+    /**
+     * Replaces the log with a new one containing only the records.
+     */
+    void rewrite(Collection<? extends Record> toWrite) throws IOException {
+        OutputStream out = null;
+        long written;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            DataOutputStream dos = new DataOutputStream(out);
+            dos.writeInt(MAGIC);
+            dos.writeInt(kind);
+            dos.writeInt(version);
+            written = HEADER_LENGTH + writeRecords(dos, toWrite);
+            dos.flush();
+        } finally {
+            IOUtils.close(out);
+        }
+
+        file.delete();
+        if(!tmpFile.renameTo(file))
+            throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        validLength = written;
+        records = toWrite.size();
+    }
+
+    /** Deletes the log. */
+    void delete() {
+        file.delete();
+        tmpFile.delete();
+        validLength = -1;
+        records = 0;
+    }
+
+    /**
+     * Writes the records with their lengths and checksums.
+     *
+     * @return the number of bytes written
+     */
+    private long writeRecords(OutputStream out, Collection<? extends Record> toWrite) throws IOException {
+        long written = 0;
+        DataOutputStream recordOut = new DataOutputStream(buffer);
+        byte[] recordHeader = new byte[RECORD_HEADER_LENGTH];
+        for(Record record : toWrite) {
+            buffer.reset();
+            record.write(recordOut);
+            recordOut.flush();
+            byte[] data = buffer.toByteArray();
+            if(data.length > MAX_RECORD_LENGTH)
+                throw new IOException("record too large: " + data.length);
+            crc.reset();
+            crc.update(data);
+            ByteUtils.int2beb(data.length, recordHeader, 0);
+            ByteUtils.int2beb((int)crc.getValue(), recordHeader, 4);
+            out.write(recordHeader);
+            out.write(data);
+            written += RECORD_HEADER_LENGTH + data.length;
+        }
+        return written;
+    }
+
+    /** Reads the whole log in one go. */
+    private byte[] readFully() throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long length = in.getChannel().size();
+            if(length > Integer.MAX_VALUE)
+                throw new IOException("log too large: " + length);
+            byte[] data = new byte[(int)length];
+            new DataInputStream(in).readFully(data);
+            return data;
+        } finally {
+            IOUtils.close(in);
+        }
+    }
+}
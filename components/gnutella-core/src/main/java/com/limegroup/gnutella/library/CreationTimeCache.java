@@ -1,13 +1,12 @@
 package com.limegroup.gnutella.library;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -60,7 +59,10 @@ import com.limegroup.gnutella.messages.QueryRequest;
  * the case that the URNs in the sets of the Time->URNSet lookup are a subset
  * of the URNs in the URN->Time lookup.  For more details, see addTime and
  * commitTime.
- * 
+ * <br>
+ * The URN->Time lookup is persisted in a {@link CacheLog}, appending the
+ * times that changed since it was last persisted.  A cache serialized by
+ * older versions is read once and rewritten as a log.
  */
 @Singleton
 public class CreationTimeCache {
@@ -70,14 +72,47 @@ public class CreationTimeCache {
     /**
      * File where creation times for files are stored.
      */
+    private final File CTIME_LOG_FILE = 
+        new File(CommonUtils.getUserSettingsDir(), "createtimes.log");
+    
+    /**
+     * File where older versions stored the serialized creation times.
+     */
     private final File CTIME_CACHE_FILE = 
         new File(CommonUtils.getUserSettingsDir(), "createtimes.cache");
     
+    /** The kind of log the times are stored in, "TIME". */
+    private static final int LOG_KIND = 0x54494D45;
+    
+    /** The version of the records in the log. */
+    private static final int LOG_VERSION = 1;
+    
+    /** Record that sets the creation time of a URN. */
+    private static final byte PUT = 1;
+    
+    /** Record that removes the creation time of a URN. */
+    private static final byte REMOVE = 2;
+    
     /**
      * Whether or not data is dirty since the last time we saved.
      */
     private volatile boolean dirty = false;
     
+    /**
+     * Whether all times must be written to a new log, instead of appending
+     * the changes, because the log could not be read.
+     */
+    private volatile boolean rewrite = false;
+    
+    /** The log the times are persisted to. */
+    private final CacheLog log = new CacheLog(CTIME_LOG_FILE, LOG_KIND, LOG_VERSION);
+    
+    /**
+     * The times changed since they were last persisted, null for removed
+     * times.  Guarded by this.
+     */
+    private final Map<URN, Long> changes = new HashMap<URN, Long>();
+    
     private final ExecutorService deserializeQueue = ExecutorsHelper.newProcessingQueue("CreationTimeCacheDeserializer");
     
     private final FileManager fileManager;
@@ -200,8 +235,10 @@ public class CreationTimeCache {
     synchronized void removeTime(URN urn) {
         Long time = getUrnToTime().remove(urn);
         removeURNFromURNSet(urn, time);
-        if(time != null)
+        if(time != null) {
+            changes.put(urn, null);
             dirty = true;
+        }
     }
 
 
@@ -225,6 +262,7 @@ public class CreationTimeCache {
                 if ((fd == null) || (fd.getFile() == null) || !fd.getFile().exists()) {
                     dirty = true;
                     iter.remove();
+                    changes.put(currURN, null);
                     if (shouldClearURNSetMap)
                         removeURNFromURNSet(currURN, cTime);
                 }
@@ -263,6 +301,7 @@ public class CreationTimeCache {
         if(existing == null || !existing.equals(cTime)) {
             dirty = true;
             getUrnToTime().put(urn, cTime);
+            changes.put(urn, cTime);
         }
     }
 
@@ -378,19 +417,25 @@ public class CreationTimeCache {
         if(!dirty)
             return;
         
+        Map<URN, Long> urnToTime = getUrnToTime();
+        
         //It's not ideal to hold a lock while writing to disk, but I doubt think
         //it's a problem in practice.
-        ObjectOutputStream oos = null;
         try {
-            oos = new ObjectOutputStream(
-                    new BufferedOutputStream(new FileOutputStream(CTIME_CACHE_FILE)));
-            oos.writeObject(getUrnToTime());
+            if(rewrite || log.shouldCompact(urnToTime.size())) {
+                log.rewrite(createRecords(urnToTime));
+                if(rewrite) // the old serialized cache has been migrated
+                    CTIME_CACHE_FILE.delete();
+                rewrite = false;
+            } else {
+                log.append(createRecords(changes));
+            }
         } catch (IOException e) {
             LOG.error("Unable to write creation cache", e);
-        } finally {
-            IOUtils.close(oos);
+            rewrite = true;
         }
         
+        changes.clear();
         dirty = false;
     }
 
@@ -449,9 +494,34 @@ public class CreationTimeCache {
 
 
     /**
-     * Loads values from cache file, if available.
+     * Returns records for the times, a removal for each URN mapped to null.
+     */
+    private static List<TimeRecord> createRecords(Map<URN, Long> times) {
+        List<TimeRecord> records = new ArrayList<TimeRecord>(times.size());
+        for(Map.Entry<URN, Long> entry : times.entrySet())
+            records.add(new TimeRecord(entry.getKey(), entry.getValue()));
+        return records;
+    }
+
+    /**
+     * Loads values from the log, if available.  If there is no readable log,
+     * tries the serialized cache file of older versions.
      */
     Map<URN, Long> createMap() {
+        final Map<URN, Long> map = new HashMap<URN, Long>();
+        try {
+            if(log.read(new CacheLog.RecordReader() {
+                public void read(DataInput in) throws IOException {
+                    readRecord(in, map);
+                }
+            })) {
+                return map;
+            }
+        } catch(IOException iox) {
+            LOG.error("Unable to read creation time log", iox);
+        }
+        
+        rewrite = true;
         if (!CTIME_CACHE_FILE.exists()) {
             dirty = true;
             return new HashMap<URN, Long>();
@@ -460,8 +530,9 @@ public class CreationTimeCache {
 		try {
             ois = new ConverterObjectInputStream(new BufferedInputStream(
                             new FileInputStream(CTIME_CACHE_FILE)));
-            Map<URN, Long> map = GenericsUtils.scanForMap(ois.readObject(), URN.class, Long.class, GenericsUtils.ScanMode.REMOVE);
-            return map;
+            Map<URN, Long> oldMap = GenericsUtils.scanForMap(ois.readObject(), URN.class, Long.class, GenericsUtils.ScanMode.REMOVE);
+            dirty = true;
+            return oldMap;
 	    } catch(Throwable t) {
             dirty = true;
 	        LOG.error("Unable to read creation time file", t);
@@ -471,6 +542,44 @@ public class CreationTimeCache {
         }
 	}
     
+    /**
+     * Applies a record read from the log to the map.
+     */
+    private static void readRecord(DataInput in, Map<URN, Long> map) throws IOException {
+        byte type = in.readByte();
+        URN urn = URN.createUrnFromString(in.readUTF());
+        switch(type) {
+        case PUT:
+            map.put(urn, in.readLong());
+            break;
+        case REMOVE:
+            map.remove(urn);
+            break;
+        default:
+            throw new IOException("unknown record: " + type);
+        }
+    }
+    
+    /**
+     * A record of the creation time of a URN, or of its removal.
+     */
+    private static class TimeRecord implements CacheLog.Record {
+        private final URN urn;
+        private final Long time;
+        
+        TimeRecord(URN urn, Long time) {
+            this.urn = urn;
+            this.time = time;
+        }
+        
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(time == null ? REMOVE : PUT);
+            out.writeUTF(urn.toString());
+            if(time != null)
+                out.writeLong(time);
+        }
+    }
+    
     private static class Maps {
         /** URN -> Creation Time (Long) */
        private final Map<URN, Long> urnToTime;
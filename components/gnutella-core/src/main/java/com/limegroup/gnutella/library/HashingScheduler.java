@@ -0,0 +1,306 @@
+package com.limegroup.gnutella.library;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.concurrent.ListeningFuture;
+import org.limewire.concurrent.ListeningFutureTask;
+import org.limewire.core.settings.SharingSettings;
+import org.limewire.io.IOUtils;
+import org.limewire.util.OSUtils;
+import org.limewire.util.SystemUtils;
+
+import com.limegroup.gnutella.URN;
+
+/**
+ * Schedules files to be hashed by a number of worker threads.
+ * <p>
+ * Files are grouped by the disk (mount point) they reside on, and only
+ * {@link SharingSettings#HASHING_THREADS_PER_DISK} files of the same disk
+ * are hashed at the same time, so that the disk isn't forced to seek back
+ * and forth between files.  Within a disk, smaller files are hashed before
+ * larger ones, so that a huge file doesn't hold up the rest of the library.
+ * <p>
+ * If {@link SharingSettings#FRIENDLY_HASHING} is on and the user isn't idle,
+ * only one file is hashed at a time.
+ */
+class HashingScheduler {
+
+    private static final Log LOG = LogFactory.getLog(HashingScheduler.class);
+
+    /** How long a worker lingers waiting for new jobs before it exits. */
+    private static final long WORKER_LINGER_TIME = 5 * 1000;
+
+    /** How often a waiting worker rechecks whether the user became idle. */
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    /** Orders jobs smallest file first, and in submission order if equal. */
+    private static final Comparator<Job<?>> JOB_COMPARATOR = new Comparator<Job<?>>() {
+        public int compare(Job<?> a, Job<?> b) {
+            if(a.length != b.length)
+                return a.length < b.length ? -1 : 1;
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final ThreadFactory threadFactory;
+
+    /** Pending jobs for each disk, keyed by mount point. */
+    private final Map<String, PriorityQueue<Job<?>>> pending = new HashMap<String, PriorityQueue<Job<?>>>();
+
+    /** The number of jobs being processed for each disk. */
+    private final Map<String, Integer> active = new HashMap<String, Integer>();
+
+    /** The mount points files are grouped by, longest first. */
+    private final List<String> mountPoints;
+
+    private int activeJobs;
+    private int pendingJobs;
+    private int workers;
+    private long sequence;
+
+    HashingScheduler(String name) {
+        this(ExecutorsHelper.daemonThreadFactory(name), loadMountPoints());
+    }
+
+    HashingScheduler(ThreadFactory threadFactory, List<String> mountPoints) {
+        this.threadFactory = threadFactory;
+        this.mountPoints = mountPoints;
+    }
+
+    /**
+     * Schedules the callable to be run for the given file.
+     */
+    public <V> ListeningFuture<V> submit(File file, Callable<V> callable) {
+        Job<V> job = new Job<V>(callable, getMountPoint(file), file.length());
+        boolean startWorker;
+        synchronized(this) {
+            job.sequence = sequence++;
+            PriorityQueue<Job<?>> queue = pending.get(job.disk);
+            if(queue == null) {
+                queue = new PriorityQueue<Job<?>>(11, JOB_COMPARATOR);
+                pending.put(job.disk, queue);
+            }
+            queue.add(job);
+            pendingJobs++;
+            startWorker = workers < getMaxWorkers() && workers < pendingJobs + activeJobs;
+            if(startWorker)
+                workers++;
+            notifyAll();
+        }
+
+        if(startWorker) {
+            if(LOG.isDebugEnabled())
+                LOG.debug("Starting hashing worker for: " + file);
+            threadFactory.newThread(new Worker()).start();
+        }
+
+        return job.future;
+    }
+
+    /** Returns the number of files waiting to be hashed. */
+    public synchronized int getPendingCount() {
+        return pendingJobs;
+    }
+
+    /** Returns the number of files currently being hashed. */
+    public synchronized int getActiveCount() {
+        return activeJobs;
+    }
+
+    /**
+     * Returns the mount point the file is stored on, used to group
+     * files by disk.
+     */
+    String getMountPoint(File file) {
+        String path = file.getAbsolutePath();
+        for(String mount : mountPoints) {
+            if(path.startsWith(mount))
+                return mount;
+        }
+        return "";
+    }
+
+    private static int getMaxWorkers() {
+        return Math.max(1, SharingSettings.HASHING_THREADS.getValue());
+    }
+
+    /** Returns the number of jobs that may run now. */
+    private static int getAllowedJobs() {
+        if(SharingSettings.FRIENDLY_HASHING.getValue()
+                && SystemUtils.getIdleTime() < URN.MIN_IDLE_TIME)
+            return 1;
+        return getMaxWorkers();
+    }
+
+    /**
+     * Returns the next job that can be run, waiting for one to become
+     * available.  Returns null if no job became available for a while,
+     * in which case the worker should exit.
+     */
+    private synchronized Job<?> takeJob() throws InterruptedException {
+        long lingerUntil = System.currentTimeMillis() + WORKER_LINGER_TIME;
+        while(true) {
+            if(workers > getMaxWorkers()) {
+                workers--;
+                return null;
+            }
+
+            Job<?> job = pendingJobs > 0 && activeJobs < getAllowedJobs() ? pollJob() : null;
+            if(job != null)
+                return job;
+
+            long now = System.currentTimeMillis();
+            if(pendingJobs == 0 && now >= lingerUntil) {
+                workers--;
+                return null;
+            }
+
+            wait(pendingJobs == 0 ? lingerUntil - now : IDLE_CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * Removes the smallest pending job of the disks that are not yet fully busy.
+     */
+    private Job<?> pollJob() {
+        int perDisk = Math.max(1, SharingSettings.HASHING_THREADS_PER_DISK.getValue());
+        Job<?> best = null;
+        for(Map.Entry<String, PriorityQueue<Job<?>>> entry : pending.entrySet()) {
+            Integer running = active.get(entry.getKey());
+            if(running != null && running >= perDisk)
+                continue;
+            Job<?> head = entry.getValue().peek();
+            if(head != null && (best == null || JOB_COMPARATOR.compare(head, best) < 0))
+                best = head;
+        }
+
+        if(best != null) {
+            PriorityQueue<Job<?>> queue = pending.get(best.disk);
+            queue.poll();
+            if(queue.isEmpty())
+                pending.remove(best.disk);
+            Integer running = active.get(best.disk);
+            active.put(best.disk, running == null ? 1 : running + 1);
+            pendingJobs--;
+            activeJobs++;
+        }
+        return best;
+    }
+
+    private synchronized void jobFinished(Job<?> job) {
+        Integer running = active.get(job.disk);
+        if(running == null || running <= 1)
+            active.remove(job.disk);
+        else
+            active.put(job.disk, running - 1);
+        activeJobs--;
+        notifyAll();
+    }
+
+    /**
+     * Reads the mount points of the system, sorted longest first so
+     * that nested mounts are matched before their parents.
+     */
+    private static List<String> loadMountPoints() {
+        List<String> mounts = new ArrayList<String>();
+        for(File root : File.listRoots())
+            mounts.add(root.getAbsolutePath());
+
+        if(OSUtils.isMacOSX()) {
+            File[] volumes = new File("/Volumes").listFiles();
+            if(volumes != null) {
+                for(File volume : volumes)
+                    mounts.add(volume.getAbsolutePath() + File.separator);
+            }
+        } else if(OSUtils.isLinux()) {
+            mounts.addAll(readProcMounts());
+        }
+
+        Collections.sort(mounts, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        return mounts;
+    }
+
+    private static List<String> readProcMounts() {
+        List<String> mounts = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/mounts"));
+            String line;
+            while((line = reader.readLine()) != null) {
+                StringTokenizer st = new StringTokenizer(line);
+                if(st.countTokens() < 2)
+                    continue;
+                String device = st.nextToken();
+                String mount = st.nextToken().replace("\\040", " ");
+                // only real block devices are worth separating
+                if(!device.startsWith("/dev/") || mount.equals("/"))
+                    continue;
+                mounts.add(mount.endsWith(File.separator) ? mount : mount + File.separator);
+            }
+        } catch(IOException iox) {
+            LOG.debug("Unable to read mount points", iox);
+        } finally {
+            IOUtils.close(reader);
+        }
+        return mounts;
+    }
+
+    /** A file waiting to be hashed. */
+    private static class Job<V> {
+        private final ListeningFutureTask<V> future;
+        private final String disk;
+        private final long length;
+        private long sequence;
+
+        Job(Callable<V> callable, String disk, long length) {
+            this.future = new ListeningFutureTask<V>(callable);
+            this.disk = disk;
+            this.length = length;
+        }
+    }
+
+    /** Runs jobs until none are left. */
+    private class Worker implements Runnable {
+        public void run() {
+            try {
+                Job<?> job;
+                while((job = takeJob()) != null) {
+                    try {
+                        job.future.run();
+                    } finally {
+                        jobFinished(job);
+                    }
+                }
+            } catch(InterruptedException ie) {
+                synchronized(HashingScheduler.this) {
+                    workers--;
+                }
+            }
+        }
+    }
+
+    /** For tests, returns the number of running workers. */
+    synchronized int getWorkerCount() {
+        return workers;
+    }
+}
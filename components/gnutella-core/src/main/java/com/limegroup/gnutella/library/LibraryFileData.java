@@ -1,13 +1,12 @@
 package com.limegroup.gnutella.library;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,7 +27,6 @@ import org.limewire.collection.CollectionUtils;
 import org.limewire.core.api.Category;
 import org.limewire.core.settings.LibrarySettings;
 import org.limewire.core.settings.SharingSettings;
-import org.limewire.io.IOUtils;
 import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
 import org.limewire.setting.AbstractSettingsGroup;
@@ -40,10 +38,53 @@ import org.limewire.util.GenericsUtils.ScanMode;
 
 import com.limegroup.gnutella.CategoryConverter;
 
+/**
+ * The files and folders managed by the library, along with what they're
+ * shared with.
+ * <p>
+ * The data is stored in a {@link CacheLog}.  Saving appends a record for
+ * each file that changed since the last save, and when the folders or
+ * extensions changed, a record to clear them followed by all of them.
+ * Data saved as a serialized map by older versions is read once and
+ * rewritten as a log.
+ */
 class LibraryFileData extends AbstractSettingsGroup {
     
     private static final Log LOG = LogFactory.getLog(LibraryFileData.class);
     
+    /** The kind of log the data is stored in, "LIBR". */
+    private static final int LOG_KIND = 0x4C494252;
+    
+    /** The version of the records in the log. */
+    private static final int LOG_VERSION = 1;
+    
+    /** Record that clears the extensions and folders. */
+    private static final byte SETTINGS_CLEARED = 1;
+    
+    /** Record of a user-added extension. */
+    private static final byte USER_EXTENSION = 2;
+    
+    /** Record of a user-removed default extension. */
+    private static final byte USER_REMOVED = 3;
+    
+    /** Record of a folder that is managed recursively. */
+    private static final byte MANAGED_DIRECTORY = 4;
+    
+    /** Record of a folder that is not managed. */
+    private static final byte DO_NOT_MANAGE = 5;
+    
+    /** Record of the state of a file, replacing any earlier state. */
+    private static final byte FILE = 6;
+    
+    /** Flag of a FILE record, the file is explicitly managed. */
+    private static final int MANAGED = 1;
+    
+    /** Flag of a FILE record, the file is excluded from managing. */
+    private static final int EXCLUDED = 2;
+    
+    /** Flag of a FILE record, the file is shared with gnutella. */
+    private static final int GNUTELLA = 4;
+    
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     
     /** Default file extensions. */
@@ -71,6 +112,24 @@ class LibraryFileData extends AbstractSettingsGroup {
     private final Map<File, FileProperties> libraryManageData = new HashMap<File, FileProperties>();
     private volatile boolean dirty = false;
     
+    /** The files whose state changed since the last save.  Guarded by lock. */
+    private final Set<File> changedFiles = new HashSet<File>();
+    
+    /** Whether extensions or folders changed since the last save.  Guarded by lock. */
+    private boolean settingsChanged = false;
+    
+    /**
+     * Whether everything must be written to a new log on the next save,
+     * instead of appending the changes.  Guarded by lock.
+     */
+    private boolean rewrite = true;
+    
+    private final File logFile = new File(CommonUtils.getUserSettingsDir(), "library6.dat");
+    
+    /** The log, locked while it's written. */
+    private final CacheLog log = new CacheLog(logFile, LOG_KIND, LOG_VERSION);
+    
+    /** Files where older versions serialized the data. */
     private final File saveFile = new File(CommonUtils.getUserSettingsDir(), "library5.dat"); 
     private final File backupFile = new File(CommonUtils.getUserSettingsDir(), "library5.bak");
     
@@ -99,6 +158,7 @@ class LibraryFileData extends AbstractSettingsGroup {
         lock.writeLock().lock();
         try {
             dirty = true;
+            rewrite = true;
             userExtensions.clear();
             userRemoved.clear();
             directoriesToManageRecursively.clear();
@@ -115,47 +175,208 @@ class LibraryFileData extends AbstractSettingsGroup {
             return false;
         }
         
-        ObjectOutputStream out = null;
-        Map<String, Object> save = new HashMap<String, Object>();
-        lock.readLock().lock();
-        try {
-            save.put("USER_EXTENSIONS", userExtensions);
-            save.put("USER_REMOVED", userRemoved);
-            save.put("MANAGED_DIRECTORIES", directoriesToManageRecursively);
-            save.put("DO_NOT_MANAGE", directoriesNotToManage);
-            save.put("EXCLUDE_FILES", excludedFiles);
-            save.put("SHARE_DATA", libraryManageData);
-            
+        synchronized(log) {
+            List<DataRecord> records;
+            boolean compact;
+            lock.writeLock().lock();
             try {
-                out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(backupFile)));
-                out.writeObject(save);
-                out.flush();
-                out.close();
-                out = null;
-                // Rename backup to save, now that it saved.
-                saveFile.delete();
-                backupFile.renameTo(saveFile);                
+                compact = rewrite || log.shouldCompact(libraryManageData.size() + excludedFiles.size());
+                records = compact ? createAllRecords() : createChangedRecords();
+                changedFiles.clear();
+                settingsChanged = false;
+                rewrite = false;
                 dirty = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            
+            try {
+                if(compact) {
+                    log.rewrite(records);
+                    // the data of older versions has been migrated
+                    saveFile.delete();
+                    backupFile.delete();
+                } else {
+                    log.append(records);
+                }
             } catch(IOException iox) {
                 LOG.debug("IOX saving library", iox);
+                lock.writeLock().lock();
+                try {
+                    rewrite = true;
+                    dirty = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
             }
-        } finally {
-            lock.readLock().unlock();
-            IOUtils.close(out);
         }
         
         return true;
     }
     
+    /** Returns records for all the data.  Must hold the lock. */
+    private List<DataRecord> createAllRecords() {
+        List<DataRecord> records = new ArrayList<DataRecord>();
+        addSettingsRecords(records);
+        for(File file : libraryManageData.keySet()) {
+            records.add(createFileRecord(file));
+        }
+        for(File file : excludedFiles) {
+            if(!libraryManageData.containsKey(file)) {
+                records.add(createFileRecord(file));
+            }
+        }
+        return records;
+    }
+    
+    /** Returns records for the data changed since the last save.  Must hold the lock. */
+    private List<DataRecord> createChangedRecords() {
+        List<DataRecord> records = new ArrayList<DataRecord>();
+        if(settingsChanged) {
+            records.add(new DataRecord(SETTINGS_CLEARED, null));
+            addSettingsRecords(records);
+        }
+        for(File file : changedFiles) {
+            records.add(createFileRecord(file));
+        }
+        return records;
+    }
+    
+    /** Adds records for the extensions and folders.  Must hold the lock. */
+    private void addSettingsRecords(List<DataRecord> records) {
+        for(String extension : userExtensions) {
+            records.add(new DataRecord(USER_EXTENSION, extension));
+        }
+        for(String extension : userRemoved) {
+            records.add(new DataRecord(USER_REMOVED, extension));
+        }
+        for(File folder : directoriesToManageRecursively) {
+            records.add(new DataRecord(MANAGED_DIRECTORY, folder.getPath()));
+        }
+        for(File folder : directoriesNotToManage) {
+            records.add(new DataRecord(DO_NOT_MANAGE, folder.getPath()));
+        }
+    }
+    
+    /** Returns a record of the current state of the file.  Must hold the lock. */
+    private DataRecord createFileRecord(File file) {
+        int flags = 0;
+        Collection<String> friends = null;
+        FileProperties props = libraryManageData.get(file);
+        if(props != null) {
+            flags |= MANAGED;
+            if(props.gnutella) {
+                flags |= GNUTELLA;
+            }
+            if(props.friends != null) {
+                friends = new ArrayList<String>(props.friends);
+            }
+        }
+        if(excludedFiles.contains(file)) {
+            flags |= EXCLUDED;
+        }
+        return new DataRecord(file.getPath(), flags, friends);
+    }
+    
     void load() {
         boolean failed = false;
-        if(!loadFromFile(saveFile)) {
-            failed = !loadFromFile(backupFile);
+        boolean migrate = false;
+        if(!loadFromLog()) {
+            migrate = true;
+            if(!loadFromFile(saveFile)) {
+                failed = !loadFromFile(backupFile);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            changedFiles.clear();
+            settingsChanged = false;
+            rewrite = migrate;
+            dirty = failed || migrate;
+        } finally {
+            lock.writeLock().unlock();
         }
-        dirty = failed;
         loaded = true;
     }
     
+    /**
+     * Loads the data from the log.
+     * 
+     * @return false if there is no log or it could not be read
+     */
+    private boolean loadFromLog() {
+        if(!log.exists()) {
+            return false;
+        }
+        
+        synchronized(log) {
+            lock.writeLock().lock();
+            try {
+                clear();
+                return log.read(new CacheLog.RecordReader() {
+                    public void read(DataInput in) throws IOException {
+                        readRecord(in);
+                    }
+                });
+            } catch(IOException iox) {
+                LOG.error("Error loading library", iox);
+                return false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /** Applies a record read from the log.  Must hold the lock. */
+    private void readRecord(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch(type) {
+        case SETTINGS_CLEARED:
+            userExtensions.clear();
+            userRemoved.clear();
+            directoriesToManageRecursively.clear();
+            directoriesNotToManage.clear();
+            break;
+        case USER_EXTENSION:
+            userExtensions.add(in.readUTF());
+            break;
+        case USER_REMOVED:
+            userRemoved.add(in.readUTF());
+            break;
+        case MANAGED_DIRECTORY:
+            directoriesToManageRecursively.add(new File(in.readUTF()));
+            break;
+        case DO_NOT_MANAGE:
+            directoriesNotToManage.add(new File(in.readUTF()));
+            break;
+        case FILE:
+            File file = new File(in.readUTF());
+            int flags = in.readByte();
+            if((flags & MANAGED) != 0) {
+                FileProperties props = new FileProperties();
+                props.gnutella = (flags & GNUTELLA) != 0;
+                int friends = in.readInt();
+                if(friends > 0) {
+                    props.friends = new HashSet<String>();
+                    for(int i = 0; i < friends; i++) {
+                        props.friends.add(in.readUTF());
+                    }
+                }
+                libraryManageData.put(file, props);
+            } else {
+                libraryManageData.remove(file);
+            }
+            if((flags & EXCLUDED) != 0) {
+                excludedFiles.add(file);
+            } else {
+                excludedFiles.remove(file);
+            }
+            break;
+        default:
+            throw new IOException("unknown record: " + type);
+        }
+    }
+    
     private boolean loadFromFile(File file) {
         Map<String, Object> readMap = null;
         try {
@@ -219,6 +440,9 @@ class LibraryFileData extends AbstractSettingsGroup {
                 libraryManageData.put(file, new FileProperties());
                 changed = true;
             } 
+            if(changed) {
+                changedFiles.add(file);
+            }
             dirty |= changed;
         } finally {
             lock.writeLock().unlock();
@@ -240,6 +464,9 @@ class LibraryFileData extends AbstractSettingsGroup {
             if(explicit) {
                 changed |= excludedFiles.add(file);
             }
+            if(changed) {
+                changedFiles.add(file);
+            }
             dirty |= changed;
         } finally {
             lock.writeLock().unlock();
@@ -284,6 +511,7 @@ class LibraryFileData extends AbstractSettingsGroup {
                 directoriesNotToManage.addAll(folders);
             }
             changed |= directoriesToManageRecursively.removeAll(folders);
+            settingsChanged |= changed;
             dirty |= changed;
         } finally {
             lock.writeLock().unlock();
@@ -307,6 +535,7 @@ class LibraryFileData extends AbstractSettingsGroup {
             boolean changed = false;
             changed |= directoriesToManageRecursively.add(folder);
             changed |= directoriesNotToManage.remove(folder);
+            settingsChanged |= changed;
             dirty |= changed;            
         } finally {
             lock.writeLock().unlock();
@@ -324,6 +553,7 @@ class LibraryFileData extends AbstractSettingsGroup {
                 directoriesToManageRecursively.addAll(folders);
             }
             changed |= directoriesNotToManage.removeAll(folders);
+            settingsChanged |= changed;
             dirty |= changed;            
         } finally {
             lock.writeLock().unlock();
@@ -454,6 +684,7 @@ class LibraryFileData extends AbstractSettingsGroup {
                 userExtensions.addAll(added);
             }
             
+            settingsChanged |= changed;
             dirty |= changed;
         } finally {
             lock.writeLock().unlock();
@@ -478,6 +709,9 @@ class LibraryFileData extends AbstractSettingsGroup {
             }
             boolean changed = props.gnutella != shared;
             props.gnutella = shared;
+            if(changed) {
+                changedFiles.add(file);
+            }
             dirty |= changed;
         } finally {
             lock.writeLock().unlock();
@@ -526,6 +760,9 @@ class LibraryFileData extends AbstractSettingsGroup {
                     props.friends = null;
                 }
             }
+            if(changed) {
+                changedFiles.add(file);
+            }
             dirty |= changed;
         } finally {
             lock.writeLock().unlock();
@@ -563,6 +800,49 @@ class LibraryFileData extends AbstractSettingsGroup {
         return exts;
     }
     
+    /** A record of the log, built while holding the lock and written later. */
+    private static class DataRecord implements CacheLog.Record {
+        private final byte type;
+        private final String value;
+        private final int flags;
+        private final Collection<String> friends;
+        
+        /** Creates a record of an extension or folder. */
+        DataRecord(byte type, String value) {
+            this.type = type;
+            this.value = value;
+            this.flags = 0;
+            this.friends = null;
+        }
+        
+        /** Creates a record of the state of a file. */
+        DataRecord(String path, int flags, Collection<String> friends) {
+            this.type = FILE;
+            this.value = path;
+            this.flags = flags;
+            this.friends = friends;
+        }
+        
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(type);
+            if(type == SETTINGS_CLEARED) {
+                return;
+            }
+            out.writeUTF(value);
+            if(type == FILE) {
+                out.writeByte(flags);
+                if((flags & MANAGED) != 0) {
+                    out.writeInt(friends == null ? 0 : friends.size());
+                    if(friends != null) {
+                        for(String friend : friends) {
+                            out.writeUTF(friend);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
     private static class FileProperties implements Serializable {
         private static final long serialVersionUID = 767248414812908206L;
         private boolean gnutella;
@@ -5,15 +5,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
-import org.limewire.collection.Function;
 import org.limewire.collection.IdentityHashSet;
+import org.limewire.collection.IntPrefixIndex;
 import org.limewire.collection.IntSet;
-import org.limewire.collection.MultiIterator;
-import org.limewire.collection.StringTrie;
+import org.limewire.collection.SortedIntPrefixIndex;
+import org.limewire.collection.TrieIntPrefixIndex;
 import org.limewire.core.settings.SearchSettings;
 import org.limewire.core.settings.SharingSettings;
 import org.limewire.inspection.InspectableForSize;
@@ -48,30 +47,30 @@ import com.limegroup.gnutella.xml.SchemaReplyCollectionMapper;
 class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
 
     /**
-     * A trie mapping keywords in complete filenames to the indices in _files.
+     * An index mapping keywords in complete filenames to the indices in _files.
      * Keywords are the tokens when the filename is tokenized with the
      * characters from DELIMITERS as delimiters.
      * 
      * IncompleteFile keywords are NOT stored.
      * 
-     * INVARIANT: For all keys k in _keywordTrie, for all i in the IntSet
-     * _keywordTrie.get(k), _files[i]._path.substring(k)!=-1. Likewise for all
+     * INVARIANT: For all keys k in keywordTrie, for all i in the IntSet
+     * keywordTrie.get(k), _files[i]._path.substring(k)!=-1. Likewise for all
      * i, for all k in _files[i]._path where _files[i] is not an
-     * IncompleteFileDesc, _keywordTrie.get(k) contains i.
+     * IncompleteFileDesc, keywordTrie.get(k) contains i.
      * 
      * Not threadsafe, hold lock on field.
      */
     @InspectableForSize("size of keyword trie")
-    private final StringTrie<IntSet> keywordTrie = new StringTrie<IntSet>(true);
+    private final IntPrefixIndex keywordTrie = createIndex();
 
     /**
-     * A trie mapping keywords in complete filenames to the indices in _files.
+     * An index mapping keywords in complete filenames to the indices in _files.
      * Contains ONLY incomplete keywords.
      * 
      * Not threadsafe, hold lock on field.
      */
     @InspectableForSize("size of incomplete keyword trie")
-    private final StringTrie<IntSet> incompleteKeywordTrie = new StringTrie<IntSet>(true);
+    private final IntPrefixIndex incompleteKeywordTrie = createIndex();
 
     private final Provider<CreationTimeCache> creationTimeCache;
 
@@ -302,11 +301,22 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
         return resps;
     }
 
-    private void clear(boolean complete) {
-        if(complete) {
-            keywordTrie.clear();
+    /**
+     * Creates an index of the kind chosen by
+     * {@link SharingSettings#COMPACT_KEYWORD_INDEX}.
+     */
+    private static IntPrefixIndex createIndex() {
+        if (SharingSettings.COMPACT_KEYWORD_INDEX.getValue()) {
+            return new SortedIntPrefixIndex(true, SharingSettings.DIRECT_KEYWORD_INDEX.getValue());
         } else {
-            incompleteKeywordTrie.clear();
+            return new TrieIntPrefixIndex(true);
+        }
+    }
+
+    private void clear(boolean complete) {
+        IntPrefixIndex trie = complete ? keywordTrie : incompleteKeywordTrie;
+        synchronized (trie) {
+            trie.clear();
         }
     }
     
@@ -377,36 +387,24 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
      * @param trie to update
      * @param fd to load keywords from
      */
-    private void loadKeywords(StringTrie<IntSet> trie, FileDesc fd) {
+    private void loadKeywords(IntPrefixIndex trie, FileDesc fd) {
         // Index the filename. For each keyword...
         String[] keywords = extractKeywords(fd);
 
-        for (String keyword : keywords) {
-            synchronized (trie) {
-                // Ensure the _keywordTrie has a set of indices associated with
-                // keyword.
-                IntSet indices = trie.get(keyword);
-                if (indices == null) {
-                    indices = new IntSet();
-                    trie.add(keyword, indices);
-                }
-                // Add fileIndex to the set.
-                indices.add(fd.getIndex());
+        synchronized (trie) {
+            // Add fileIndex to the set of each keyword.
+            for (String keyword : keywords) {
+                trie.add(keyword, fd.getIndex());
             }
         }
     }
 
-    private void removeKeywords(StringTrie<IntSet> trie, FileDesc fd) {
+    private void removeKeywords(IntPrefixIndex trie, FileDesc fd) {
         // Remove references to this from index.
         String[] keywords = extractKeywords(fd);
-        for (String keyword : keywords) {
-            synchronized (trie) {
-                IntSet indices = trie.get(keyword);
-                if (indices != null) {
-                    indices.remove(fd.getIndex());
-                    if (indices.size() == 0)
-                        trie.remove(keyword);
-                }
+        synchronized (trie) {
+            for (String keyword : keywords) {
+                trie.remove(keyword, fd.getIndex());
             }
         }
     }
@@ -437,50 +435,39 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
             }
 
             // Search for keyword, i.e., keywords[i...j-1].
-            Iterator<IntSet> iter;
             synchronized (keywordTrie) {
-                iter = keywordTrie.getPrefixedBy(query, i, j);
-            }
-            if (SharingSettings.ALLOW_PARTIAL_SHARING.getValue()
-                    && SharingSettings.ALLOW_PARTIAL_RESPONSES.getValue() && partial) {
-                Iterator<IntSet> incompleteIndices;
                 synchronized (incompleteKeywordTrie) {
-                    incompleteIndices = incompleteKeywordTrie.getPrefixedBy(query, i, j);
-                }
-                iter = new MultiIterator<IntSet>(iter, incompleteIndices);
-            }
-
-            synchronized (keywordTrie) {
-                synchronized (incompleteKeywordTrie) {
-                    if (iter.hasNext()) {
-                        // Got match. Union contents of the iterator and store
-                        // in
-                        // matches. As an optimization, if this is the only
-                        // keyword and
-                        // there is only one set returned, return that set
-                        // without
-                        // copying.
-                        IntSet matches = null;
-                        while (iter.hasNext()) {
-                            IntSet s = iter.next();
-                            if (matches == null) {
-                                if (i == 0 && j == query.length() && !(iter.hasNext()))
-                                    return s;
-                                matches = new IntSet();
-                            }
-                            matches.addAll(s);
+                    IntSet matches = keywordTrie.getPrefixedBy(query, i, j);
+                    if (SharingSettings.ALLOW_PARTIAL_SHARING.getValue()
+                            && SharingSettings.ALLOW_PARTIAL_RESPONSES.getValue() && partial) {
+                        IntSet incompleteMatches = incompleteKeywordTrie.getPrefixedBy(query, i, j);
+                        if (matches == null) {
+                            matches = incompleteMatches;
+                        } else if (incompleteMatches != null) {
+                            IntSet union = new IntSet();
+                            union.addAll(matches);
+                            union.addAll(incompleteMatches);
+                            matches = union;
                         }
+                    }
 
-                        // Intersect matches with ret. If ret isn't allocated,
-                        // initialize to matches.
-                        if (ret == null)
-                            ret = matches;
-                        else
-                            ret.retainAll(matches);
-                    } else {
-                        // No match. Optimization: no matches for keyword =>
-                        // failure
+                    // No match. Optimization: no matches for keyword =>
+                    // failure
+                    if (matches == null)
                         return null;
+
+                    // As an optimization, if this is the only keyword,
+                    // return the matches without copying.
+                    if (i == 0 && j == query.length())
+                        return matches;
+
+                    // Intersect matches with ret. If ret isn't allocated,
+                    // initialize to a copy of matches.
+                    if (ret == null) {
+                        ret = new IntSet();
+                        ret.addAll(matches);
+                    } else {
+                        ret.retainAll(matches);
                     }
 
                     // Optimization: no matches after intersect => failure
@@ -514,14 +501,9 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
      * performance, not correctness; hence no modifies clause.
      */
     private void trim() {
-        for (StringTrie<IntSet> trie : new StringTrie[] { keywordTrie, incompleteKeywordTrie }) {
+        for (IntPrefixIndex trie : new IntPrefixIndex[] { keywordTrie, incompleteKeywordTrie }) {
             synchronized (trie) {
-                trie.trim(new Function<IntSet, IntSet>() {
-                    public IntSet apply(IntSet intSet) {
-                        intSet.trim();
-                        return intSet;
-                    }
-                });
+                trie.trim();
             }
         }
     }
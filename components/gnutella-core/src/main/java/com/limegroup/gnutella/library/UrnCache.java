@@ -1,17 +1,19 @@
 package com.limegroup.gnutella.library;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -33,15 +35,24 @@ import org.limewire.util.ConverterObjectInputStream;
 import org.limewire.util.GenericsUtils;
 
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.UrnSet;
+import com.limegroup.gnutella.tigertree.HashTree;
+import com.limegroup.gnutella.tigertree.HashTreeCache;
+import com.limegroup.gnutella.tigertree.HashTreeFactory;
+import com.limegroup.gnutella.tigertree.HashTreeNodeDigest;
 
 
 /**
  * This class contains a systemwide URN cache that persists file URNs (hashes)
  * across sessions.
+ * <p>
+ * The cache is stored in a {@link CacheLog}; each time it is persisted only
+ * the entries that changed since the last time are appended.  Caches written
+ * by older versions as a serialized map are read once and rewritten as a log.
  *
  * Modified by Gordon Mohr (2002/02/19): Added URN storage, calculation, caching
  * Repackaged by Greg Bildson (2002/02/19): Moved to dedicated class.
@@ -56,6 +67,12 @@ public final class UrnCache {
     /**
      * File where urns (currently SHA1 urns) for files are stored.
      */
+    private static final File URN_CACHE_LOG_FILE = 
+        new File(CommonUtils.getUserSettingsDir(), "fileurns.log");
+
+    /**
+     * File where older versions stored the serialized cache.
+     */
     private static final File URN_CACHE_FILE = 
         new File(CommonUtils.getUserSettingsDir(), "fileurns.cache");
 
@@ -65,31 +82,83 @@ public final class UrnCache {
     private static final File URN_CACHE_BACKUP_FILE = 
         new File(CommonUtils.getUserSettingsDir(), "fileurns.bak");
     
+    /** The kind of log the cache is stored in, "URNS". */
+    private static final int LOG_KIND = 0x55524E53;
+    
+    /** The version of the records in the log. */
+    private static final int LOG_VERSION = 1;
+    
+    /** Record that sets the URNs of a file. */
+    private static final byte PUT = 1;
+    
+    /** Record that removes the URNs of a file. */
+    private static final byte REMOVE = 2;
+    
     /**
-     * The ProcessingQueue that Files are hashed in.
+     * The ProcessingQueue that the cache is loaded in.
      */
     private final ListeningExecutorService QUEUE =
-        ExecutorsHelper.newProcessingQueue("Hasher");
+        ExecutorsHelper.newProcessingQueue("UrnCacheLoader");
+    
+    /**
+     * The scheduler that Files are hashed in.
+     */
+    private final HashingScheduler HASHER = new HashingScheduler("Hasher");
     
     /**
      * Whether or not data is dirty since the last time we saved.
      */
     private volatile boolean dirty = false;
     
+    /**
+     * Whether the whole cache must be written to a new log, instead of
+     * appending the changes, because the log could not be read.
+     */
+    private volatile boolean rewrite = false;
+    
+    /** The log the cache is persisted to. */
+    private final CacheLog log = new CacheLog(URN_CACHE_LOG_FILE, LOG_KIND, LOG_VERSION);
+    
+    /**
+     * The entries changed since the cache was last persisted, mapped to
+     * null if they were removed.  Guarded by this.
+     */
+    private final Map<UrnSetKey, Set<URN>> changes = new HashMap<UrnSetKey, Set<URN>>();
+    
     /** The future that will contain the URN_MAP when it is done. */
     private final Future<Map<UrnSetKey, Set<URN>>> deserializer;
+    
+    /**
+     * The cache hash trees are added to while files are hashed,
+     * null if only URNs should be calculated.
+     */
+    private final Provider<HashTreeCache> hashTreeCache;
+    
+    private final Provider<HashTreeFactory> hashTreeFactory;
+    
+    /**
+     * Creates an urn cache that does not calculate hash trees.
+     */
+    UrnCache() {
+        this(null, null);
+    }
 
     /**
      * Create and initialize urn cache.
      */
-    UrnCache() {
+    @Inject
+    UrnCache(Provider<HashTreeCache> hashTreeCache, Provider<HashTreeFactory> hashTreeFactory) {
+        this.hashTreeCache = hashTreeCache;
+        this.hashTreeFactory = hashTreeFactory;
         deserializer = QUEUE.submit(new Callable<Map<UrnSetKey, Set<URN>>>() {
             @SuppressWarnings("unchecked")
             public Map<UrnSetKey, Set<URN>> call() {
                 // This cannot be inside a synchronized block, otherwise other methods
                 // can block its construction.
                 Map map = createMap();
-                dirty = scanAndRemoveOldEntries(map);
+                if(scanAndRemoveOldEntries(map))
+                    rewrite = true;
+                dirty = rewrite;
                 return map;
             }
         });
@@ -122,7 +191,7 @@ public final class UrnCache {
             if (urns.isEmpty()) {
                 if(LOG.isDebugEnabled())
                     LOG.debug("Adding: " + file + " to be hashed.");
-                return QUEUE.submit(new Processor(file));
+                return HASHER.submit(file, new Processor(file));
             }
         }
         
@@ -166,6 +235,7 @@ public final class UrnCache {
     public synchronized void removeUrns(File f) {
         UrnSetKey k = new UrnSetKey(f);
         getUrnMap().remove(k);
+        changes.put(k, null);
         dirty = true;
     }
 
@@ -176,24 +246,65 @@ public final class UrnCache {
      */
     public synchronized void addUrns(File file, Set<? extends URN> urns) {
 		UrnSetKey key = new UrnSetKey(file);
-        getUrnMap().put(key, Collections.unmodifiableSet(urns));
+        Set<URN> set = Collections.<URN>unmodifiableSet(urns);
+        getUrnMap().put(key, set);
+        changes.put(key, set);
         dirty = true;
     }
         
     /**
-     * Loads values from cache file, if available.  If the cache file is
-     * not readable, tries the backup.
+     * Loads values from the log, if available.  If there is no readable log,
+     * tries the serialized cache file of older versions and then its backup.
      */
-    private static Map createMap() {
+    private Map createMap() {
+        final Map<UrnSetKey, Set<URN>> map = new HashMap<UrnSetKey, Set<URN>>();
+        try {
+            if(log.read(new CacheLog.RecordReader() {
+                public void read(DataInput in) throws IOException {
+                    readRecord(in, map);
+                }
+            })) {
+                return map;
+            }
+        } catch(IOException iox) {
+            LOG.error("Unable to read UrnCache log", iox);
+        }
+        
         Map result;
         result = readMap(URN_CACHE_FILE);
         if(result == null)
             result = readMap(URN_CACHE_BACKUP_FILE);
         if(result == null)
             result = new HashMap<Object, Object>();
+        // write a new log with whatever could be read
+        if(!result.isEmpty() || log.exists())
+            rewrite = true;
         return result;
     }
     
+    /**
+     * Applies a record read from the log to the map.
+     */
+    private static void readRecord(DataInput in, Map<UrnSetKey, Set<URN>> map) throws IOException {
+        byte type = in.readByte();
+        String path = in.readUTF();
+        switch(type) {
+        case PUT:
+            long modTime = in.readLong();
+            int count = in.readUnsignedByte();
+            UrnSet urns = new UrnSet();
+            for(int i = 0; i < count; i++)
+                urns.add(URN.createUrnFromString(in.readUTF()));
+            map.put(new UrnSetKey(path, modTime), Collections.<URN>unmodifiableSet(urns));
+            break;
+        case REMOVE:
+            map.remove(new UrnSetKey(path, 0));
+            break;
+        default:
+            throw new IOException("unknown record: " + type);
+        }
+    }
+    
     /**
      * Loads values from cache file, if available.
      * 
@@ -280,27 +391,41 @@ public final class UrnCache {
             return;
         }
         
-        getUrnMap(); // make sure it's finished constructing.
+        Map<UrnSetKey, Set<URN>> map = getUrnMap(); // make sure it's finished constructing.
         
         //It's not ideal to hold a lock while writing to disk, but I doubt think
         //it's a problem in practice.
-        ObjectOutputStream oos = null;
         try {
-            oos = new ObjectOutputStream(
-                    new BufferedOutputStream(new FileOutputStream(URN_CACHE_BACKUP_FILE)));
-            oos.writeObject(getUrnMap());
-            oos.flush();
-            URN_CACHE_FILE.delete();
-            URN_CACHE_BACKUP_FILE.renameTo(URN_CACHE_FILE);
+            if(rewrite || log.shouldCompact(map.size())) {
+                log.rewrite(createRecords(map));
+                if(rewrite) {
+                    // the old serialized cache has been migrated
+                    URN_CACHE_FILE.delete();
+                    URN_CACHE_BACKUP_FILE.delete();
+                }
+                rewrite = false;
+            } else {
+                log.append(createRecords(changes));
+            }
         } catch (IOException e) {
             LOG.error("Unable to persist cache", e);
-        } finally {
-            IOUtils.close(oos);
+            rewrite = true;
         }
         
+        changes.clear();
         dirty = false;
     }
     
+    /**
+     * Returns records for the entries, a removal for each entry mapped to null.
+     */
+    private static List<UrnRecord> createRecords(Map<UrnSetKey, Set<URN>> entries) {
+        List<UrnRecord> records = new ArrayList<UrnRecord>(entries.size());
+        for(Map.Entry<UrnSetKey, Set<URN>> entry : entries.entrySet())
+            records.add(new UrnRecord(entry.getKey(), entry.getValue()));
+        return records;
+    }
+    
     private Map<UrnSetKey, Set<URN>> getUrnMap() {
         boolean interrupted = Thread.interrupted();
         try {
@@ -338,8 +463,17 @@ public final class UrnCache {
                 if(LOG.isDebugEnabled())
                     LOG.debug("Hashing file: " + file);
                 try {
-                    urns = URN.generateUrnsFromFile(file);
+                    HashTreeNodeDigest treeDigest = createTreeDigest(file);
+                    if(treeDigest != null) {
+                        urns = URN.generateUrnsFromFile(file, treeDigest);
+                    } else {
+                        urns = URN.generateUrnsFromFile(file);
+                    }
                     addUrns(file, urns);
+                    if(treeDigest != null) {
+                        treeDigest.digest();
+                        addHashTree(file, urns, treeDigest);
+                    }
                 } catch(IOException ignored) {
                     LOG.warn("Unable to calculate URNs", ignored);
                 } catch(InterruptedException ignored) {
@@ -349,6 +483,64 @@ public final class UrnCache {
             
             return urns;
         }
+        
+        /**
+         * Returns a digest to calculate the file's hash tree while
+         * the URNs are calculated, or null if no tree should be built.
+         */
+        private HashTreeNodeDigest createTreeDigest(File file) {
+            if(hashTreeCache == null)
+                return null;
+            long length = file.length();
+            if(length <= 0)
+                return null;
+            return new HashTreeNodeDigest(length);
+        }
+        
+        /**
+         * Adds the tree calculated along with the URNs to the hash tree cache.
+         * Failing to build the tree isn't fatal, it'll be calculated again when
+         * it's needed.
+         */
+        private void addHashTree(File file, Set<URN> urns, HashTreeNodeDigest treeDigest) {
+            URN sha1 = UrnSet.getSha1(urns);
+            if(sha1 == null)
+                return;
+            try {
+                HashTree tree = hashTreeFactory.get().createHashTree(treeDigest, sha1);
+                hashTreeCache.get().addHashTree(sha1, tree);
+            } catch(IOException iox) {
+                if(LOG.isDebugEnabled())
+                    LOG.debug("Unable to calculate tree for: " + file, iox);
+            }
+        }
+    }
+
+    /**
+     * A record of the URNs of a file, or of their removal.
+     */
+    private static class UrnRecord implements CacheLog.Record {
+        private final UrnSetKey key;
+        private final Set<URN> urns;
+        
+        UrnRecord(UrnSetKey key, Set<URN> urns) {
+            this.key = key;
+            this.urns = urns;
+        }
+        
+        public void write(DataOutput out) throws IOException {
+            if(urns == null) {
+                out.writeByte(REMOVE);
+                out.writeUTF(key._path);
+            } else {
+                out.writeByte(PUT);
+                out.writeUTF(key._path);
+                out.writeLong(key._modTime);
+                out.writeByte(urns.size());
+                for(URN urn : urns)
+                    out.writeUTF(urn.toString());
+            }
+        }
     }
 
 	/**
@@ -389,6 +581,15 @@ public final class UrnCache {
 			_path = file.getAbsolutePath();
 			_hashCode = calculateHashCode();
 		}
+		
+		/**
+		 * Constructs a new <tt>UrnSetKey</tt> instance read from the log.
+		 */
+		UrnSetKey(String path, long modTime) {
+		    _modTime = modTime;
+		    _path = path.intern();
+		    _hashCode = calculateHashCode();
+		}
 
 		/**
 		 * Helper method to calculate the hash code.
@@ -2,6 +2,7 @@ package com.limegroup.gnutella.messages;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.limewire.io.GUID;
 import org.limewire.util.ByteUtils;
@@ -105,12 +106,41 @@ public abstract class AbstractMessage implements Message {
      * Writes a message quickly, without using temporary buffers or crap.
      */
     public void writeQuickly(OutputStream out) throws IOException {
+        writeHeader(out);
+        writePayload(out);
+    }
+    
+    /**
+     * Writes the header of this message, without the payload.
+     */
+    public void writeHeader(OutputStream out) throws IOException {
         out.write(guid, 0, guid.length /* 16 */);
         out.write(func);
         out.write(ttl);
         out.write(hops);
         ByteUtils.int2leb(length, out);
-        writePayload(out);
+    }
+    
+    /**
+     * Returns a read-only view of the payload that every connection the
+     * message is sent to can share, or null if this message doesn't keep
+     * its payload in an array.
+     */
+    public ByteBuffer getPayloadBuffer() {
+        byte[] payload = getSharedPayload();
+        if (payload == null)
+            return null;
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Returns the array this message keeps its payload in, exactly as
+     * {@link #writePayload(OutputStream)} writes it, or null if there is no
+     * such array.  Messages that are broadcast return it, so that their
+     * payload is not copied once per connection.
+     */
+    protected byte[] getSharedPayload() {
+        return null;
     }
     
     /**
@@ -4,19 +4,23 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 
 /**
  * Allows multiple GGEP blocks to be parsed, storing
  * the 'secure GGEP' block separately.  Can store
  * the position where the secure block began & ended,
  * so that the rest of the data can be properly verified.
+ * <p>
+ * The blocks are parsed into {@link GGEPView GGEPViews}; they are only
+ * copied into {@link GGEP GGEPs} if those are asked for.
  */
 public class GGEPParser {
     
     private static final Log LOG = LogFactory.getLog(GGEPParser.class);
     
-    private GGEP normal = null;
-    private GGEP secure  = null;
+    private GGEPView normal = null;
+    private GGEPView secure  = null;
     private int secureStart = -1;
     private int secureEnd = -1;
     private int normalStart = -1;
@@ -40,9 +44,8 @@ public class GGEPParser {
             return; // nothing to parse.
         }
             
-        int[] storage = new int[1];
-        GGEP normal = null;
-        GGEP secure = null;
+        GGEPView normal = null;
+        GGEPView secure = null;
         int secureStart = -1;
         int secureEnd = -1;
             
@@ -53,21 +56,20 @@ public class GGEPParser {
                 if(data[idx] != GGEP.GGEP_PREFIX_MAGIC_NUMBER)
                     break;
                 
-                GGEP ggep = new GGEP(data, idx, storage);
+                GGEPView ggep = new GGEPView(data, idx);
                 if(ggep.hasKey(GGEPKeys.GGEP_HEADER_SECURE_BLOCK)) {
                     secure = ggep;
                     secureStart = idx;
-                    secureEnd = storage[0];
+                    secureEnd = ggep.getEndOffset();
                     break;
                 } else {
                     normalStart = idx;
-                    normalEnd = storage[0];
+                    normalEnd = ggep.getEndOffset();
                     if(normal == null)
                         normal = ggep;
                     else
-                        normal.merge(ggep);
-                    idx = storage[0];
-                    storage[0] = -1;
+                        normal.addBlock(idx);
+                    idx = normalEnd;
                 }
             }
         } catch (BadGGEPBlockException ignored) {
@@ -82,10 +84,20 @@ public class GGEPParser {
     
     
     public GGEP getNormalGGEP() {
-        return normal;
+        return normal == null ? null : normal.toGGEP();
     }
     
     public GGEP getSecureGGEP() {
+        return secure == null ? null : secure.toGGEP();
+    }
+    
+    /** Returns a view of the merged normal blocks, or null if there were none. */
+    public GGEPView getNormalView() {
+        return normal;
+    }
+    
+    /** Returns a view of the secure block, or null if there was none. */
+    public GGEPView getSecureView() {
         return secure;
     }
     
@@ -10,6 +10,7 @@ import java.util.Set;
 
 import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 
 import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.UrnSet;
@@ -23,7 +24,7 @@ public class HUGEExtension {
     // the disparate types of objects encoded in a HUGE extension - one set per
     // (lazily constructed)
     // -----------------------------------------
-    private GGEP _ggep = null;
+    private GGEPView _ggep = null;
     private Set<URN> _urns = null;
     private Set<URN.Type> _urnTypes = null;
     private Set<String> _miscBlocks = null;
@@ -32,10 +33,10 @@ public class HUGEExtension {
     private List<GGEPBlock> _ggepBlocks = null;
 
     /**
-     *  @return the merged GGEP of all GGEPs in this HUGE extension or null
-     *  if no GGEPs were found
+     *  @return a view of the merged GGEP of all GGEPs in this HUGE extension
+     *  or null if no GGEPs were found
      */
-    public GGEP getGGEP() {
+    public GGEPView getGGEP() {
         return _ggep;
     }
     
@@ -86,20 +87,20 @@ public class HUGEExtension {
             // HANDLE GGEP STUFF
             if (extsBytes[currIndex] == GGEP.GGEP_PREFIX_MAGIC_NUMBER) {
                 int start = currIndex;
-                int[] endIndex = new int[1];
-                endIndex[0] = currIndex+1;
+                int end = currIndex+1;
                 try {
-                    GGEP ggep = new GGEP(extsBytes, currIndex, endIndex);
                     if (_ggep == null) {
-                        _ggep = new GGEP();
+                        _ggep = new GGEPView(extsBytes, currIndex);
+                        end = _ggep.getEndOffset();
+                    } else {
+                        end = _ggep.addBlock(currIndex);
                     }
-                    _ggep.merge(ggep);
                     if (_ggepBlocks == null) {
                         _ggepBlocks = new ArrayList<GGEPBlock>(2);
                     }
-                    _ggepBlocks.add(new GGEPBlock(ggep, start, endIndex[0]));
+                    _ggepBlocks.add(new GGEPBlock(extsBytes, start, end));
                 } catch (BadGGEPBlockException ignored) {}
-                currIndex = endIndex[0];
+                currIndex = end;
             } else { // HANDLE HUGE STUFF
                 int delimIndex = currIndex;
                 while ((delimIndex < extsBytes.length) 
@@ -145,13 +146,31 @@ public class HUGEExtension {
         
         private GGEP ggep;
         
+        /** The bytes the block was parsed from, if it hasn't been copied yet. */
+        private byte[] data;
+        
         public GGEPBlock(GGEP ggep, int start, int end) {
             this.ggep = ggep;
             this.start = start;
             this.end = end;
         }
         
+        /** Creates a block of <code>data</code> that was parsed already. */
+        GGEPBlock(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+        
         public GGEP getGGEP() {
+            if (ggep == null) {
+                try {
+                    ggep = new GGEP(data, start, null);
+                } catch (BadGGEPBlockException e) {
+                    throw new IllegalStateException(e);
+                }
+                data = null;
+            }
             return ggep;
         }
         
@@ -7,6 +7,7 @@ import org.limewire.collection.IntervalSet;
 import org.limewire.core.settings.SharingSettings;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.GGEP;
+import org.limewire.io.ReadableGGEP;
 import org.limewire.util.ByteUtils;
 
 
@@ -90,7 +91,7 @@ public class IntervalEncoder {
     /**
      * @return an IntervalSet contained in this GGEP.  Null if none.
      */
-    public static IntervalSet decode(long size, GGEP ggep) throws BadGGEPPropertyException{
+    public static IntervalSet decode(long size, ReadableGGEP ggep) throws BadGGEPPropertyException{
         if (ggep.hasKey(GGEPKeys.GGEP_HEADER_PARTIAL_RESULT_PREFIX+"0"))
             return new IntervalSet();
         IntervalSet ret = null;
@@ -2,6 +2,7 @@ package com.limegroup.gnutella.messages;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -49,6 +50,18 @@ public interface Message extends Comparable<Message> {
      */
     public void writeQuickly(OutputStream out) throws IOException;
 
+    /**
+     * Writes the header of this message, without the payload.
+     */
+    public void writeHeader(OutputStream out) throws IOException;
+
+    /**
+     * Returns a read-only view of the payload that can be shared between
+     * connections, or null if this message has none and must be written with
+     * {@link #writeQuickly(OutputStream)}.
+     */
+    public ByteBuffer getPayloadBuffer();
+
     /**
      * Writes a message out, using the buffer as the temporary header.
      */
@@ -11,6 +11,7 @@ import org.limewire.core.settings.ApplicationSettings;
 import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.IpPort;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.io.NetworkUtils;
@@ -249,7 +250,7 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
         }
 
         try {
-            return new PingReplyImpl(guid, ttl, (byte) 0, payload, ggep, ip,
+            return new PingReplyImpl(guid, ttl, (byte) 0, payload, parseGGEP(payload), ip,
                     Network.UNKNOWN, macCalculatorRepositoryManager, networkInstanceUtils);
         } catch (BadPacketException e) {
             throw new IllegalStateException(e);
@@ -283,35 +284,25 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
 
         InetAddress ip = null;
 
-        GGEP ggep = parseGGEP(payload);
+        GGEPView ggep = parseGGEP(payload);
 
         if (ggep != null) {
-            if (ggep.hasKey(GGEPKeys.GGEP_HEADER_CLIENT_LOCALE)) {
-                try {
-                    ggep.getBytes(GGEPKeys.GGEP_HEADER_CLIENT_LOCALE);
-                } catch (BadGGEPPropertyException e) {
-                    throw new BadPacketException("GGEP error : creating from"
-                            + " network : client locale");
-                }
+            if (ggep.hasKey(GGEPKeys.GGEP_HEADER_CLIENT_LOCALE)
+                    && !ggep.hasValueFor(GGEPKeys.GGEP_HEADER_CLIENT_LOCALE)) {
+                throw new BadPacketException("GGEP error : creating from"
+                        + " network : client locale");
             }
 
             if (ggep.hasKey(GGEPKeys.GGEP_HEADER_PACKED_IPPORTS)) {
-                byte[] data = null;
-                try {
-                    data = ggep.getBytes(GGEPKeys.GGEP_HEADER_PACKED_IPPORTS);
-                } catch (BadGGEPPropertyException bad) {
-                    throw new BadPacketException(bad.getMessage());
-                }
+                byte[] data = ggep.get(GGEPKeys.GGEP_HEADER_PACKED_IPPORTS);
                 if (data == null || data.length % 6 != 0)
                     throw new BadPacketException("invalid data");
             }
 
-            if (ggep.hasKey(GGEPKeys.GGEP_HEADER_PACKED_HOSTCACHES)) {
-                try {
-                    ggep.getBytes(GGEPKeys.GGEP_HEADER_PACKED_HOSTCACHES);
-                } catch (BadGGEPPropertyException bad) {
-                    throw new BadPacketException(bad.getMessage());
-                }
+            if (ggep.hasKey(GGEPKeys.GGEP_HEADER_PACKED_HOSTCACHES)
+                    && !ggep.hasValueFor(GGEPKeys.GGEP_HEADER_PACKED_HOSTCACHES)) {
+                throw new BadPacketException("GGEP error : creating from"
+                        + " network : packed host caches");
             }
 
             if (ggep.hasKey(GGEPKeys.GGEP_HEADER_UDP_HOST_CACHE)) {
@@ -528,7 +519,7 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
 
     // TODO : change this to look for multiple GGEP block in the payload....
     /** Ensure GGEP data parsed...if possible. */
-    private GGEP parseGGEP(final byte[] PAYLOAD) {
+    private GGEPView parseGGEP(final byte[] PAYLOAD) {
         //Return if this is a plain pong without space for GGEP.  If 
         //this has bad GGEP data, multiple calls to
         //parseGGEP will result in multiple parse attempts.  While this is
@@ -538,7 +529,7 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
             return null;
 
         try {
-            return new GGEP(PAYLOAD, PingReply.STANDARD_PAYLOAD_SIZE, null);
+            return new GGEPView(PAYLOAD, PingReply.STANDARD_PAYLOAD_SIZE);
         } catch (BadGGEPBlockException e) {
             return null;
         }
@@ -87,6 +87,11 @@ public class PingRequestImpl extends AbstractMessage implements PingRequest {
         }
     }
 
+    @Override
+    protected byte[] getSharedPayload() {
+        return payload != null ? payload : DataUtils.EMPTY_BYTE_ARRAY;
+    }
+
     @Override
     public String toString() {
         return "PingRequest("+super.toString()+")";
@@ -140,6 +140,11 @@ public class PushRequestImpl extends AbstractMessage implements PushRequest {
 		out.write(payload);
     }
 
+    @Override
+    protected byte[] getSharedPayload() {
+        return payload;
+    }
+
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.messages.PushRequest#getClientGUID()
      */
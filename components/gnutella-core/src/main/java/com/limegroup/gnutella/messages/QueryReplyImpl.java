@@ -23,12 +23,14 @@ import org.limewire.core.settings.FilterSettings;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.ConnectableImpl;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.GUID;
 import org.limewire.io.InvalidDataException;
 import org.limewire.io.IpPort;
 import org.limewire.io.IpPortSet;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.io.NetworkUtils;
+import org.limewire.io.ReadableGGEP;
 import org.limewire.rudp.RUDPUtils;
 import org.limewire.security.SecurityToken;
 import org.limewire.service.ErrorService;
@@ -320,6 +322,11 @@ public class QueryReplyImpl extends AbstractMessage implements QueryReply {
     public void writePayload(OutputStream out) throws IOException {
         out.write(_payload);
     }
+
+    @Override
+    protected byte[] getSharedPayload() {
+        return _payload;
+    }
     
     /**
      * Sets this reply to be considered a 'browse host' reply.
@@ -848,7 +855,7 @@ public class QueryReplyImpl extends AbstractMessage implements QueryReply {
                 if ((control & GGEP_MASK) != 0 && (flags & GGEP_MASK) != 0) {
                     GGEPParser parser = new GGEPParser();
                     parser.scanForGGEPs(_payload, i + 2);
-                    GGEP ggep = parser.getNormalGGEP();
+                    GGEPView ggep = parser.getNormalView();
                     if (ggep != null) {
                         _data.setGGEPStart(parser.getNormalStartIndex());
                         _data.setGGEPEnd(parser.getNormalEndIndex());
@@ -1218,7 +1225,7 @@ public class QueryReplyImpl extends AbstractMessage implements QueryReply {
          * @param ggeps the array of GGEP extensions that may or may not
          *  contain push proxy data
          */
-        public Set<? extends IpPort> getPushProxies(GGEP ggep) {
+        public Set<? extends IpPort> getPushProxies(ReadableGGEP ggep) {
             Set<IpPort> proxies = null;
             BitNumbers bn = null;
             
@@ -0,0 +1,356 @@
+package com.limegroup.gnutella.routing;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.messages.QueryRequest;
+import com.limegroup.gnutella.util.Utilities;
+
+/**
+ * The query route tables of all leaves of an ultrapeer, stored column-wise:
+ * for every slot of a table there is a bitmask with one bit per leaf that
+ * has the slot set.  A query is hashed once per table size and the masks of
+ * its keywords are AND-ed together, which gives all the leaves the query
+ * hits in a few word-wide operations instead of one
+ * {@link QueryRouteTable#contains(QueryRequest)} per leaf.
+ * <p>
+ * Leaves with tables of different sizes are kept in separate slices, one per
+ * size, so each slice is hashed with its own number of bits.  A leaf's column
+ * is brought up to date with {@link #update(Object, QueryRouteTable)} every
+ * time its table is reset or patched, and dropped with {@link #remove(Object)}
+ * when the leaf goes away.
+ * <p>
+ * Updates are serialized, matching is lock free and sees every update that
+ * completed before it started.  A {@link Match} only answers for the leaves
+ * whose columns were in place when it was made.
+ */
+public class LeafRoutingIndex {
+
+    /** The initial number of leaves, in words of 64 leaves. */
+    private static final int INITIAL_WORDS = 1;
+
+    /** The column of each leaf. */
+    private final Map<Object, Column> columns = new ConcurrentHashMap<Object, Column>();
+
+    /** The ids of the columns in use. */
+    private final BitSet ids = new BitSet();
+
+    /** The slices, one per table size. */
+    private volatile Slice[] slices = new Slice[0];
+
+    /** The number of words of each mask. */
+    private int words = INITIAL_WORDS;
+
+    /**
+     * Counts the times a column was added or moved to another slice, written
+     * after the column is in place.
+     */
+    private volatile long generation;
+
+    /**
+     * Copies the table of <code>leaf</code> into its column, adding the leaf
+     * if it isn't in the index yet.  Once the leaf is in the index, only the
+     * entries the table changed since the last update are copied.  A
+     * <code>null</code> table removes the leaf.
+     * <p>
+     * This must be called with the table locked against changes.
+     */
+    public synchronized void update(Object leaf, QueryRouteTable table) {
+        if (table == null) {
+            remove(leaf);
+            return;
+        }
+        Column column = columns.get(leaf);
+        Slice slice = getSlice(table.getSize());
+        long placed = generation + 1;
+        if (column == null) {
+            int id = ids.nextClearBit(0);
+            ids.set(id);
+            if (id >= words * 64)
+                grow();
+            column = new Column(id);
+        } else if (column.slice != slice) {
+            // matches can't answer for the leaf while it moves
+            column.placed = Long.MAX_VALUE;
+            column.slice.clear(column.id);
+        }
+        if (column.slice != slice) {
+            slice = getSlice(table.getSize()); // may have been replaced by grow()
+            slice.add(column.id);
+            column.slice = slice;
+            slice.copy(column.id, table, 0, slice.length);
+            column.placed = placed;
+            columns.put(leaf, column);
+            generation = placed;
+        } else {
+            slice.copy(column.id, table, table.getChangedFrom(), table.getChangedTo());
+        }
+        table.clearChanged();
+        removeEmptySlices();
+    }
+
+    /**
+     * Removes <code>leaf</code> from the index.
+     */
+    public synchronized void remove(Object leaf) {
+        Column column = columns.remove(leaf);
+        if (column == null)
+            return;
+        column.slice.clear(column.id);
+        ids.clear(column.id);
+        removeEmptySlices();
+    }
+
+    /**
+     * Returns the number of leaves in the index.
+     */
+    public int size() {
+        return columns.size();
+    }
+
+    /**
+     * Returns the leaves <code>query</code> hits, or <code>null</code> if the
+     * index can't answer it and the leaves' tables must be asked one by one.
+     * That is the case for feature queries, which aren't routed by table,
+     * and for XML queries, which only need most of their keywords to match.
+     */
+    public Match match(QueryRequest query) {
+        if (query.isFeatureQuery() || query.getRichQuery() != null)
+            return null;
+        // read before the slices, so all columns placed by then are in them
+        long currentGeneration = generation;
+        Slice[] current = slices;
+        long[] hits = new long[current.length == 0 ? 0 : current[0].words];
+        String text = query.getQuery();
+        if (query.hasQueryUrns()) {
+            Set<URN> urns = query.getQueryUrns();
+            for (Slice slice : current) {
+                // a match if any one of the hashes matches
+                for (URN urn : urns)
+                    slice.or(HashFunction.hash(urn.toString(), slice.bits), hits);
+            }
+        } else if (text.length() > 0) {
+            long[] mask = new long[hits.length];
+            for (Slice slice : current) {
+                slice.members(mask);
+                for (int i = 0; ; ) {
+                    int j = HashFunction.keywordStart(text, i);
+                    if (j < 0)
+                        break;
+                    int k = HashFunction.keywordEnd(text, j);
+                    if (!slice.and(HashFunction.hash(text, j, k, slice.bits), mask))
+                        break;
+                    i = k + 1;
+                }
+                for (int w = 0; w < hits.length; w++)
+                    hits[w] |= mask[w];
+            }
+        }
+        return new Match(hits, currentGeneration);
+    }
+
+    /**
+     * Returns the slice for tables of <code>length</code> slots, creating it
+     * if needed.
+     */
+    private Slice getSlice(int length) {
+        for (Slice slice : slices) {
+            if (slice.length == length)
+                return slice;
+        }
+        Slice slice = new Slice(length, words);
+        Slice[] grown = new Slice[slices.length + 1];
+        System.arraycopy(slices, 0, grown, 0, slices.length);
+        grown[slices.length] = slice;
+        slices = grown;
+        return slice;
+    }
+
+    /** Doubles the number of leaves the slices can hold. */
+    private void grow() {
+        words *= 2;
+        Slice[] grown = new Slice[slices.length];
+        for (int i = 0; i < slices.length; i++)
+            grown[i] = slices[i].resize(words);
+        for (Column column : columns.values()) {
+            for (int i = 0; i < slices.length; i++) {
+                if (column.slice == slices[i])
+                    column.slice = grown[i];
+            }
+        }
+        slices = grown;
+    }
+
+    /** Drops the slices no leaf uses any more. */
+    private void removeEmptySlices() {
+        int used = 0;
+        for (Slice slice : slices) {
+            if (!slice.isEmpty())
+                used++;
+        }
+        if (used == slices.length)
+            return;
+        Slice[] remaining = new Slice[used];
+        used = 0;
+        for (Slice slice : slices) {
+            if (!slice.isEmpty())
+                remaining[used++] = slice;
+        }
+        slices = remaining;
+    }
+
+    /** The place of a leaf in the index. */
+    private static class Column {
+
+        private final int id;
+
+        private Slice slice;
+
+        /** The generation the column was put in its slice. */
+        private volatile long placed;
+
+        Column(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The columns of the leaves whose tables have the same size.  Slot
+     * <code>i</code> of the tables is kept in the words
+     * <code>[i * words, (i + 1) * words)</code>, and the extra slot at
+     * <code>length</code> has the bits of all leaves of the slice.
+     */
+    private static class Slice {
+
+        private final int length;
+
+        private final byte bits;
+
+        private final int words;
+
+        private final AtomicLongArray masks;
+
+        Slice(int length, int words) {
+            this.length = length;
+            this.bits = Utilities.log2(length);
+            this.words = words;
+            this.masks = new AtomicLongArray((length + 1) * words);
+        }
+
+        /** Returns a copy of this slice with room for more leaves. */
+        Slice resize(int newWords) {
+            Slice slice = new Slice(length, newWords);
+            for (int slot = 0; slot <= length; slot++) {
+                for (int w = 0; w < words; w++)
+                    slice.masks.set(slot * newWords + w, masks.get(slot * words + w));
+            }
+            return slice;
+        }
+
+        /** Adds the column <code>id</code> to the members of this slice. */
+        void add(int id) {
+            set(length, id, true);
+        }
+
+        /**
+         * Sets the column <code>id</code> to the slots of <code>table</code>
+         * from <code>from</code> up to but not including <code>to</code>.
+         */
+        void copy(int id, QueryRouteTable table, int from, int to) {
+            for (int slot = from; slot < to; slot++)
+                set(slot, id, table.contains(slot));
+        }
+
+        /** Clears the column <code>id</code>, removing it from this slice. */
+        void clear(int id) {
+            for (int slot = 0; slot <= length; slot++)
+                set(slot, id, false);
+        }
+
+        boolean isEmpty() {
+            for (int w = 0; w < words; w++) {
+                if (masks.get(length * words + w) != 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /** Sets <code>mask</code> to the leaves of this slice. */
+        void members(long[] mask) {
+            for (int w = 0; w < mask.length; w++)
+                mask[w] = masks.get(length * words + w);
+        }
+
+        /**
+         * ANDs the leaves that have <code>slot</code> set into
+         * <code>mask</code>, returning false once no leaf is left.
+         */
+        boolean and(int slot, long[] mask) {
+            boolean any = false;
+            for (int w = 0; w < mask.length; w++) {
+                mask[w] &= masks.get(slot * words + w);
+                any |= mask[w] != 0;
+            }
+            return any;
+        }
+
+        /** ORs the leaves that have <code>slot</code> set into <code>mask</code>. */
+        void or(int slot, long[] mask) {
+            for (int w = 0; w < mask.length; w++)
+                mask[w] |= masks.get(slot * words + w);
+        }
+
+        private void set(int slot, int id, boolean value) {
+            int index = slot * words + (id >>> 6);
+            long bit = 1L << (id & 63);
+            long mask = masks.get(index);
+            // only one thread updates, so no need to loop
+            if (value && (mask & bit) == 0)
+                masks.set(index, mask | bit);
+            else if (!value && (mask & bit) != 0)
+                masks.set(index, mask & ~bit);
+        }
+    }
+
+    /**
+     * The leaves a query hits.
+     */
+    public class Match {
+
+        private final long[] hits;
+
+        /** The generation of the index when the query was matched. */
+        private final long generation;
+
+        Match(long[] hits, long generation) {
+            this.hits = hits;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns true if <code>leaf</code> was in the index when the query
+         * was matched and still is, i.e. if {@link #hits(Object)} can tell
+         * whether the query hits it.  Leaves added or moved since then must
+         * be asked directly.
+         */
+        public boolean isIndexed(Object leaf) {
+            Column column = columns.get(leaf);
+            return column != null && column.placed <= generation;
+        }
+
+        /**
+         * Returns true if the query hits the table of <code>leaf</code>.
+         */
+        public boolean hits(Object leaf) {
+            Column column = columns.get(leaf);
+            if (column == null || column.placed > generation)
+                return false;
+            int word = column.id >>> 6;
+            return word < hits.length && (hits[word] & (1L << (column.id & 63))) != 0;
+        }
+    }
+}
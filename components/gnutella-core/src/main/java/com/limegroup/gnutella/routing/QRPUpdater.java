@@ -1,18 +1,23 @@
 package com.limegroup.gnutella.routing;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.core.settings.SearchSettings;
 import org.limewire.core.settings.SharingSettings;
 import org.limewire.inspection.Inspectable;
 import org.limewire.lifecycle.Service;
-import org.limewire.listener.EventListener;
+import org.limewire.listener.BatchingEventListener;
 import org.limewire.listener.ListenerSupport;
 import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
@@ -33,7 +38,10 @@ import com.limegroup.gnutella.xml.LimeXMLDocument;
 
 /**
  * Updates the QueryRouteTable. Listens for changes to shared files in the
- * FileManager. When changes occur, a new QRT will lazily be rebuilt.
+ * FileManager. The table counts how many words of the shared files hash to
+ * each of its slots, so files that are added or removed only change their
+ * own slots.  The whole table is lazily rebuilt when the lime keywords
+ * or the partial sharing settings change, or a file list is cleared.
  */
 @Singleton
 public class QRPUpdater implements SettingListener, Service, Inspectable {
@@ -64,13 +72,66 @@ public class QRPUpdater implements SettingListener, Service, Inspectable {
     /**
      * Boolean for checking if the QRT needs to be rebuilt.
      */
-    private boolean needRebuild = true;
+    private volatile boolean needRebuild = true;
+    
+    /** Delivers the batched file events to the listeners below. */
+    private final Executor eventExecutor = ExecutorsHelper.newProcessingQueue("QRPUpdaterEvents");
+    
+    private final FileListListener sharedListener = new FileListListener(true);
+    
+    private final FileListListener incompleteListener = new FileListListener(false);
+    
+    /**
+     * Marks the QRT for rebuilding when the settings that decide whether
+     * incomplete files are published change.
+     */
+    private final SettingListener partialSharingListener = new SettingListener() {
+        public void settingChanged(SettingEvent evt) {
+            synchronized(QRPUpdater.this) {
+                needRebuild = true;
+            }
+        }
+    };
+    
+    private final BatchingEventListener<FileDescChangeEvent> fileDescListener =
+        new BatchingEventListener<FileDescChangeEvent>(eventExecutor, BatchingEventListener.DEFAULT_MAX_QUEUED) {
+        @Override
+        protected void handleEvents(List<FileDescChangeEvent> events) {
+            synchronized(QRPUpdater.this) {
+                for(FileDescChangeEvent event : events) {
+                    if(needRebuild)
+                        return;
+                    // partial files are published once they have urns
+                    FileDesc fd = event.getSource();
+                    if(event.getType() == FileDescChangeEvent.Type.URNS_CHANGED
+                            && fd instanceof IncompleteFileDesc && isPublished(fd)
+                            && fileManager.getIncompleteFileList().contains(fd)) {
+                        addFile(fd, false);
+                    }
+                }
+            }
+        }
+    };
 
     /**
      * The QueryRouteTable kept by this.  The QueryRouteTable will be 
      * lazily rebuilt when necessary.
+     * LOCKING: this.
      */
     private QueryRouteTable queryRouteTable;
+    
+    /**
+     * The number of words that hash to each slot of queryRouteTable.
+     * A slot is set while its count is above zero.
+     * LOCKING: this.
+     */
+    private int[] slotCounts;
+    
+    /**
+     * The distinct slots each published file counts in slotCounts.
+     * LOCKING: this.
+     */
+    private final Map<FileDesc, int[]> fileSlots = new HashMap<FileDesc, int[]>();
 
     @Inject
     public QRPUpdater(FileManager fileManager, 
@@ -118,18 +179,22 @@ public class QRPUpdater implements SettingListener, Service, Inspectable {
      * Returns a new QueryRouteTable. If the QRT is stale, will rebuild the 
      * QRT prior to returning a new QueryRouteTable.
      */
-    public synchronized QueryRouteTable getQRT() {
+    public QueryRouteTable getQRT() {
         LOG.debug("getQRT");
-        if (needRebuild) {
-            if(scheduledSimppRebuildTimer != null )
-                scheduledSimppRebuildTimer.cancel(true);
-            buildQRT();
-            needRebuild = false;
+        // not holding the lock, the listeners lock this to handle events
+        flushEvents();
+        synchronized(this) {
+            if (needRebuild) {
+                if(scheduledSimppRebuildTimer != null )
+                    scheduledSimppRebuildTimer.cancel(true);
+                buildQRT();
+                needRebuild = false;
+            }
+    
+            QueryRouteTable qrt = new QueryRouteTable(queryRouteTable.getSize());
+            qrt.addAll(queryRouteTable);
+            return qrt;
         }
-
-        QueryRouteTable qrt = new QueryRouteTable(queryRouteTable.getSize());
-        qrt.addAll(queryRouteTable);
-        return qrt;
     }
 
     /**
@@ -138,9 +203,11 @@ public class QRPUpdater implements SettingListener, Service, Inspectable {
     private void buildQRT() {
         LOG.debug("building QRT");
         queryRouteTable = new QueryRouteTable();
+        slotCounts = new int[queryRouteTable.getSize()];
+        fileSlots.clear();
         if (SearchSettings.PUBLISH_LIME_KEYWORDS.getBoolean()) {
             for (String entry : SearchSettings.LIME_QRP_ENTRIES.get()) {
-                queryRouteTable.addIndivisible(entry);
+                countSlot(queryRouteTable.getIndivisibleHash(entry));
             }
         }
         
@@ -148,38 +215,98 @@ public class QRPUpdater implements SettingListener, Service, Inspectable {
         gnutella.getReadLock().lock();
         try {
             for (FileDesc fd : gnutella) {
-                queryRouteTable.add(fd.getFileName());
-                for(LimeXMLDocument doc : fd.getLimeXMLDocuments()) {
-                    for(String word : doc.getKeyWords()) {
-                        queryRouteTable.add(word);
-                    }
-                    for(String word : doc.getKeyWordsIndivisible()) {
-                        queryRouteTable.addIndivisible(word);
-                    }
-                    // also add schema uri needed by rich queries
-                    String schemaURI = doc.getSchemaURI();
-                    queryRouteTable.addIndivisible(schemaURI);
-                }
+                addFile(fd, true);
             }
         } finally {
             gnutella.getReadLock().unlock();
         }
         
         //if partial sharing is allowed, add incomplete file keywords also
-        if(SharingSettings.ALLOW_PARTIAL_SHARING.getValue() && SharingSettings.PUBLISH_PARTIAL_QRP.getValue()) {
-            FileList incompletes = fileManager.getIncompleteFileList();
-            incompletes.getReadLock().lock();
-            try {
-                for(FileDesc fd : incompletes) {
-                    IncompleteFileDesc ifd = (IncompleteFileDesc) fd;
-                    if (ifd.hasUrnsAndPartialData()) {
-                        queryRouteTable.add(ifd.getFileName());
-                    }
+        FileList incompletes = fileManager.getIncompleteFileList();
+        incompletes.getReadLock().lock();
+        try {
+            for(FileDesc fd : incompletes) {
+                if (isPublished(fd)) {
+                    addFile(fd, false);
+                }
+            }
+        } finally {
+            incompletes.getReadLock().unlock();
+        }
+    }
+    
+    /** Returns true if the keywords of an incomplete file are published. */
+    private boolean isPublished(FileDesc fd) {
+        return SharingSettings.ALLOW_PARTIAL_SHARING.getValue()
+                && SharingSettings.PUBLISH_PARTIAL_QRP.getValue()
+                && ((IncompleteFileDesc)fd).hasUrnsAndPartialData();
+    }
+    
+    /**
+     * Counts the slots of the words of a file, unless it is counted already.
+     * Only the name of an incomplete file is counted.
+     */
+    private void addFile(FileDesc fd, boolean complete) {
+        if (fileSlots.containsKey(fd))
+            return;
+        int[] slots = getSlots(fd, complete);
+        fileSlots.put(fd, slots);
+        for (int slot : slots)
+            countSlot(slot);
+    }
+    
+    /** Uncounts the slots of a file, if it is counted. */
+    private void removeFile(FileDesc fd) {
+        int[] slots = fileSlots.remove(fd);
+        if (slots == null)
+            return;
+        for (int slot : slots) {
+            if (--slotCounts[slot] == 0)
+                queryRouteTable.clear(slot);
+        }
+    }
+    
+    private void countSlot(int slot) {
+        if (slotCounts[slot]++ == 0)
+            queryRouteTable.set(slot);
+    }
+    
+    /** Returns the distinct slots of the words of a file. */
+    private int[] getSlots(FileDesc fd, boolean complete) {
+        List<int[]> words = new ArrayList<int[]>();
+        words.add(queryRouteTable.getHashes(fd.getFileName()));
+        if (complete) {
+            for(LimeXMLDocument doc : fd.getLimeXMLDocuments()) {
+                for(String word : doc.getKeyWords()) {
+                    words.add(queryRouteTable.getHashes(word));
+                }
+                List<String> indivisible = doc.getKeyWordsIndivisible();
+                int[] hashes = new int[indivisible.size() + 1];
+                for(int i = 0; i < indivisible.size(); i++) {
+                    hashes[i] = queryRouteTable.getIndivisibleHash(indivisible.get(i));
                 }
-            } finally {
-                incompletes.getReadLock().unlock();
+                // also add schema uri needed by rich queries
+                hashes[indivisible.size()] = queryRouteTable.getIndivisibleHash(doc.getSchemaURI());
+                words.add(hashes);
             }
         }
+        
+        int size = 0;
+        for (int[] hashes : words)
+            size += hashes.length;
+        int[] slots = new int[size];
+        size = 0;
+        for (int[] hashes : words) {
+            System.arraycopy(hashes, 0, slots, size, hashes.length);
+            size += hashes.length;
+        }
+        Arrays.sort(slots);
+        int distinct = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (distinct == 0 || slots[i] != slots[distinct - 1])
+                slots[distinct++] = slots[i];
+        }
+        return distinct == slots.length ? slots : Arrays.copyOf(slots, distinct);
     }
     
     @Inject
@@ -194,40 +321,11 @@ public class QRPUpdater implements SettingListener, Service, Inspectable {
     public void initialize() {
         SearchSettings.PUBLISH_LIME_KEYWORDS.addSettingListener(this);
         SearchSettings.LIME_QRP_ENTRIES.addSettingListener(this);
-        fileManager.getGnutellaFileList().addFileListListener(new EventListener<FileListChangedEvent>() {
-            @Override
-            public void handleEvent(FileListChangedEvent event) {
-                switch(event.getType()) {
-                case ADDED:
-                case REMOVED:
-                case CLEAR:
-                    needRebuild = true;
-					break;
-                }
-            }
-        });
-        fileManager.getIncompleteFileList().addFileListListener(new EventListener<FileListChangedEvent>() {
-            @Override
-            public void handleEvent(FileListChangedEvent event) {
-                switch(event.getType()) {
-                case ADDED:
-                case REMOVED:
-                case CLEAR:
-                    needRebuild = true;
-					break;
-                }   
-            }
-        });
-        fileDescListenerSupport.addListener(new EventListener<FileDescChangeEvent>() {
-            @Override
-            public void handleEvent(FileDescChangeEvent event) {
-                switch(event.getType()) {
-                case URNS_CHANGED:
-                    needRebuild = true;
-					break;
-                }
-            }
-        });
+        SharingSettings.ALLOW_PARTIAL_SHARING.addSettingListener(partialSharingListener);
+        SharingSettings.PUBLISH_PARTIAL_QRP.addSettingListener(partialSharingListener);
+        fileManager.getGnutellaFileList().addFileListListener(sharedListener);
+        fileManager.getIncompleteFileList().addFileListListener(incompleteListener);
+        fileDescListenerSupport.addListener(fileDescListener);
     }
     
     public void start() {}
@@ -235,15 +333,67 @@ public class QRPUpdater implements SettingListener, Service, Inspectable {
     public void stop() {
         SearchSettings.PUBLISH_LIME_KEYWORDS.removeSettingListener(this);
         SearchSettings.LIME_QRP_ENTRIES.removeSettingListener(this);
+        SharingSettings.ALLOW_PARTIAL_SHARING.removeSettingListener(partialSharingListener);
+        SharingSettings.PUBLISH_PARTIAL_QRP.removeSettingListener(partialSharingListener);
+        flushEvents();
+    }
+    
+    /** Handles the file events that are still queued. */
+    private void flushEvents() {
+        sharedListener.flush();
+        incompleteListener.flush();
+        fileDescListener.flush();
+    }
+    
+    /**
+     * Counts the files added to a list and uncounts the files removed,
+     * marking the QRT for rebuilding when the list is cleared.
+     */
+    private class FileListListener extends BatchingEventListener<FileListChangedEvent> {
+        private final boolean complete;
+        
+        FileListListener(boolean complete) {
+            super(eventExecutor, BatchingEventListener.DEFAULT_MAX_QUEUED);
+            this.complete = complete;
+        }
+        
+        @Override
+        protected void handleEvents(List<FileListChangedEvent> events) {
+            synchronized(QRPUpdater.this) {
+                for(FileListChangedEvent event : events) {
+                    // a rebuild will read the lists as they are then
+                    if(needRebuild)
+                        return;
+                    switch(event.getType()) {
+                    case ADDED:
+                        add(event.getFileDesc());
+                        break;
+                    case REMOVED:
+                        removeFile(event.getFileDesc());
+                        break;
+                    case CHANGED:
+                        removeFile(event.getOldValue());
+                        add(event.getFileDesc());
+                        break;
+                    case CLEAR:
+                        needRebuild = true;
+                        break;
+                    }
+                }
+            }
+        }
+        
+        private void add(FileDesc fd) {
+            if(complete || isPublished(fd))
+                addFile(fd, complete);
+        }
     }
 
     @Override
     public Object inspect() {
         Map<String, Object> ret = new HashMap<String, Object>();
 
-        synchronized(this) {
-            ret.put("qrt",getQRT().getRawDump());
-        }
+        ret.put("qrt",getQRT().getRawDump());
         return ret;
     }
 }
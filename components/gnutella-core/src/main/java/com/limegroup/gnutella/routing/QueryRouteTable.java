@@ -101,6 +101,13 @@ public class QueryRouteTable {
     /** The index of the next table entry to patch. */
     private int nextPatch;
     
+    /**
+     * The entries that may have changed since {@link #clearChanged()}, from
+     * changedFrom up to but not including changedTo.
+     */
+    private int changedFrom;
+    private int changedTo;
+    
     /** The uncompressor. This state must be maintained to implement chunked
      *  PATCH messages.  (You may need data from message N-1 to apply the patch
      *  in message N.) */
@@ -156,6 +163,8 @@ public class QueryRouteTable {
         this.sequenceNumber = -1;
         this.sequenceSize = -1;
         this.nextPatch = 0;
+        this.changedFrom = 0;
+        this.changedTo = size;
         this.keywordPresent = (byte)(1 - infinity);
         this.keywordAbsent = (byte)(infinity - 1);
         this.infinity = infinity;
@@ -300,7 +309,7 @@ public class QueryRouteTable {
     
     // In the new version, we will not accept TTLs for methods.  Tables are only
     // 1 hop deep....
-    private final boolean contains(int hash) {
+    final boolean contains(int hash) {
         return storage.get(hash);
     }
 
@@ -320,16 +329,48 @@ public class QueryRouteTable {
             int hash=HashFunction.hash(keywords[i], log2);
             if (!storage.get(hash)) {
                 storage.set(hash);
+                changed(hash, hash + 1);
             }
         }
     }
 
 
+    /**
+     * Returns the slots that {@link #add(String)} sets for
+     * <code>filePath</code>.  A slot may be listed more than once.
+     */
+    int[] getHashes(String filePath) {
+        String[] keywords = HashFunction.getPrefixes(HashFunction.keywords(filePath));
+        byte log2 = Utilities.log2(bitTableLength);
+        int[] hashes = new int[keywords.length];
+        for (int i = 0; i < keywords.length; i++)
+            hashes[i] = HashFunction.hash(keywords[i], log2);
+        return hashes;
+    }
+
+    /** Returns the slot that {@link #addIndivisible(String)} sets. */
+    int getIndivisibleHash(String iString) {
+        return HashFunction.hash(iString, Utilities.log2(bitTableLength));
+    }
+
+    /** Sets a slot, which must have been returned by this table. */
+    void set(int hash) {
+        storage.set(hash);
+        changed(hash, hash + 1);
+    }
+
+    /** Clears a slot, which must have been returned by this table. */
+    void clear(int hash) {
+        storage.clear(hash);
+        changed(hash, hash + 1);
+    }
+
     public void addIndivisible(String iString) {
         final int hash = HashFunction.hash(iString, 
                                            Utilities.log2(bitTableLength));
         if (!storage.get(hash)) {
             storage.set(hash);
+            changed(hash, hash + 1);
         }
     }
 
@@ -343,6 +384,32 @@ public class QueryRouteTable {
     public void addAll(QueryRouteTable qrt) {
         this.storage.or( qrt.storage.resize(this.bitTableLength) );
         this.storage.compact();
+        changed(0, bitTableLength);
+    }
+    
+    /** Returns the first entry that may have changed since {@link #clearChanged()}. */
+    int getChangedFrom() {
+        return changedFrom;
+    }
+    
+    /**
+     * Returns the entry after the last one that may have changed since
+     * {@link #clearChanged()}, which is not above {@link #getChangedFrom()}
+     * if none did.
+     */
+    int getChangedTo() {
+        return changedTo;
+    }
+    
+    /** Forgets which entries changed. */
+    void clearChanged() {
+        changedFrom = bitTableLength;
+        changedTo = 0;
+    }
+    
+    private void changed(int from, int to) {
+        changedFrom = Math.min(changedFrom, from);
+        changedTo = Math.max(changedTo, to);
     }
     
 
@@ -452,6 +519,7 @@ public class QueryRouteTable {
             throw new BadPacketException("Unknown value for entry bits");
 
         //3. Add data[0...] to table[nextPatch...]            
+        int patchStart = nextPatch;
         for (int i=0; i<data.length; i++) {
             if(nextPatch >= bitTableLength)
                 throw new BadPacketException("Tried to patch "+nextPatch
@@ -468,6 +536,7 @@ public class QueryRouteTable {
             nextPatch++;
         }
         storage.compact();
+        changed(patchStart, nextPatch);
 
         //4. Update sequence numbers.
         this.sequenceSize=m.getSequenceSize();
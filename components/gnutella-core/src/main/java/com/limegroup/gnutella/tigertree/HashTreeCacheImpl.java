@@ -34,7 +34,10 @@ import com.limegroup.gnutella.library.FileManager;
 import com.limegroup.gnutella.library.IncompleteFileDesc;
 import com.limegroup.gnutella.library.ManagedFileList;
 
-/** This class maps SHA1_URNs to hash trees and roots. */
+/**
+ * This class maps SHA1_URNs to hash trees and roots.  They are kept in a
+ * {@link HashTreeStore} and read from it when they are first asked for.
+ */
 /* This is public for tests, but only the interface should be used. */
 @Singleton
 public final class HashTreeCacheImpl implements HashTreeCache {
@@ -52,29 +55,98 @@ public final class HashTreeCacheImpl implements HashTreeCache {
     /** TigerTreeCache container. */
     private final Map<URN /* sha1 */, Future<HashTree>> TTREE_MAP = new HashMap<URN, Future<HashTree>>();
     
-    /** Where the SHA1 -> ttRoot info is stored. */
+    /** Where the SHA1 -> ttRoot info was stored before the store. */
     private final File ROOTS_FILE = new File(CommonUtils.getUserSettingsDir(), "ttroot.cache");
     
-    /** File where tiger tree data is stored. */
+    /** File where tiger tree data was stored before the store. */
     private final File DATA_FILE = new File(CommonUtils.getUserSettingsDir(), "ttdata.cache"); 
         
-    /** Whether or not data dirtied since the last time we saved. */
-    private volatile boolean dirty = false;
+    /** File where trees and roots are stored. */
+    private final File STORE_FILE = new File(CommonUtils.getUserSettingsDir(), "ttstore.dat");
+    
+    /** The store of trees and roots, null if it couldn't be opened. */
+    private final HashTreeStore store;
     
     private final HashTreeFactory tigerTreeFactory;
     private final ManagedFileList managedFileList;
+    private final HashTreeNodeManager hashTreeNodeManager;
     
     @Inject
-    HashTreeCacheImpl(HashTreeFactory tigerTreeFactory, ManagedFileList managedFileList) {
+    HashTreeCacheImpl(HashTreeFactory tigerTreeFactory, ManagedFileList managedFileList,
+            HashTreeNodeManager hashTreeNodeManager) {
         this.tigerTreeFactory = tigerTreeFactory;
         this.managedFileList = managedFileList;
+        this.hashTreeNodeManager = hashTreeNodeManager;
+        this.store = openStore();
+        if(store != null && (ROOTS_FILE.exists() || DATA_FILE.exists()))
+            migrateCaches();
+    }
+    
+    /** Opens the store, starting a new one if the file is unreadable. */
+    private HashTreeStore openStore() {
+        try {
+            return new HashTreeStore(STORE_FILE);
+        } catch(IOException e) {
+            LOG.warn("Error opening tree store, starting over.", e);
+        }
+        HashTreeStore.delete(STORE_FILE);
+        try {
+            return new HashTreeStore(STORE_FILE);
+        } catch(IOException e) {
+            LOG.error("Error opening tree store.", e);
+            return null;
+        }
+    }
+    
+    /** Copies the old root and tree caches into the store and deletes them. */
+    private void migrateCaches() {
         Tuple<Map<URN, URN>, Map<URN, HashTree>> tuple = loadCaches();
-        for(Map.Entry<URN, URN> entry : tuple.getFirst().entrySet()) {
-            SHA1_TO_ROOT_MAP.put(entry.getKey(), new SimpleFuture<URN>(entry.getValue()));
+        try {
+            for(Map.Entry<URN, URN> entry : tuple.getFirst().entrySet())
+                store.putRoot(entry.getKey(), entry.getValue());
+            for(Map.Entry<URN, HashTree> entry : tuple.getSecond().entrySet()) {
+                HashTree tree = entry.getValue();
+                store.putTree(entry.getKey(), tree, hashTreeNodeManager.getAllNodes(tree));
+            }
+            store.flush();
+        } catch(IOException e) {
+            LOG.warn("Error migrating tree caches.", e);
+            return;
         }        
-        for(Map.Entry<URN, HashTree> entry : tuple.getSecond().entrySet()) {
-            TTREE_MAP.put(entry.getKey(), new SimpleFuture<HashTree>(entry.getValue()));
+        ROOTS_FILE.delete();
+        DATA_FILE.delete();
+    }
+    
+    /**
+     * Returns the future tree for the SHA1, reading the tree from the store
+     * if it isn't in memory yet.
+     */
+    private synchronized Future<HashTree> getFutureTree(URN sha1) {
+        Future<HashTree> futureTree = TTREE_MAP.get(sha1);
+        if(futureTree == null && store != null) {
+            HashTree tree = store.getTree(sha1);
+            if(tree != null) {
+                futureTree = new SimpleFuture<HashTree>(tree);
+                TTREE_MAP.put(sha1, futureTree);
+            }
+        }
+        return futureTree;
+    }
+    
+    /**
+     * Returns the future root for the SHA1, reading the root from the store
+     * if it isn't in memory yet.
+     */
+    private synchronized Future<URN> getFutureRoot(URN sha1) {
+        Future<URN> futureRoot = SHA1_TO_ROOT_MAP.get(sha1);
+        if(futureRoot == null && store != null) {
+            URN root = store.getRoot(sha1);
+            if(root != null) {
+                futureRoot = new SimpleFuture<URN>(root);
+                SHA1_TO_ROOT_MAP.put(sha1, futureRoot);
+            }
         }
+        return futureRoot;
     }
     
     public HashTree getHashTreeAndWait(FileDesc fd, long timeout) throws InterruptedException, TimeoutException, ExecutionException {
@@ -147,8 +219,8 @@ public final class HashTreeCacheImpl implements HashTreeCache {
     @Override
     public synchronized URN getOrScheduleHashTreeRoot(FileDesc fd) {
         URN sha1 = fd.getSHA1Urn();
-        Future<HashTree> futureTree = TTREE_MAP.get(sha1);
-        Future<URN> futureRoot = SHA1_TO_ROOT_MAP.get(sha1);
+        Future<HashTree> futureTree = getFutureTree(sha1);
+        Future<URN> futureRoot = futureTree == null ? getFutureRoot(sha1) : SHA1_TO_ROOT_MAP.get(sha1);
         HashTree tree = futureTree == null ? null : getTreeFromFuture(sha1, futureTree);        
         URN root = futureRoot == null ? null : getRootFromFuture(sha1, futureRoot);
         if(tree != null) {
@@ -171,7 +243,7 @@ public final class HashTreeCacheImpl implements HashTreeCache {
     
     private synchronized Future<HashTree> getOrScheduleHashTreeFuture(FileDesc fd) {
         URN sha1 = fd.getSHA1Urn();
-        Future<HashTree> futureTree = TTREE_MAP.get(sha1);
+        Future<HashTree> futureTree = getFutureTree(sha1);
         if(futureTree == null) {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Scheduling: " + sha1 + " for full tree");
@@ -196,7 +268,7 @@ public final class HashTreeCacheImpl implements HashTreeCache {
         if (!sha1.isSHA1())
             throw new IllegalArgumentException();
         
-        Future<HashTree> futureTree = TTREE_MAP.get(sha1);
+        Future<HashTree> futureTree = getFutureTree(sha1);
         if(futureTree != null) {
             return getTreeFromFuture(sha1, futureTree);
         } else {
@@ -222,7 +294,7 @@ public final class HashTreeCacheImpl implements HashTreeCache {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Retrieving root from root map for: " + sha1);
             }
-            Future<URN> urnFuture = SHA1_TO_ROOT_MAP.get(sha1);
+            Future<URN> urnFuture = getFutureRoot(sha1);
             if(urnFuture != null) {
                 return getRootFromFuture(sha1, urnFuture);
             } else {
@@ -240,7 +312,14 @@ public final class HashTreeCacheImpl implements HashTreeCache {
         Future<HashTree> futureTree = TTREE_MAP.remove(sha1);
         if(futureTree != null) {
             futureTree.cancel(true);
-            dirty = true;
+        }
+        SHA1_TO_ROOT_MAP.remove(sha1);
+        if(store != null) {
+            try {
+                store.remove(sha1);
+            } catch(IOException e) {
+                LOG.warn("Error removing tree from store.", e);
+            }
         }
     }
 
@@ -258,15 +337,19 @@ public final class HashTreeCacheImpl implements HashTreeCache {
     }
     
     private synchronized boolean hashTreeCalculated(URN sha1, HashTree tree) {
-        URN root = tree.getTreeRootUrn();
-        addRoot(sha1, root);
         if (tree.isGoodDepth()) {
             Future<URN> futureRoot = SHA1_TO_ROOT_MAP.remove(sha1);
             if(futureRoot != null) {
                 futureRoot.cancel(true);
             }
             
-            dirty = true;
+            if(store != null) {
+                try {
+                    store.putTree(sha1, tree, hashTreeNodeManager.getAllNodes(tree));
+                } catch(IOException e) {
+                    LOG.warn("Error storing tree.", e);
+                }
+            }
             if (LOG.isDebugEnabled())
                 LOG.debug("added hashtree for urn " +
                           sha1 + ";" + tree.getRootHash());
@@ -275,6 +358,7 @@ public final class HashTreeCacheImpl implements HashTreeCache {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("hashtree for urn " + sha1 + " had bad depth");
             }
+            addRoot(sha1, tree.getTreeRootUrn());
             return false;
         }
     }
@@ -288,7 +372,18 @@ public final class HashTreeCacheImpl implements HashTreeCache {
         if(oldFuture != null) {
             oldFuture.cancel(true);
         }
-        dirty = true;
+        storeRoot(sha1, ttroot);
+    }
+    
+    /** Writes the root to the store. */
+    private synchronized void storeRoot(URN sha1, URN ttroot) {
+        if(store != null) {
+            try {
+                store.putRoot(sha1, ttroot);
+            } catch(IOException e) {
+                LOG.warn("Error storing root.", e);
+            }
+        }
     }
     
     /**
@@ -333,32 +428,28 @@ public final class HashTreeCacheImpl implements HashTreeCache {
     }
 
     /**
-     * Removes any stale entries from the map so that they will automatically
+     * Removes any stale entries from the store so that they will automatically
      * be replaced.
      * 
-     * @param map
-     *            the <tt>Map</tt> to check
+     * @param sha1s
+     *            the SHA1s in the store
      */
-    private Set<URN> removeOldEntries(Map<URN,URN> roots, Map <URN, HashTree> map, FileManager fileManager, DownloadManager downloadManager) {
+    private Set<URN> removeOldEntries(Set<URN> sha1s, FileManager fileManager, DownloadManager downloadManager) {
         Set<URN> removed = new HashSet<URN>();
+        int trees = store.getTreeCount();
         // discard outdated info
-        Iterator<URN> iter = roots.keySet().iterator();
-        while (iter.hasNext()) {
-            URN sha1 = iter.next();
+        for(URN sha1 : sha1s) {
             if (!fileManager.getManagedFileList().getFileDescsMatching(sha1).isEmpty()) {
                 continue;
             } else if (downloadManager.getIncompleteFileManager().getFileForUrn(sha1) != null) {
                 continue;
-            } else if (Math.random() > map.size() / 200) {
+            } else if (Math.random() > trees / 200) {
                 // lazily removing entries if we don't have
                 // that many anyway. Maybe some of the files are
                 // just temporarily unshared.
                 continue;
             } else {
                 removed.add(sha1);
-                iter.remove();
-                map.remove(sha1);
-                dirty = true;
             }
         }
         return removed;
@@ -366,50 +457,24 @@ public final class HashTreeCacheImpl implements HashTreeCache {
 
     @Override
     public void persistCache(FileManager fileManager, DownloadManager downloadManager) {
-        if(!dirty)
+        if(store == null)
             return;
         
-        Map<URN,URN> roots;
-        Map<URN, HashTree> trees;
-        synchronized(this) {
-            trees = new HashMap<URN,HashTree>(TTREE_MAP.size());
-            for(Map.Entry<URN, Future<HashTree>> entry : TTREE_MAP.entrySet()) {
-                if(entry.getValue().isDone()) {
-                    try {
-                        trees.put(entry.getKey(), entry.getValue().get());
-                    } catch (InterruptedException e) {
-                    } catch (ExecutionException e) {
-                    } catch (CancellationException e) {
-                    }
-                }
-            }
-            roots = new HashMap<URN,URN>(SHA1_TO_ROOT_MAP.size());
-            for(Map.Entry<URN, Future<URN>> entry : SHA1_TO_ROOT_MAP.entrySet()) {
-                if(entry.getValue().isDone()) {
-                    try {
-                        roots.put(entry.getKey(), entry.getValue().get());
-                    } catch (InterruptedException e) {
-                    } catch (ExecutionException e) {
-                    } catch (CancellationException e) {
-                    }
+        Set<URN> removed = removeOldEntries(store.getSha1s(), fileManager, downloadManager);
+        try {
+            if(!removed.isEmpty()) {        
+                synchronized(this) {
+                    SHA1_TO_ROOT_MAP.keySet().removeAll(removed);
+                    TTREE_MAP.keySet().removeAll(removed);
+                    for(URN sha1 : removed)
+                        store.remove(sha1);
                 }
             }
+            store.compactIfNeeded();
+            store.flush();
+        } catch (IOException e) {
+            LOG.warn("Error persisting tree store.", e);
         }
-        
-        Set<URN> removed = removeOldEntries(roots, trees, fileManager, downloadManager);
-        if(!removed.isEmpty()) {        
-            synchronized(this) {
-                SHA1_TO_ROOT_MAP.keySet().removeAll(removed);
-                TTREE_MAP.keySet().removeAll(removed);
-            }
-        }
-        
-        try {
-            FileUtils.writeObject(ROOTS_FILE, roots);
-            FileUtils.writeObject(DATA_FILE, trees);
-            dirty = false;
-        } catch (IOException e) {} 
-        // this may any roots added while writing to get lost
     }
 
     /** Simple runnable that processes the hash of a FileDesc. */
@@ -446,7 +511,7 @@ public final class HashTreeCacheImpl implements HashTreeCache {
             for(FileDesc fd : fds) {
                 fd.setTTRoot(ttRoot);
             }
-            dirty = true;
+            storeRoot(FD.getSHA1Urn(), ttRoot);
             return ttRoot;
         }
     }    
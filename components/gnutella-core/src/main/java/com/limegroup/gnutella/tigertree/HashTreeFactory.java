@@ -3,6 +3,7 @@ package com.limegroup.gnutella.tigertree;
 import java.io.IOException;
 import java.util.List;
 
+import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.library.FileDesc;
 
 /**
@@ -16,4 +17,12 @@ public interface HashTreeFactory {
      * Creates a new TigerTree for the given FileDesc.
      */
     HashTree createHashTree(FileDesc fd) throws IOException;
+
+    /**
+     * Creates a new TigerTree from a digest that the whole file has
+     * already been streamed through.
+     * 
+     * @throws IOException if the digest did not hash the whole file
+     */
+    HashTree createHashTree(HashTreeNodeDigest digest, URN sha1) throws IOException;
 }
@@ -71,6 +71,10 @@ public class HashTreeFactoryImpl implements HashTreeFactory {
                 allNodes.size() - 1));
     }
 
+    public HashTree createHashTree(HashTreeNodeDigest digest, URN sha1) throws IOException {
+        return createHashTree(digest.getAllNodes(), sha1.toString(), digest.getFileSize(), digest.getNodeSize());
+    }
+
     /**
      * Creates a new HashTree for the given file size, input stream and SHA1.
      * 
@@ -88,6 +88,20 @@ class HashTreeImpl implements Serializable, HashTree {
         _nodeSize = nodeSize;
     }
     
+    /**
+     * Constructs a HashTree out of its lowest nodes and root, when the
+     * intermediary nodes aren't needed.
+     */
+    HashTreeImpl(List<byte[]> nodes, byte[] rootHash, String sha1, long fileSize, int nodeSize) {
+        THEX_URI = HTTPConstants.URI_RES_N2X + sha1;
+        NODES = nodes;
+        FILE_SIZE = fileSize;
+        ROOT_HASH = rootHash;
+        DEPTH = MerkleTree.log2Ceil(NODES.size());
+        assert(NODES.size() * (long)nodeSize >= fileSize);
+        _nodeSize = nodeSize;
+    }
+    
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.tigertree.TigerTree#isCorrupt(org.limewire.collection.Range, byte[])
      */
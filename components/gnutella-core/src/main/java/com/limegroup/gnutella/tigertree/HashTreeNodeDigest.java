@@ -0,0 +1,151 @@
+package com.limegroup.gnutella.tigertree;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.limegroup.gnutella.security.MerkleTree;
+import com.limegroup.gnutella.security.Tiger;
+
+/**
+ * A <tt>MessageDigest</tt> that builds all generations of a THEX hash tree
+ * for a file of a known size while its data is streamed through.
+ * <p>
+ * This lets the tree be computed from the same buffers as other digests
+ * (such as SHA1), so a file only has to be read from disk once. The leaf
+ * nodes are sized exactly as {@link HashTreeUtils#createTreeNodes} would size
+ * them, so the resulting tree is identical to one created from a stream.
+ * <p>
+ * {@link #digest()} returns the root hash of the tree, which is the TTROOT
+ * of the file. The nodes of the last digested tree are available through
+ * {@link #getAllNodes()} until the next update.
+ */
+public class HashTreeNodeDigest extends MessageDigest {
+
+    /** The size of the file that is being hashed. */
+    private final long fileSize;
+
+    /** The size of each leaf node. */
+    private final int nodeSize;
+
+    /** The digest of the node currently being hashed. */
+    private final MerkleTree nodeDigest = new MerkleTree(new Tiger());
+
+    /** The digest used to calculate the parent generations. */
+    private final MessageDigest parentDigest = new Tiger();
+
+    /** The hashes of the leaf nodes completed so far. */
+    private List<byte[]> nodes;
+
+    /** All generations of the last digested tree, null if none. */
+    private List<List<byte[]>> allNodes;
+
+    /** The number of bytes hashed so far. */
+    private long offset;
+
+    /** The number of bytes hashed into the current node. */
+    private int nodeOffset;
+
+    /** The number of bytes that were hashed for the last digested tree. */
+    private long digestedSize;
+
+    /**
+     * Constructs a digest for a file of the given size.
+     *
+     * @throws IllegalArgumentException if <code>fileSize</code> is not positive
+     */
+    public HashTreeNodeDigest(long fileSize) {
+        super("hashtreenodes");
+        if(fileSize <= 0)
+            throw new IllegalArgumentException("invalid file size: " + fileSize);
+        this.fileSize = fileSize;
+        this.nodeSize = HashTreeUtils.calculateNodeSize(fileSize, HashTreeUtils.calculateDepth(fileSize));
+        this.nodes = newNodeList();
+    }
+
+    /** Returns the size of the file this digest expects. */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /** Returns the size of each leaf node of the tree. */
+    public int getNodeSize() {
+        return nodeSize;
+    }
+
+    /**
+     * Returns all generations of the last digested tree, the 0th element
+     * containing only the root hash.
+     *
+     * @throws IOException if no tree was digested or if the amount of data
+     * that was hashed does not match the expected file size
+     */
+    public List<List<byte[]>> getAllNodes() throws IOException {
+        if(allNodes == null)
+            throw new IOException("no tree digested");
+        if(digestedSize != fileSize)
+            throw new IOException("couldn't hash whole file. hashed: " + digestedSize
+                                  + ", fileSize: " + fileSize);
+        return allNodes;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return MerkleTree.HASHSIZE;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[] { input }, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int off, int len) {
+        allNodes = null;
+        while(len > 0) {
+            int length = Math.min(len, nodeSize - nodeOffset);
+            nodeDigest.update(input, off, length);
+            nodeOffset += length;
+            offset += length;
+            off += length;
+            len -= length;
+            if(nodeOffset == nodeSize) {
+                nodes.add(nodeDigest.digest());
+                nodeOffset = 0;
+            }
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        // hash the last, partial node.
+        if(nodeOffset > 0 || nodes.isEmpty())
+            nodes.add(nodeDigest.digest());
+
+        allNodes = HashTreeUtils.createAllParentNodes(nodes, parentDigest);
+        digestedSize = offset;
+
+        nodes = newNodeList();
+        offset = 0;
+        nodeOffset = 0;
+        return allNodes.get(0).get(0).clone();
+    }
+
+    @Override
+    protected void engineReset() {
+        nodeDigest.reset();
+        nodes = newNodeList();
+        offset = 0;
+        nodeOffset = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    private List<byte[]> newNodeList() {
+        return new ArrayList<byte[]>((int)((fileSize + nodeSize - 1) / nodeSize));
+    }
+}
@@ -1,5 +1,7 @@
 package com.limegroup.gnutella.tigertree;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface HashTreeNodeManager {
@@ -14,4 +16,9 @@ public interface HashTreeNodeManager {
      */
     public void register(HashTree tree, List<List<byte[]>> nodes);
 
+    /**
+     * Writes all nodes of the tree, root first, as THEX serializes them.
+     */
+    public void writeAllNodes(HashTree tree, OutputStream out) throws IOException;
+
 }
\ No newline at end of file
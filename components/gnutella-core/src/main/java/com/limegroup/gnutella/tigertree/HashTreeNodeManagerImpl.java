@@ -1,5 +1,7 @@
 package com.limegroup.gnutella.tigertree;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,7 +53,10 @@ class HashTreeNodeManagerImpl implements HashTreeNodeManager {
      */
     public List<List<byte[]>> getAllNodes(HashTree tree) {
         int depth = tree.getDepth();
-        if(tree.getDepth() == 0) {
+        if(tree instanceof HashTreeStore.StoredHashTree) {
+            // stored trees read all their nodes from the store.
+            return ((HashTreeStore.StoredHashTree)tree).getAllNodes();
+        } else if(tree.getDepth() == 0) {
             // trees of depth 0 have only one row.
             List<List<byte[]>> outer = new ArrayList<List<byte[]>>(1);
             outer.add(tree.getNodes());
@@ -77,6 +82,20 @@ class HashTreeNodeManagerImpl implements HashTreeNodeManager {
             insertEntry(tree, nodes);
     }
 
+    /* (non-Javadoc)
+     * @see com.limegroup.gnutella.tigertree.HashTreeNodeManager#writeAllNodes(com.limegroup.gnutella.tigertree.HashTree, java.io.OutputStream)
+     */
+    public void writeAllNodes(HashTree tree, OutputStream out) throws IOException {
+        if(tree instanceof HashTreeStore.StoredHashTree) {
+            ((HashTreeStore.StoredHashTree)tree).writeAllNodes(out);
+        } else {
+            for(List<byte[]> row : getAllNodes(tree)) {
+                for(byte[] node : row)
+                    out.write(node);
+            }
+        }
+    }
+
     /**
      * Returns all intermediary nodes for the tree.
      *
@@ -0,0 +1,619 @@
+package com.limegroup.gnutella.tigertree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.io.ByteBufferOutputStream;
+import org.limewire.io.IOUtils;
+import org.limewire.util.FileUtils;
+
+import com.limegroup.gnutella.URN;
+
+/**
+ * Stores hash trees and tree roots in a file, indexed by SHA1 and by tree
+ * root.  Only the index is kept in memory; the file is memory-mapped and
+ * the trees it returns read their nodes straight from the mapping.
+ * <p>
+ * The file is a header followed by records, which are only ever appended:
+ * <pre>
+ *     int     length of the rest of the record
+ *     byte    TREE, ROOT or REMOVED
+ *     20      SHA1
+ *     24      tree root, zeros for REMOVED
+ *     TREE records only:
+ *     long    file size
+ *     int     node size
+ *     int     number of nodes in the lowest row
+ *     24 * n  all the nodes of the tree, root first, as THEX serializes them
+ *     int     CRC32 of the type through the nodes
+ * </pre>
+ * The last record for a SHA1 replaces the ones before it.  If LimeWire
+ * stops while appending, the partial record is found and cut off when the
+ * store is opened again.  Records are checked against their CRC when the
+ * store is opened, except trees, which are checked when they are first
+ * read.  Replaced records are left in the file until {@link #compact()}
+ * copies the live records to a new one.
+ * <p>
+ * The file is mapped in chunks, with room for the records appended next, so
+ * it usually has zeros after the last record.  Compacting writes the next
+ * generation of the file, named after the first with the generation number
+ * appended, and the store reopens on it.  Trees returned before keep reading
+ * the mapping of the old file, so the old file is only deleted if it can be,
+ * and otherwise when the store is opened again.
+ */
+final class HashTreeStore {
+
+    private static final Log LOG = LogFactory.getLog(HashTreeStore.class);
+
+    /** The first bytes of the file, "LWTT". */
+    private static final int MAGIC = 0x4C575454;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    static final byte TREE = 1;
+
+    static final byte ROOT = 2;
+
+    static final byte REMOVED = 3;
+
+    private static final int SHA1_SIZE = 20;
+
+    private static final int HASH_SIZE = 24;
+
+    /** The size of the type, SHA1 and root of a record. */
+    private static final int KEY_SIZE = 1 + SHA1_SIZE + HASH_SIZE;
+
+    /** The size of a tree record's file size, node size and lowest node count. */
+    private static final int TREE_INFO_SIZE = 8 + 4 + 4;
+
+    /** The least garbage worth compacting the file for. */
+    private static final long MIN_COMPACT_GARBAGE = 64 * 1024;
+
+    /** The mapping of the file grows by multiples of this. */
+    private static final int MAP_CHUNK = 256 * 1024;
+
+    /** The file of the first generation, which names the others. */
+    private final File file;
+
+    /** The generation of the file that is open. */
+    private int generation;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    /** The mapping of the whole file. */
+    private MappedByteBuffer mapped;
+
+    /** The end of the last record, where the next is appended. */
+    private long size;
+
+    /** The bytes of records that have been replaced. */
+    private long garbage;
+
+    /** The live record of each SHA1. */
+    private final Map<URN, Entry> index = new HashMap<URN, Entry>();
+
+    /** The number of TREE records in the index. */
+    private int treeCount;
+
+    /**
+     * Opens the store in <code>file</code>, creating the file if it
+     * doesn't exist.
+     *
+     * @throws IOException if the file can't be opened or isn't a store
+     */
+    HashTreeStore(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * Opens the newest complete generation of the file, and deletes the
+     * others.
+     */
+    private void open() throws IOException {
+        SortedMap<Integer, File> generations = getGenerations(file);
+        generation = 0;
+        for(Map.Entry<Integer, File> e : generations.entrySet()) {
+            if(e.getKey() > 0 && hasHeader(e.getValue()))
+                generation = e.getKey();
+        }
+
+        File current = getFile();
+        raf = new RandomAccessFile(current, "rw");
+        channel = raf.getChannel();
+        try {
+            if(channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+            }
+            map(HEADER_SIZE);
+            if(mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+                throw new IOException("not a tree store: " + current);
+            scan();
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+
+        for(File old : generations.values()) {
+            if(!old.equals(current) && !old.delete())
+                LOG.debug("couldn't delete " + old + " yet");
+        }
+    }
+
+    /**
+     * Maps the whole file, growing it to at least <code>length</code> bytes
+     * and to a whole number of chunks.
+     */
+    private void map(long length) throws IOException {
+        long capacity = Math.max(length, channel.size());
+        capacity = (capacity + MAP_CHUNK - 1) / MAP_CHUNK * MAP_CHUNK;
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /** Reads the index, clearing a partial record at the end. */
+    private void scan() throws IOException {
+        long fileSize = mapped.capacity();
+        int pos = HEADER_SIZE;
+        while(pos + 4 <= fileSize) {
+            int length = mapped.getInt(pos);
+            if(length < KEY_SIZE + 4 || pos + 4L + length > fileSize)
+                break;
+            byte type = mapped.get(pos + 4);
+            if((type != TREE || isLast(pos, length)) && !isValid(pos, length))
+                break;
+            if(!index(pos, length, type))
+                break;
+            pos += 4 + length;
+        }
+        size = pos;
+
+        // the zeros after the last record tell where it ends next time
+        int cleared = 0;
+        for(int i = pos; i < fileSize; i++) {
+            if(mapped.get(i) != 0) {
+                mapped.put(i, (byte)0);
+                cleared++;
+            }
+        }
+        if(cleared > 0) {
+            LOG.warn("cleared " + cleared + " bytes after the last record of " + getFile());
+            mapped.force();
+        }
+    }
+
+    /** Returns true if nothing follows the record at <code>offset</code>. */
+    private boolean isLast(int offset, int length) {
+        long next = offset + 4L + length;
+        return next + 4 > mapped.capacity() || mapped.getInt((int)next) == 0;
+    }
+
+    /**
+     * Indexes the record at <code>offset</code>.
+     * @return false if the record is invalid
+     */
+    private boolean index(int offset, int length, byte type) {
+        URN sha1, root;
+        try {
+            sha1 = URN.createSHA1UrnFromBytes(getBytes(offset + 5, SHA1_SIZE));
+            root = type == REMOVED ? null : URN.createTTRootFromBytes(getBytes(offset + 5 + SHA1_SIZE, HASH_SIZE));
+        } catch(IOException e) {
+            return false;
+        }
+
+        Entry old;
+        if(type == REMOVED) {
+            old = index.remove(sha1);
+            garbage += 4 + length;
+        } else if(type == TREE || type == ROOT) {
+            old = index.put(sha1, new Entry(root, offset, length, type == TREE));
+            if(type == TREE)
+                treeCount++;
+        } else {
+            return false;
+        }
+
+        if(old != null)
+            unindex(old);
+        return true;
+    }
+
+    /** Counts a record that was replaced as garbage. */
+    private void unindex(Entry old) {
+        garbage += 4 + old.length;
+        if(old.tree)
+            treeCount--;
+    }
+
+    /** Returns true if the CRC of a record matches. */
+    private boolean isValid(long offset, int length) {
+        ByteBuffer record = slice(offset + 4, length - 4);
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[Math.min(record.remaining(), 8192)];
+        while(record.hasRemaining()) {
+            int read = Math.min(buf.length, record.remaining());
+            record.get(buf, 0, read);
+            crc.update(buf, 0, read);
+        }
+        return (int)crc.getValue() == mapped.getInt((int)(offset + length));
+    }
+
+    private byte[] getBytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        slice(offset, length).get(bytes);
+        return bytes;
+    }
+
+    /** Returns a buffer of the mapped bytes from <code>offset</code>. */
+    private ByteBuffer slice(long offset, int length) {
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.limit((int)(offset + length));
+        buffer.position((int)offset);
+        return buffer.slice();
+    }
+
+    /** Returns the root for <code>sha1</code>, or null if there is none. */
+    synchronized URN getRoot(URN sha1) {
+        Entry entry = index.get(sha1);
+        return entry == null ? null : entry.root;
+    }
+
+    /** Returns the SHA1s in the store. */
+    synchronized Set<URN> getSha1s() {
+        return new HashSet<URN>(index.keySet());
+    }
+
+    /** Returns the number of trees in the store. */
+    synchronized int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * Returns the tree for <code>sha1</code>, or null if there is none.
+     * The nodes of the tree are read from the file when they are used.
+     */
+    synchronized HashTree getTree(URN sha1) {
+        Entry entry = index.get(sha1);
+        if(entry == null || !entry.tree)
+            return null;
+
+        if(!entry.checked) {
+            if(!isValid(entry.offset, entry.length)) {
+                LOG.warn("corrupt tree for " + sha1);
+                index.remove(sha1);
+                unindex(entry);
+                return null;
+            }
+            entry.checked = true;
+        }
+
+        ByteBuffer info = slice(entry.offset + 4 + KEY_SIZE, TREE_INFO_SIZE);
+        long fileSize = info.getLong();
+        int nodeSize = info.getInt();
+        int lowest = info.getInt();
+        int nodesOffset = entry.offset + 4 + KEY_SIZE + TREE_INFO_SIZE;
+        int nodesLength = entry.length - KEY_SIZE - TREE_INFO_SIZE - 4;
+        ByteBuffer nodes = slice(nodesOffset, nodesLength);
+        return new StoredHashTree(nodes, lowest, getBytes(entry.offset + 5 + SHA1_SIZE, HASH_SIZE),
+                sha1.toString(), fileSize, nodeSize);
+    }
+
+    /**
+     * Stores the root for <code>sha1</code>, unless it has the same root
+     * already.
+     */
+    synchronized void putRoot(URN sha1, URN root) throws IOException {
+        Entry entry = index.get(sha1);
+        if(entry != null && entry.root.equals(root))
+            return;
+        append(ROOT, sha1, root.getBytes(), null);
+    }
+
+    /**
+     * Stores a tree for <code>sha1</code>, unless it has a tree with the
+     * same root.
+     *
+     * @param allNodes all the nodes of the tree, as returned by
+     * {@link HashTreeNodeManager#getAllNodes(HashTree)}
+     */
+    synchronized void putTree(URN sha1, HashTree tree, List<List<byte[]>> allNodes) throws IOException {
+        Entry entry = index.get(sha1);
+        if(entry != null && entry.tree && entry.root.equals(tree.getTreeRootUrn()))
+            return;
+        int count = 0;
+        for(List<byte[]> row : allNodes)
+            count += row.size();
+        ByteBuffer body = ByteBuffer.allocate(TREE_INFO_SIZE + count * HASH_SIZE);
+        body.putLong(tree.getFileSize());
+        body.putInt(tree.getNodeSize());
+        body.putInt(tree.getNodes().size());
+        for(List<byte[]> row : allNodes) {
+            for(byte[] node : row)
+                body.put(node);
+        }
+        body.flip();
+        append(TREE, sha1, tree.getRootHashBytes(), body);
+    }
+
+    /** Removes the tree and root for <code>sha1</code>. */
+    synchronized void remove(URN sha1) throws IOException {
+        if(index.containsKey(sha1))
+            append(REMOVED, sha1, new byte[HASH_SIZE], null);
+    }
+
+    /** Appends a record and indexes it. */
+    private void append(byte type, URN sha1, byte[] root, ByteBuffer body) throws IOException {
+        int bodyLength = body == null ? 0 : body.remaining();
+        int length = KEY_SIZE + bodyLength + 4;
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length);
+        record.put(type);
+        record.put(sha1.getBytes());
+        record.put(root);
+        if(body != null)
+            record.put(body);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length - 4);
+        record.putInt((int)crc.getValue());
+        record.flip();
+
+        // if this fails part way, the next record overwrites it
+        writeFully(channel, record, size);
+        int offset = (int)size;
+        size += record.limit();
+        if(size > mapped.capacity())
+            map(size + size / 2);
+        index(offset, length, type);
+        // an entry appended here was checked as it was written
+        Entry entry = index.get(sha1);
+        if(entry != null)
+            entry.checked = true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /** Forces the appended records to disk. */
+    synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Compacts the file if at least half of it is taken by replaced
+     * records.
+     *
+     * @return true if the file was compacted
+     */
+    synchronized boolean compactIfNeeded() throws IOException {
+        if(garbage < MIN_COMPACT_GARBAGE || garbage * 2 < size)
+            return false;
+        compact();
+        return true;
+    }
+
+    /**
+     * Copies the live records to the next generation of the file, and
+     * reopens the store on it.  Trees returned before keep reading the old
+     * mapping.
+     */
+    synchronized void compact() throws IOException {
+        File next = getFile(file, generation + 1);
+        long pos = HEADER_SIZE;
+        boolean copied = false;
+        RandomAccessFile out = new RandomAccessFile(next, "rw");
+        try {
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+            // the magic is written last, so a partial copy is never opened
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0).putInt(VERSION).flip();
+            writeFully(outChannel, header, 0);
+            for(Entry entry : index.values()) {
+                writeFully(outChannel, slice(entry.offset, 4 + entry.length), pos);
+                pos += 4 + entry.length;
+            }
+            outChannel.force(true);
+            header.clear();
+            header.putInt(MAGIC).flip();
+            writeFully(outChannel, header, 0);
+            outChannel.force(true);
+            copied = true;
+        } finally {
+            IOUtils.close(out);
+            if(!copied)
+                next.delete();
+        }
+
+        close();
+        reopen();
+        if(LOG.isDebugEnabled())
+            LOG.debug("compacted " + file + " to " + size + " bytes");
+    }
+
+    private void reopen() throws IOException {
+        index.clear();
+        treeCount = 0;
+        garbage = 0;
+        open();
+    }
+
+    /** Returns the file that is open. */
+    synchronized File getFile() {
+        return getFile(file, generation);
+    }
+
+    /** Returns the end of the last record. */
+    synchronized long getSize() {
+        return size;
+    }
+
+    /** Returns the file of a generation of the store in <code>file</code>. */
+    private static File getFile(File file, int generation) {
+        return generation == 0 ? file : new File(file.getPath() + "." + generation);
+    }
+
+    /** Returns the files of the store in <code>file</code>, by generation. */
+    private static SortedMap<Integer, File> getGenerations(File file) {
+        SortedMap<Integer, File> generations = new TreeMap<Integer, File>();
+        if(file.exists())
+            generations.put(0, file);
+        File dir = file.getAbsoluteFile().getParentFile();
+        String[] names = dir == null ? null : dir.list();
+        if(names == null)
+            return generations;
+        String prefix = file.getName() + ".";
+        for(String name : names) {
+            if(!name.startsWith(prefix))
+                continue;
+            try {
+                int generation = Integer.parseInt(name.substring(prefix.length()));
+                if(generation > 0)
+                    generations.put(generation, getFile(file, generation));
+            } catch(NumberFormatException notGeneration) {
+            }
+        }
+        return generations;
+    }
+
+    /** Returns true if <code>file</code> starts with a complete header. */
+    private static boolean hasHeader(File file) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            return in.length() >= HEADER_SIZE && in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch(IOException e) {
+            return false;
+        } finally {
+            IOUtils.close(in);
+        }
+    }
+
+    /** Deletes all the generations of the store in <code>file</code>. */
+    static void delete(File file) {
+        for(File generation : getGenerations(file).values())
+            FileUtils.forceDelete(generation);
+    }
+
+    /** Closes the file. */
+    synchronized void close() {
+        IOUtils.close(raf);
+    }
+
+    /** Where a SHA1's live record is. */
+    private static class Entry {
+        private final URN root;
+        /** The offset of the record. */
+        private final int offset;
+        /** The length of the record after its length. */
+        private final int length;
+        private final boolean tree;
+        /** Whether the CRC of the record has been checked. */
+        private boolean checked;
+
+        Entry(URN root, int offset, int length, boolean tree) {
+            this.root = root;
+            this.offset = offset;
+            this.length = length;
+            this.tree = tree;
+        }
+    }
+
+    /** A tree that reads its nodes from the store's mapping. */
+    static class StoredHashTree extends HashTreeImpl {
+
+        private static final long serialVersionUID = 2637153932151474276L;
+
+        /** All the nodes, root first. */
+        private final transient ByteBuffer allNodes;
+
+        StoredHashTree(ByteBuffer allNodes, int lowest, byte[] rootHash, String sha1, long fileSize, int nodeSize) {
+            super(new NodeList(allNodes, allNodes.limit() / HASH_SIZE - lowest, lowest),
+                    rootHash, sha1, fileSize, nodeSize);
+            this.allNodes = allNodes;
+        }
+
+        /** Returns the nodes in rows, root first, without rehashing them. */
+        List<List<byte[]>> getAllNodes() {
+            List<List<byte[]>> rows = new ArrayList<List<byte[]>>(getDepth() + 1);
+            int first = allNodes.limit() / HASH_SIZE;
+            // each row has half the nodes of the one below it, rounded up
+            for(int count = getNodes().size(); ; count = (count + 1) / 2) {
+                first -= count;
+                rows.add(0, new NodeList(allNodes, first, count));
+                if(count == 1)
+                    break;
+            }
+            return rows;
+        }
+
+        /** Writes all the nodes, as THEX serializes them. */
+        void writeAllNodes(OutputStream out) throws IOException {
+            ByteBuffer nodes = allNodes.duplicate();
+            if(out instanceof ByteBufferOutputStream) {
+                ((ByteBufferOutputStream)out).write(nodes);
+            } else {
+                byte[] buf = new byte[Math.min(nodes.remaining(), 8192)];
+                while(nodes.hasRemaining()) {
+                    int read = Math.min(buf.length, nodes.remaining());
+                    nodes.get(buf, 0, read);
+                    out.write(buf, 0, read);
+                }
+            }
+        }
+    }
+
+    /** A row of nodes in a buffer. */
+    private static class NodeList extends AbstractList<byte[]> implements RandomAccess {
+        private final ByteBuffer nodes;
+        private final int first;
+        private final int count;
+
+        NodeList(ByteBuffer nodes, int first, int count) {
+            this.nodes = nodes;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        public byte[] get(int index) {
+            if(index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + count);
+            byte[] node = new byte[HASH_SIZE];
+            int offset = (first + index) * HASH_SIZE;
+            for(int i = 0; i < HASH_SIZE; i++)
+                node[i] = nodes.get(offset + i);
+            return node;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
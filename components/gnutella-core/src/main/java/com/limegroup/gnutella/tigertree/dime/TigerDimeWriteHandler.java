@@ -3,7 +3,6 @@ package com.limegroup.gnutella.tigertree.dime;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -173,10 +172,7 @@ class TigerDimeWriteHandler implements HashTreeWriteHandler {
          */
         @Override
         public void writeData(OutputStream out) throws IOException {
-            for(List<byte[]> list : hashTreeNodeManager.getAllNodes(tigerTree)) {
-                for(byte[] b : list)
-                    out.write(b);
-            }
+            hashTreeNodeManager.writeAllNodes(tigerTree, out);
             writePadding(getDataLength(), out);
         }
     
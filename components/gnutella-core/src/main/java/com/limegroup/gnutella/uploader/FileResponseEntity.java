@@ -2,19 +2,27 @@ package com.limegroup.gnutella.uploader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpEntity;
 import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
 import org.apache.http.nio.IOControl;
+import org.limewire.core.settings.UploadSettings;
 import org.limewire.http.entity.AbstractProducingNHttpEntity;
 import org.limewire.http.entity.FilePieceReader;
 import org.limewire.http.entity.Piece;
 import org.limewire.http.entity.PieceListener;
 import org.limewire.http.reactor.HttpIOSession;
+import org.limewire.io.IOUtils;
 import org.limewire.nio.NIODispatcher;
+import org.limewire.nio.ssl.SSLUtils;
 
 import com.google.inject.Provider;
 import com.limegroup.gnutella.BandwidthManager;
@@ -23,6 +31,15 @@ import com.limegroup.gnutella.Constants;
 /**
  * An event based {@link HttpEntity} that uploads a {@link File}. A
  * corresponding {@link HTTPUploader} is updated with progress.
+ * <p>
+ * By default the file is read into heap buffers by a {@link FilePieceReader}
+ * on its own threads. If {@link UploadSettings#FILE_CHANNEL_UPLOADS} is
+ * enabled, uploads over a plain, unthrottled TCP socket are transferred with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * on the dispatch thread in chunks of at most 64KB. Throttled, TLS and UDP
+ * uploads keep reading the disk off the dispatch thread, into pooled
+ * direct buffers. Writes pass through the session's throttle in every
+ * case.
  */
 public class FileResponseEntity extends AbstractProducingNHttpEntity {
 
@@ -46,11 +63,23 @@ public class FileResponseEntity extends AbstractProducingNHttpEntity {
 
     private FilePieceReader reader;
 
+    /** Channel the file is transferred from if file channel uploads are used. */
+    private FileChannel fileChannel;
+
+    /** Position of the next byte to transfer from {@link #fileChannel}. */
+    private long position;
+
     /** Piece that is currently transferred. */
     private Piece piece;
 
     private final Provider<BandwidthManager> bandwidthManager;
 
+    /**
+     * Maximum number of bytes handed to a single transfer so the dispatch
+     * thread does not block on the disk for too long.
+     */
+    private static final long MAX_TRANSFER_SIZE = 64 * 1024;
+
     FileResponseEntity(HTTPUploader uploader, File file, Provider<BandwidthManager> bandwidthManager) {
         this.uploader = uploader;
         this.file = file;
@@ -74,7 +103,7 @@ public class FileResponseEntity extends AbstractProducingNHttpEntity {
     }
 
     @Override
-    public void initialize(ContentEncoder contentEncoder, IOControl ioctrl) {
+    public void initialize(ContentEncoder contentEncoder, IOControl ioctrl) throws IOException {
         if (LOG.isDebugEnabled())
             LOG.debug("Initializing upload of " + file.getName() + " [begin=" + begin + ",length=" + length + "]");
 
@@ -86,10 +115,31 @@ public class FileResponseEntity extends AbstractProducingNHttpEntity {
         HttpIOSession ioSession = uploader.getSession().getIOSession();
         ioSession.setThrottle(bandwidthManager.get().getWriteThrottle(ioSession.getSocket()));
 
-        reader = new FilePieceReader(NIODispatcher.instance().getBufferCache(), file, begin, length, new PieceHandler(ioctrl));
+        boolean fileChannelUploads = UploadSettings.FILE_CHANNEL_UPLOADS.getValue();
+        if (fileChannelUploads && contentEncoder instanceof FileContentEncoder
+                && isPlainUnthrottled(ioSession)) {
+            fileChannel = new RandomAccessFile(file, "r").getChannel();
+            position = begin;
+            return;
+        }
+
+        reader = new FilePieceReader(NIODispatcher.instance().getBufferCache(), file, begin,
+                length, new PieceHandler(ioctrl), fileChannelUploads);
         reader.start();
     }
     
+    /**
+     * Returns true if <code>ioSession</code> writes to a TCP socket without
+     * TLS and uploads are not limited, so a transfer only waits for the disk
+     * as long as the socket accepts the data.
+     */
+    private boolean isPlainUnthrottled(HttpIOSession ioSession) {
+        Socket socket = ioSession.getSocket();
+        return socket.getChannel() instanceof SocketChannel
+                && !SSLUtils.isTLSEnabled(socket)
+                && UploadSettings.UPLOAD_SPEED.getValue() == 100;
+    }
+
     public void finish() {
         if (LOG.isDebugEnabled())
             LOG.debug("Finished upload of " + file.getName() + " [begin=" + begin + ",length=" + length + ",remaining=" + remaining + "]");
@@ -98,12 +148,17 @@ public class FileResponseEntity extends AbstractProducingNHttpEntity {
         if (reader != null) {
             reader.shutdown();
         }
+        IOUtils.close(fileChannel);
     }
     
     @Override
     public boolean writeContent(ContentEncoder contentEncoder, IOControl ioctrl) throws IOException {
 //        Throwable t = new Throwable();
 //        LOG.debug(t, t);
+        if (fileChannel != null) {
+            return transferContent((FileContentEncoder) contentEncoder);
+        }
+
         // flush current buffer
         if (buffer != null && buffer.hasRemaining()) {
             int written = contentEncoder.write(buffer);
@@ -164,6 +219,35 @@ public class FileResponseEntity extends AbstractProducingNHttpEntity {
         return remaining > 0 || buffer.hasRemaining();
     }
 
+    /**
+     * Transfers the file directly from {@link #fileChannel} until the
+     * encoder does not accept more data.
+     */
+    private boolean transferContent(FileContentEncoder contentEncoder) throws IOException {
+        if (remaining == 0) {
+            if (LOG.isTraceEnabled())
+                LOG.trace("upload complete");
+            return false;
+        }
+        
+        long written;
+        do {
+            written = contentEncoder.transfer(fileChannel, position, Math.min(remaining, MAX_TRANSFER_SIZE));
+            if (written == 0 && position >= fileChannel.size()) {
+                throw new IOException("File shrunk during upload: " + file);
+            }
+            position += written;
+            remaining -= written;
+            uploader.addAmountUploaded((int) written);
+        } while (written > 0 && remaining > 0);
+        
+        if (LOG.isTraceEnabled())
+            LOG.trace("Uploading " + file.getName() + " [remaining=" + remaining + "]");
+
+        activateTimeout();
+        return remaining > 0;
+    }
+
     @Override
     public void timeout() {
         if (LOG.isWarnEnabled())
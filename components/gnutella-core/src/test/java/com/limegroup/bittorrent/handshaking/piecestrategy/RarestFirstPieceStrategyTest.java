@@ -0,0 +1,145 @@
+package com.limegroup.bittorrent.handshaking.piecestrategy;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.limewire.collection.BitField;
+import org.limewire.collection.BitFieldSet;
+import org.limewire.collection.BitSet;
+import org.limewire.util.BaseTestCase;
+
+import com.limegroup.bittorrent.BTInterval;
+import com.limegroup.bittorrent.BTMetaInfo;
+
+public class RarestFirstPieceStrategyTest extends BaseTestCase {
+
+    private static final int NUM_BLOCKS = 10;
+
+    private Mockery context;
+
+    private BTMetaInfo btMetaInfo;
+
+    private PieceAvailability availability;
+
+    public RarestFirstPieceStrategyTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(RarestFirstPieceStrategyTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        context = new Mockery();
+        btMetaInfo = context.mock(BTMetaInfo.class);
+        context.checking(new Expectations() {
+            {
+                for (int i = 0; i < NUM_BLOCKS; i++) {
+                    allowing(btMetaInfo).getPiece(i);
+                    will(returnValue(new BTInterval(0, 99, i)));
+                }
+            }
+        });
+        availability = new PieceAvailability(NUM_BLOCKS);
+    }
+
+    public void testAvailabilityCounts() {
+        assertTrue(availability.isEmpty());
+        BitField first = bitField(1, 2, 3);
+        BitField second = bitField(2, 3, 4);
+        availability.addPieces(first);
+        availability.addPieces(second);
+        availability.addPiece(3);
+        assertFalse(availability.isEmpty());
+        assertEquals(0, availability.getAvailability(0));
+        assertEquals(1, availability.getAvailability(1));
+        assertEquals(2, availability.getAvailability(2));
+        assertEquals(3, availability.getAvailability(3));
+        assertEquals(1, availability.getAvailability(4));
+
+        availability.removePieces(first);
+        assertEquals(0, availability.getAvailability(1));
+        assertEquals(1, availability.getAvailability(2));
+        availability.removePieces(second);
+        availability.removePieces(bitField(3));
+        assertTrue(availability.isEmpty());
+
+        // counts don't go below zero
+        availability.removePieces(second);
+        assertEquals(0, availability.getAvailability(2));
+        availability.addPiece(2);
+        assertEquals(1, availability.getAvailability(2));
+
+        availability.clear();
+        assertTrue(availability.isEmpty());
+    }
+
+    public void testPicksRarestPiece() {
+        availability.addPieces(bitField(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        availability.addPieces(bitField(0, 1, 2, 3, 5, 6, 7, 8, 9));
+        availability.addPieces(bitField(0, 1, 2, 3, 5, 6, 7, 9));
+
+        RarestFirstPieceStrategy strategy = new RarestFirstPieceStrategy(btMetaInfo, availability);
+        // 4 is the rarest, then 8
+        List<BTInterval> pieces = strategy.getNextPieces(bitField(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                bitField(0, 2, 4, 6, 8));
+        assertEquals(1, pieces.size());
+        assertEquals(4, pieces.get(0).getId());
+
+        // the remote doesn't have 4
+        pieces = strategy.getNextPieces(bitField(0, 1, 2, 3, 5, 6, 7, 8, 9), bitField(0, 2, 4, 6, 8));
+        assertEquals(1, pieces.size());
+        assertEquals(8, pieces.get(0).getId());
+
+        // nothing needed is available
+        pieces = strategy.getNextPieces(bitField(1, 3), bitField(0, 2));
+        assertEquals(0, pieces.size());
+    }
+
+    public void testBreaksTiesAtRandom() {
+        availability.addPieces(bitField(2, 5, 7));
+        RarestFirstPieceStrategy strategy = new RarestFirstPieceStrategy(btMetaInfo, availability,
+                new Random() {
+                    @Override
+                    public float nextFloat() {
+                        return 0f;
+                    }
+                });
+        // always replaces, so the last of the rarest is picked
+        List<BTInterval> pieces = strategy.getNextPieces(bitField(2, 5, 7), bitField(2, 5, 7));
+        assertEquals(7, pieces.get(0).getId());
+
+        strategy = new RarestFirstPieceStrategy(btMetaInfo, availability, new Random() {
+            @Override
+            public float nextFloat() {
+                return 0.99f;
+            }
+        });
+        pieces = strategy.getNextPieces(bitField(2, 5, 7), bitField(2, 5, 7));
+        assertEquals(2, pieces.get(0).getId());
+    }
+
+    public void testFallsBackWithoutAvailability() {
+        PieceStrategy strategy = new ChainedPieceStrategy(new RarestFirstPieceStrategy(btMetaInfo,
+                availability), new RandomPieceStrategy(btMetaInfo));
+        List<BTInterval> pieces = strategy.getNextPieces(bitField(3), bitField(3, 4));
+        assertEquals(1, pieces.size());
+        assertEquals(3, pieces.get(0).getId());
+
+        availability.addPiece(4);
+        pieces = strategy.getNextPieces(bitField(3, 4), bitField(3, 4));
+        assertEquals(4, pieces.get(0).getId());
+    }
+
+    private static BitField bitField(int... pieces) {
+        BitSet bits = new BitSet(NUM_BLOCKS);
+        for (int piece : pieces)
+            bits.set(piece);
+        return new BitFieldSet(bits, NUM_BLOCKS);
+    }
+}
@@ -0,0 +1,225 @@
+package com.limegroup.gnutella;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.BaseTestCase;
+
+import com.limegroup.gnutella.connection.RoutedConnection;
+import com.limegroup.gnutella.messages.Message;
+import com.limegroup.gnutella.messages.Message.Network;
+
+public class MessageDispatcherTest extends BaseTestCase {
+
+    public MessageDispatcherTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(MessageDispatcherTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    /** The messages handled for each connection or address, in order. */
+    private final Map<Object, List<Message>> handled = new ConcurrentHashMap<Object, List<Message>>();
+
+    private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+    private MessageRouter router;
+
+    /** A message that only signals it was handled. */
+    private volatile Message marker;
+    private volatile CountDownLatch markerLatch;
+
+    @Override
+    protected void setUp() throws Exception {
+        router = proxy(MessageRouter.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("handleMessage")
+                        || method.getName().equals("handleUDPMessage")) {
+                    if (args[0] == marker) {
+                        markerLatch.countDown();
+                        return null;
+                    }
+                    Object source = args[1] instanceof InetSocketAddress
+                            ? ((InetSocketAddress) args[1]).getAddress() : args[1];
+                    handled.get(source).add((Message) args[0]);
+                    threads.add(Thread.currentThread().getName());
+                }
+                return null;
+            }
+        });
+    }
+
+    public void testKeepsOrderPerConnection() throws Exception {
+        MessageDispatcher dispatcher = new MessageDispatcher(router,
+                ExecutorsHelper.newProcessingQueue("MessageDispatcherTest"), 4);
+        List<RoutedConnection> connections = new ArrayList<RoutedConnection>();
+        for (int i = 0; i < 16; i++) {
+            RoutedConnection connection = proxy(RoutedConnection.class, null);
+            connections.add(connection);
+            handled.put(connection, Collections.synchronizedList(new ArrayList<Message>()));
+        }
+
+        List<Message> sent = new ArrayList<Message>();
+        for (int i = 0; i < 200; i++) {
+            Message m = createMessage();
+            sent.add(m);
+            for (RoutedConnection connection : connections)
+                dispatcher.dispatchTCP(m, connection);
+        }
+        for (RoutedConnection connection : connections)
+            waitFor(dispatcher, connection);
+
+        for (RoutedConnection connection : connections)
+            assertEquals(sent, handled.get(connection));
+        assertGreaterThan(1, threads.size());
+    }
+
+    public void testKeepsOrderPerAddress() throws Exception {
+        MessageDispatcher dispatcher = new MessageDispatcher(router,
+                ExecutorsHelper.newProcessingQueue("MessageDispatcherTest"), 4);
+        List<InetAddress> addresses = new ArrayList<InetAddress>();
+        for (int i = 0; i < 16; i++) {
+            InetAddress address = InetAddress.getByName("10.0.0." + (i + 1));
+            addresses.add(address);
+            handled.put(address, Collections.synchronizedList(new ArrayList<Message>()));
+        }
+
+        List<Message> sent = new ArrayList<Message>();
+        for (int i = 0; i < 200; i++) {
+            Message m = createMessage();
+            sent.add(m);
+            for (InetAddress address : addresses)
+                dispatcher.dispatchUDP(m, new InetSocketAddress(address, 1000 + i));
+        }
+        for (InetAddress address : addresses)
+            waitFor(dispatcher, new InetSocketAddress(address, 1));
+
+        for (InetAddress address : addresses)
+            assertEquals(sent, handled.get(address));
+        assertGreaterThan(1, threads.size());
+    }
+
+    public void testBatchesKeepOrderPerAddress() throws Exception {
+        MessageDispatcher dispatcher = new MessageDispatcher(router,
+                ExecutorsHelper.newProcessingQueue("MessageDispatcherTest"), 4);
+        List<InetAddress> addresses = new ArrayList<InetAddress>();
+        for (int i = 0; i < 16; i++) {
+            InetAddress address = InetAddress.getByName("10.0.1." + (i + 1));
+            addresses.add(address);
+            handled.put(address, Collections.synchronizedList(new ArrayList<Message>()));
+        }
+
+        // batches of messages from all the addresses, interleaved
+        List<Message> sent = new ArrayList<Message>();
+        for (int i = 0; i < 50; i++) {
+            List<Message> messages = new ArrayList<Message>();
+            List<InetSocketAddress> addrs = new ArrayList<InetSocketAddress>();
+            for (int j = 0; j < 4; j++) {
+                Message m = createMessage();
+                sent.add(m);
+                for (InetAddress address : addresses) {
+                    messages.add(m);
+                    addrs.add(new InetSocketAddress(address, 1000 + j));
+                }
+            }
+            dispatcher.dispatchUDP(messages, addrs);
+        }
+        for (InetAddress address : addresses)
+            waitFor(dispatcher, new InetSocketAddress(address, 1));
+
+        for (InetAddress address : addresses)
+            assertEquals(sent, handled.get(address));
+        assertGreaterThan(1, threads.size());
+    }
+
+    public void testSingleThreadUsesMessageExecutor() throws Exception {
+        MessageDispatcher dispatcher = new MessageDispatcher(router,
+                ExecutorsHelper.newProcessingQueue("MessageDispatcherTest"), 1);
+        RoutedConnection connection = proxy(RoutedConnection.class, null);
+        handled.put(connection, Collections.synchronizedList(new ArrayList<Message>()));
+        dispatcher.dispatchTCP(createMessage(), connection);
+        waitFor(dispatcher, connection);
+        assertEquals(Collections.singleton("MessageDispatcherTest"), threads);
+    }
+
+    /** Waits until everything dispatched for the connection is handled. */
+    private void waitFor(MessageDispatcher dispatcher, RoutedConnection connection) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        dispatcher.dispatch(connection, new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    /** Waits until everything dispatched for the address is handled. */
+    private void waitFor(MessageDispatcher dispatcher, InetSocketAddress addr) throws Exception {
+        marker = createMessage();
+        markerLatch = new CountDownLatch(1);
+        dispatcher.dispatchUDP(marker, addr);
+        assertTrue(markerLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    private Message createMessage() {
+        return proxy(Message.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getNetwork"))
+                    return Network.TCP;
+                if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type },
+                handler != null ? handler : new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("equals"))
+                            return proxy == args[0];
+                        if (method.getName().equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == short.class)
+            return (short) 0;
+        return null;
+    }
+}
@@ -1,8 +1,12 @@
 package com.limegroup.gnutella;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.limewire.core.settings.MessageSettings;
 import org.limewire.gnutella.tests.LimeTestCase;
+import org.limewire.io.GUID;
 import org.limewire.util.PrivilegedAccessor;
 
 import junit.framework.Test;
@@ -93,7 +97,7 @@ public final class RouteTableTest extends LimeTestCase {
         rt=new RouteTable(1000, Integer.MAX_VALUE);
         //test wrap-around
         PrivilegedAccessor.setValue(rt, "_nextID", 
-                                    new Integer(Integer.MAX_VALUE));  
+                                    new AtomicInteger(Integer.MAX_VALUE));  
         assertNotNull(rt.tryToRouteReply(g1, c1));         //g1->c1
         assertNull(rt.tryToRouteReply(g1, c2));
         assertSame(c1, rt.getReplyHandler(g1));
@@ -112,10 +116,9 @@ public final class RouteTableTest extends LimeTestCase {
         assertNull(rt.tryToRouteReply(g2, c3));
         assertNull(rt.getReplyHandler(g1));
         assertNull(rt.getReplyHandler(g2));
-        assertEquals(1, (getMap(rt, "_handlerMap")).size());           //g2 only
-        assertEquals(1, (getMap(rt, "_idMap")).size());
+        assertEquals(1, rt.getReplyHandlerCount());           //g2 only
 
-        //Test that _idMap/_handlerMap don't grow without bound.
+        //Test that _handlerMap doesn't grow without bound.
         rt=new RouteTable(1000, Integer.MAX_VALUE);
         assertNotNull(rt.tryToRouteReply(g1, c1));
         assertNotNull(rt.tryToRouteReply(g2, c1));
@@ -126,8 +129,7 @@ public final class RouteTableTest extends LimeTestCase {
         assertSame(c1, rt.getReplyHandler(g2));
         assertSame(c1, rt.getReplyHandler(g3));
         assertSame(c1, rt.getReplyHandler(g4));
-        assertEquals(1, (getMap(rt, "_handlerMap")).size());
-        assertEquals(1, (getMap(rt, "_idMap")).size());
+        assertEquals(1, rt.getReplyHandlerCount());
 
 
         //3. Test reply counting logic.
@@ -146,18 +148,18 @@ public final class RouteTableTest extends LimeTestCase {
         assertEquals("Reply bytes", 6, 
                    rrp.getBytesRouted());
                    
-        assertEquals(1, (getMap(rt, "_newMap")).size());
-        assertEquals(0, (getMap(rt, "_oldMap")).size());
+        assertEquals(1, rt.getNewEntryCount());
+        assertEquals(0, rt.getOldEntryCount());
         try { Thread.sleep(MSECS); } catch (InterruptedException e) { }
         PrivilegedAccessor.invokeMethod(rt, "purge");
-        assertEquals(0, (getMap(rt, "_newMap")).size());
-        assertEquals(1, (getMap(rt, "_oldMap")).size());
+        assertEquals(0, rt.getNewEntryCount());
+        assertEquals(1, rt.getOldEntryCount());
         rrp=rt.getReplyHandler(g1, 3, (short) 0,(short) 0);            //g1 -> <c2, 8+3>
         assertSame(c2, rrp.getReplyHandler());
         assertEquals(8, rrp.getBytesRouted());
         rt.routeReply(g1, c3);                    //g1 -> <c3, 11>
-        assertEquals(1, (getMap(rt, "_newMap")).size());
-        assertEquals(0, (getMap(rt, "_oldMap")).size());
+        assertEquals(1, rt.getNewEntryCount());
+        assertEquals(0, rt.getOldEntryCount());
         rrp=rt.getReplyHandler(g1, 10, (short) 0,(short) 0);            //g1 -> <c3, 11+10>
         assertSame(c3, rrp.getReplyHandler());
         assertEquals(11, rrp.getBytesRouted());
@@ -165,6 +167,63 @@ public final class RouteTableTest extends LimeTestCase {
         assertNull(rt.getReplyHandler(g1,0, (short) 0,(short) 0));                    
     }
 
+    public void testManyGUIDs() throws Exception {
+        RouteTable rt=new RouteTable(1000, Integer.MAX_VALUE);
+        ReplyHandler c1=new ReplyHandlerStub();
+        ReplyHandler c2=new ReplyHandlerStub();
+        List<byte[]> guids = new ArrayList<byte[]>();
+        for (int i = 0; i < 5000; i++) {
+            byte[] guid = GUID.makeGuid();
+            guids.add(guid);
+            assertNotNull(rt.tryToRouteReply(guid, i % 2 == 0 ? c1 : c2));
+        }
+        assertEquals(5000, rt.getNewEntryCount());
+        for (int i = 0; i < guids.size(); i++) {
+            assertSame(i % 2 == 0 ? c1 : c2, rt.getReplyHandler(guids.get(i)));
+            assertNull(rt.tryToRouteReply(guids.get(i), c1));
+        }
+
+        //move half of them to the old generation, then renew some
+        PrivilegedAccessor.setValue(rt, "_nextSwitchTime", new Long(0));
+        PrivilegedAccessor.invokeMethod(rt, "purge");
+        for (int i = 0; i < 2500; i++)
+            rt.routeReply(guids.get(i), c2);
+        assertEquals(2500, rt.getNewEntryCount());
+        assertEquals(2500, rt.getOldEntryCount());
+        for (int i = 0; i < guids.size(); i++)
+            assertSame(i < 2500 || i % 2 == 1 ? c2 : c1, rt.getReplyHandler(guids.get(i)));
+
+        rt.removeReplyHandler(c2);
+        for (int i = 0; i < guids.size(); i++)
+            assertSame(i < 2500 || i % 2 == 1 ? null : c1, rt.getReplyHandler(guids.get(i)));
+        assertNull(rt.getReplyHandler(GUID.makeGuid()));
+    }
+
+    public void testZeroOOBBytes() throws Exception {
+        RouteTable rt=new RouteTable(1000, Integer.MAX_VALUE);
+        ReplyHandler c1=new ReplyHandlerStub();
+        byte[] g1=GUID.makeGuid();
+        byte[] oob=g1.clone();
+        oob[0]++; oob[3]++; oob[13]++; oob[14]++;
+        byte[] other=g1.clone();
+        other[4]++;
+
+        rt.routeReply(g1, c1);
+        assertSame(c1, rt.getReplyHandler(g1));
+        assertNull(rt.getReplyHandler(oob));
+
+        MessageSettings.GUID_ZERO_EXPERIMENT.setValue(true);
+        try {
+            rt.routeReply(g1, c1);
+            assertSame(c1, rt.getReplyHandler(g1));
+            assertSame(c1, rt.getReplyHandler(oob));
+            assertNull(rt.getReplyHandler(other));
+            assertNull(rt.tryToRouteReply(oob, c1));
+        } finally {
+            MessageSettings.GUID_ZERO_EXPERIMENT.revertToDefault();
+        }
+    }
+
     public void testTTLAdditions() {
         RouteTable rt=null;
         int MSECS=1000;
@@ -226,11 +285,6 @@ public final class RouteTableTest extends LimeTestCase {
     }
 
     
-    private Map getMap(RouteTable rt, String mapName) 
-        throws IllegalAccessException, NoSuchFieldException {
-        return (Map) PrivilegedAccessor.getValue(rt, mapName);
-    }
-
     private static class ResultCounterImpl 
         implements com.limegroup.gnutella.search.ResultCounter {
 
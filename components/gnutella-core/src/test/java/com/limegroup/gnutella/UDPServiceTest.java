@@ -0,0 +1,235 @@
+package com.limegroup.gnutella;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Test;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.limewire.core.api.connection.FirewallTransferStatusEvent;
+import org.limewire.gnutella.tests.LimeTestCase;
+import org.limewire.io.NetworkInstanceUtils;
+import org.limewire.listener.EventMulticasterImpl;
+import org.limewire.rudp.UDPSocketChannelConnectionEvent;
+import org.limewire.util.PrivilegedAccessor;
+import org.limewire.util.StringUtils;
+
+import com.google.inject.util.Providers;
+import com.limegroup.gnutella.filters.IPFilter;
+import com.limegroup.gnutella.messages.MessageFactory;
+import com.limegroup.gnutella.messages.PingRequestFactory;
+
+/**
+ * Tests how UDPService hands outgoing datagrams to the NIO thread: senders
+ * turn write interest on only if it's off, and handleWrite turns it off once
+ * nothing is queued.
+ */
+public class UDPServiceTest extends LimeTestCase {
+
+    private Mockery mockery;
+
+    private UDPService udpService;
+
+    private DatagramSocket receiver;
+
+    private InetSocketAddress receiverAddress;
+
+    /** The payloads the receiver got. */
+    private Set<String> received;
+
+    public UDPServiceTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(UDPServiceTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mockery = new Mockery();
+        final NetworkManager networkManager = mockery.mock(NetworkManager.class);
+        final Acceptor acceptor = mockery.mock(Acceptor.class);
+        final ScheduledExecutorService backgroundExecutor = mockery.mock(ScheduledExecutorService.class);
+        mockery.checking(new Expectations() {{
+            ignoring(networkManager);
+            ignoring(acceptor);
+            ignoring(backgroundExecutor);
+        }});
+        udpService = new UDPService(networkManager,
+                Providers.<MessageDispatcher>of(null),
+                Providers.<IPFilter>of(null),
+                Providers.<ConnectionManager>of(null),
+                Providers.<MessageRouter>of(null),
+                Providers.of(acceptor),
+                Providers.<QueryUnicaster>of(null),
+                backgroundExecutor,
+                mockery.mock(ConnectionServices.class),
+                mockery.mock(MessageFactory.class),
+                mockery.mock(PingRequestFactory.class),
+                mockery.mock(NetworkInstanceUtils.class),
+                new EventMulticasterImpl<FirewallTransferStatusEvent>(),
+                new EventMulticasterImpl<UDPSocketChannelConnectionEvent>());
+        udpService.setListeningSocket(udpService.newListeningSocket(0));
+
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setReceiveBufferSize(256 * 1024);
+        receiverAddress = new InetSocketAddress("127.0.0.1", receiver.getLocalPort());
+        received = Collections.synchronizedSet(new HashSet<String>());
+        Thread reader = new Thread("UDPServiceTest receiver") {
+            @Override
+            public void run() {
+                byte[] data = new byte[1024];
+                DatagramPacket packet = new DatagramPacket(data, data.length);
+                try {
+                    while (true) {
+                        receiver.receive(packet);
+                        received.add(StringUtils.getASCIIString(data, 0, packet.getLength()));
+                        synchronized (received) {
+                            received.notifyAll();
+                        }
+                    }
+                } catch (SocketException closed) {
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        udpService.shutdown();
+        receiver.close();
+    }
+
+    /**
+     * Tests that handleWrite sends what is queued, then turns interest off
+     * so the next sender turns it on again.
+     */
+    public void testHandleWriteTurnsInterestOff() throws Exception {
+        send("first");
+        send("second");
+        assertTrue(getWriteInterest().get());
+        assertEquals(2, getOutgoing().size());
+
+        // not registered with NIO, so we call it ourselves
+        assertFalse(udpService.handleWrite());
+        assertFalse(getWriteInterest().get());
+        assertTrue(getOutgoing().isEmpty());
+        waitForReceived("first", "second");
+
+        send("third");
+        assertTrue(getWriteInterest().get());
+        assertFalse(udpService.handleWrite());
+        waitForReceived("third");
+    }
+
+    /**
+     * Tests that datagrams sent from many threads while NIO is writing are
+     * all sent, and that interest ends up off with nothing left queued.
+     */
+    public void testSendsWhileWriting() throws Exception {
+        udpService.start();
+        Thread[] senders = new Thread[4];
+        final String[] payloads = new String[senders.length * 100];
+        for (int i = 0; i < payloads.length; i++)
+            payloads[i] = "payload " + i;
+        for (int i = 0; i < senders.length; i++) {
+            final int first = i * 100;
+            senders[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = first; j < first + 100; j++) {
+                        send(payloads[j]);
+                        if (j % 10 == 0)
+                            Thread.yield();
+                    }
+                }
+            };
+            senders[i].start();
+        }
+        for (Thread sender : senders)
+            sender.join();
+        waitForReceived(payloads);
+
+        waitForInterestOff();
+        assertTrue(getOutgoing().isEmpty());
+
+        // a send after the queue drained turns interest on again
+        send("after");
+        waitForReceived("after");
+    }
+
+    /**
+     * Tests that sending resumes on a new channel, even if interest was left
+     * on for the old one.
+     */
+    public void testResumesAfterChannelSwap() throws Exception {
+        udpService.start();
+        send("old channel");
+        waitForReceived("old channel");
+        waitForInterestOff();
+
+        // the old channel is closed with interest on and a bundle queued
+        getWriteInterest().set(true);
+        send("queued");
+        udpService.setListeningSocket(udpService.newListeningSocket(0));
+        waitForReceived("queued");
+
+        waitForInterestOff();
+        send("new channel");
+        waitForReceived("new channel");
+    }
+
+    private void send(String payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(StringUtils.toAsciiBytes(payload));
+        udpService.send(buffer, receiverAddress, true);
+    }
+
+    private AtomicBoolean getWriteInterest() throws Exception {
+        return (AtomicBoolean)PrivilegedAccessor.getValue(udpService, "_writeInterest");
+    }
+
+    private Queue<?> getOutgoing() throws Exception {
+        return (Queue<?>)PrivilegedAccessor.getValue(udpService, "OUTGOING_MSGS");
+    }
+
+    private void waitForInterestOff() throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (getWriteInterest().get()) {
+            assertLessThan("interest still on", end, System.currentTimeMillis());
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForReceived(String... payloads) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        synchronized (received) {
+            for (String payload : payloads) {
+                while (!received.contains(payload)) {
+                    long left = end - System.currentTimeMillis();
+                    assertGreaterThan("didn't receive " + payload, 0, left);
+                    received.wait(left);
+                }
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.limegroup.gnutella.messages.PushRequestImpl;
 import com.limegroup.gnutella.messages.QueryRequest;
 import com.limegroup.gnutella.messages.QueryRequestFactory;
 import com.limegroup.gnutella.messages.Message.Network;
+import com.limegroup.gnutella.messages.vendor.HopsFlowVendorMessage;
 import com.limegroup.gnutella.stubs.WriteBufferChannel;
 
 /**
@@ -170,6 +171,40 @@ public final class MessageWriterTest extends LimeTestCase {
 	    assertEquals(buffer(out3), buffer(in3));
     }
     
+    public void testSharesPayloadBetweenConnections() throws Exception {
+        WriteBufferChannel otherSink = new WriteBufferChannel(1024 * 1024);
+        MessageWriter other = new MessageWriter(new ConnectionStats(), new StubQueue(),
+                new StubSentHandler(), otherSink);
+        Message m = q("sent to many");
+        
+        WRITER.send(m);
+        assertFalse(WRITER.handleWrite());
+        // the header is patched, not the shared payload
+        m.hop();
+        other.send(m);
+        assertFalse(other.handleWrite());
+        
+        Message first = read(SINK.getBuffer());
+        Message second = read(otherSink.getBuffer());
+        assertEquals(5, first.getTTL());
+        assertEquals(0, first.getHops());
+        assertEquals(4, second.getTTL());
+        assertEquals(1, second.getHops());
+        assertEquals(m.getPayloadBuffer(), first.getPayloadBuffer());
+        assertEquals(m.getPayloadBuffer(), second.getPayloadBuffer());
+        assertEquals(buffer(m), buffer(second));
+    }
+    
+    public void testWritesMessagesWithoutSharedPayload() throws Exception {
+        Message m = new HopsFlowVendorMessage((byte)3);
+        assertNull(m.getPayloadBuffer());
+        WRITER.send(m);
+        assertFalse(WRITER.handleWrite());
+        ByteBuffer buffer = SINK.getBuffer();
+        assertEquals(buffer(m), buffer(read(buffer)));
+        assertFalse(buffer.hasRemaining());
+    }
+    
     public void testDroppingMessagesWhileAdded() throws Exception {
         assertEquals(0, STATS.getSent());
         assertEquals(0, STATS.getSentDropped());
@@ -0,0 +1,331 @@
+package com.limegroup.gnutella.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+
+import org.limewire.gnutella.tests.LimeTestCase;
+
+public class DiskControllerTest extends LimeTestCase {
+
+    /** Everything the jobs did, in the order they did it. */
+    private List<String> log;
+
+    public DiskControllerTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(DiskControllerTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        log = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    /**
+     * Tests that the jobs of an owner that queue up while its writer is
+     * busy are run together, in the order they were added.
+     */
+    public void testJobsOfAnOwnerRunTogetherInOrder() throws Exception {
+        DiskController controller = new DiskController(1, 1);
+        Owner a = new Owner(0);
+        Owner b = new Owner(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        StubJob blocker = new StubJob(controller, a, "blocker", blocked, release);
+        controller.addDiskJob(blocker);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        StubJob a1 = new StubJob(controller, a, "a1");
+        StubJob b1 = new StubJob(controller, b, "b1");
+        StubJob a2 = new StubJob(controller, a, "a2");
+        StubJob a3 = new StubJob(controller, a, "a3");
+        controller.addDiskJob(a1);
+        controller.addDiskJob(b1);
+        controller.addDiskJob(a2);
+        controller.addDiskJob(a3);
+        // one runner for each owner, however many jobs it has
+        assertEquals(2, controller.getNumPendingItems());
+
+        release.countDown();
+        a3.waitForFinish();
+        b1.waitForFinish();
+
+        assertEquals(3, log.size());
+        assertEquals("run blocker", log.get(0));
+        assertEquals("run a1,a2,a3", log.get(1));
+        assertEquals("run b1", log.get(2));
+        assertTrue(a1.finished);
+        assertTrue(a2.finished);
+        assertEquals(0, controller.getNumPendingItems());
+    }
+
+    /**
+     * Tests that jobs without an owner are queued together, in order.
+     */
+    public void testJobsWithoutOwnerRunInOrder() throws Exception {
+        DiskController controller = new DiskController(1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        controller.addDiskJob(new StubJob(controller, null, "blocker", blocked, release));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        StubJob first = new StubJob(controller, null, "first");
+        StubJob second = new StubJob(controller, null, "second");
+        controller.addDiskJob(first);
+        controller.addDiskJob(second);
+        release.countDown();
+        second.waitForFinish();
+
+        assertEquals(2, log.size());
+        assertEquals("run first,second", log.get(1));
+    }
+
+    /**
+     * Tests that owners assigned to different writers are written at the
+     * same time.
+     */
+    public void testOwnersAreWrittenInParallel() throws Exception {
+        DiskController controller = new DiskController(2, 1);
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        StubJob a = new BarrierJob(controller, new Owner(0), "a", barrier);
+        StubJob b = new BarrierJob(controller, new Owner(1), "b", barrier);
+        controller.addDiskJob(a);
+        controller.addDiskJob(b);
+        a.waitForFinish();
+        b.waitForFinish();
+        assertFalse(barrier.isBroken());
+        assertEquals(2, log.size());
+    }
+
+    /**
+     * Tests that verify jobs don't wait for the writers, and that they run
+     * on as many threads as asked for.
+     */
+    public void testVerifyJobsRunOnTheirOwnPool() throws Exception {
+        DiskController controller = new DiskController(1, 2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        controller.addDiskJob(new StubJob(controller, null, "blocker", blocked, release));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        final CyclicBarrier barrier = new CyclicBarrier(3);
+        for (int i = 0; i < 2; i++) {
+            controller.addVerifyJob(new Runnable() {
+                public void run() {
+                    await(barrier);
+                }
+            });
+        }
+        barrier.await(5, TimeUnit.SECONDS);
+        release.countDown();
+    }
+
+    /**
+     * Tests that a controller asked for no threads still has one writer
+     * and one verifier.
+     */
+    public void testAtLeastOneThreadEach() throws Exception {
+        DiskController controller = new DiskController(0, 0);
+        StubJob job = new StubJob(controller, new Owner(5), "job");
+        controller.addDiskJob(job);
+        job.waitForFinish();
+
+        final CountDownLatch verified = new CountDownLatch(1);
+        controller.addVerifyJob(new Runnable() {
+            public void run() {
+                verified.countDown();
+            }
+        });
+        assertTrue(verified.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a delayed write waits until all scheduled chunks are written,
+     * and is then run once.
+     */
+    public void testDelayedWriteRunsAfterChunks() throws Exception {
+        DiskController controller = new DiskController(1, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StubJob blocker = new StubJob(controller, new Owner(0), "blocker", blocked, release);
+        controller.addDiskJob(blocker);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        StubDelayedWrite dw = new StubDelayedWrite(0);
+        controller.addDelayedWrite(dw);
+        assertFalse(controller.canWriteNow());
+        Thread.sleep(100);
+        assertEquals(0, dw.writes.get());
+
+        release.countDown();
+        blocker.waitForFinish();
+        waitForCanWriteNow(controller);
+        assertEquals(1, dw.writes.get());
+    }
+
+    /**
+     * Tests that when writers finish together, each delayed write is still
+     * run only once.
+     */
+    public void testDelayedWritesRunOnceByConcurrentWriters() throws Exception {
+        DiskController controller = new DiskController(2, 1);
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        StubJob a = new BarrierJob(controller, new Owner(0), "a", barrier);
+        StubJob b = new BarrierJob(controller, new Owner(1), "b", barrier);
+        StubDelayedWrite first = new StubDelayedWrite(50);
+        StubDelayedWrite second = new StubDelayedWrite(50);
+        controller.addDelayedWrite(first);
+        controller.addDelayedWrite(second);
+
+        controller.addDiskJob(a);
+        controller.addDiskJob(b);
+        a.waitForFinish();
+        b.waitForFinish();
+        waitForCanWriteNow(controller);
+        Thread.sleep(100);
+
+        assertEquals(1, first.writes.get());
+        assertEquals(1, second.writes.get());
+    }
+
+    /** Waits for the delayed writes to be written and removed. */
+    private static void waitForCanWriteNow(DiskController controller) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (!controller.canWriteNow()) {
+            assertLessThan("delayed writes not written", end, System.currentTimeMillis());
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** An owner that is given to the writer its hash code picks. */
+    private static class Owner {
+        private final int hash;
+
+        Owner(int hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** A job that logs the jobs it is run with. */
+    private class StubJob extends ChunkDiskJob {
+        private final String name;
+        private final CountDownLatch blocked;
+        private final CountDownLatch release;
+        private final CountDownLatch finish = new CountDownLatch(1);
+        volatile boolean finished;
+
+        StubJob(DiskController controller, Object owner, String name) {
+            this(controller, owner, name, null, null);
+        }
+
+        /**
+         * Constructs a job that counts down <code>blocked</code> when it's
+         * run, then waits for <code>release</code>.
+         */
+        StubJob(DiskController controller, Object owner, String name,
+                CountDownLatch blocked, CountDownLatch release) {
+            super(controller.getWriteChunk(), owner);
+            this.name = name;
+            this.blocked = blocked;
+            this.release = release;
+        }
+
+        @Override
+        void runChunkJob(byte[] buf) {
+            fail("jobs should be run together");
+        }
+
+        @Override
+        void runChunkJobs(List<ChunkDiskJob> jobs) {
+            StringBuilder names = new StringBuilder();
+            for (ChunkDiskJob job : jobs) {
+                if (names.length() > 0)
+                    names.append(",");
+                names.append(((StubJob)job).name);
+            }
+            log.add("run " + names);
+
+            if (blocked != null) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        @Override
+        void finish() {
+            finished = true;
+            finish.countDown();
+        }
+
+        void waitForFinish() throws InterruptedException {
+            assertTrue(name + " didn't finish", finish.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /** A job that waits for another job to reach the barrier. */
+    private class BarrierJob extends StubJob {
+        private final CyclicBarrier barrier;
+
+        BarrierJob(DiskController controller, Object owner, String name, CyclicBarrier barrier) {
+            super(controller, owner, name);
+            this.barrier = barrier;
+        }
+
+        @Override
+        void runChunkJobs(List<ChunkDiskJob> jobs) {
+            super.runChunkJobs(jobs);
+            await(barrier);
+        }
+    }
+
+    /** A delayed write that counts how often it is written. */
+    private static class StubDelayedWrite implements DelayedWrite {
+        private final long delay;
+        final AtomicInteger writes = new AtomicInteger();
+
+        StubDelayedWrite(long delay) {
+            this.delay = delay;
+        }
+
+        public boolean write() {
+            writes.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+    }
+}
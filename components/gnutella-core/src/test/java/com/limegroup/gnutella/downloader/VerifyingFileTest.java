@@ -6,6 +6,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Test;
 
@@ -43,6 +46,8 @@ public class VerifyingFileTest extends LimeTestCase {
     
     private HashTreeFactoryImpl tigerTreeFactory;
 
+    private DiskController diskController;
+
     public VerifyingFileTest(String name) {
         super(name);
     }
@@ -65,6 +70,7 @@ public class VerifyingFileTest extends LimeTestCase {
         }
 
         verifyingFileFactory = injector.getInstance(VerifyingFileFactory.class);
+        diskController = injector.getInstance(DiskController.class);
         
         raf = new RandomAccessFile(completeFile, "r");
 
@@ -423,6 +429,81 @@ public class VerifyingFileTest extends LimeTestCase {
         assertEquals(chunk.length * 2 - 1, leased.getHigh());
     }
 
+    /**
+     * tests that chunks queued while the file's writer is busy are written
+     * together, whatever order they came in, and that a corrupt chunk
+     * written with good ones is still discarded.
+     */
+    public void testQueuedChunksAreWrittenTogether() throws Exception {
+        PrivilegedAccessor.setValue(vf, "blockChooser", new TestSequentialStrategy());
+        vf.leaseWhite((int) completeFile.length());
+        int nodeSize = hashTree.getNodeSize();
+        byte[] data = new byte[nodeSize * 3];
+        raf.readFully(data);
+        
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        diskController.addDiskJob(new ChunkDiskJob(diskController.getWriteChunk(), vf) {
+            @Override
+            void runChunkJobs(List<ChunkDiskJob> jobs) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            
+            @Override
+            void runChunkJob(byte[] buf) {
+            }
+            
+            @Override
+            void finish() {
+            }
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        
+        try {
+            // the second block backwards, then the first
+            for (int pos = nodeSize * 2 - HTTPDownloader.BUF_LENGTH; pos >= nodeSize; pos -= HTTPDownloader.BUF_LENGTH)
+                writePiece(pos, data);
+            for (int pos = 0; pos < nodeSize; pos += HTTPDownloader.BUF_LENGTH)
+                writePiece(pos, data);
+            // and a corrupt third block right after them
+            for (int i = 0; i < 100; i++)
+                data[nodeSize * 2 + i] = (byte) i;
+            for (int pos = nodeSize * 2; pos < nodeSize * 3; pos += HTTPDownloader.BUF_LENGTH)
+                writePiece(pos, data);
+            // nothing is written while the writer is busy
+            assertEquals(nodeSize * 3, vf.getPendingSize());
+        } finally {
+            release.countDown();
+        }
+        vf.waitForPending(1000);
+        
+        assertEquals(0, vf.getPendingSize());
+        assertEquals(nodeSize * 2, vf.getVerifiedBlockSize());
+        assertEquals(nodeSize * 2, vf.getBlockSize());
+        Range leased = vf.leaseWhite(nodeSize);
+        assertEquals(nodeSize * 2, leased.getLow());
+        assertEquals(nodeSize * 3 - 1, leased.getHigh());
+        
+        RandomAccessFile written = new RandomAccessFile("outfile", "r");
+        try {
+            byte[] read = new byte[nodeSize * 2];
+            written.readFully(read);
+            for (int i = 0; i < read.length; i++)
+                assertEquals("at " + i, data[i], read[i]);
+        } finally {
+            written.close();
+        }
+    }
+    
+    private void writePiece(int pos, byte[] data) {
+        assertTrue(vf.writeBlock(new VerifyingFile.WriteRequest(pos, pos, HTTPDownloader.BUF_LENGTH, data)));
+    }
+
     /**
      * tests that if more than n % of the file needed redownloading we give up.
      */
@@ -171,6 +171,30 @@ public class KeywordFilterTest extends BaseTestCase {
         
     }
     
+    public void testSharedMatcher() throws Exception {
+        KeywordMatcher matcher = new KeywordMatcher(KeywordFilter.ADULT_WORDS);
+        KeywordFilter filter = new KeywordFilter(matcher);
+        assertSame(matcher, filter.getMatcher());
+        
+        createResponseList(queryReplyMock, "Sex");
+        assertFalse(filter.allow(queryReplyMock));
+        
+        createResponseList(queryReplyMock, "rhubarb");
+        assertTrue(filter.allow(queryReplyMock));
+
+        /*
+         * adding a word rebuilds the matcher of this filter only
+         */
+        filter.disallow("rhubarb");
+        assertNotSame(matcher, filter.getMatcher());
+        assertFalse(matcher.matches("rhubarb"));
+        
+        createResponseList(queryReplyMock, "rhubarb");
+        assertFalse(filter.allow(queryReplyMock));
+        
+        context.assertIsSatisfied();
+    }
+    
     public void queryReply(QueryRequest query, String keyword){
         final QueryRequest localQuery = query;
         final String localKeyword = keyword;
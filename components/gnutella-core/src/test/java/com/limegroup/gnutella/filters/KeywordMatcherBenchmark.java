@@ -0,0 +1,104 @@
+package com.limegroup.gnutella.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.limegroup.gnutella.performance.CommonWords;
+
+/**
+ * Compares the {@link KeywordMatcher} used by {@link KeywordFilter} with the
+ * old way of lowercasing each file name and scanning it with
+ * <code>indexOf</code> once per banned word.
+ * <p>
+ * The reply stream is made of file names built from common English words,
+ * artist - title style, with a few percent of them containing a banned word,
+ * checked against the adult words plus a number of user-supplied words.
+ * <p>
+ * Usage: <code>KeywordMatcherBenchmark [user words] [file names] [rounds]</code>
+ */
+public class KeywordMatcherBenchmark {
+
+    private static final String[] EXTENSIONS = { ".mp3", ".avi", ".jpg", ".zip", ".ogg", ".wmv" };
+
+    public static void main(String[] args) throws Exception {
+        int userWords = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int names = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        CommonWords commonWords = new CommonWords();
+        Random random = new Random(1);
+        List<String> words = new ArrayList<String>(KeywordFilter.ADULT_WORDS);
+        for (int i = 0; i < userWords; i++)
+            words.add(commonWords.getWordByIndex(500 + random.nextInt(5000)) + "z");
+        String[] replies = createReplies(commonWords, words, names, random);
+
+        final KeywordMatcher matcher = new KeywordMatcher(words);
+        final List<String> ban = matcher.getWords();
+        System.out.println(ban.size() + " words, " + names + " file names");
+
+        run("indexOf scan", rounds, replies, new Matcher() {
+            public boolean matches(String phrase) {
+                String canonical = phrase.toLowerCase(Locale.US);
+                for (int i = 0; i < ban.size(); i++) {
+                    if (canonical.indexOf(ban.get(i)) != -1)
+                        return true;
+                }
+                return false;
+            }
+        });
+        run("automaton   ", rounds, replies, new Matcher() {
+            public boolean matches(String phrase) {
+                return matcher.matches(phrase);
+            }
+        });
+    }
+
+    private static String[] createReplies(CommonWords commonWords, List<String> banned,
+            int count, Random random) {
+        String[] replies = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder();
+            int words = 2 + random.nextInt(6);
+            for (int j = 0; j < words; j++) {
+                if (j > 0)
+                    name.append(j == 2 ? " - " : " ");
+                String word = random.nextInt(100 * words) < 3
+                        ? banned.get(random.nextInt(banned.size()))
+                        : commonWords.getWordByIndex(random.nextInt(5000));
+                if (random.nextBoolean())
+                    word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                name.append(word);
+            }
+            name.append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            replies[i] = name.toString();
+        }
+        return replies;
+    }
+
+    private static void run(String name, int rounds, String[] replies, Matcher matcher) {
+        // warm up
+        int matched = matchAll(replies, matcher);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            matchAll(replies, matcher);
+        long nanos = System.nanoTime() - start;
+        System.out.println(name + ": " + (nanos / rounds / replies.length) + " ns/name, "
+                + matched + " matched");
+    }
+
+    private static int matchAll(String[] replies, Matcher matcher) {
+        int matched = 0;
+        for (String reply : replies) {
+            if (matcher.matches(reply))
+                matched++;
+        }
+        return matched;
+    }
+
+    private static interface Matcher {
+        boolean matches(String phrase);
+    }
+}
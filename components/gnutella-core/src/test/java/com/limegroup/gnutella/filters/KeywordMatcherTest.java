@@ -0,0 +1,98 @@
+package com.limegroup.gnutella.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class KeywordMatcherTest extends BaseTestCase {
+
+    public KeywordMatcherTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(KeywordMatcherTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public void testNoWords() {
+        KeywordMatcher matcher = new KeywordMatcher(Collections.<String>emptyList());
+        assertFalse(matcher.matches("anything"));
+        assertFalse(matcher.matches(""));
+    }
+
+    public void testEmptyWordMatchesEverything() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("foo", ""));
+        assertTrue(matcher.matches("bar"));
+        assertTrue(matcher.matches(""));
+    }
+
+    public void testOverlappingWords() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("he", "she", "his", "hers"));
+        assertTrue(matcher.matches("ushers"));
+        assertTrue(matcher.matches("ahis"));
+        assertTrue(matcher.matches("xshx he"));
+        assertFalse(matcher.matches("shx hx sx"));
+
+        // the failure link of "abcd" must lead to "bcx"
+        matcher = new KeywordMatcher(Arrays.asList("abcd", "bcx"));
+        assertTrue(matcher.matches("abcx"));
+        assertFalse(matcher.matches("abc bcd"));
+    }
+
+    public void testIgnoresCase() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("RhuBarb", "\u00c4rger"));
+        assertEquals(Arrays.asList("rhubarb", "\u00e4rger"), matcher.getWords());
+        assertTrue(matcher.matches("Pie with RHUBARB"));
+        assertTrue(matcher.matches("kein \u00c4RGER"));
+        assertTrue(matcher.matches("kein \u00e4rger"));
+        assertFalse(matcher.matches("kein arger"));
+    }
+
+    public void testDuplicatesAreRemoved() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("porn", "PORN", "porno"));
+        assertEquals(Arrays.asList("porn", "porno"), matcher.getWords());
+        assertTrue(matcher.matches("porno"));
+    }
+
+    public void testAgreesWithIndexOf() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            List<String> words = new ArrayList<String>();
+            for (int i = random.nextInt(20); i >= 0; i--)
+                words.add(randomString(random, 1 + random.nextInt(4)));
+            KeywordMatcher matcher = new KeywordMatcher(words);
+            for (int i = 0; i < 200; i++) {
+                String phrase = randomString(random, random.nextInt(30));
+                assertEquals(words + " in " + phrase, indexOf(words, phrase), matcher.matches(phrase));
+            }
+        }
+    }
+
+    private static boolean indexOf(List<String> words, String phrase) {
+        String canonical = phrase.toLowerCase(Locale.US);
+        for (String word : words) {
+            if (canonical.indexOf(word.toLowerCase(Locale.US)) != -1)
+                return true;
+        }
+        return false;
+    }
+
+    private static String randomString(Random random, int length) {
+        String alphabet = "abcAB. \u00e9\u00c9";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+}
@@ -48,7 +48,6 @@ import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
 import org.apache.http.protocol.ResponseServer;
 import org.limewire.http.reactor.DefaultDispatchedIOReactor;
-import org.limewire.nio.NIODispatcher;
 
 public class HttpTestServer {
 
@@ -78,7 +77,7 @@ public class HttpTestServer {
 
         serviceHandler.setHandlerResolver(this.registry);
 
-        reactor = new DefaultDispatchedIOReactor(params, NIODispatcher.instance().getScheduledExecutorService());
+        reactor = new DefaultDispatchedIOReactor(params);
         IOEventDispatch ioEventDispatch = new DefaultServerIOEventDispatch(
                 serviceHandler, params);
         reactor.execute(ioEventDispatch);
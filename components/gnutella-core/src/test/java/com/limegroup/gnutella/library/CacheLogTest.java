@@ -0,0 +1,195 @@
+package com.limegroup.gnutella.library;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class CacheLogTest extends BaseTestCase {
+
+    private File file;
+
+    public CacheLogTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(CacheLogTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("cachelog", ".log");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    public void testReadsAppendedRecords() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        assertFalse(log.exists());
+        assertFalse(log.read(new Collector()));
+
+        log.append(records("a", "b"));
+        log.append(records("c"));
+        assertEquals(3, log.getRecordCount());
+
+        CacheLog read = new CacheLog(file, 1, 1);
+        Collector collector = new Collector();
+        assertTrue(read.read(collector));
+        assertEquals(Arrays.asList("a", "b", "c"), collector.values);
+        assertEquals(3, read.getRecordCount());
+
+        read.append(records("d"));
+        collector = new Collector();
+        assertTrue(new CacheLog(file, 1, 1).read(collector));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), collector.values);
+    }
+
+    public void testRewrite() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        log.append(records("a", "b", "c"));
+        log.rewrite(records("d"));
+        assertEquals(1, log.getRecordCount());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        Collector collector = new Collector();
+        assertTrue(new CacheLog(file, 1, 1).read(collector));
+        assertEquals(Arrays.asList("d"), collector.values);
+    }
+
+    public void testIgnoresOtherKindsAndVersions() throws Exception {
+        new CacheLog(file, 1, 1).append(records("a"));
+        assertFalse(new CacheLog(file, 2, 1).read(new Collector()));
+        assertFalse(new CacheLog(file, 1, 2).read(new Collector()));
+    }
+
+    public void testDropsTornRecords() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        log.append(records("a", "b"));
+        long length = file.length();
+        log.append(records("torn"));
+
+        // cut the last record short
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 1);
+        raf.close();
+
+        CacheLog read = new CacheLog(file, 1, 1);
+        Collector collector = new Collector();
+        assertTrue(read.read(collector));
+        assertEquals(Arrays.asList("a", "b"), collector.values);
+
+        // the next append overwrites it
+        read.append(records("c"));
+        // length, checksum and the UTF string "c"
+        assertEquals(length + 8 + 3, file.length());
+        collector = new Collector();
+        assertTrue(new CacheLog(file, 1, 1).read(collector));
+        assertEquals(Arrays.asList("a", "b", "c"), collector.values);
+    }
+
+    public void testDropsCorruptRecords() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        log.append(records("a", "b", "c"));
+
+        // flip a bit of the last record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(file.length() - 1);
+        int b = raf.read();
+        raf.seek(file.length() - 1);
+        raf.write(b ^ 1);
+        raf.close();
+
+        Collector collector = new Collector();
+        assertTrue(new CacheLog(file, 1, 1).read(collector));
+        assertEquals(Arrays.asList("a", "b"), collector.values);
+    }
+
+    public void testUnreadableRecordIsSkipped() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        log.append(records("a", "bad", "c"));
+
+        Collector collector = new Collector() {
+            @Override
+            public void read(DataInput in) throws IOException {
+                super.read(in);
+                if (values.get(values.size() - 1).equals("bad")) {
+                    values.remove(values.size() - 1);
+                    throw new IOException();
+                }
+            }
+        };
+        assertTrue(new CacheLog(file, 1, 1).read(collector));
+        assertEquals(Arrays.asList("a", "c"), collector.values);
+    }
+
+    public void testReadsCompletedRewrite() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        log.append(records("a"));
+        // as if the log had been deleted but the rewrite not renamed yet
+        assertTrue(file.renameTo(new File(file.getPath() + ".tmp")));
+        assertTrue(log.exists());
+
+        Collector collector = new Collector();
+        assertTrue(new CacheLog(file, 1, 1).read(collector));
+        assertEquals(Arrays.asList("a"), collector.values);
+        assertTrue(file.exists());
+    }
+
+    public void testShouldCompact() throws Exception {
+        CacheLog log = new CacheLog(file, 1, 1);
+        List<StringRecord> records = new ArrayList<StringRecord>();
+        for (int i = 0; i < 300; i++)
+            records.add(new StringRecord("r" + i));
+        log.append(records);
+        assertFalse(log.shouldCompact(100));
+        assertTrue(log.shouldCompact(10));
+        log.rewrite(Collections.<StringRecord>emptyList());
+        assertFalse(log.shouldCompact(0));
+    }
+
+    private static List<StringRecord> records(String... values) {
+        List<StringRecord> records = new ArrayList<StringRecord>();
+        for (String value : values)
+            records.add(new StringRecord(value));
+        return records;
+    }
+
+    private static class StringRecord implements CacheLog.Record {
+        private final String value;
+
+        StringRecord(String value) {
+            this.value = value;
+        }
+
+        public void write(DataOutput out) throws IOException {
+            out.writeUTF(value);
+        }
+    }
+
+    private static class Collector implements CacheLog.RecordReader {
+        final List<String> values = new ArrayList<String>();
+
+        public void read(DataInput in) throws IOException {
+            values.add(in.readUTF());
+        }
+    }
+}
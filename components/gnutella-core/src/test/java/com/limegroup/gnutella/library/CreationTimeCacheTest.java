@@ -37,7 +37,12 @@ public class CreationTimeCacheTest extends LimeTestCase {
     /**
      * File where urns (currently SHA1 urns) get persisted to
      */
-    private static final String CREATION_CACHE_FILE = "createtimes.cache";
+    private static final String CREATION_CACHE_FILE = "createtimes.log";
+    
+    /**
+     * File where older versions serialized the creation times
+     */
+    private static final String OLD_CREATION_CACHE_FILE = "createtimes.cache";
     private final String FILE_PATH = "com/limegroup/gnutella/util";
 
 	public CreationTimeCacheTest(String name) {
@@ -101,9 +106,10 @@ public class CreationTimeCacheTest extends LimeTestCase {
         toSerialize.put(hash3, middle);
         toSerialize.put(hash4, young);
 
+        deleteCacheFile();
         ObjectOutputStream oos = 
         new ObjectOutputStream(new FileOutputStream(new File(_settingsDir,
-                                                             CREATION_CACHE_FILE)));
+                                                             OLD_CREATION_CACHE_FILE)));
         oos.writeObject(toSerialize);
         oos.close();
         
@@ -111,6 +117,12 @@ public class CreationTimeCacheTest extends LimeTestCase {
         CreationTimeCache ctCache = new CreationTimeCache(fileManager);
         Map map = getUrnToTime(ctCache);
         assertEquals(toSerialize, map);
+        
+        // the serialized times are moved to the log
+        ctCache.persistCache();
+        assertTrue(cacheExists());
+        assertFalse(new File(_settingsDir, OLD_CREATION_CACHE_FILE).exists());
+        assertEquals(toSerialize, getUrnToTime(new CreationTimeCache(fileManager)));
     }
     
     public void testMapCreationNoExistingMap() throws Exception {
@@ -133,9 +145,10 @@ public class CreationTimeCacheTest extends LimeTestCase {
         toSerialize.put(hash3, old);
         toSerialize.put(hash4, middle);
 
+        deleteCacheFile();
         ObjectOutputStream oos = 
         new ObjectOutputStream(new FileOutputStream(new File(_settingsDir,
-                                                             CREATION_CACHE_FILE)));
+                                                             OLD_CREATION_CACHE_FILE)));
         oos.writeObject(toSerialize);
         oos.close();
         
@@ -376,6 +389,7 @@ public class CreationTimeCacheTest extends LimeTestCase {
 	private void deleteCacheFile() {
 		File cacheFile = new File(_settingsDir, CREATION_CACHE_FILE);
 		cacheFile.delete();
+		new File(_settingsDir, OLD_CREATION_CACHE_FILE).delete();
 	}
 
 	/**
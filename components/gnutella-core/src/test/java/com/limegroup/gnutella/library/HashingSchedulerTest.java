@@ -0,0 +1,145 @@
+package com.limegroup.gnutella.library;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.concurrent.ListeningFuture;
+import org.limewire.core.settings.SharingSettings;
+import org.limewire.gnutella.tests.LimeTestCase;
+
+public class HashingSchedulerTest extends LimeTestCase {
+
+    public HashingSchedulerTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(HashingSchedulerTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        SharingSettings.FRIENDLY_HASHING.setValue(false);
+    }
+
+    public void testGroupsByMountPoint() throws Exception {
+        HashingScheduler scheduler = new HashingScheduler(ExecutorsHelper.daemonThreadFactory("test"),
+                Arrays.asList("/mnt/disk2/", "/mnt/", "/"));
+        assertEquals("/mnt/disk2/", scheduler.getMountPoint(new File("/mnt/disk2/a/b")));
+        assertEquals("/mnt/", scheduler.getMountPoint(new File("/mnt/disk1/a")));
+        assertEquals("/", scheduler.getMountPoint(new File("/home/a")));
+    }
+
+    public void testOneFilePerDisk() throws Exception {
+        SharingSettings.HASHING_THREADS.setValue(4);
+        SharingSettings.HASHING_THREADS_PER_DISK.setValue(1);
+        File disk1 = new File(_scratchDir, "disk1");
+        File disk2 = new File(_scratchDir, "disk2");
+        HashingScheduler scheduler = new HashingScheduler(ExecutorsHelper.daemonThreadFactory("test"),
+                Arrays.asList(disk1.getAbsolutePath(), disk2.getAbsolutePath()));
+
+        AtomicInteger running1 = new AtomicInteger();
+        AtomicInteger running2 = new AtomicInteger();
+        AtomicInteger max1 = new AtomicInteger();
+        AtomicInteger max2 = new AtomicInteger();
+        AtomicInteger maxTotal = new AtomicInteger();
+        AtomicInteger total = new AtomicInteger();
+        List<ListeningFuture<Object>> futures = new ArrayList<ListeningFuture<Object>>();
+        for(int i = 0; i < 4; i++) {
+            futures.add(scheduler.submit(new File(disk1, "f" + i),
+                    new CountingJob(running1, max1, total, maxTotal)));
+            futures.add(scheduler.submit(new File(disk2, "f" + i),
+                    new CountingJob(running2, max2, total, maxTotal)));
+        }
+        for(ListeningFuture<Object> future : futures)
+            future.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, max1.get());
+        assertEquals(1, max2.get());
+        assertEquals(2, maxTotal.get());
+    }
+
+    public void testSmallFilesFirst() throws Exception {
+        SharingSettings.HASHING_THREADS.setValue(1);
+        HashingScheduler scheduler = new HashingScheduler(ExecutorsHelper.daemonThreadFactory("test"),
+                Collections.<String>emptyList());
+
+        final CountDownLatch blocker = new CountDownLatch(1);
+        ListeningFuture<Object> first = scheduler.submit(createFile("blocker", 1), new Callable<Object>() {
+            public Object call() throws Exception {
+                blocker.await();
+                return null;
+            }
+        });
+        for(int i = 0; i < 100 && scheduler.getActiveCount() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, scheduler.getActiveCount());
+
+        final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+        List<ListeningFuture<Object>> futures = new ArrayList<ListeningFuture<Object>>();
+        for(final long size : new long[] { 3000, 10, 500, 20000, 1 }) {
+            futures.add(scheduler.submit(createFile("f" + size, size), new Callable<Object>() {
+                public Object call() {
+                    order.add(size);
+                    return null;
+                }
+            }));
+        }
+        assertEquals(5, scheduler.getPendingCount());
+        blocker.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        for(ListeningFuture<Object> future : futures)
+            future.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(1L, 10L, 500L, 3000L, 20000L), order);
+        assertEquals(1, scheduler.getWorkerCount());
+    }
+
+    private File createFile(String name, long size) throws Exception {
+        File file = new File(_scratchDir, name);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(size);
+        raf.close();
+        return file;
+    }
+
+    private static class CountingJob implements Callable<Object> {
+        private final AtomicInteger running, max, total, maxTotal;
+
+        CountingJob(AtomicInteger running, AtomicInteger max, AtomicInteger total, AtomicInteger maxTotal) {
+            this.running = running;
+            this.max = max;
+            this.total = total;
+            this.maxTotal = maxTotal;
+        }
+
+        public Object call() throws Exception {
+            update(max, running.incrementAndGet());
+            update(maxTotal, total.incrementAndGet());
+            Thread.sleep(50);
+            running.decrementAndGet();
+            total.decrementAndGet();
+            return null;
+        }
+
+        private void update(AtomicInteger max, int value) {
+            int current;
+            while((current = max.get()) < value && !max.compareAndSet(current, value));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.limegroup.gnutella.library;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import junit.framework.Test;
+
+import org.limewire.gnutella.tests.LimeTestCase;
+import org.limewire.util.PrivilegedAccessor;
+
+public class LibraryFileDataTest extends LimeTestCase {
+
+    private static final String LOG_FILE = "library6.dat";
+
+    private static final String OLD_SAVE_FILE = "library5.dat";
+
+    private File a, b, c, folder;
+
+    public LibraryFileDataTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(LibraryFileDataTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        new File(_settingsDir, LOG_FILE).delete();
+        new File(_settingsDir, OLD_SAVE_FILE).delete();
+        folder = new File(_baseDir, "folder");
+        a = new File(folder, "a.mp3");
+        b = new File(folder, "b.mp3");
+        c = new File(folder, "c.mp3");
+    }
+
+    public void testSavesAndLoads() throws Exception {
+        LibraryFileData data = new LibraryFileData();
+        data.load();
+        data.addManagedFile(a, true);
+        data.setSharedWithGnutella(a, true);
+        data.setSharedWithFriend(b, "friend@host", true);
+        data.removeManagedFile(c, true);
+        data.addDirectoryToManageRecursively(folder);
+        data.setManagedExtensions(Arrays.asList("mp3", "xyz"));
+        assertTrue(data.save());
+        assertTrue(new File(_settingsDir, LOG_FILE).exists());
+        assertFalse(data.save());
+
+        assertSameData(data, load());
+    }
+
+    public void testAppendsChanges() throws Exception {
+        LibraryFileData data = new LibraryFileData();
+        data.load();
+        data.addManagedFile(a, true);
+        data.addManagedFile(b, true);
+        data.addDirectoryToManageRecursively(folder);
+        data.save();
+        long length = new File(_settingsDir, LOG_FILE).length();
+
+        data.setSharedWithGnutella(b, true);
+        data.removeManagedFile(a, true);
+        data.save();
+        // one record for each changed file
+        assertGreaterThan(length, new File(_settingsDir, LOG_FILE).length());
+        LibraryFileData loaded = load();
+        assertSameData(data, loaded);
+        assertTrue(loaded.isFileExcluded(a));
+        assertTrue(loaded.isSharedWithGnutella(b));
+
+        data.setDirectoriesToManageRecursively(Collections.<File>emptyList());
+        data.setDirectoriesToExcludeFromManaging(Collections.singleton(folder));
+        data.save();
+        loaded = load();
+        assertSameData(data, loaded);
+        assertTrue(loaded.getDirectoriesToManageRecursively().isEmpty());
+        assertTrue(loaded.isFolderExcluded(folder));
+    }
+
+    public void testMigratesSerializedData() throws Exception {
+        Map<String, Object> save = new HashMap<String, Object>();
+        save.put("USER_EXTENSIONS", new HashSet<String>(Arrays.asList("XYZ")));
+        save.put("USER_REMOVED", new HashSet<String>());
+        save.put("MANAGED_DIRECTORIES", new HashSet<File>(Arrays.asList(folder)));
+        save.put("DO_NOT_MANAGE", new HashSet<File>());
+        save.put("EXCLUDE_FILES", new HashSet<File>(Arrays.asList(c)));
+        Map<File, Object> shareData = new HashMap<File, Object>();
+        LibraryFileData data = new LibraryFileData();
+        data.load();
+        data.setSharedWithGnutella(a, true);
+        Map<?, ?> props = (Map<?, ?>) PrivilegedAccessor.getValue(data, "libraryManageData");
+        shareData.put(a, props.get(a));
+        save.put("SHARE_DATA", shareData);
+        ObjectOutputStream out = new ObjectOutputStream(
+                new FileOutputStream(new File(_settingsDir, OLD_SAVE_FILE)));
+        out.writeObject(save);
+        out.close();
+
+        LibraryFileData migrated = load();
+        assertTrue(migrated.getManagedExtensions().contains("xyz"));
+        assertEquals(Arrays.asList(folder), migrated.getDirectoriesToManageRecursively());
+        assertTrue(migrated.isFileExcluded(c));
+        assertTrue(migrated.isSharedWithGnutella(a));
+
+        assertTrue(migrated.save());
+        assertTrue(new File(_settingsDir, LOG_FILE).exists());
+        assertFalse(new File(_settingsDir, OLD_SAVE_FILE).exists());
+        assertSameData(migrated, load());
+    }
+
+    private LibraryFileData load() {
+        LibraryFileData data = new LibraryFileData();
+        data.load();
+        return data;
+    }
+
+    private void assertSameData(LibraryFileData expected, LibraryFileData actual) {
+        assertEquals(expected.getManagedExtensions(), actual.getManagedExtensions());
+        assertEquals(expected.getDirectoriesToManageRecursively(), actual.getDirectoriesToManageRecursively());
+        assertEquals(expected.getDirectoriesToExcludeFromManaging(), actual.getDirectoriesToExcludeFromManaging());
+        assertEquals(expected.getDirectoriesWithImportedFiles(), actual.getDirectoriesWithImportedFiles());
+        for (File file : new File[] { a, b, c }) {
+            assertEquals(expected.isFileExcluded(file), actual.isFileExcluded(file));
+            assertEquals(expected.isSharedWithGnutella(file), actual.isSharedWithGnutella(file));
+            assertEquals(expected.isSharedWithFriend(file, "friend@host"),
+                    actual.isSharedWithFriend(file, "friend@host"));
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.limegroup.gnutella.library;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -19,6 +21,7 @@ import org.jmock.Mockery;
 import org.limewire.gnutella.tests.LimeTestCase;
 import org.limewire.lifecycle.ServiceScheduler;
 import org.limewire.util.AssignParameterAction;
+import org.limewire.util.PrivilegedAccessor;
 import org.limewire.util.TestUtils;
 
 import com.limegroup.gnutella.URN;
@@ -34,7 +37,12 @@ public final class UrnCacheTest extends LimeTestCase {
     /**
      * File where urns (currently SHA1 urns) get persisted to
      */
-    private static final String URN_CACHE_FILE = "fileurns.cache";
+    private static final String URN_CACHE_FILE = "fileurns.log";
+    
+    /**
+     * File where older versions serialized the urns
+     */
+    private static final String OLD_URN_CACHE_FILE = "fileurns.cache";
     private static final String FILE_PATH = "com/limegroup/gnutella/util";
 
     private static final Set EMPTY_SET = 
@@ -87,6 +95,52 @@ public final class UrnCacheTest extends LimeTestCase {
         }
     }
     
+    /**
+     * Tests that only the changes are appended and that they're read back.
+     */
+    public void testAppendsChanges() throws Exception {
+        List<FileAndUrns> faus = new ArrayList<FileAndUrns>(createLotsOfUrns());
+        urnCache.persistCache();
+        long length = new File(_settingsDir, URN_CACHE_FILE).length();
+        
+        FileAndUrns removed = faus.remove(0);
+        urnCache.removeUrns(removed.file);
+        urnCache.persistCache();
+        long appended = new File(_settingsDir, URN_CACHE_FILE).length() - length;
+        assertGreaterThan(0, appended);
+        assertLessThan(length / faus.size(), appended);
+        
+        UrnCache read = new UrnCache();
+        assertEquals(0, read.getUrns(removed.file).size());
+        for(FileAndUrns fau : faus)
+            assertEquals(fau.urns, read.getUrns(fau.file));
+    }
+    
+    /**
+     * Tests that a cache serialized by an older version is read and
+     * replaced by the log.
+     */
+    public void testMigratesSerializedCache() throws Exception {
+        Collection<FileAndUrns> faus = createLotsOfUrns();
+        Object map = PrivilegedAccessor.invokeMethod(urnCache, "getUrnMap");
+        ObjectOutputStream out = new ObjectOutputStream(
+                new FileOutputStream(new File(_settingsDir, OLD_URN_CACHE_FILE)));
+        out.writeObject(map);
+        out.close();
+        assertFalse(cacheExists());
+        
+        UrnCache migrated = new UrnCache();
+        for(FileAndUrns fau : faus)
+            assertEquals(fau.urns, migrated.getUrns(fau.file));
+        migrated.persistCache();
+        assertTrue(cacheExists());
+        assertFalse(new File(_settingsDir, OLD_URN_CACHE_FILE).exists());
+        
+        UrnCache read = new UrnCache();
+        for(FileAndUrns fau : faus)
+            assertEquals(fau.urns, read.getUrns(fau.file));
+    }
+    
     public void testPersistsItself() throws Exception {
         Mockery context = new Mockery();
         final ServiceScheduler serviceScheduler = context.mock(ServiceScheduler.class);
@@ -37,7 +37,7 @@ public class HUGEExtensionTest extends BaseTestCase {
         HUGEExtension huge = new HUGEExtension(out.toByteArray());
         assertNotNull(huge.getGGEP());
         // parsed and merged ggep should be like last one written
-        assertEquals(ggep, huge.getGGEP());
+        assertEquals(ggep, huge.getGGEP().toGGEP());
         assertEquals(3, huge.getGGEPBlocks().size());
         assertEquals(ggep, huge.getGGEPBlocks().get(2).getGGEP());
         
@@ -18,6 +18,7 @@ import org.limewire.core.settings.SearchSettings;
 import org.limewire.gnutella.tests.LimeTestCase;
 import org.limewire.gnutella.tests.LimeTestUtils;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.GUID;
 import org.limewire.security.AddressSecurityToken;
 import org.limewire.security.InvalidSecurityTokenException;
@@ -1224,7 +1225,7 @@ public final class QueryRequestTest extends LimeTestCase {
         assertEquals(gemBytes, part);
         
         QueryRequestPayloadParser parser = new QueryRequestPayloadParser(newPayload, macManager);
-        GGEP parsedGGEP = parser.huge.getGGEP();
+        GGEPView parsedGGEP = parser.huge.getGGEP();
         assertEquals("BF", parsedGGEP.getString("FB"));
         assertTrue(parsedGGEP.hasKey("uk"));
         
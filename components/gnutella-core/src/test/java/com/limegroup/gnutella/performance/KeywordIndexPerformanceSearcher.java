@@ -0,0 +1,165 @@
+package com.limegroup.gnutella.performance;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.collection.IntPrefixIndex;
+import org.limewire.collection.IntSet;
+import org.limewire.collection.SortedIntPrefixIndex;
+import org.limewire.collection.TrieIntPrefixIndex;
+import org.limewire.util.StringUtils;
+
+import com.limegroup.gnutella.util.QueryUtils;
+
+/**
+ * Indexes file names made of common words with each {@link IntPrefixIndex}
+ * implementation, times searches for the configured search terms the same
+ * way {@link com.limegroup.gnutella.library.SharedFilesKeywordIndexImpl}
+ * searches its index, and writes the latencies to a raw data file per
+ * implementation for {@link KeywordIndexPerformanceAnalyzer}.
+ * <p>
+ * Usage: <code>KeywordIndexPerformanceSearcher [number of files]</code>
+ */
+public class KeywordIndexPerformanceSearcher {
+
+    private static final Log LOG = LogFactory.getLog(KeywordIndexPerformanceSearcher.class);
+
+    private static final int MIN_WORDS_PER_FILE = 3;
+
+    private static final int MAX_WORDS_PER_FILE = 8;
+
+    private final SearchConfig config;
+
+    private final String[] fileNames;
+
+    KeywordIndexPerformanceSearcher(SearchConfig config) throws IOException {
+        this.config = config;
+        this.fileNames = createFileNames(config.getNumberOfFilesIndexed());
+    }
+
+    public static void main(String[] args) throws Exception {
+        KeywordIndexPerformanceConfig config = new KeywordIndexPerformanceConfig();
+        if (args.length > 0)
+            config.setNumberOfFilesIndexed(Integer.parseInt(args[0]));
+        KeywordIndexPerformanceSearcher searcher =
+            new KeywordIndexPerformanceSearcher(config.getSearchConfig());
+        String rawDataFileName = config.getSearchConfig().getRawDataFileName();
+
+        searcher.execute("trie", new TrieIntPrefixIndex(true), rawDataFileName, config);
+        searcher.execute("sorted", new SortedIntPrefixIndex(true), rawDataFileName, config);
+        searcher.execute("sorted, direct", new SortedIntPrefixIndex(true, true), rawDataFileName, config);
+    }
+
+    private void execute(String name, IntPrefixIndex index, String rawDataFileName,
+            KeywordIndexPerformanceConfig config) throws KeywordIndexPerformanceException {
+        System.gc();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        index(index);
+        long indexTime = System.nanoTime() - start;
+        System.gc();
+        long heap = usedHeap() - heapBefore;
+
+        System.out.println("\n\n" + name + ": indexed " + fileNames.length + " files with "
+                + index.size() + " keys in " + indexTime / 1000000 + "ms");
+        System.out.println("Heap used: " + heap / 1024 + "KB");
+        if (index instanceof SortedIntPrefixIndex)
+            System.out.println("Buffers: " + ((SortedIntPrefixIndex)index).getBufferSize() / 1024 + "KB");
+
+        config.setRawDataOutputFileName(rawDataFileName + "." + name.replace(", ", "-"));
+        try {
+            searchAll(index, config.getSearchConfig().getRawDataFileName());
+        } catch (IOException e) {
+            throw new KeywordIndexPerformanceException("Error writing statistics file", e);
+        }
+        new KeywordIndexPerformanceAnalyzer(config.getAnalyzeConfig()).execute();
+    }
+
+    private void index(IntPrefixIndex index) {
+        for (int i = 0; i < fileNames.length; i++) {
+            for (String keyword : StringUtils.split(fileNames[i], QueryUtils.DELIMITERS))
+                index.add(keyword, i);
+        }
+        index.trim();
+    }
+
+    private void searchAll(IntPrefixIndex index, String rawDataFileName) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(rawDataFileName)));
+        try {
+            for (String searchTerm : config.getSearchTerms()) {
+                String query = index.canonicalCase(searchTerm);
+                for (int i = 0; i < config.getNumberOfSearchesToPerform(); i++) {
+                    long start = System.nanoTime();
+                    search(index, query);
+                    long latency = System.nanoTime() - start;
+                    out.println("query:" + searchTerm + ":" + latency);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Intersects the matches for each keyword of the query, like
+     * SharedFilesKeywordIndexImpl does for complete files.
+     */
+    private static IntSet search(IntPrefixIndex index, String query) {
+        IntSet ret = null;
+        for (int i = 0; i < query.length();) {
+            if (QueryUtils.isDelimiter(query.charAt(i))) {
+                i++;
+                continue;
+            }
+            int j;
+            for (j = i + 1; j < query.length(); j++) {
+                if (QueryUtils.isDelimiter(query.charAt(j)))
+                    break;
+            }
+            IntSet matches = index.getPrefixedBy(query, i, j);
+            if (matches == null)
+                return null;
+            if (i == 0 && j == query.length())
+                return matches;
+            if (ret == null) {
+                ret = new IntSet();
+                ret.addAll(matches);
+            } else {
+                ret.retainAll(matches);
+            }
+            if (ret.size() == 0)
+                return null;
+            i = j;
+        }
+        return ret;
+    }
+
+    private static String[] createFileNames(int numberOfFiles) throws IOException {
+        CommonWords words = new CommonWords();
+        Random random = new Random(numberOfFiles);
+        String[] fileNames = new String[numberOfFiles];
+        for (int i = 0; i < numberOfFiles; i++) {
+            StringBuilder name = new StringBuilder();
+            int count = MIN_WORDS_PER_FILE + random.nextInt(MAX_WORDS_PER_FILE - MIN_WORDS_PER_FILE + 1);
+            for (int j = 0; j < count; j++) {
+                if (j > 0)
+                    name.append(' ');
+                name.append(words.getWordByIndex(random.nextInt(Integer.MAX_VALUE)));
+            }
+            name.append(".mp3");
+            fileNames[i] = name.toString();
+        }
+        LOG.debug("created " + numberOfFiles + " file names");
+        return fileNames;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,240 @@
+package com.limegroup.gnutella.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import org.limewire.http.entity.FilePieceReader;
+import org.limewire.http.entity.Piece;
+import org.limewire.http.entity.PieceListener;
+import org.limewire.nio.ByteBufferCache;
+
+import com.limegroup.gnutella.uploader.FileResponseEntity;
+
+/**
+ * Compares the throughput and allocation of the ways a
+ * {@link FileResponseEntity} can upload a file: reading pieces into heap or
+ * direct buffers with a {@link FilePieceReader}, or transferring directly
+ * from the {@link FileChannel}.
+ * <p>
+ * Each mode is run against a channel that discards all data, which is how
+ * the throttled and TLS channels of the NIO layer look to the file channel,
+ * and against a loopback socket, where the platform can use
+ * <code>sendfile</code>.
+ * <p>
+ * Usage: <code>UploadPerformanceBenchmark [file size in MB] [rounds]</code>
+ */
+public class UploadPerformanceBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private enum Mode { HEAP_PIECES, DIRECT_PIECES, FILE_CHANNEL }
+
+    public static void main(String[] args) throws Exception {
+        int sizeInMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File file = File.createTempFile("upload", ".bench");
+        file.deleteOnExit();
+        writeRandomFile(file, sizeInMB * 1024L * 1024L);
+
+        UploadPerformanceBenchmark benchmark = new UploadPerformanceBenchmark(file);
+        benchmark.run("heap pieces   -> discard", Mode.HEAP_PIECES, false, rounds);
+        benchmark.run("direct pieces -> discard", Mode.DIRECT_PIECES, false, rounds);
+        benchmark.run("file channel  -> discard", Mode.FILE_CHANNEL, false, rounds);
+        benchmark.run("heap pieces   -> socket ", Mode.HEAP_PIECES, true, rounds);
+        benchmark.run("direct pieces -> socket ", Mode.DIRECT_PIECES, true, rounds);
+        benchmark.run("file channel  -> socket ", Mode.FILE_CHANNEL, true, rounds);
+        file.delete();
+    }
+
+    private final File file;
+
+    private final ByteBufferCache bufferCache = new ByteBufferCache();
+
+    UploadPerformanceBenchmark(File file) {
+        this.file = file;
+    }
+
+    private void run(String name, Mode mode, boolean socket, int rounds) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            upload(mode, socket);
+        }
+
+        long bytes = 0;
+        long nanos = 0;
+        long allocated = 0;
+        for (int i = 0; i < rounds; i++) {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            bytes += upload(mode, socket);
+            nanos += System.nanoTime() - start;
+            allocated += getAllocatedBytes() - allocatedBefore;
+        }
+
+        double seconds = nanos / 1e9;
+        System.out.println(name + ": " + (long) (bytes / seconds / 1024 / 1024) + " MB/s, "
+                + (allocated < 0 ? "n/a" : (long) (allocated / seconds / 1024) + " KB/s")
+                + " allocated");
+    }
+
+    private long upload(Mode mode, boolean socket) throws Exception {
+        if (!socket) {
+            return upload(mode, new DiscardChannel());
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        final SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress());
+        SocketChannel accepted = server.accept();
+        Thread drain = new Thread("UploadBenchmarkDrain") {
+            @Override
+            public void run() {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                try {
+                    while (client.read(buffer) != -1) {
+                        buffer.clear();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        };
+        drain.start();
+        try {
+            return upload(mode, accepted);
+        } finally {
+            accepted.close();
+            drain.join();
+            client.close();
+            server.close();
+        }
+    }
+
+    private long upload(Mode mode, WritableByteChannel sink) throws Exception {
+        switch (mode) {
+        case FILE_CHANNEL:
+            return transfer(sink);
+        case DIRECT_PIECES:
+            return readPieces(sink, true);
+        default:
+            return readPieces(sink, false);
+        }
+    }
+
+    /**
+     * Uploads the file the way {@link FileResponseEntity} does when it reads
+     * the disk on a separate thread.
+     */
+    private long readPieces(WritableByteChannel sink, boolean direct) throws Exception {
+        final Object lock = new Object();
+        FilePieceReader reader = new FilePieceReader(bufferCache, file, 0, file.length(), new PieceListener() {
+            public void readFailed(IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            public void readSuccessful() {
+                synchronized (lock) {
+                    lock.notify();
+                }
+            }
+        }, direct);
+        reader.start();
+        long written = 0;
+        try {
+            while (written < file.length()) {
+                Piece piece;
+                synchronized (lock) {
+                    while ((piece = reader.next()) == null) {
+                        lock.wait();
+                    }
+                }
+                ByteBuffer buffer = piece.getBuffer();
+                while (buffer.hasRemaining()) {
+                    written += sink.write(buffer);
+                }
+                reader.release(piece);
+            }
+        } finally {
+            reader.shutdown();
+        }
+        return written;
+    }
+
+    /** Uploads the file the way {@link FileResponseEntity} does with file channel uploads. */
+    private long transfer(WritableByteChannel sink) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long position = 0;
+            long length = channel.size();
+            while (position < length) {
+                position += channel.transferTo(position, Math.min(length - position, 64 * 1024), sink);
+            }
+            return position;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by all live threads, or -1 if
+     * the VM can't tell.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        long total = 0;
+        for (long allocated : sunBean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private static void writeRandomFile(File file, long size) throws IOException {
+        Random random = new Random();
+        byte[] data = new byte[64 * 1024];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            for (long written = 0; written < size; written += data.length) {
+                random.nextBytes(data);
+                raf.write(data, 0, (int) Math.min(data.length, size - written));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Discards all written data, like an arbitrary channel to the file channel. */
+    private static class DiscardChannel implements WritableByteChannel {
+        private boolean open = true;
+
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public void close() {
+            open = false;
+        }
+    }
+}
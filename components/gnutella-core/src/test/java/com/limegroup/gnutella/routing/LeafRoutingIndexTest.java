@@ -0,0 +1,282 @@
+package com.limegroup.gnutella.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Test;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.limewire.util.BaseTestCase;
+
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.helpers.UrnHelper;
+import com.limegroup.gnutella.messages.QueryRequest;
+import com.limegroup.gnutella.xml.LimeXMLDocument;
+
+public class LeafRoutingIndexTest extends BaseTestCase {
+
+    private static final String[] WORDS = {
+        "limewire", "gnutella", "beatles", "yellow", "submarine", "abbey",
+        "road", "mp3", "avi", "live", "remix", "acoustic", "demo", "mix",
+        "jazz", "blues", "rock", "classic", "piano", "guitar", "drums"
+    };
+
+    private Mockery mockery;
+
+    private Random random;
+
+    private LeafRoutingIndex index;
+
+    public LeafRoutingIndexTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(LeafRoutingIndexTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mockery = new Mockery();
+        random = new Random(3);
+        index = new LeafRoutingIndex();
+    }
+
+    public void testMatchesEveryTable() throws Exception {
+        // more than one word of leaves, with two table sizes
+        List<QueryRouteTable> tables = new ArrayList<QueryRouteTable>();
+        for (int i = 0; i < 150; i++) {
+            QueryRouteTable table = new QueryRouteTable(i % 3 == 0 ? 8192 : 65536);
+            for (int j = random.nextInt(20); j > 0; j--)
+                table.add(fileName());
+            tables.add(table);
+            index.update(table, table);
+        }
+        assertEquals(150, index.size());
+
+        for (int i = 0; i < 200; i++) {
+            // one to four words, or just the start of a word
+            String text = i % 5 == 0 ? WORDS[i % WORDS.length].substring(0, 3) : fileName();
+            assertMatches(tables, createQuery(text));
+        }
+        assertMatches(tables, createQuery("   "));
+        assertMatches(tables, createQuery(""));
+    }
+
+    public void testUrnQueries() throws Exception {
+        QueryRouteTable hit = new QueryRouteTable(65536);
+        hit.addIndivisible(UrnHelper.UNIQUE_SHA1.toString());
+        QueryRouteTable miss = new QueryRouteTable(65536);
+        miss.add("beatles yellow submarine");
+        index.update(hit, hit);
+        index.update(miss, miss);
+
+        LeafRoutingIndex.Match match = index.match(createQuery(UrnHelper.UNIQUE_SHA1));
+        assertTrue(match.hits(hit));
+        assertFalse(match.hits(miss));
+    }
+
+    public void testPatchesAreCopied() throws Exception {
+        QueryRouteTable source = new QueryRouteTable(8192);
+        source.add("beatles yellow submarine");
+        QueryRouteTable leaf = new QueryRouteTable(8192);
+        patch(leaf, source, null);
+        index.update(leaf, leaf);
+        assertTrue(index.match(createQuery("yellow submarine")).hits(leaf));
+        assertFalse(index.match(createQuery("abbey road")).hits(leaf));
+
+        QueryRouteTable changed = new QueryRouteTable(8192);
+        changed.add("beatles abbey road");
+        patch(leaf, changed, source);
+        index.update(leaf, leaf);
+        assertFalse(index.match(createQuery("yellow submarine")).hits(leaf));
+        assertTrue(index.match(createQuery("abbey road")).hits(leaf));
+        assertTrue(index.match(createQuery("beatles")).hits(leaf));
+
+        // a reset to another size moves the leaf to another slice
+        QueryRouteTable bigger = new QueryRouteTable(65536);
+        bigger.add("yellow submarine");
+        patch(leaf, bigger, null);
+        index.update(leaf, leaf);
+        assertTrue(index.match(createQuery("yellow submarine")).hits(leaf));
+        assertFalse(index.match(createQuery("abbey road")).hits(leaf));
+    }
+
+    public void testOnlyChangedEntriesAreCopied() throws Exception {
+        QueryRouteTable leaf = new QueryRouteTable(65536);
+        index.update(leaf, leaf);
+        assertGreaterThanOrEquals(leaf.getChangedTo(), leaf.getChangedFrom());
+
+        // every message of a patch is copied as it arrives
+        QueryRouteTable source = new QueryRouteTable(65536);
+        for (int i = 0; i < 40; i++)
+            source.add(fileName());
+        List<RouteTableMessage> messages = source.encode(null, false);
+        assertGreaterThan(2, messages.size());
+        int patched = 0;
+        for (RouteTableMessage message : messages) {
+            if (message instanceof ResetTableMessage) {
+                leaf.reset((ResetTableMessage)message);
+            } else {
+                leaf.patch((PatchTableMessage)message);
+                assertEquals(patched, leaf.getChangedFrom());
+                assertLessThan(65536 + 1, leaf.getChangedTo());
+                patched = leaf.getChangedTo();
+            }
+            index.update(leaf, leaf);
+        }
+        assertEquals(65536, patched);
+        for (int i = 0; i < 100; i++)
+            assertMatches(Collections.singletonList(leaf), createQuery(fileName()));
+
+        // a slot set on its own is the only one copied
+        int slot = leaf.getIndivisibleHash("beatles");
+        leaf.set(slot);
+        assertEquals(slot, leaf.getChangedFrom());
+        assertEquals(slot + 1, leaf.getChangedTo());
+        index.update(leaf, leaf);
+        assertGreaterThanOrEquals(leaf.getChangedTo(), leaf.getChangedFrom());
+    }
+
+    public void testRemove() throws Exception {
+        QueryRouteTable first = new QueryRouteTable(8192);
+        first.add("beatles");
+        QueryRouteTable second = new QueryRouteTable(65536);
+        second.add("beatles");
+        index.update(first, first);
+        index.update(second, second);
+
+        index.remove(first);
+        assertEquals(1, index.size());
+        LeafRoutingIndex.Match match = index.match(createQuery("beatles"));
+        assertFalse(match.isIndexed(first));
+        assertFalse(match.hits(first));
+        assertTrue(match.isIndexed(second));
+        assertTrue(match.hits(second));
+
+        // the removed leaf's column is given to the next leaf, empty
+        QueryRouteTable third = new QueryRouteTable(8192);
+        index.update(third, third);
+        assertFalse(index.match(createQuery("beatles")).hits(third));
+
+        index.update(second, null);
+        assertFalse(index.match(createQuery("beatles")).isIndexed(second));
+    }
+
+    public void testMatchOnlyAnswersForLeavesIndexedBeforeIt() throws Exception {
+        QueryRouteTable first = new QueryRouteTable(8192);
+        first.add("beatles");
+        QueryRouteTable moved = new QueryRouteTable(8192);
+        moved.add("beatles");
+        index.update(first, first);
+        index.update(moved, moved);
+        LeafRoutingIndex.Match match = index.match(createQuery("beatles"));
+
+        // a leaf added after the match, which gets the removed leaf's column
+        index.remove(first);
+        QueryRouteTable added = new QueryRouteTable(8192);
+        added.add("beatles");
+        index.update(added, added);
+        assertFalse(match.isIndexed(first));
+        assertFalse(match.isIndexed(added));
+        assertFalse(match.hits(added));
+
+        // a leaf that moved to another slice after the match
+        QueryRouteTable bigger = new QueryRouteTable(65536);
+        bigger.add("beatles");
+        patch(moved, bigger, null);
+        index.update(moved, moved);
+        assertFalse(match.isIndexed(moved));
+
+        match = index.match(createQuery("beatles"));
+        assertTrue(match.isIndexed(added));
+        assertTrue(match.hits(added));
+        assertTrue(match.isIndexed(moved));
+        assertTrue(match.hits(moved));
+    }
+
+    public void testFeatureAndRichQueriesAreNotAnswered() throws Exception {
+        mockery.setImposteriser(ClassImposteriser.INSTANCE);
+        final QueryRequest feature = mockery.mock(QueryRequest.class, "feature");
+        final QueryRequest rich = mockery.mock(QueryRequest.class, "rich");
+        final LimeXMLDocument document = mockery.mock(LimeXMLDocument.class);
+        mockery.checking(new Expectations() {{
+            allowing(feature).isFeatureQuery();
+            will(returnValue(true));
+            allowing(rich).isFeatureQuery();
+            will(returnValue(false));
+            allowing(rich).getRichQuery();
+            will(returnValue(document));
+        }});
+        assertNull(index.match(feature));
+        assertNull(index.match(rich));
+    }
+
+    private void assertMatches(List<QueryRouteTable> tables, QueryRequest query) {
+        LeafRoutingIndex.Match match = index.match(query);
+        for (QueryRouteTable table : tables) {
+            assertTrue(match.isIndexed(table));
+            assertEquals(query.getQuery(), table.contains(query), match.hits(table));
+        }
+    }
+
+    /** Sends <code>table</code> to <code>leaf</code> the way it would go over the network. */
+    private void patch(QueryRouteTable leaf, QueryRouteTable table, QueryRouteTable previous)
+            throws Exception {
+        for (RouteTableMessage message : table.encode(previous, true)) {
+            if (message instanceof ResetTableMessage)
+                leaf.reset((ResetTableMessage)message);
+            else
+                leaf.patch((PatchTableMessage)message);
+        }
+    }
+
+    private String fileName() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 1 + random.nextInt(4); i > 0; i--)
+            name.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        return name.toString();
+    }
+
+    private QueryRequest createQuery(final String text) {
+        final QueryRequest query = mockery.mock(QueryRequest.class, "query " + random.nextLong());
+        mockery.checking(new Expectations() {{
+            allowing(query).isFeatureQuery();
+            will(returnValue(false));
+            allowing(query).getRichQuery();
+            will(returnValue(null));
+            allowing(query).hasQueryUrns();
+            will(returnValue(false));
+            allowing(query).getQuery();
+            will(returnValue(text));
+        }});
+        return query;
+    }
+
+    private QueryRequest createQuery(URN urn) {
+        final QueryRequest query = mockery.mock(QueryRequest.class, "urn query");
+        final Set<URN> urns = Collections.singleton(urn);
+        mockery.checking(new Expectations() {{
+            allowing(query).isFeatureQuery();
+            will(returnValue(false));
+            allowing(query).getRichQuery();
+            will(returnValue(null));
+            allowing(query).hasQueryUrns();
+            will(returnValue(true));
+            allowing(query).getQueryUrns();
+            will(returnValue(urns));
+            allowing(query).getQuery();
+            will(returnValue(""));
+        }});
+        return query;
+    }
+}
@@ -1,11 +1,13 @@
 package com.limegroup.gnutella.routing;
 
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 import junit.framework.Test;
 
+import org.limewire.core.settings.SharingSettings;
 import org.limewire.gnutella.tests.LimeTestCase;
 import org.limewire.gnutella.tests.LimeTestUtils;
 import org.limewire.lifecycle.ServiceRegistry;
@@ -17,6 +19,8 @@ import com.limegroup.gnutella.library.FileDesc;
 import com.limegroup.gnutella.library.FileDescStub;
 import com.limegroup.gnutella.library.FileManager;
 import com.limegroup.gnutella.library.FileManagerStub;
+import com.limegroup.gnutella.library.IncompleteFileDescStub;
+import com.limegroup.gnutella.helpers.UrnHelper;
 import com.limegroup.gnutella.stubs.QueryRequestStub;
 
 public class QRPUpdaterTest extends LimeTestCase {
@@ -75,6 +79,62 @@ public class QRPUpdaterTest extends LimeTestCase {
         assertFalse(table.contains(new QueryRequestImpl("NotFound.txt")));
     }
     
+    public void testIncrementalUpdatesMatchRebuild() {
+        List<FileDesc> fds = new ArrayList<FileDesc>();
+        for (int i = 0; i < 200; i++) {
+            FileDesc fd = new FileDescStub("shared file " + i + " word" + (i % 7) + ".txt", 
+                    UrnHelper.URNS[i % UrnHelper.URNS.length], i);
+            fds.add(fd);
+            fileManagerStub.getGnutellaFileList().add(fd);
+            if (i % 50 == 0)
+                qrpUpdater.getQRT();
+        }
+        for (int i = 0; i < 200; i += 3)
+            fileManagerStub.getGnutellaFileList().remove(fds.get(i));
+        
+        QueryRouteTable table = qrpUpdater.getQRT();
+        assertTrue(table.contains(new QueryRequestImpl("word3")));
+        assertTrue(table.contains(new QueryRequestImpl("199")));
+        assertFalse(table.contains(new QueryRequestImpl("198")));
+        
+        // a new updater builds its table from scratch
+        QRPUpdater rebuilt = new QRPUpdater(fileManagerStub, null, null);
+        assertEquals(rebuilt.getQRT(), table);
+    }
+    
+    /**
+     * Tests that incomplete files are published, or stop being published,
+     * when the partial sharing settings change.
+     */
+    public void testPartialSharingSettingsRebuild() throws Exception {
+        SharingSettings.PUBLISH_PARTIAL_QRP.setValue(false);
+        qrpUpdater.getQRT();
+        
+        FileDesc fd = new IncompleteFileDescStub("PartialFile.txt", UrnHelper.URNS[0], 0) {
+            @Override
+            public boolean hasUrnsAndPartialData() {
+                return true;
+            }
+        };
+        fileManagerStub.getIncompleteFileList().add(fd);
+        assertFalse(qrpUpdater.getQRT().contains(new QueryRequestImpl("PartialFile.txt")));
+        
+        SharingSettings.PUBLISH_PARTIAL_QRP.setValue(true);
+        waitForContains("PartialFile.txt", true);
+        
+        SharingSettings.ALLOW_PARTIAL_SHARING.setValue(false);
+        waitForContains("PartialFile.txt", false);
+    }
+    
+    /** Waits for the setting listeners to rebuild the QRT. */
+    private void waitForContains(String query, boolean contains) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (qrpUpdater.getQRT().contains(new QueryRequestImpl(query)) != contains) {
+            assertLessThan("table not rebuilt", end, System.currentTimeMillis());
+            Thread.sleep(10);
+        }
+    }
+    
     private class QueryRequestImpl extends QueryRequestStub {
         
         private String keyWords;
@@ -0,0 +1,107 @@
+package com.limegroup.gnutella.tigertree;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.Base32;
+import org.limewire.util.BaseTestCase;
+import org.limewire.util.TestUtils;
+
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.UrnSet;
+import com.limegroup.gnutella.security.MerkleTree;
+import com.limegroup.gnutella.security.Tiger;
+
+public class HashTreeNodeDigestTest extends BaseTestCase {
+
+    private static final File file =
+        TestUtils.getResourceFile("com/limegroup/gnutella/metadata/mpg4_golem160x90first120.avi");
+
+    // urn & tigertree root from bitcollider
+    private static final String sha1 = "urn:sha1:UBJSGDTCVZDSBS4K3ZDQJV5VQ3WTBCOK";
+    private static final String root32 = "IXVJNDJ7U3NCMZE5ZWBVCXSMWMFY4ZCXG5LUYAY";
+
+    public HashTreeNodeDigestTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(HashTreeNodeDigestTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public void testSameNodesAsStream() throws Exception {
+        Random random = new Random(42);
+        int[] sizes = { 1, 1023, 1024, 1025, 256 * 1024, 700 * 1024 + 3, 3 * 1024 * 1024 };
+        for(int size : sizes) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+
+            int nodeSize = HashTreeUtils.calculateNodeSize(size, HashTreeUtils.calculateDepth(size));
+            List<byte[]> nodes = HashTreeUtils.createTreeNodes(nodeSize, size, new ByteArrayInputStream(data), new Tiger());
+            List<List<byte[]>> expected = HashTreeUtils.createAllParentNodes(nodes, new Tiger());
+
+            HashTreeNodeDigest digest = new HashTreeNodeDigest(size);
+            assertEquals(nodeSize, digest.getNodeSize());
+            // feed it in odd sized pieces so node boundaries fall inside updates
+            for(int offset = 0; offset < size; offset += 7777)
+                digest.update(data, offset, Math.min(7777, size - offset));
+            byte[] root = digest.digest();
+
+            List<List<byte[]>> actual = digest.getAllNodes();
+            assertEquals(expected.size(), actual.size());
+            for(int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).size(), actual.get(i).size());
+                for(int j = 0; j < expected.get(i).size(); j++)
+                    assertEquals("size " + size + " gen " + i + " node " + j, expected.get(i).get(j), actual.get(i).get(j));
+            }
+
+            MerkleTree tt = new MerkleTree(new Tiger());
+            tt.update(data, 0, size);
+            assertEquals(tt.digest(), root);
+        }
+    }
+
+    public void testIncompleteData() throws Exception {
+        HashTreeNodeDigest digest = new HashTreeNodeDigest(2048);
+        try {
+            digest.getAllNodes();
+            fail("nothing digested");
+        } catch(IOException expected) {}
+
+        digest.update(new byte[2047], 0, 2047);
+        digest.digest();
+        try {
+            digest.getAllNodes();
+            fail("hashed too little data");
+        } catch(IOException expected) {}
+
+        digest.update(new byte[2048], 0, 2048);
+        digest.digest();
+        assertEquals(1, digest.getAllNodes().size());
+    }
+
+    public void testInvalidSize() throws Exception {
+        try {
+            new HashTreeNodeDigest(0);
+            fail("empty files have no tree");
+        } catch(IllegalArgumentException expected) {}
+    }
+
+    public void testSinglePassWithSha1() throws Exception {
+        HashTreeNodeDigest digest = new HashTreeNodeDigest(file.length());
+        UrnSet urns = URN.generateUrnsFromFile(file, digest);
+        assertEquals(sha1, UrnSet.getSha1(urns).toString());
+        assertEquals(root32, Base32.encode(digest.digest()));
+        assertEquals(5, digest.getAllNodes().size());
+        assertEquals(11, digest.getAllNodes().get(4).size());
+    }
+}
@@ -0,0 +1,271 @@
+package com.limegroup.gnutella.tigertree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.security.Tiger;
+
+public class HashTreeStoreTest extends BaseTestCase {
+
+    private File file;
+
+    private Random random;
+
+    private HashTreeStore store;
+
+    public HashTreeStoreTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(HashTreeStoreTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("ttstore", ".dat");
+        file.delete();
+        random = new Random(19);
+        store = new HashTreeStore(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        HashTreeStore.delete(file);
+    }
+
+    public void testStoresTrees() throws Exception {
+        URN sha1 = createSHA1();
+        HashTree tree = createTree(sha1, 3 * 1024 * 1024 + 5);
+        List<List<byte[]>> allNodes = HashTreeUtils.createAllParentNodes(tree.getNodes(), new Tiger());
+        store.putTree(sha1, tree, allNodes);
+        assertTree(tree, allNodes, store.getTree(sha1));
+        assertEquals(tree.getTreeRootUrn(), store.getRoot(sha1));
+        assertEquals(1, store.getTreeCount());
+
+        store.close();
+        store = new HashTreeStore(file);
+        assertTree(tree, allNodes, store.getTree(sha1));
+
+        // a small tree has only its root
+        URN small = createSHA1();
+        HashTree smallTree = createTree(small, 1000);
+        List<List<byte[]>> smallNodes = HashTreeUtils.createAllParentNodes(smallTree.getNodes(), new Tiger());
+        store.putTree(small, smallTree, smallNodes);
+        assertTree(smallTree, smallNodes, store.getTree(small));
+        assertEquals(2, store.getTreeCount());
+    }
+
+    public void testRootsAndRemoval() throws Exception {
+        URN sha1 = createSHA1();
+        URN root = createRoot();
+        store.putRoot(sha1, root);
+        assertEquals(root, store.getRoot(sha1));
+        assertNull(store.getTree(sha1));
+        long size = store.getSize();
+        store.putRoot(sha1, root);
+        assertEquals(size, store.getSize());
+
+        HashTree tree = createTree(sha1, 600 * 1024);
+        store.putTree(sha1, tree, HashTreeUtils.createAllParentNodes(tree.getNodes(), new Tiger()));
+        assertEquals(tree.getTreeRootUrn(), store.getRoot(sha1));
+
+        URN other = createSHA1();
+        store.putRoot(other, createRoot());
+        store.remove(sha1);
+        assertNull(store.getRoot(sha1));
+        assertNull(store.getTree(sha1));
+        assertEquals(0, store.getTreeCount());
+
+        store.close();
+        store = new HashTreeStore(file);
+        assertNull(store.getRoot(sha1));
+        assertNotNull(store.getRoot(other));
+        assertEquals(1, store.getSha1s().size());
+    }
+
+    public void testCutsOffPartialRecord() throws Exception {
+        URN first = createSHA1();
+        HashTree firstTree = createTree(first, 2 * 1024 * 1024);
+        store.putTree(first, firstTree, HashTreeUtils.createAllParentNodes(firstTree.getNodes(), new Tiger()));
+        long size = store.getSize();
+        URN second = createSHA1();
+        HashTree secondTree = createTree(second, 2 * 1024 * 1024);
+        store.putTree(second, secondTree, HashTreeUtils.createAllParentNodes(secondTree.getNodes(), new Tiger()));
+        long end = store.getSize();
+        store.close();
+
+        // as if LimeWire stopped while writing the second tree
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(end - 30);
+        raf.close();
+
+        store = new HashTreeStore(file);
+        assertEquals(size, store.getSize());
+        assertNotNull(store.getTree(first));
+        assertNull(store.getRoot(second));
+
+        URN root = createRoot();
+        store.putRoot(second, root);
+        store.close();
+        store = new HashTreeStore(file);
+        assertEquals(root, store.getRoot(second));
+    }
+
+    public void testDropsCorruptTree() throws Exception {
+        URN first = createSHA1();
+        HashTree firstTree = createTree(first, 2 * 1024 * 1024);
+        store.putTree(first, firstTree, HashTreeUtils.createAllParentNodes(firstTree.getNodes(), new Tiger()));
+        long size = store.getSize();
+        URN second = createSHA1();
+        store.putRoot(second, createRoot());
+        store.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(size - 10);
+        int b = raf.read();
+        raf.seek(size - 10);
+        raf.write(b ^ 0xFF);
+        raf.close();
+
+        // trees are only checked when they are read
+        store = new HashTreeStore(file);
+        assertEquals(firstTree.getTreeRootUrn(), store.getRoot(first));
+        assertNull(store.getTree(first));
+        assertNull(store.getRoot(first));
+        assertNotNull(store.getRoot(second));
+    }
+
+    public void testCompact() throws Exception {
+        URN sha1 = createSHA1();
+        HashTree tree = createTree(sha1, 3 * 1024 * 1024);
+        List<List<byte[]>> allNodes = HashTreeUtils.createAllParentNodes(tree.getNodes(), new Tiger());
+        store.putTree(sha1, tree, allNodes);
+        URN removed = createSHA1();
+        for(int i = 0; i < 2000; i++)
+            store.putRoot(removed, createRoot());
+        store.remove(removed);
+        URN kept = createSHA1();
+        URN root = createRoot();
+        store.putRoot(kept, root);
+
+        HashTree before = store.getTree(sha1);
+        long size = store.getSize();
+        assertTrue(store.compactIfNeeded());
+        assertFalse(store.compactIfNeeded());
+        assertLessThan(size / 10, store.getSize());
+        // the old file isn't replaced while it is mapped
+        assertNotEquals(file, store.getFile());
+
+        // trees read before keep working
+        assertTree(tree, allNodes, before);
+        assertTree(tree, allNodes, store.getTree(sha1));
+        assertEquals(root, store.getRoot(kept));
+        assertNull(store.getRoot(removed));
+
+        store.putRoot(removed, root);
+        store.close();
+        store = new HashTreeStore(file);
+        assertTree(tree, allNodes, store.getTree(sha1));
+        assertEquals(root, store.getRoot(kept));
+        assertEquals(root, store.getRoot(removed));
+        assertEquals(3, store.getSha1s().size());
+
+        // and again, to the generation after
+        File compacted = store.getFile();
+        for(int i = 0; i < 2000; i++)
+            store.putRoot(removed, createRoot());
+        assertTrue(store.compactIfNeeded());
+        assertNotEquals(compacted, store.getFile());
+        assertTree(tree, allNodes, store.getTree(sha1));
+        assertEquals(3, store.getSha1s().size());
+    }
+
+    public void testAppendsWithoutGrowingEachTime() throws Exception {
+        store.putRoot(createSHA1(), createRoot());
+        long length = store.getFile().length();
+        for(int i = 0; i < 100; i++)
+            store.putRoot(createSHA1(), createRoot());
+        assertEquals(length, store.getFile().length());
+        assertGreaterThan(0, length - store.getSize());
+    }
+
+    public void testIgnoresPartialCompaction() throws Exception {
+        URN sha1 = createSHA1();
+        URN root = createRoot();
+        store.putRoot(sha1, root);
+        store.close();
+
+        // as if LimeWire stopped while compacting
+        RandomAccessFile raf = new RandomAccessFile(file.getPath() + ".1", "rw");
+        raf.write(new byte[100]);
+        raf.close();
+
+        store = new HashTreeStore(file);
+        assertEquals(file, store.getFile());
+        assertEquals(root, store.getRoot(sha1));
+        assertFalse(new File(file.getPath() + ".1").exists());
+    }
+
+    private void assertTree(HashTree expected, List<List<byte[]>> allNodes, HashTree actual) throws Exception {
+        assertNotNull(actual);
+        assertEquals(expected.getRootHash(), actual.getRootHash());
+        assertEquals(expected.getFileSize(), actual.getFileSize());
+        assertEquals(expected.getDepth(), actual.getDepth());
+        assertEquals(expected.getNodeSize(), actual.getNodeSize());
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getThexURI(), actual.getThexURI());
+        assertEquals(expected.getNodes().size(), actual.getNodes().size());
+        for(int i = 0; i < expected.getNodes().size(); i++)
+            assertEquals(expected.getNodes().get(i), actual.getNodes().get(i));
+
+        HashTreeNodeManager nodeManager = new HashTreeNodeManagerImpl();
+        List<List<byte[]>> actualNodes = nodeManager.getAllNodes(actual);
+        assertEquals(allNodes.size(), actualNodes.size());
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        for(int i = 0; i < allNodes.size(); i++) {
+            assertEquals(allNodes.get(i).size(), actualNodes.get(i).size());
+            for(int j = 0; j < allNodes.get(i).size(); j++) {
+                assertEquals(allNodes.get(i).get(j), actualNodes.get(i).get(j));
+                expectedBytes.write(allNodes.get(i).get(j));
+            }
+        }
+        ByteArrayOutputStream actualBytes = new ByteArrayOutputStream();
+        nodeManager.writeAllNodes(actual, actualBytes);
+        assertEquals(expectedBytes.toByteArray(), actualBytes.toByteArray());
+    }
+
+    private HashTree createTree(URN sha1, int size) throws Exception {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        int nodeSize = HashTreeUtils.calculateNodeSize(size, HashTreeUtils.calculateDepth(size));
+        List<byte[]> nodes = HashTreeUtils.createTreeNodes(nodeSize, size, new ByteArrayInputStream(data), new Tiger());
+        return new HashTreeImpl(HashTreeUtils.createAllParentNodes(nodes, new Tiger()), sha1.toString(), size, nodeSize);
+    }
+
+    private URN createSHA1() throws Exception {
+        byte[] bytes = new byte[20];
+        random.nextBytes(bytes);
+        return URN.createSHA1UrnFromBytes(bytes);
+    }
+
+    private URN createRoot() throws Exception {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        return URN.createTTRootFromBytes(bytes);
+    }
+}
@@ -1,5 +1,7 @@
 package com.limegroup.gnutella.tigertree;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import com.limegroup.gnutella.security.Tiger;
@@ -14,4 +16,11 @@ public class SimpleHashTreeNodeManager implements HashTreeNodeManager {
         
     }
 
+    public void writeAllNodes(HashTree tree, OutputStream out) throws IOException {
+        for(List<byte[]> row : getAllNodes(tree)) {
+            for(byte[] node : row)
+                out.write(node);
+        }
+    }
+
 }
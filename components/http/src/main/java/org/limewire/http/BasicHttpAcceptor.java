@@ -40,6 +40,7 @@ import org.limewire.http.protocol.SynchronizedHttpProcessor;
 import org.limewire.http.protocol.SynchronizedNHttpRequestHandlerRegistry;
 import org.limewire.http.reactor.DefaultDispatchedIOReactor;
 import org.limewire.http.reactor.DispatchedIOReactor;
+import org.limewire.http.reactor.HttpIOSession;
 import org.limewire.lifecycle.Service;
 import org.limewire.net.ConnectionAcceptor;
 import org.limewire.net.ConnectionDispatcher;
@@ -136,7 +137,7 @@ public class BasicHttpAcceptor implements ConnectionAcceptor, Service {
         serviceHandler.setEventListener(connectionListener);
         serviceHandler.setHandlerResolver(this.registry);
 
-        this.reactor = new DefaultDispatchedIOReactor(params, NIODispatcher.instance().getScheduledExecutorService());
+        this.reactor = new DefaultDispatchedIOReactor(params);
         IOEventDispatch ioEventDispatch = new DefaultServerIOEventDispatch(
                 serviceHandler, params);
         try {
@@ -306,8 +307,17 @@ public class BasicHttpAcceptor implements ConnectionAcceptor, Service {
      */
     private class ConnectionEventListener implements HttpServiceEventListener {
 
+        /** Returns true if called on the thread that handles <code>conn</code>. */
+        private boolean isDispatchThread(NHttpConnection conn) {
+            HttpIOSession session = (HttpIOSession) conn.getContext().getAttribute(
+                    DefaultDispatchedIOReactor.IO_SESSION_KEY);
+            if (session == null)
+                return NIODispatcher.instance().isDispatchThread();
+            return NIODispatcher.instance().isDispatchThread(session.getSocket().getChannel());
+        }
+
         public void connectionOpen(NHttpConnection conn) {
-            assert NIODispatcher.instance().isDispatchThread();
+            assert isDispatchThread(conn);
             
             for (HttpAcceptorListener listener : acceptorListeners) {
                 listener.connectionOpen(conn);
@@ -315,7 +325,7 @@ public class BasicHttpAcceptor implements ConnectionAcceptor, Service {
         }
 
         public void connectionClosed(NHttpConnection conn) {
-            assert NIODispatcher.instance().isDispatchThread();
+            assert isDispatchThread(conn);
             
             for (HttpAcceptorListener listener : acceptorListeners) {
                 listener.connectionClosed(conn);
@@ -329,7 +339,7 @@ public class BasicHttpAcceptor implements ConnectionAcceptor, Service {
         }
 
         public void fatalIOException(IOException e, NHttpConnection conn) {
-            assert NIODispatcher.instance().isDispatchThread();
+            assert isDispatchThread(conn);
             
             LOG.debug("HTTP connection error", e);
             for (HttpAcceptorListener listener : acceptorListeners) {
@@ -338,7 +348,7 @@ public class BasicHttpAcceptor implements ConnectionAcceptor, Service {
         }
 
         public void fatalProtocolException(HttpException e, NHttpConnection conn) {
-            assert NIODispatcher.instance().isDispatchThread();
+            assert isDispatchThread(conn);
             
             LOG.debug("HTTP protocol error", e);
             for (HttpAcceptorListener listener : acceptorListeners) {
@@ -347,7 +357,7 @@ public class BasicHttpAcceptor implements ConnectionAcceptor, Service {
         }
 
         public void responseSent(NHttpConnection conn, HttpResponse response) {
-            assert NIODispatcher.instance().isDispatchThread();
+            assert isDispatchThread(conn);
             
             for (HttpAcceptorListener listener : acceptorListeners) {
                 listener.responseSent(conn, response);
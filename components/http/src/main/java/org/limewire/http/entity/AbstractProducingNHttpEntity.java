@@ -3,11 +3,13 @@ package org.limewire.http.entity;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.entity.ProducingNHttpEntity;
+import org.limewire.http.reactor.HttpIOSession;
 import org.limewire.nio.NIODispatcher;
 import org.limewire.nio.observer.Shutdownable;
 import org.limewire.nio.timeout.StalledUploadWatchdog;
@@ -26,6 +28,9 @@ public abstract class AbstractProducingNHttpEntity extends AbstractHttpEntity im
     
     private boolean initialized = false;
     
+    /** Runs the watchdog on the thread that handles the connection. */
+    private ScheduledExecutorService scheduler;
+    
     /** shutdownable to shut off in case of a timeout */
     private final Shutdownable timeoutable = new Shutdownable() {
         public void shutdown() {
@@ -35,8 +40,8 @@ public abstract class AbstractProducingNHttpEntity extends AbstractHttpEntity im
 
     protected void activateTimeout() {
         if (this.watchdog == null) {
-            this.watchdog = new StalledUploadWatchdog(timeout, NIODispatcher.instance()
-                    .getScheduledExecutorService());
+            this.watchdog = new StalledUploadWatchdog(timeout, scheduler != null ? scheduler
+                    : NIODispatcher.instance().getScheduledExecutorService());
         }
         this.watchdog.activate(timeoutable);
     }
@@ -80,6 +85,7 @@ public abstract class AbstractProducingNHttpEntity extends AbstractHttpEntity im
     public final void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
         if (!initialized) {
             initialized = true;
+            scheduler = HttpIOSession.getScheduledExecutorService(ioctrl);
             initialize(encoder, ioctrl);
         }
         
@@ -16,6 +16,7 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.entity.ProducingNHttpEntity;
+import org.limewire.http.reactor.HttpIOSession;
 import org.limewire.nio.NIODispatcher;
 import org.limewire.nio.observer.Shutdownable;
 import org.limewire.nio.timeout.StalledUploadWatchdog;
@@ -240,7 +241,7 @@ public class FileNIOEntity extends FileEntity implements ProducingNHttpEntity {
 
     protected void activateTimeout() {
         if (this.watchdog == null) {
-            this.watchdog = new StalledUploadWatchdog(timeout, NIODispatcher.instance().getScheduledExecutorService());
+            this.watchdog = new StalledUploadWatchdog(timeout, HttpIOSession.getScheduledExecutorService(ioctrl));
         }
         this.watchdog.activate(timeoutable);
     }
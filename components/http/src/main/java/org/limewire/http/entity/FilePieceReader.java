@@ -81,6 +81,12 @@ public class FilePieceReader implements PieceReader {
 
     private final ByteBufferCache bufferCache;
 
+    /**
+     * If true, pieces are read into pooled direct buffers instead of heap
+     * buffers.
+     */
+    private final boolean direct;
+
     /**
      * Number of buffers currently in use by jobs.
      * <p>
@@ -122,6 +128,16 @@ public class FilePieceReader implements PieceReader {
 
     public FilePieceReader(ByteBufferCache bufferCache, File file, long offset,
             long length, PieceListener listener) {
+        this(bufferCache, file, offset, length, listener, false);
+    }
+
+    /**
+     * @param direct if true, pieces are read into direct buffers from
+     *        <code>bufferCache</code> which saves the copy into a temporary
+     *        direct buffer when they are written to a channel
+     */
+    public FilePieceReader(ByteBufferCache bufferCache, File file, long offset,
+            long length, PieceListener listener, boolean direct) {
         if (bufferCache == null || file == null || listener == null) {
             throw new IllegalArgumentException();
         }
@@ -138,6 +154,7 @@ public class FilePieceReader implements PieceReader {
         this.processingOffset = offset;
         this.remaining = length;
         this.listener = listener;
+        this.direct = direct;
     }
 
     /**
@@ -311,7 +328,7 @@ public class FilePieceReader implements PieceReader {
         }
         
         for (int i = 0; i < MAX_BUFFERS && (i == 0 || i * BUFFER_SIZE  + 1 <= remaining); i++) {
-            bufferPool.add(bufferCache.getHeap(BUFFER_SIZE));
+            bufferPool.add(direct ? bufferCache.getDirect() : bufferCache.getHeap(BUFFER_SIZE));
         }
 
         spawnJobs();
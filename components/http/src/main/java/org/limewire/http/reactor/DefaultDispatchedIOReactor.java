@@ -39,6 +39,19 @@ public class DefaultDispatchedIOReactor implements DispatchedIOReactor {
     // copied from DefaultServerIOEventDispatch
     private static final String NHTTP_CONN = "NHTTP_CONN";
     
+    /**
+     * Constructs a reactor that runs the events of each connection on the
+     * thread that handles its socket.
+     */
+    public DefaultDispatchedIOReactor(final HttpParams params) {
+        this(params, null);
+    }
+    
+    /**
+     * Constructs a reactor that runs the events of all connections on
+     * <code>ioExecutor</code>, or on the thread that handles the socket of
+     * each connection if <code>ioExecutor</code> is null.
+     */
     public DefaultDispatchedIOReactor(final HttpParams params, final Executor ioExecutor) {
         if (params == null) {
             throw new IllegalArgumentException();
@@ -70,7 +83,8 @@ public class DefaultDispatchedIOReactor implements DispatchedIOReactor {
      * Connects <code>socket</code> to LimeWire's NIO layer. 
      */
     protected NHttpConnection connectSocket(AbstractNBSocket socket, Object attachment, String word) {
-        final HttpIOSession session = new HttpIOSession(socket, ioExecutor);        
+        final HttpIOSession session = ioExecutor != null ? new HttpIOSession(socket, ioExecutor)
+                : new HttpIOSession(socket);
         
         session.setAttribute(IOSession.ATTACHMENT_KEY, attachment);
         session.setSocketTimeout(HttpConnectionParams.getSoTimeout(this.params));
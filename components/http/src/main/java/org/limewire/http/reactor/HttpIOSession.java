@@ -8,10 +8,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpConnection;
 import org.apache.http.nio.reactor.EventMask;
 import org.apache.http.nio.reactor.IOSession;
 import org.apache.http.nio.reactor.SessionBufferStatus;
@@ -58,6 +61,32 @@ public class HttpIOSession implements IOSession {
         this.ioExecutor = ioExecutor;
     }
 
+    /**
+     * Constructs a session that runs its events on the thread that handles
+     * <code>socket</code>.
+     */
+    public HttpIOSession(AbstractNBSocket socket) {
+        this(socket, socket != null ? NIODispatcher.instance().getScheduledExecutorService(
+                socket.getChannel()) : null);
+    }
+
+    /**
+     * Returns the scheduler that runs tasks on the thread that handles the
+     * socket of <code>ioctrl</code>, or the primary NIO scheduler if
+     * <code>ioctrl</code> is not a connection with a session.
+     */
+    public static ScheduledExecutorService getScheduledExecutorService(IOControl ioctrl) {
+        if (ioctrl instanceof NHttpConnection) {
+            Object session = ((NHttpConnection) ioctrl).getContext().getAttribute(
+                    DefaultDispatchedIOReactor.IO_SESSION_KEY);
+            if (session instanceof HttpIOSession) {
+                return NIODispatcher.instance().getScheduledExecutorService(
+                        ((HttpIOSession) session).getSocket().getChannel());
+            }
+        }
+        return NIODispatcher.instance().getScheduledExecutorService();
+    }
+
     public void setHttpChannel(HttpChannel channel) {
         this.channel = channel;
     }
@@ -206,7 +235,7 @@ public class HttpIOSession implements IOSession {
      * <code>throttle</code> is null, throtteling is disabled.
      */
     public void setThrottle(final Throttle throttle) {
-        assert NIODispatcher.instance().isDispatchThread() :
+        assert NIODispatcher.instance().isDispatchThread(socket.getChannel()) :
             "wrong thread: "+Thread.currentThread().getName();
     
         this.throttleWriter.setThrottle(throttle);
@@ -41,6 +41,11 @@ public class LimeConnectingIOReactor implements ConnectingIOReactor {
     // copied from DefaultClientIOEventDispatch
     private static final String NHTTP_CONN = "NHTTP_CONN";
     
+    /**
+     * Constructs a reactor that runs the events of all connections on
+     * <code>ioExecutor</code>, or on the thread that handles the socket of
+     * each connection if <code>ioExecutor</code> is null.
+     */
     public LimeConnectingIOReactor(final HttpParams params, final Executor ioExecutor,
             SocketsManager socketsManager, HttpBandwidthTracker up, HttpBandwidthTracker down) {
         if (params == null) {
@@ -59,6 +64,14 @@ public class LimeConnectingIOReactor implements ConnectingIOReactor {
         this(params, ioExecutor,socketsManager, new HttpBandwidthTracker(), new HttpBandwidthTracker());
     }
     
+    /**
+     * Constructs a reactor that runs the events of each connection on the
+     * thread that handles its socket.
+     */
+    public LimeConnectingIOReactor(final HttpParams params, SocketsManager socketsManager) {
+        this(params, null, socketsManager);
+    }
+    
     public void execute(IOEventDispatch eventDispatch) throws IOException {
         if (!(eventDispatch instanceof DefaultClientIOEventDispatch)) {
             throw new IllegalArgumentException("Event dispatch must be of type DefaultClientIOEventDispatch");
@@ -124,7 +137,8 @@ public class LimeConnectingIOReactor implements ConnectingIOReactor {
             socket.setSoLinger(linger > 0, linger);
         }
         
-        final HttpIOSession session = new HttpIOSession(socket, ioExecutor); 
+        final HttpIOSession session = ioExecutor != null ? new HttpIOSession(socket, ioExecutor)
+                : new HttpIOSession(socket);
         
         session.setAttribute(IOSession.ATTACHMENT_KEY, attachment);
         session.setSocketTimeout(HttpConnectionParams.getSoTimeout(this.params));
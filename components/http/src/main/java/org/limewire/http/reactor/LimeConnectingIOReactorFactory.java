@@ -2,7 +2,6 @@ package org.limewire.http.reactor;
 
 import org.apache.http.params.HttpParams;
 import org.limewire.net.SocketsManager;
-import org.limewire.nio.NIODispatcher;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -18,7 +17,7 @@ public class LimeConnectingIOReactorFactory {
     }
     
     public LimeConnectingIOReactor createIOReactor(HttpParams parameters) {
-        return new LimeConnectingIOReactor(parameters, NIODispatcher.instance().getScheduledExecutorService(), socketsManager);
+        return new LimeConnectingIOReactor(parameters, socketsManager);
     }
     
 }
@@ -47,7 +47,6 @@ import org.limewire.net.LimeWireNetModule;
 import org.limewire.net.ProxySettings;
 import org.limewire.net.SocketBindingSettings;
 import org.limewire.net.SocketsManager;
-import org.limewire.nio.NIODispatcher;
 import org.limewire.util.BaseTestCase;
 
 import com.google.inject.AbstractModule;
@@ -92,7 +91,7 @@ public class LimeConnectingIOReactorTest extends BaseTestCase {
             .setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 8 * 1024)
             .setParameter(CoreProtocolPNames.USER_AGENT, "HttpComponents/1.1");
         
-        final ConnectingIOReactor ioReactor = new LimeConnectingIOReactor(params, NIODispatcher.instance().getScheduledExecutorService(), socketsManager);
+        final ConnectingIOReactor ioReactor = new LimeConnectingIOReactor(params, socketsManager);
 
         BasicHttpProcessor httpproc = new BasicHttpProcessor();
         httpproc.addInterceptor(new RequestContent());
@@ -164,7 +163,7 @@ public class LimeConnectingIOReactorTest extends BaseTestCase {
             .setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 8 * 1024)
             .setParameter(CoreProtocolPNames.USER_AGENT, "HttpComponents/1.1");
         
-        final ConnectingIOReactor ioReactor = new LimeConnectingIOReactor(params, NIODispatcher.instance().getScheduledExecutorService(), socketsManager);
+        final ConnectingIOReactor ioReactor = new LimeConnectingIOReactor(params, socketsManager);
         final CountDownLatch requestCount = new CountDownLatch(3);
         
         AsyncNHttpClientHandler handler = new AsyncNHttpClientHandler(
@@ -76,6 +76,25 @@ public class FilePieceReaderTest extends BaseTestCase {
         }
     }
 
+    public void testReadDirect() throws Exception {
+        createFile(50000);
+
+        reader = new FilePieceReader(new ByteBufferCache(), file, 0, (int) file
+                .length(), listener, true);
+        reader.start();
+
+        long offset = 0;
+        while (read < file.length()) {
+            Piece piece = getNext();
+            assertTrue(piece.getBuffer().isDirect());
+            assertEquals(offset, piece.getOffset());
+            assertEqualsToData(data, piece);
+            offset += piece.getLength();
+            reader.release(piece);
+        }
+        assertEquals(file.length(), offset);
+    }
+
     public void testRelease() throws Exception {
         int filesize = FilePieceReader.BUFFER_SIZE * 3;
         createFile(filesize);
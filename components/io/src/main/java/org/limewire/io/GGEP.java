@@ -27,7 +27,7 @@ import org.limewire.util.StringUtils;
  * null bytes.  The order of the extensions is immaterial.  Extensions supported
  * by LimeWire have keys specified in this class (prefixed by GGEP_HEADER...)  
  */
-public class GGEP {
+public class GGEP implements ReadableGGEP {
 
     /** The maximum size of a extension header (key). */
     public static final int MAX_KEY_SIZE_IN_BYTES = 15;
@@ -0,0 +1,179 @@
+package org.limewire.io;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.limewire.util.StringUtils;
+
+/**
+ * Writes a GGEP block straight into a <code>ByteBuffer</code>, without
+ * building a {@link GGEP} first.  Extensions are written in the order they
+ * are put, and the block is ended by {@link #finish()}.  An encoder can be
+ * reused for any number of blocks, one at a time.
+ * <pre>
+ *     encoder.start(buffer);
+ *     encoder.put(GGEPKeys.GGEP_HEADER_TLS_CAPABLE);
+ *     encoder.put(GGEPKeys.GGEP_HEADER_DAILY_AVERAGE_UPTIME, uptime);
+ *     encoder.finish();
+ * </pre>
+ * Values are COBS-encoded if the encoder was created for COBS and they
+ * contain nulls.  Compressed values aren't supported.
+ */
+public class GGEPEncoder {
+
+    private final boolean useCOBS;
+
+    private ByteBuffer buffer;
+
+    /** Where the block starts in the buffer. */
+    private int start;
+
+    /** Where the flags of the last extension are, or -1 if there are none. */
+    private int lastFlags = -1;
+
+    /**
+     * @param useCOBS true if values with null bytes should be COBS-encoded
+     */
+    public GGEPEncoder(boolean useCOBS) {
+        this.useCOBS = useCOBS;
+    }
+
+    /** Creates an encoder that does not COBS-encode values. */
+    public GGEPEncoder() {
+        this(false);
+    }
+
+    /**
+     * Starts a block at the position of <code>buffer</code>.  Nothing is
+     * written unless an extension is put.
+     */
+    public void start(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.lastFlags = -1;
+    }
+
+    /** Puts a key without a value. */
+    public void put(String key) {
+        writeHeader(key, 0, false);
+    }
+
+    /**
+     * Puts a key with a value.
+     * @exception IllegalArgumentException if the key or value is invalid
+     */
+    public void put(String key, byte[] value) {
+        put(key, value, 0, value.length);
+    }
+
+    /**
+     * Puts a key with part of an array as its value.
+     * @exception IllegalArgumentException if the key or value is invalid
+     */
+    public void put(String key, byte[] value, int offset, int length) {
+        if (length > GGEP.MAX_VALUE_SIZE_IN_BYTES)
+            throw new IllegalArgumentException("value too large for key: " + key);
+        if (useCOBS && containsNull(value, offset, length)) {
+            byte[] part = new byte[length];
+            System.arraycopy(value, offset, part, 0, length);
+            byte[] encoded = GGEP.cobsEncode(part);
+            writeHeader(key, encoded.length, true);
+            buffer.put(encoded);
+        } else {
+            writeHeader(key, length, false);
+            buffer.put(value, offset, length);
+        }
+    }
+
+    /**
+     * Puts a key with an unsigned integer value, in as few bytes as it
+     * needs.
+     * @exception IllegalArgumentException if the value is negative
+     */
+    public void put(String key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value: " + value + " for key: " + key);
+        put(key, (long)value);
+    }
+
+    /**
+     * Puts a key with an unsigned long value, in as few bytes as it needs.
+     * @exception IllegalArgumentException if the value is negative
+     */
+    public void put(String key, long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value: " + value + " for key: " + key);
+        int length = 1;
+        while (length < 8 && (value >>> (length * 8)) != 0)
+            length++;
+        boolean hasNull = false;
+        for (int i = 0; i < length; i++)
+            hasNull |= ((value >>> (i * 8)) & 0xFF) == 0;
+        if (useCOBS && hasNull) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+                bytes[i] = (byte)(value >>> (i * 8));
+            put(key, bytes);
+        } else {
+            writeHeader(key, length, false);
+            for (int i = 0; i < length; i++)
+                buffer.put((byte)(value >>> (i * 8)));
+        }
+    }
+
+    /** Puts a key with a UTF-8 string value. */
+    public void put(String key, String value) {
+        put(key, StringUtils.toUTF8Bytes(value));
+    }
+
+    /**
+     * Ends the block, marking its last extension.
+     * @return the number of bytes of the block, 0 if nothing was put
+     */
+    public int finish() {
+        if (lastFlags != -1)
+            buffer.put(lastFlags, (byte)(buffer.get(lastFlags) | 0x80));
+        int length = buffer.position() - start;
+        buffer = null;
+        lastFlags = -1;
+        return length;
+    }
+
+    private void writeHeader(String key, int dataLength, boolean encoded) {
+        if (buffer == null)
+            throw new IllegalStateException("not started");
+        int keyLength = key.length();
+        if (keyLength == 0 || keyLength > GGEP.MAX_KEY_SIZE_IN_BYTES)
+            throw new IllegalArgumentException("invalid key: " + key);
+        for (int i = 0; i < keyLength; i++) {
+            char c = key.charAt(i);
+            if (c == 0 || c > 0x7F)
+                throw new IllegalArgumentException("invalid key: " + key);
+        }
+        int lengthBytes = dataLength > 0xFFF ? 3 : dataLength > 0x3F ? 2 : 1;
+        int needed = 1 + keyLength + lengthBytes + dataLength + (lastFlags == -1 ? 1 : 0);
+        if (buffer.remaining() < needed)
+            throw new BufferOverflowException();
+
+        if (lastFlags == -1)
+            buffer.put(GGEP.GGEP_PREFIX_MAGIC_NUMBER);
+        lastFlags = buffer.position();
+        buffer.put((byte)((encoded ? 0x40 : 0) | keyLength));
+        for (int i = 0; i < keyLength; i++)
+            buffer.put((byte)key.charAt(i));
+        // the length in 6 bit groups, the last marked with 0x40
+        if (dataLength > 0xFFF)
+            buffer.put((byte)(0x80 | ((dataLength >> 12) & 0x3F)));
+        if (dataLength > 0x3F)
+            buffer.put((byte)(0x80 | ((dataLength >> 6) & 0x3F)));
+        buffer.put((byte)(0x40 | (dataLength & 0x3F)));
+    }
+
+    private static boolean containsNull(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] == 0)
+                return true;
+        }
+        return false;
+    }
+}
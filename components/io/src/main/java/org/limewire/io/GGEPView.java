@@ -0,0 +1,308 @@
+package org.limewire.io;
+
+import java.io.IOException;
+
+import org.limewire.util.ByteUtils;
+import org.limewire.util.StringUtils;
+
+/**
+ * A read-only view of GGEP blocks in a message.  Unlike {@link GGEP}, which
+ * copies every key and value into a map, a view only records where the
+ * keys and values are in the message bytes, and looks keys up by comparing
+ * them to those bytes.  Values are only copied when they are asked for as
+ * arrays or strings; {@link #getInt(String)} and {@link #getLong(String)}
+ * read them in place.
+ * <p>
+ * Values that are COBS-encoded or compressed are decoded when the block is
+ * parsed, so a view rejects the same blocks as <code>GGEP</code>.
+ * <p>
+ * The view reads the message bytes whenever it is used, so they must not be
+ * changed.
+ */
+public class GGEPView implements ReadableGGEP {
+
+    /** The ints recorded for each extension. */
+    private static final int FIELDS = 4;
+
+    private static final int KEY_OFFSET = 0;
+    private static final int KEY_LENGTH = 1;
+    private static final int VALUE_OFFSET = 2;
+    private static final int VALUE_LENGTH = 3;
+
+    private final byte[] data;
+
+    /** The offsets and lengths of the keys and values, FIELDS per extension. */
+    private int[] extensions = new int[FIELDS * 4];
+
+    /** The number of extensions. */
+    private int count;
+
+    /** Decoded values of encoded or compressed extensions, lazily created. */
+    private byte[][] decoded;
+
+    /** Where each block starts. */
+    private int[] blocks = new int[1];
+
+    /** The number of blocks. */
+    private int blockCount;
+
+    /** The offset after the last block. */
+    private int end;
+
+    /**
+     * Parses the GGEP block beginning at <code>data[offset]</code>.
+     * @exception BadGGEPBlockException if the block could not be parsed
+     */
+    public GGEPView(byte[] data, int offset) throws BadGGEPBlockException {
+        this.data = data;
+        addBlock(offset);
+    }
+
+    /**
+     * Parses another block of the same bytes, whose extensions replace the
+     * extensions with the same keys, as {@link GGEP#merge(GGEP)} would.
+     * If the block can't be parsed, the view is left as it was.
+     *
+     * @return the offset after the block
+     * @exception BadGGEPBlockException if the block could not be parsed
+     */
+    public int addBlock(int offset) throws BadGGEPBlockException {
+        int oldCount = count;
+        try {
+            end = parse(offset);
+        } catch(BadGGEPBlockException e) {
+            for(int i = oldCount; i < count && decoded != null; i++)
+                decoded[i] = null;
+            count = oldCount;
+            throw e;
+        }
+        if(blockCount == blocks.length)
+            blocks = grow(blocks);
+        blocks[blockCount++] = offset;
+        return end;
+    }
+
+    private int parse(int offset) throws BadGGEPBlockException {
+        if (data.length - offset < 4)
+            throw new BadGGEPBlockException();
+
+        // all GGEP blocks start with this prefix....
+        if (data[offset] != GGEP.GGEP_PREFIX_MAGIC_NUMBER)
+            throw new BadGGEPBlockException();
+
+        int i = offset + 1;
+        boolean last = false;
+        while (!last) {
+            if (i >= data.length)
+                throw new BadGGEPBlockException();
+            byte flags = data[i++];
+            // the 4th bit in the header's first byte must be 0.
+            if ((flags & 0x10) != 0)
+                throw new BadGGEPBlockException();
+            last = (flags & 0x80) != 0;
+            boolean encoded = (flags & 0x40) != 0;
+            boolean compressed = (flags & 0x20) != 0;
+            // bits 0-3 give the length of the extension header (1-15)
+            int keyLength = flags & 0x0F;
+            if (keyLength == 0 || keyLength > data.length - i)
+                throw new BadGGEPBlockException();
+            int keyOffset = i;
+            i += keyLength;
+
+            // the length is stored in at most 3 bytes....
+            int valueLength = 0;
+            int lengthBytes = 0;
+            byte b;
+            do {
+                if (i >= data.length || ++lengthBytes > 3)
+                    throw new BadGGEPBlockException();
+                b = data[i++];
+                valueLength = (valueLength << 6) | (b & 0x3f);
+            } while ((b & 0x40) == 0);
+
+            int valueOffset = i;
+            if (valueLength > data.length - i)
+                throw new BadGGEPBlockException();
+            i += valueLength;
+
+            add(keyOffset, keyLength, valueOffset, valueLength);
+            if (valueLength > 0 && (encoded || compressed))
+                decode(count - 1, encoded, compressed);
+        }
+        return i;
+    }
+
+    private void add(int keyOffset, int keyLength, int valueOffset, int valueLength) {
+        if ((count + 1) * FIELDS > extensions.length)
+            extensions = grow(extensions);
+        int base = count * FIELDS;
+        extensions[base + KEY_OFFSET] = keyOffset;
+        extensions[base + KEY_LENGTH] = keyLength;
+        extensions[base + VALUE_OFFSET] = valueOffset;
+        extensions[base + VALUE_LENGTH] = valueLength;
+        count++;
+    }
+
+    /** Decodes the value of an encoded or compressed extension. */
+    private void decode(int index, boolean encoded, boolean compressed) throws BadGGEPBlockException {
+        byte[] value = copy(index);
+        if (encoded) {
+            try {
+                value = GGEP.cobsDecode(value);
+            } catch (IOException badCobsEncoding) {
+                throw new BadGGEPBlockException("Bad COBS Encoding");
+            }
+        }
+        if (compressed) {
+            try {
+                value = IOUtils.inflate(value);
+            } catch (IOException badData) {
+                throw new BadGGEPBlockException("Bad compressed data");
+            }
+        }
+        if (decoded == null || decoded.length < extensions.length / FIELDS) {
+            byte[][] grown = new byte[extensions.length / FIELDS][];
+            if (decoded != null)
+                System.arraycopy(decoded, 0, grown, 0, decoded.length);
+            decoded = grown;
+        }
+        decoded[index] = value;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Returns the index of the last extension with the key, or -1.
+     */
+    private int indexOf(String key) {
+        int length = key.length();
+        for (int index = count - 1; index >= 0; index--) {
+            int base = index * FIELDS;
+            if (extensions[base + KEY_LENGTH] != length)
+                continue;
+            int keyOffset = extensions[base + KEY_OFFSET];
+            int i = 0;
+            // keys are ISO-8859-1, one byte per char
+            while (i < length && (data[keyOffset + i] & 0xFF) == key.charAt(i))
+                i++;
+            if (i == length)
+                return index;
+        }
+        return -1;
+    }
+
+    private byte[] getDecoded(int index) {
+        return decoded == null ? null : decoded[index];
+    }
+
+    private int getValueLength(int index) {
+        return extensions[index * FIELDS + VALUE_LENGTH];
+    }
+
+    private byte[] copy(int index) {
+        byte[] value = new byte[getValueLength(index)];
+        System.arraycopy(data, extensions[index * FIELDS + VALUE_OFFSET], value, 0, value.length);
+        return value;
+    }
+
+    /** Returns the index of the key, if it has a value. */
+    private int indexOfValue(String key) throws BadGGEPPropertyException {
+        int index = indexOf(key);
+        if (index == -1 || (getDecoded(index) == null && getValueLength(index) == 0))
+            throw new BadGGEPPropertyException();
+        return index;
+    }
+
+    public boolean hasKey(String key) {
+        return indexOf(key) != -1;
+    }
+
+    public boolean hasValueFor(String key) {
+        int index = indexOf(key);
+        return index != -1 && (getDecoded(index) != null || getValueLength(index) > 0);
+    }
+
+    /**
+     * Returns a copy of the value for a key, or null if the key has no
+     * value.
+     */
+    public byte[] get(String key) {
+        int index = indexOf(key);
+        if (index == -1)
+            return null;
+        byte[] value = getDecoded(index);
+        if (value != null)
+            return value.clone();
+        return getValueLength(index) == 0 ? null : copy(index);
+    }
+
+    public byte[] getBytes(String key) throws BadGGEPPropertyException {
+        byte[] value = get(key);
+        if (value == null)
+            throw new BadGGEPPropertyException();
+        return value;
+    }
+
+    public String getString(String key) throws BadGGEPPropertyException {
+        int index = indexOfValue(key);
+        byte[] value = getDecoded(index);
+        if (value != null)
+            return StringUtils.getUTF8String(value, 0, value.length);
+        return StringUtils.getUTF8String(data, extensions[index * FIELDS + VALUE_OFFSET], getValueLength(index));
+    }
+
+    public int getInt(String key) throws BadGGEPPropertyException {
+        int index = indexOfValue(key);
+        byte[] value = getDecoded(index);
+        byte[] bytes = value != null ? value : data;
+        int offset = value != null ? 0 : extensions[index * FIELDS + VALUE_OFFSET];
+        int length = value != null ? value.length : getValueLength(index);
+        if (length < 1)
+            throw new BadGGEPPropertyException("No bytes");
+        if (length > 4)
+            throw new BadGGEPPropertyException("Integer too big");
+        return ByteUtils.leb2int(bytes, offset, length);
+    }
+
+    public long getLong(String key) throws BadGGEPPropertyException {
+        int index = indexOfValue(key);
+        byte[] value = getDecoded(index);
+        byte[] bytes = value != null ? value : data;
+        int offset = value != null ? 0 : extensions[index * FIELDS + VALUE_OFFSET];
+        int length = value != null ? value.length : getValueLength(index);
+        if (length < 1)
+            throw new BadGGEPPropertyException("No bytes");
+        if (length > 8)
+            throw new BadGGEPPropertyException("Integer too big");
+        return ByteUtils.leb2long(bytes, offset, length);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** Returns the offset after the last block that was parsed. */
+    public int getEndOffset() {
+        return end;
+    }
+
+    /**
+     * Parses the blocks of this view into a mutable <code>GGEP</code>, for
+     * callers that need to change or re-encode them.
+     */
+    public GGEP toGGEP() {
+        try {
+            GGEP ggep = new GGEP(data, blocks[0], null);
+            for (int i = 1; i < blockCount; i++)
+                ggep.merge(new GGEP(data, blocks[i], null));
+            return ggep;
+        } catch (BadGGEPBlockException e) {
+            // the blocks were parsed already
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.limewire.io;
+
+/**
+ * The read methods of a GGEP block, shared by the mutable {@link GGEP} and
+ * the {@link GGEPView} of a block in a message.
+ */
+public interface ReadableGGEP {
+
+    /**
+     * Returns whether this has the given key.
+     * @param key the name of the GGEP extension
+     */
+    boolean hasKey(String key);
+
+    /** Returns true if the GGEP has a non-null value for the key. */
+    boolean hasValueFor(String key);
+
+    /**
+     * Returns the value for a key, or null if the key has no value.
+     */
+    byte[] get(String key);
+
+    /**
+     * Returns the value for a key, as raw bytes.
+     * @exception BadGGEPPropertyException extension not found or has no data
+     */
+    byte[] getBytes(String key) throws BadGGEPPropertyException;
+
+    /**
+     * Returns the value for a key, as a UTF-8 string.
+     * @exception BadGGEPPropertyException extension not found or has no data
+     */
+    String getString(String key) throws BadGGEPPropertyException;
+
+    /**
+     * Returns the value for a key, as a little-endian integer.
+     * @exception BadGGEPPropertyException extension not found, has no data
+     *  or more than 4 bytes
+     */
+    int getInt(String key) throws BadGGEPPropertyException;
+
+    /**
+     * Returns the value for a key, as a little-endian long.
+     * @exception BadGGEPPropertyException extension not found, has no data
+     *  or more than 8 bytes
+     */
+    long getLong(String key) throws BadGGEPPropertyException;
+
+    /** Returns whether there are no extensions. */
+    boolean isEmpty();
+}
@@ -0,0 +1,221 @@
+package org.limewire.io;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class GGEPViewTest extends BaseTestCase {
+
+    public GGEPViewTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(GGEPViewTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public void testReadsLikeGGEP() throws Exception {
+        GGEP ggep = new GGEP(true);
+        ggep.put("A");
+        ggep.put("INT", 1234567);
+        ggep.put("LONG", 0x123456789AL);
+        ggep.put("STR", "h\u00e9llo");
+        ggep.put("NULLS", new byte[] { 1, 0, 0, 2 });
+        ggep.putCompressed("Z", new byte[2000]);
+        byte[] big = new byte[5000];
+        new Random(3).nextBytes(big);
+        ggep.put("BIG", big);
+
+        byte[] bytes = withPrefix(ggep.toByteArray(), 7);
+        GGEPView view = new GGEPView(bytes, 7);
+        assertEquals(bytes.length, view.getEndOffset());
+        assertFalse(view.isEmpty());
+
+        for (String key : ggep.getHeaders()) {
+            assertTrue(key, view.hasKey(key));
+            assertEquals(key, ggep.hasValueFor(key), view.hasValueFor(key));
+            if (ggep.hasValueFor(key))
+                assertEquals(key, ggep.get(key), view.get(key));
+            else
+                assertNull(view.get(key));
+        }
+        assertEquals(1234567, view.getInt("INT"));
+        assertEquals(0x123456789AL, view.getLong("LONG"));
+        assertEquals("h\u00e9llo", view.getString("STR"));
+        assertEquals(ggep, view.toGGEP());
+
+        assertFalse(view.hasKey("B"));
+        assertFalse(view.hasKey("IN"));
+        assertFalse(view.hasKey("INTS"));
+        assertNull(view.get("B"));
+        try {
+            view.getBytes("A");
+            fail("got value of key without one");
+        } catch (BadGGEPPropertyException expected) {}
+        try {
+            view.getInt("LONG");
+            fail("got int of long");
+        } catch (BadGGEPPropertyException expected) {}
+        try {
+            view.getLong("B");
+            fail("got long of missing key");
+        } catch (BadGGEPPropertyException expected) {}
+    }
+
+    public void testAddBlockReplacesKeys() throws Exception {
+        GGEP first = new GGEP();
+        first.put("A", 1);
+        first.put("B", 2);
+        GGEP second = new GGEP();
+        second.put("B", 3);
+        second.put("C");
+        byte[] one = first.toByteArray();
+        byte[] two = second.toByteArray();
+        byte[] bytes = new byte[one.length + two.length];
+        System.arraycopy(one, 0, bytes, 0, one.length);
+        System.arraycopy(two, 0, bytes, one.length, two.length);
+
+        GGEPView view = new GGEPView(bytes, 0);
+        assertEquals(one.length, view.getEndOffset());
+        assertEquals(bytes.length, view.addBlock(one.length));
+        assertEquals(1, view.getInt("A"));
+        assertEquals(3, view.getInt("B"));
+        assertTrue(view.hasKey("C"));
+
+        first.merge(second);
+        assertEquals(first, view.toGGEP());
+    }
+
+    public void testRejectsBadBlocks() throws Exception {
+        GGEP ggep = new GGEP();
+        ggep.put("KEY", new byte[100]);
+        byte[] good = ggep.toByteArray();
+        new GGEPView(good, 0);
+
+        // truncated anywhere
+        for (int length = 0; length < good.length; length++) {
+            byte[] bad = new byte[length];
+            System.arraycopy(good, 0, bad, 0, length);
+            assertBad(bad, 0);
+        }
+
+        byte[] bad = good.clone();
+        bad[0] = 0;
+        assertBad(bad, 0);
+
+        bad = good.clone();
+        bad[1] |= 0x10;
+        assertBad(bad, 0);
+
+        // a block that doesn't parse leaves the view as it was
+        byte[] both = new byte[good.length * 2 - 1];
+        System.arraycopy(good, 0, both, 0, good.length);
+        System.arraycopy(good, 0, both, good.length, good.length - 1);
+        GGEPView view = new GGEPView(both, 0);
+        try {
+            view.addBlock(good.length);
+            fail("added truncated block");
+        } catch (BadGGEPBlockException expected) {}
+        assertEquals(good.length, view.getEndOffset());
+        assertEquals(ggep, view.toGGEP());
+    }
+
+    public void testBadCOBSIsRejected() throws Exception {
+        GGEP ggep = new GGEP(true);
+        ggep.put("N", new byte[] { 0, 0 });
+        byte[] bytes = ggep.toByteArray();
+        // make the COBS code point past the value
+        bytes[bytes.length - 3] = 10;
+        assertBad(bytes, 0);
+    }
+
+    public void testEncoderMatchesGGEP() throws Exception {
+        GGEPEncoder encoder = new GGEPEncoder(true);
+        ByteBuffer buffer = ByteBuffer.allocate(10000);
+        byte[] big = new byte[5000];
+        new Random(5).nextBytes(big);
+        for (int i = 0; i < 2; i++) {
+            buffer.clear();
+            buffer.put((byte)9);
+            encoder.start(buffer);
+            // in the order GGEP writes them
+            encoder.put("A");
+            encoder.put("BIG", big);
+            encoder.put("INT", 256);
+            encoder.put("LONG", 0x100000000L);
+            encoder.put("STR", "query");
+            encoder.put("Z", 0);
+            int length = encoder.finish();
+
+            GGEP expected = new GGEP(true);
+            expected.put("A");
+            expected.put("BIG", big);
+            expected.put("INT", 256);
+            expected.put("LONG", 0x100000000L);
+            expected.put("STR", "query");
+            expected.put("Z", 0);
+            byte[] expectedBytes = expected.toByteArray();
+            assertEquals(expectedBytes.length, length);
+            assertEquals(1 + length, buffer.position());
+            assertEquals(expectedBytes, buffer.array(), 1, length);
+        }
+
+        buffer.clear();
+        encoder.start(buffer);
+        assertEquals(0, encoder.finish());
+        assertEquals(0, buffer.position());
+    }
+
+    public void testEncoderChecksSpace() throws Exception {
+        GGEPEncoder encoder = new GGEPEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        encoder.start(buffer);
+        encoder.put("A", new byte[5]);
+        int position = buffer.position();
+        try {
+            encoder.put("B", new byte[5]);
+            fail("overflowed buffer");
+        } catch (BufferOverflowException expected) {}
+        assertEquals(position, buffer.position());
+        encoder.finish();
+        buffer.flip();
+        GGEPView view = new GGEPView(buffer.array(), 0);
+        assertEquals(position, view.getEndOffset());
+        assertEquals(new byte[5], view.getBytes("A"));
+
+        encoder.start(buffer);
+        try {
+            encoder.put("", new byte[1]);
+            fail("put empty key");
+        } catch (IllegalArgumentException expected) {}
+        try {
+            encoder.put("A", -1);
+            fail("put negative");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    private static void assertBad(byte[] bytes, int offset) {
+        try {
+            new GGEPView(bytes, offset);
+            fail("parsed bad block");
+        } catch (BadGGEPBlockException expected) {}
+        try {
+            new GGEP(bytes, offset);
+            fail("GGEP parsed bad block");
+        } catch (BadGGEPBlockException expected) {}
+    }
+
+    private static byte[] withPrefix(byte[] bytes, int prefix) {
+        byte[] prefixed = new byte[prefix + bytes.length];
+        System.arraycopy(bytes, 0, prefixed, prefix, bytes.length);
+        return prefixed;
+    }
+}
@@ -345,7 +345,7 @@ class ProxyManagerImpl implements ProxyManager {
             s.setSoTimeout(timeout);
             if(LOG.isDebugEnabled())
                 LOG.debug("Connected to proxy, beginning proxy handshake for addr: " + addr);
-            IOStateMachine machine = new IOStateMachine(this, getProxyStates(proxyType, addr));
+            IOStateMachine machine = new IOStateMachine(this, getProxyStates(proxyType, addr), s);
             ((NIOMultiplexor)socket).setReadObserver(machine);
             ((NIOMultiplexor)socket).setWriteObserver(machine);
         }
@@ -0,0 +1,47 @@
+package org.limewire.nio;
+
+import java.util.zip.Deflater;
+
+import org.limewire.nio.channel.DeflateLevel;
+
+/**
+ * A {@link DeflateLevel} that lowers the level while the NIO threads are
+ * busy, trading compression for the time needed to serve all connections.
+ * The level goes back up once the load drops.
+ */
+public class AdaptiveDeflateLevel implements DeflateLevel {
+
+    /** The load above which the level is lowered to {@link #REDUCED_LEVEL}. */
+    private static final float BUSY_LOAD = 0.7f;
+
+    /** The load above which the level is lowered to the fastest one. */
+    private static final float SATURATED_LOAD = 0.9f;
+
+    private static final int REDUCED_LEVEL = 3;
+
+    /** The level to compress at while the NIO threads are not busy. */
+    private final int level;
+
+    /**
+     * Constructs a level that is <code>level</code> unless the NIO threads
+     * are busy.
+     */
+    public AdaptiveDeflateLevel(int level) {
+        // the default level of zlib
+        this.level = level == Deflater.DEFAULT_COMPRESSION ? 6 : level;
+    }
+
+    public int getLevel() {
+        return getLevel(NIODispatcher.instance().getLoad());
+    }
+
+    /** Returns the level to compress at under the given load. */
+    int getLevel(float load) {
+        if (load >= SATURATED_LOAD)
+            return Math.min(level, Deflater.BEST_SPEED);
+        else if (load >= BUSY_LOAD)
+            return Math.min(level, REDUCED_LEVEL);
+        else
+            return level;
+    }
+}
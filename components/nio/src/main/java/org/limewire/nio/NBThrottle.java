@@ -2,11 +2,13 @@ package org.limewire.nio;
 
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,6 +82,12 @@ import java.util.Set;
  * Note that due to the nature of <code>Throttle</code> and {@link NIODispatcher},
  * ready parties may be told to <code>WriteObserver.handleWrite()</code> twice during each 
  * selection event. The latter will always return 0 to a request.
+ * <p>
+ * If the dispatcher uses more than one selector, each of them hands its
+ * selectable keys to the throttle.  The throttle picks the ready parties
+ * while holding its lock, but each selector processes its own keys after
+ * releasing it, so throttled channels on different selectors are handled
+ * at the same time.
  */
 public class NBThrottle implements Throttle {
     
@@ -109,7 +117,7 @@ public class NBThrottle implements Throttle {
     private volatile int _available;
     
     /** The next time a tick should occur. */
-    private long _nextTickTime = -1;
+    private volatile long _nextTickTime = -1;
     
     /**
      * A list of ThrottleListeners that are interested in bandwidthAvailable events.
@@ -139,8 +147,13 @@ public class NBThrottle implements Throttle {
      */
     private Map<Object, SelectionKey> _ready = new HashMap<Object, SelectionKey>();
     
-    /** Whether or not we're currently active in the selectableKeys portion. */
-    private boolean _active = false;
+    /** Whether or not the current thread is in the selectableKeys portion. */
+    private final ThreadLocal<Boolean> _active = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
     
     /**
      * Constructs a throttle using the default values for latency and availability.
@@ -203,9 +216,16 @@ public class NBThrottle implements Throttle {
     
     /**
      * Notification from the NIODispatcher that a bunch of keys are now selectable.
+     * The keys are processed on the calling thread, which is the thread of the
+     * selector they were selected from.
      */
     void selectableKeys(Collection<? extends SelectionKey> keys) {
-        if(_available >= MINIMUM_TO_GIVE && !_interested.isEmpty()) {
+        List<Object> readyAttachments = null;
+        List<SelectionKey> readyKeys = null;
+        synchronized(this) {
+            if(_available < MINIMUM_TO_GIVE || _interested.isEmpty())
+                return;
+            
             for(Iterator<? extends SelectionKey> i = keys.iterator(); i.hasNext(); ) {
                 SelectionKey key = i.next();
                 try {
@@ -223,31 +243,54 @@ public class NBThrottle implements Throttle {
             
             //LOG.trace("Interested: " + _interested.size() + ", ready: " + _ready.size());
             
-            _active = true;
-            long now = System.currentTimeMillis();
-            Iterator<Map.Entry<Object, ThrottleListener>> i = _interested.entrySet().iterator();
-            for(; i.hasNext(); ) {
+            // collect the ready parties in the order they became interested
+            for(Iterator<Map.Entry<Object, ThrottleListener>> i = _interested.entrySet().iterator(); i.hasNext(); ) {
                 Map.Entry<Object, ThrottleListener> next = i.next();
-                ThrottleListener listener = next.getValue();
                 Object attachment = next.getKey();
                 SelectionKey key = _ready.remove(attachment);
-                if(!listener.isOpen()) {
+                if(!next.getValue().isOpen()) {
                     //LOG.trace("Removing closed but interested party: " + next.getKey());
                     i.remove();
                 } else if(key != null) {
-                	i.remove();
-                    //LOG.debug("Processing: " + key.attachment());
-                	listener.requestBandwidth();
-                	try {
-                		NIODispatcher.instance().process(now, key, key.attachment(), _processOp);
-                	} finally {
-                		listener.releaseBandwidth();
-                	}
-                	if (_available < MINIMUM_TO_GIVE)
-                		break;
+                    if(readyAttachments == null) {
+                        readyAttachments = new ArrayList<Object>();
+                        readyKeys = new ArrayList<SelectionKey>();
+                    }
+                    readyAttachments.add(attachment);
+                    readyKeys.add(key);
+                }
+            }
+            _ready.clear();
+        }
+        
+        if(readyKeys == null)
+            return;
+        
+        _active.set(Boolean.TRUE);
+        try {
+            long now = System.currentTimeMillis();
+            for(int i = 0; i < readyKeys.size(); i++) {
+                ThrottleListener listener;
+                synchronized(this) {
+                    if (_available < MINIMUM_TO_GIVE)
+                        break;
+                    // may have been closed and removed meanwhile
+                    listener = _interested.remove(readyAttachments.get(i));
+                }
+                if(listener == null)
+                    continue;
+                
+                SelectionKey key = readyKeys.get(i);
+                //LOG.debug("Processing: " + key.attachment());
+                listener.requestBandwidth();
+                try {
+                    NIODispatcher.instance().process(now, key, key.attachment(), _processOp);
+                } finally {
+                    listener.releaseBandwidth();
                 }
             }
-            _active = false;
+        } finally {
+            _active.set(Boolean.FALSE);
         }
     }
     
@@ -269,8 +312,8 @@ public class NBThrottle implements Throttle {
     /**
      * Requests some bytes to write.
      */
-    public int request() {
-        if(!_active) // failsafe to ensure request only occurs when we want it
+    public synchronized int request() {
+        if(!_active.get()) // failsafe to ensure request only occurs when we want it
             return 0;
         
         int ret = Math.min(_available, MAXIMUM_TO_GIVE);
@@ -281,8 +324,8 @@ public class NBThrottle implements Throttle {
     /**
      * Releases some unwritten bytes back to the available pool.
      */
-    public void release(int amount) {
-        if(_active) // failsafe to ensure releasing only occurs when we want it
+    public synchronized void release(int amount) {
+        if(_active.get()) // failsafe to ensure releasing only occurs when we want it
             _available += amount;
         //LOG.trace("RETR: " + amount + ", REMAINING: " + _available + ", ALL: " + wroteAll + ", FROM: " + attachment);
     }
@@ -303,7 +346,7 @@ public class NBThrottle implements Throttle {
      * <code>false</code> if there are still some requests that require further 
      * tick notifications.
      */
-    void tick(long currentTime) {
+    synchronized void tick(long currentTime) {
         if(currentTime >= _nextTickTime) {
             _available = _bytesPerTick;
             _nextTickTime = currentTime + MILLIS_PER_TICK;
@@ -17,14 +17,18 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -88,30 +92,35 @@ import com.google.inject.Singleton;
  * that Observer will be shutdown and will no longer receive events. If any 
  * <code>IOExceptions</code> occur while handling events for an Observer, 
  * <code>handleIOException</code> is called on that Observer.
+ * <p>
+ * By default all channels are handled by the single "NIODispatcher" thread.
+ * If {@link #setSelectorCount(int)} is used to add more selectors, each
+ * <code>SocketChannel</code> is assigned to the least loaded selector when it
+ * is first registered, and all of its events are handled on that selector's
+ * thread from then on. Accepting channels, channels with a custom selector
+ * (see {@link #registerSelector(Selector, Class)}), throttle ticking and
+ * the tasks of {@link #getScheduledExecutorService()} stay on the primary
+ * "NIODispatcher" thread. Code that must run on the same thread as a
+ * channel's events should use {@link #getScheduledExecutorService(SelectableChannel)}
+ * or {@link #isDispatchThread(SelectableChannel)}.
  */
 @Singleton
-public class NIODispatcher implements Runnable {
+public class NIODispatcher {
     
     private static final Log LOG = LogFactory.getLog(NIODispatcher.class);
     
     private static final NIODispatcher INSTANCE = new NIODispatcher();
     public static final NIODispatcher instance() { return INSTANCE; }
     private NIODispatcher() {
-        boolean failed = false;
-        try {
-            primarySelector = Selector.open();
-        } catch(IOException iox) {
-            failed = true;
-        }
-        
-        if(!failed) {
-            dispatchThread = ThreadExecutor.newManagedThread(this, "NIODispatcher");
-            dispatchThread.start();
-        } else {
+        primary = new SelectorLoop(0, "NIODispatcher");
+        loops = new SelectorLoop[] { primary };
+        stats = primary.stats;
+        EXECUTOR = primary.executor;
+
+        if(primary.start())
+            dispatchThread = primary.thread;
+        else
             dispatchThread = null;
-        }
-        
-        EXECUTOR = new NIOExecutorService(dispatchThread);
     }
     
     /**
@@ -126,15 +135,42 @@ public class NIODispatcher implements Runnable {
     /** The length of time between clearing intervals for the cache. */
     private static final long CACHE_CLEAR_INTERVAL = 30000;
     
-    /** The thread this is being run on. */
+    /** The length of time over which the load of the selectors is measured. */
+    private static final long LOAD_INTERVAL = 1000;
+    
+    /** The thread of the primary selector. */
     private final Thread dispatchThread;
     
-    /** Queue lock. */
-    private final Object Q_LOCK = new Object();
+    /** The primary selector loop, which handles everything but pooled channels. */
+    private final SelectorLoop primary;
+
+    /**
+     * All selector loops, the primary one first.  Loops are never removed,
+     * so that channels assigned to them keep being served.
+     */
+    private volatile SelectorLoop[] loops;
+
+    /** The number of loops, starting with the first, that new channels are assigned to. */
+    private volatile int activeLoops = 1;
+
+    /** The loop each pooled channel was assigned to. */
+    private final Map<SelectableChannel, SelectorLoop> ASSIGNED =
+        new WeakHashMap<SelectableChannel, SelectorLoop>();
     
     /** Stats for the selector */
     @InspectionPoint("nio selector stats")
-    private final SelectStats stats = new SelectStats();
+    private final SelectStats stats;
+
+    /** Stats for each of the selectors. */
+    @InspectionPoint("nio selector pool stats")
+    private final Inspectable poolStats = new Inspectable() {
+        public Object inspect() {
+            List<Object> ret = new ArrayList<Object>();
+            for(SelectStats loopStats : getSelectorStats())
+                ret.add(loopStats.inspect());
+            return ret;
+        }
+    };
     
     /** A listener to notify the NIO thread when a selector has a pending event. */
     private final TransportListener TRANSPORT_LISTENER = new MyTransportListener();
@@ -147,22 +183,16 @@ public class NIODispatcher implements Runnable {
      * be used to register that channel with.
      */
     private final Map<Class<? extends SelectableChannel>, Selector> OTHER_SELECTORS =
-        new HashMap<Class<? extends SelectableChannel>, Selector>();
+        new ConcurrentHashMap<Class<? extends SelectableChannel>, Selector>();
     
     /** A list of other Selectors that should be polled. */
     private final List <Selector> POLLERS = new ArrayList<Selector>();
     
-    /** The invokeLater queue. */
-    private Collection <Runnable> LATER = new LinkedList<Runnable>();
-    
-    /** A queue of DelayedRunnables to process tasks. */
-    private final BlockingQueue<ScheduledFutureTask> DELAYED = new DelayQueue<ScheduledFutureTask>();
-    
-    /** The throttle queue. */
-    private final List <NBThrottle> THROTTLE = new ArrayList<NBThrottle>();
-    
-    /** The timeout manager. */
-    private final TimeoutController TIMEOUTER = new TimeoutController();
+    /**
+     * The throttle queue.  Throttles are ticked by the primary loop, but
+     * every loop hands them its selected keys.
+     */
+    private final List <NBThrottle> THROTTLE = new CopyOnWriteArrayList<NBThrottle>();
     
     /**
      * A common ByteBufferCache that classes can use.
@@ -170,26 +200,35 @@ public class NIODispatcher implements Runnable {
      */
     private final ByteBufferCache BUFFER_CACHE = new ByteBufferCache();
     
-    /** The selector this uses. */
-    private Selector primarySelector = null;
-    
-    /** The current iteration of selection. */
-    private long iteration = 0;
-    
-    /** Whether or not we've tried to wake up the selector. */
-    private volatile boolean wokeup = false;
+    /** A common cache of deflaters and inflaters. */
+    private final ZlibCache ZLIB_CACHE = new ZlibCache();
     
     /** The last time the ByteBufferCache was cleared. */
     private long lastCacheClearTime;
     
+    /** The last time the load of the selectors was measured. */
+    private long lastLoadTime;
+    
+    /** The load of the busiest selector during the last measurement. */
+    private volatile float load;
+    
     /** Returns true if the NIODispatcher is merrily chugging along. */
     public boolean isRunning() {
         return dispatchThread != null;
     }
 	
-	/** Determine if this is the dispatch thread. */
+	/**
+	 * Determine if this is the primary dispatch thread.  Pooled socket
+	 * channels may be handled by another thread, use
+	 * {@link #isDispatchThread(SelectableChannel)} for those.
+	 */
 	public boolean isDispatchThread() {
-	    return Thread.currentThread() == dispatchThread;
+	    return primary.isLoopThread();
+	}
+
+	/** Determine if this is the thread that handles events for the given channel. */
+	public boolean isDispatchThread(SelectableChannel channel) {
+	    return loopFor(channel).isLoopThread();
 	}
     
     /** Gets the common <code>ByteBufferCache</code>. */
@@ -197,9 +236,56 @@ public class NIODispatcher implements Runnable {
         return BUFFER_CACHE;
     }
     
+    /** Gets the common <code>ZlibCache</code>. */
+    public ZlibCache getZlibCache() {
+        return ZLIB_CACHE;
+    }
+    
+    /**
+     * Returns the fraction of the last second that the busiest selector
+     * spent handling events and tasks, from 0 to 1.
+     */
+    public float getLoad() {
+        return load;
+    }
+    
     /** Returns the number of timeouts that are pending. */
     public int getNumPendingTimeouts() {
-        return TIMEOUTER.getNumPendingTimeouts();
+        int pending = 0;
+        for(SelectorLoop loop : loops)
+            pending += loop.TIMEOUTER.getNumPendingTimeouts();
+        return pending;
+    }
+
+    /**
+     * Sets the number of selectors, each with its own thread, that socket
+     * channels are spread across.  New channels are only assigned to the
+     * first <code>count</code> selectors; channels already assigned to a
+     * selector stay with it.
+     */
+    public synchronized void setSelectorCount(int count) {
+        if(!isRunning())
+            return;
+
+        count = Math.max(1, count);
+        SelectorLoop[] current = loops;
+        if(count > current.length) {
+            List<SelectorLoop> grown = new ArrayList<SelectorLoop>(count);
+            Collections.addAll(grown, current);
+            for(int i = current.length; i < count; i++) {
+                SelectorLoop loop = new SelectorLoop(i, "NIODispatcher-" + i);
+                if(!loop.start())
+                    break;
+                grown.add(loop);
+            }
+            loops = grown.toArray(new SelectorLoop[grown.size()]);
+        }
+        activeLoops = Math.min(count, loops.length);
+    }
+
+    /** Returns the number of selectors new channels are spread across. */
+    public int getSelectorCount() {
+        return activeLoops;
     }
 	
 	/** Adds a <code>Throttle</code> into the throttle requesting loop. */
@@ -248,13 +334,11 @@ public class NIODispatcher implements Runnable {
     
     /** Register interest. */
     private void register(SelectableChannel channel, IOErrorObserver handler, int op, int timeout) {
-		if(Thread.currentThread() == dispatchThread) {
-		    registerImpl(getSelectorFor(channel), channel, op, handler, timeout);
+        SelectorLoop loop = loopFor(channel);
+		if(loop.isLoopThread()) {
+		    registerImpl(loop, getSelectorFor(channel), channel, op, handler, timeout);
 		} else {
-	        synchronized(Q_LOCK) {
-				LATER.add(new RegisterOp(channel, handler, op, timeout));
-			}
-            wakeup();
+		    loop.executeLaterAlways(new RegisterOp(loop, channel, handler, op, timeout));
         }
     }
     
@@ -285,7 +369,8 @@ public class NIODispatcher implements Runnable {
     /** Registers interest on the channel for the given <code>op</code> */
     private void interest(SelectableChannel channel, int op, boolean on) {
         try {
-            Selector sel = getSelectorFor(channel);
+            SelectorLoop loop = loopFor(channel);
+            Selector sel = getSelectorFor(channel, loop);
 			SelectionKey sk = channel.keyFor(sel);
 			if(sk != null && sk.isValid()) {
 			    // We must synchronize on something unique to each key,
@@ -309,7 +394,7 @@ public class NIODispatcher implements Runnable {
                 
                 // if we're turning it on and it wasn't on before...
                 if(on && (oldOps & op) != op)
-                    wakeup();
+                    loop.wakeup();
 			}
         } catch(CancelledKeyException ignored) {
             // Because closing can happen in any thread, the key may be cancelled
@@ -320,12 +405,56 @@ public class NIODispatcher implements Runnable {
     
     /** Returns the <code>Selector</code> that should be used for the given channel. */
     private Selector getSelectorFor(SelectableChannel channel) {
+        return getSelectorFor(channel, loopFor(channel));
+    }
+
+    /**
+     * Returns the <code>Selector</code> that should be used for the given channel,
+     * if it is handled by the given loop.
+     */
+    private Selector getSelectorFor(SelectableChannel channel, SelectorLoop loop) {
         Selector sel = OTHER_SELECTORS.get(channel.getClass());
         if(sel == null)
-            return primarySelector; // default selector
+            return loop.selector; // default selector
         else
             return sel;      // custom selector
     }
+
+    /**
+     * Returns the loop that handles the given channel, assigning it to
+     * the least loaded loop if it is a pooled channel seen for the first time.
+     * Channels are assigned even while there is only the primary loop, so
+     * they stay with it when more loops are added.
+     */
+    private SelectorLoop loopFor(SelectableChannel channel) {
+        if(!(channel instanceof SocketChannel)
+                || OTHER_SELECTORS.containsKey(channel.getClass()))
+            return primary;
+
+        synchronized(ASSIGNED) {
+            SelectorLoop loop = ASSIGNED.get(channel);
+            if(loop == null) {
+                loop = leastLoaded(loops, activeLoops);
+                loop.recentlyAssigned.incrementAndGet();
+                ASSIGNED.put(channel, loop);
+            }
+            return loop;
+        }
+    }
+
+    /** Returns the loop of the first <code>count</code> ones with the fewest channels. */
+    private static SelectorLoop leastLoaded(SelectorLoop[] current, int count) {
+        SelectorLoop best = current[0];
+        int bestLoad = best.getLoad();
+        for(int i = 1; i < count && i < current.length; i++) {
+            int load = current[i].getLoad();
+            if(load < bestLoad) {
+                best = current[i];
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
     
     /** Shuts down the handler, possibly scheduling it for shutdown in the 
      * <code>NIODispatch</code> thread. */
@@ -381,12 +510,26 @@ public class NIODispatcher implements Runnable {
         return EXECUTOR;
     }
     
+    /**
+     * Retrieves the <code>ExecutorService</code> that runs things on the
+     * thread that handles events for the given channel.  Tasks submitted
+     * while already on that thread are run immediately.
+     */
+    public ScheduledExecutorService getScheduledExecutorService(SelectableChannel channel) {
+        return loopFor(channel).executor;
+    }
+
     /** Submits the runnable for execution later, even if the current thread is the NIO thread. */
     public void executeLaterAlways(Runnable runner) {
-        synchronized(Q_LOCK) {
-            LATER.add(runner);
-        }
-        wakeup();
+        primary.executeLaterAlways(runner);
+    }
+
+    /**
+     * Submits the runnable for execution later on the thread that handles
+     * events for the given channel, even if the current thread is that thread.
+     */
+    public void executeLaterAlways(SelectableChannel channel, Runnable runner) {
+        loopFor(channel).executeLaterAlways(runner);
     }
     
     /** Gets the underlying attachment for the given <code>SelectionKey</code>'s attachment. */
@@ -469,7 +612,7 @@ public class NIODispatcher implements Runnable {
     /**
      * Does a real registration.
      */
-    private void registerImpl(Selector selector, SelectableChannel channel, int op,
+    private void registerImpl(SelectorLoop loop, Selector selector, SelectableChannel channel, int op,
                               IOErrorObserver attachment, int timeout) {
         try {
             SelectionKey existing = channel.keyFor(selector);
@@ -478,7 +621,7 @@ public class NIODispatcher implements Runnable {
                 old.discard();
             }
             
-            Attachment guard = new Attachment(attachment);
+            Attachment guard = new Attachment(loop, attachment);
             SelectionKey key = channel.register(selector, op, guard);
             guard.setKey(key);
             if(timeout != 0) 
@@ -491,42 +634,26 @@ public class NIODispatcher implements Runnable {
     }
     
     /**
-     * Adds any pending actions.
-     * <p>
-     * This works by adding any pending actions into a local list and then replacing
-     * LATER with a new list.  This is done so that actions to the outside world
-     * don't need to hold Q_LOCK.
-     * <p>
-     * Throttle is ticked outside the lock because ticking only hits items in this
-     * package and we can ensure it doesn't deadlock.
+     * Clears the caches and measures the load if it's time to, and ticks
+     * all throttles.  Only done by the primary loop.
      */
-    private void runPendingTasks() {
+    private void tickThrottles() {
         long now = System.currentTimeMillis();
-        Collection<Runnable> localLater;
-        synchronized(Q_LOCK) {
-            localLater = LATER;
-            LATER = new LinkedList<Runnable>();
-        }
-        
-        DELAYED.drainTo(localLater);
-        
         if(now > lastCacheClearTime + CACHE_CLEAR_INTERVAL) {
             BUFFER_CACHE.clearCache();
+            ZLIB_CACHE.clearCache();
             lastCacheClearTime = now;
         }
         
-        if(!localLater.isEmpty()) {
-            for(Runnable item : localLater) {
-                try {
-                    item.run();
-                } catch(Throwable t) {
-                    LOG.error(t);
-                    ErrorService.error(t);
-                }
-            }
+        if(now > lastLoadTime + LOAD_INTERVAL) {
+            long nanoNow = System.nanoTime();
+            float busiest = 0;
+            for(SelectorLoop loop : loops)
+                busiest = Math.max(busiest, loop.stats.sampleLoad(nanoNow));
+            load = busiest;
+            lastLoadTime = now;
         }
         
-        now = System.currentTimeMillis();
         for(NBThrottle t: THROTTLE)
             t.tick(now);
     }
@@ -576,8 +703,8 @@ public class NIODispatcher implements Runnable {
      * Loops through all <code>Throttles</code> and gives them the ready keys.
      */
     private void readyThrottles(Collection<SelectionKey> keys) {
-        for (int i = 0; i < THROTTLE.size(); i++)
-            THROTTLE.get(i).selectableKeys(keys);
+        for (NBThrottle throttle : THROTTLE)
+            throttle.selectableKeys(keys);
     }
     
     /**
@@ -585,157 +712,31 @@ public class NIODispatcher implements Runnable {
      * and the current thread is not the dispatch thread.
      */
     void wakeup() {
-        if(!wokeup && Thread.currentThread() != dispatchThread) {
-            wokeup = true;
-            primarySelector.wakeup();
-        }
-    }
-    
-    /**
-     * The actual NIO run loop.
-     */
-    private void process() throws ProcessingException, SpinningException {
-        boolean checkTime = false;
-        long startSelect = -1;
-        int zeroes = 0;
-        int ignores = 0;
-        
-        while(true) {
-            runPendingTasks();
-            
-            Collection<SelectionKey> polled = pollOtherSelectors();
-            boolean immediate = !polled.isEmpty();
-            try {
-                if(!immediate && checkTime)
-                    startSelect = System.currentTimeMillis();
-                
-                if(!immediate) {
-                	long delay = nextSelectTimeout();
-                	if (delay == 0) {
-                		immediate = true;
-                    } else {
-                        long nanoNow = System.nanoTime();
-                        try {
-                            if (Thread.interrupted())
-                                LOG.warn("interrupted?");
-                            primarySelector.select(Math.min(delay, Integer.MAX_VALUE));
-                        } finally {
-                            stats.updateSelectTime(System.nanoTime() - nanoNow);
-                        }
-                    }
-                }
-                
-                if (immediate) {
-                    stats.countSelectNow();
-                    primarySelector.selectNow();
-                }
-            } catch (NullPointerException err) {
-                LOG.warn("npe", err);
-                continue;
-            } catch (CancelledKeyException err) {
-                LOG.warn("cancelled", err);
-                continue;
-            } catch (IOException iox) {
-                throw new ProcessingException(iox);
-            }
-            
-            Collection<SelectionKey> keys = primarySelector.selectedKeys();
-            if(!immediate && !wokeup) {
-                if(keys.isEmpty()) {
-                    long now = System.currentTimeMillis();
-                    if(startSelect == -1) {
-                        LOG.trace("No keys selected, starting spin check.");
-                        checkTime = true;
-                    } else if(startSelect + 30 >= now) {
-                        if(LOG.isWarnEnabled())
-                            LOG.warn("Spinning detected, current spins: " + zeroes+" startSelect "+startSelect+" now "+now+" keys "+primarySelector.keys());
-                        if(zeroes++ > SPIN_AMOUNT)
-                            throw new SpinningException();
-                    } else { // waited the timeout just fine, reset everything.
-                        checkTime = false;
-                        startSelect = -1;
-                        zeroes = 0;
-                        ignores = 0;
-                    }
-                    TIMEOUTER.processTimeouts(now);
-                    continue;                
-                } else if (checkTime) {             
-                    // skip up to certain number of good selects if we suspect the selector is broken
-                    ignores++;
-                    if (ignores > MAX_IGNORES) {
-                        checkTime = false;
-                        zeroes = 0;
-                        startSelect = -1;
-                        ignores = 0;
-                    }
-                }
-            }
-            
-            if(LOG.isTraceEnabled())
-                LOG.trace("Selected keys: (" + keys.size() + "), polled: (" + polled.size() + "). wokeup "+wokeup+" immediate "+immediate);
-            
-            Collection<SelectionKey> allKeys;
-            if(!polled.isEmpty()) {
-                allKeys = new HashSet<SelectionKey>(keys.size() + polled.size());
-                allKeys.addAll(keys);
-                allKeys.addAll(polled);
-            } else {
-                allKeys = keys;
-            }
-            
-            readyThrottles(allKeys);
-            
-            long now = System.currentTimeMillis();
-            for(SelectionKey sk : allKeys) 
-				process(now, sk, sk.attachment(), 0xFFFF);
-            
-            keys.clear();
-            iteration++;
-            TIMEOUTER.processTimeouts(now);
-            wokeup = false;
-        }
+        primary.wakeup();
     }
     
     /**
-     * @return the timeout of the next select call. 0 if it should be immediate
+     * @return the time until the next throttle tick, 0 if one is due now
      */
-    private long nextSelectTimeout() {
-    	// first see when the next throttle should tick
-    	long next = Long.MAX_VALUE;
-    	for (Throttle t: THROTTLE)
-    		next = Math.min(next, t.nextTickTime());
-    	long now = System.currentTimeMillis(); 
-    	next -= now;
-    	if (next <= 0)
-    		return 0;
-    	
-    	// then check when the next timeout is due
-    	long timeout = TIMEOUTER.getNextExpireTime();
-    	if (timeout > -1)
-    		next = Math.min(next, timeout - now);
-    	if (next <= 0)
-    		return 0;
-    	
-    	// then see when the next scheduled task is due
-    	// Note: DelayedQueue.peek() returns the element even if not expired.
-    	Delayed nextScheduled = DELAYED.peek(); 
-    	if (nextScheduled != null) 
-    		next = Math.min(next, nextScheduled.getDelay(TimeUnit.MILLISECONDS));
-    	return Math.max(0, next);
+    private long nextThrottleTick(long now) {
+        long next = Long.MAX_VALUE;
+        for (Throttle t: THROTTLE)
+            next = Math.min(next, t.nextTickTime());
+        return Math.max(0, next - now);
     }
     
     /**
      * Returns true if this channel is going to have handleRead called on its
      * attachment in this iteration of the NIODispatcher's processing.
      * 
-     * This must be called from the NIODispatch thread to have any meaningful impact.
+     * This must be called from the channel's dispatch thread to have any meaningful impact.
      */
     boolean isReadReadyThisIteration(SelectableChannel channel) {
         SelectionKey sk = channel.keyFor(getSelectorFor(channel));
         Object proxyAttachment = sk.attachment();
         if(proxyAttachment instanceof Attachment) {
             Attachment proxy = (Attachment)sk.attachment();
-            if(proxy.lastMod == iteration+1) {
+            if(proxy.lastMod == proxy.loop.iteration+1) {
                 if(sk.isValid()) {
                     try {
                         return (sk.readyOps() & (~proxy.handled) & SelectionKey.OP_READ) != 0;
@@ -754,6 +755,7 @@ public class NIODispatcher implements Runnable {
     void process(long now, SelectionKey sk, Object proxyAttachment, int allowedOps) {
         Attachment proxy = (Attachment)proxyAttachment;
         IOErrorObserver attachment = proxy.attachment;
+        long iteration = proxy.loop.iteration;
         
         // NOTE: handled is updated in proxy to prevent items that were processed
         //       from throttles from being reprocessed.
@@ -815,76 +817,349 @@ public class NIODispatcher implements Runnable {
     }
     
     /**
-     * Swaps all channels out of the old selector & puts them in the new one.
+     * A selector and the thread that handles the events of the channels
+     * registered with it, along with the tasks, scheduled tasks and
+     * timeouts that must run on that thread.
      */
-    private void swapSelector() {
-        Selector oldSelector = primarySelector;
-        Collection<SelectionKey> oldKeys = Collections.emptySet();
-        try {
-            if(oldSelector != null)
-                oldKeys = oldSelector.keys();
-        } catch(ClosedSelectorException ignored) {
-            LOG.warn("error getting keys", ignored);
+    private class SelectorLoop implements Runnable {
+
+        private final int index;
+
+        private final String name;
+
+        /** The thread this is being run on. */
+        private volatile Thread thread;
+
+        /** The selector this uses. */
+        private volatile Selector selector;
+
+        /** Queue lock. */
+        private final Object Q_LOCK = new Object();
+
+        /** The invokeLater queue. */
+        private Collection <Runnable> LATER = new LinkedList<Runnable>();
+
+        /** A queue of DelayedRunnables to process tasks. */
+        private final BlockingQueue<ScheduledFutureTask> DELAYED = new DelayQueue<ScheduledFutureTask>();
+
+        /** The timeout manager. */
+        private final TimeoutController TIMEOUTER = new TimeoutController();
+
+        /** An ExecutorService that invokes runnables on this loop's thread. */
+        private final NIOExecutorService executor = new NIOExecutorService(this);
+
+        private final SelectStats stats;
+
+        /** The number of channels assigned since the key count was last sampled. */
+        private final AtomicInteger recentlyAssigned = new AtomicInteger();
+
+        /** The current iteration of selection. */
+        private volatile long iteration = 0;
+
+        /** Whether or not we've tried to wake up the selector. */
+        private volatile boolean wokeup = false;
+
+        SelectorLoop(int index, String name) {
+            this.index = index;
+            this.name = name;
+            this.stats = new SelectStats(index);
         }
         
-        try {
-            primarySelector = Selector.open();
-        } catch(IOException iox) {
-            LOG.error("Can't make a new selector!!!", iox);
-            throw new RuntimeException(iox);
+        /** Opens the selector and starts the thread, returning false if that failed. */
+        boolean start() {
+            try {
+                selector = Selector.open();
+            } catch(IOException iox) {
+                LOG.error("Unable to open selector for: " + name, iox);
+                return false;
+            }
+            thread = ThreadExecutor.newManagedThread(this, name);
+            thread.start();
+            return true;
         }
         
-        // We do not have to concern ourselves with secondary selectors,
-        // because we only retrieves keys from the primary one.
-        for(SelectionKey key : oldKeys ) {
-            try {
-                SelectableChannel channel = key.channel();
-                Attachment attachment = (Attachment)key.attachment();
-                int ops = key.interestOps();
-                try {
-                    SelectionKey newKey = channel.register(primarySelector, ops, attachment);
-                    attachment.setKey(newKey);
-                } catch(IOException iox) {
-                    attachment.attachment.handleIOException(iox);
-                }
-            } catch(CancelledKeyException ignored) {
-                LOG.warn("key cancelled while swapping", ignored);
+        boolean isLoopThread() {
+            return Thread.currentThread() == thread;
+        }
+
+        /** Returns the approximate number of channels handled by this loop. */
+        int getLoad() {
+            return stats.getKeyCount() + recentlyAssigned.get();
+        }
+
+        void executeLaterAlways(Runnable runner) {
+            synchronized(Q_LOCK) {
+                LATER.add(runner);
+            }
+            wakeup();
+        }
+
+        /**
+         * Wakes up the selector if it wasn't already woken up,
+         * and the current thread is not the loop's thread.
+         */
+        void wakeup() {
+            if(!wokeup && Thread.currentThread() != thread) {
+                wokeup = true;
+                selector.wakeup();
             }
         }
         
-        try {
-            if(oldSelector != null)
-                oldSelector.close();
-        } catch(IOException ignored) {
-            LOG.warn("error closing old selector", ignored);
+        /**
+         * Adds any pending actions.
+         * <p>
+         * This works by adding any pending actions into a local list and then replacing
+         * LATER with a new list.  This is done so that actions to the outside world
+         * don't need to hold Q_LOCK.
+         * <p>
+         * Throttle is ticked outside the lock because ticking only hits items in this
+         * package and we can ensure it doesn't deadlock.
+         */
+        private void runPendingTasks() {
+            Collection<Runnable> localLater;
+            synchronized(Q_LOCK) {
+                localLater = LATER;
+                LATER = new LinkedList<Runnable>();
+            }
+
+            DELAYED.drainTo(localLater);
+
+            if(!localLater.isEmpty()) {
+                long start = System.nanoTime();
+                for(Runnable item : localLater) {
+                    try {
+                        item.run();
+                    } catch(Throwable t) {
+                        LOG.error(t);
+                        ErrorService.error(t);
+                    }
+                }
+                stats.countTasks(localLater.size(), System.nanoTime() - start);
+            }
+
+            if(this == primary)
+                tickThrottles();
         }
-    }
     
-    /**
-     * The <code>run</code> loop.
-     */
-    public void run() {
-        while(true) {
+        /**
+         * The actual NIO run loop.
+         */
+        private void process() throws ProcessingException, SpinningException {
+            boolean checkTime = false;
+            long startSelect = -1;
+            int zeroes = 0;
+            int ignores = 0;
+
+            while(true) {
+                runPendingTasks();
+
+                Collection<SelectionKey> polled;
+                if(this == primary)
+                    polled = pollOtherSelectors();
+                else
+                    polled = Collections.emptySet();
+                boolean immediate = !polled.isEmpty();
+                try {
+                    if(!immediate && checkTime)
+                        startSelect = System.currentTimeMillis();
+
+                    if(!immediate) {
+                    	long delay = nextSelectTimeout();
+                    	if (delay == 0) {
+                    		immediate = true;
+                        } else {
+                            long nanoNow = System.nanoTime();
+                            try {
+                                if (Thread.interrupted())
+                                    LOG.warn("interrupted?");
+                                selector.select(Math.min(delay, Integer.MAX_VALUE));
+                            } finally {
+                                stats.updateSelectTime(System.nanoTime() - nanoNow);
+                            }
+                        }
+                    }
+
+                    if (immediate) {
+                        stats.countSelectNow();
+                        selector.selectNow();
+                    }
+                } catch (NullPointerException err) {
+                    LOG.warn("npe", err);
+                    continue;
+                } catch (CancelledKeyException err) {
+                    LOG.warn("cancelled", err);
+                    continue;
+                } catch (IOException iox) {
+                    throw new ProcessingException(iox);
+                }
+
+                Collection<SelectionKey> keys = selector.selectedKeys();
+                if(!immediate && !wokeup) {
+                    if(keys.isEmpty()) {
+                        long now = System.currentTimeMillis();
+                        if(startSelect == -1) {
+                            LOG.trace("No keys selected, starting spin check.");
+                            checkTime = true;
+                        } else if(startSelect + 30 >= now) {
+                            if(LOG.isWarnEnabled())
+                                LOG.warn("Spinning detected, current spins: " + zeroes+" startSelect "+startSelect+" now "+now+" keys "+selector.keys());
+                            if(zeroes++ > SPIN_AMOUNT)
+                                throw new SpinningException();
+                        } else { // waited the timeout just fine, reset everything.
+                            checkTime = false;
+                            startSelect = -1;
+                            zeroes = 0;
+                            ignores = 0;
+                        }
+                        TIMEOUTER.processTimeouts(now);
+                        continue;
+                    } else if (checkTime) {
+                        // skip up to certain number of good selects if we suspect the selector is broken
+                        ignores++;
+                        if (ignores > MAX_IGNORES) {
+                            checkTime = false;
+                            zeroes = 0;
+                            startSelect = -1;
+                            ignores = 0;
+                        }
+                    }
+                }
+
+                if(LOG.isTraceEnabled())
+                    LOG.trace("Selected keys: (" + keys.size() + "), polled: (" + polled.size() + "). wokeup "+wokeup+" immediate "+immediate);
+
+                long start = System.nanoTime();
+                Collection<SelectionKey> allKeys;
+                if(!polled.isEmpty()) {
+                    allKeys = new HashSet<SelectionKey>(keys.size() + polled.size());
+                    allKeys.addAll(keys);
+                    allKeys.addAll(polled);
+                } else {
+                    allKeys = keys;
+                }
+
+                readyThrottles(allKeys);
+
+                long now = System.currentTimeMillis();
+                for(SelectionKey sk : allKeys)
+    				NIODispatcher.this.process(now, sk, sk.attachment(), 0xFFFF);
+
+                stats.countEvents(allKeys.size(), System.nanoTime() - start);
+                keys.clear();
+                iteration++;
+                TIMEOUTER.processTimeouts(now);
+                wokeup = false;
+
+                stats.setKeyCount(selector.keys().size());
+                recentlyAssigned.set(0);
+            }
+        }
+
+        /**
+         * @return the timeout of the next select call. 0 if it should be immediate
+         */
+        private long nextSelectTimeout() {
+            long now = System.currentTimeMillis();
+        	// first see when the next throttle should tick
+        	long next = Long.MAX_VALUE;
+        	if (this == primary) {
+        	    next = nextThrottleTick(now);
+        	    if (next <= 0)
+        	        return 0;
+        	}
+
+        	// then check when the next timeout is due
+        	long timeout = TIMEOUTER.getNextExpireTime();
+        	if (timeout > -1)
+        		next = Math.min(next, timeout - now);
+        	if (next <= 0)
+        		return 0;
+
+        	// then see when the next scheduled task is due
+        	// Note: DelayedQueue.peek() returns the element even if not expired.
+        	Delayed nextScheduled = DELAYED.peek();
+        	if (nextScheduled != null)
+        		next = Math.min(next, nextScheduled.getDelay(TimeUnit.MILLISECONDS));
+        	return Math.max(0, next);
+        }
+
+        /**
+         * Swaps all channels out of the old selector & puts them in the new one.
+         */
+        private void swapSelector() {
+            Selector oldSelector = selector;
+            Collection<SelectionKey> oldKeys = Collections.emptySet();
             try {
-                if(primarySelector == null)
-                    primarySelector = Selector.open();
-                process();
-            } catch(SpinningException spin) {
-                LOG.warn("selector is spinning!", spin);
-                swapSelector();
-            } catch(ProcessingException uhoh) {
-                LOG.warn("unknown exception while selecting", uhoh);
-                swapSelector();
+                if(oldSelector != null)
+                    oldKeys = oldSelector.keys();
+            } catch(ClosedSelectorException ignored) {
+                LOG.warn("error getting keys", ignored);
+            }
+
+            try {
+                selector = Selector.open();
             } catch(IOException iox) {
-                LOG.error("Unable to create a new Selector!!!", iox);
+                LOG.error("Can't make a new selector!!!", iox);
                 throw new RuntimeException(iox);
-            } catch(Throwable err) {
-                LOG.error("Error in Selector!", err);
-                ErrorService.error(err);
+            }
                 
-                swapSelector();
+            // We do not have to concern ourselves with secondary selectors,
+            // because we only retrieves keys from the primary one.
+            for(SelectionKey key : oldKeys ) {
+                try {
+                    SelectableChannel channel = key.channel();
+                    Attachment attachment = (Attachment)key.attachment();
+                    int ops = key.interestOps();
+                    try {
+                        SelectionKey newKey = channel.register(selector, ops, attachment);
+                        attachment.setKey(newKey);
+                    } catch(IOException iox) {
+                        attachment.attachment.handleIOException(iox);
+                    }
+                } catch(CancelledKeyException ignored) {
+                    LOG.warn("key cancelled while swapping", ignored);
+                }
+            }
+
+            try {
+                if(oldSelector != null)
+                    oldSelector.close();
+            } catch(IOException ignored) {
+                LOG.warn("error closing old selector", ignored);
+            }
+        }
+
+        /**
+         * The <code>run</code> loop.
+         */
+        public void run() {
+            while(true) {
+                try {
+                    if(selector == null)
+                        selector = Selector.open();
+                    process();
+                } catch(SpinningException spin) {
+                    LOG.warn("selector is spinning!", spin);
+                    swapSelector();
+                } catch(ProcessingException uhoh) {
+                    LOG.warn("unknown exception while selecting", uhoh);
+                    swapSelector();
+                } catch(IOException iox) {
+                    LOG.error("Unable to create a new Selector!!!", iox);
+                    throw new RuntimeException(iox);
+                } catch(Throwable err) {
+                    LOG.error("Error in Selector!", err);
+                    ErrorService.error(err);
+
+                    swapSelector();
+                }
             }
         }
+
+        @Override
+        public String toString() {
+            return name + " [" + index + "]";
+        }
     }
     
     /**
@@ -893,6 +1168,7 @@ public class NIODispatcher implements Runnable {
      * keeping track of the number of successive hits, etc...
      */
     class Attachment implements Timeoutable {        
+        private final SelectorLoop loop;
         private final IOErrorObserver attachment;
         private long lastMod;
         private int handled;
@@ -905,6 +1181,11 @@ public class NIODispatcher implements Runnable {
         private volatile boolean discarded;
         
         Attachment(IOErrorObserver attachment) {
+            this(primary, attachment);
+        }
+
+        Attachment(SelectorLoop loop, IOErrorObserver attachment) {
+            this.loop = loop;
             this.attachment = attachment;
         }
         
@@ -959,7 +1240,7 @@ public class NIODispatcher implements Runnable {
                 timeoutActive = true;
                 storedTimeoutLength = timeoutLength;
                 storedExpireTime = now + timeoutLength;
-                TIMEOUTER.addTimeout(this, now, timeoutLength);
+                loop.TIMEOUTER.addTimeout(this, now, timeoutLength);
             }
         }
         
@@ -975,7 +1256,7 @@ public class NIODispatcher implements Runnable {
                             timeToUse = storedTimeoutLength;
                             storedExpireTime = -1;
                         } else if(expireTime < storedExpireTime) {
-                            TIMEOUTER.addTimeout(this, now, storedExpireTime - now);
+                            loop.TIMEOUTER.addTimeout(this, now, storedExpireTime - now);
                         } else { // expireTime > storedExpireTime
                             storedExpireTime = -1;
                             if(LOG.isWarnEnabled())
@@ -1004,12 +1285,14 @@ public class NIODispatcher implements Runnable {
     
     /** Encapsulates a register op. */
     private class RegisterOp implements Runnable {
+        private final SelectorLoop loop;
         private final SelectableChannel channel;
         private final IOErrorObserver handler;
         private final int op;
         private final int timeout;
     
-        RegisterOp(SelectableChannel channel, IOErrorObserver handler, int op, int timeout) {
+        RegisterOp(SelectorLoop loop, SelectableChannel channel, IOErrorObserver handler, int op, int timeout) {
+            this.loop = loop;
             this.channel = channel;
             this.handler = handler;
             this.op = op;
@@ -1017,7 +1300,7 @@ public class NIODispatcher implements Runnable {
         }
         
         public void run() {
-            registerImpl(getSelectorFor(channel), channel, op, handler, timeout);
+            registerImpl(loop, getSelectorFor(channel, loop), channel, op, handler, timeout);
         }
     }
     
@@ -1030,12 +1313,12 @@ public class NIODispatcher implements Runnable {
         public ProcessingException(Throwable t) { super(t); }
     }
     
-    /** An ExecutorService that runs all tasks on the NIODispatch thread. */
+    /** An ExecutorService that runs all tasks on the thread of a selector loop. */
     private static class NIOExecutorService extends AbstractExecutorService implements ScheduledExecutorService {
-        private final Thread nioThread;
+        private final SelectorLoop loop;
         
-        private NIOExecutorService(Thread nioThread) {
-            this.nioThread = nioThread;
+        private NIOExecutorService(SelectorLoop loop) {
+            this.loop = loop;
         }
         
         public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
@@ -1060,24 +1343,24 @@ public class NIODispatcher implements Runnable {
         }
 
         public void execute(Runnable command) {
-            if(Thread.currentThread() == nioThread) {
+            if(loop.isLoopThread()) {
                 command.run();
             } else {
-                instance().executeLaterAlways(command);
+                loop.executeLaterAlways(command);
             }
         }
 
         public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
            ScheduledFutureTask<?> ret = new ScheduledFutureTask<Void>(command, null, unit.toNanos(delay));
-           instance().DELAYED.add(ret);
-           instance().wakeup();
+           loop.DELAYED.add(ret);
+           loop.wakeup();
            return ret;
         }
 
         public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
             ScheduledFutureTask<V> ret = new ScheduledFutureTask<V>(callable, unit.toNanos(delay));
-            instance().DELAYED.add(ret);
-            instance().wakeup();
+            loop.DELAYED.add(ret);
+            loop.wakeup();
             return ret;
         }
 
@@ -1108,15 +1391,54 @@ public class NIODispatcher implements Runnable {
     public long [] getSelectStats() {
         return stats.getStats();
     }
+
+    /**
+     * @return the stats of every selector, the primary one first
+     */
+    public List<SelectStats> getSelectorStats() {
+        SelectorLoop[] current = loops;
+        List<SelectStats> ret = new ArrayList<SelectStats>(current.length);
+        for(SelectorLoop loop : current)
+            ret.add(loop.stats);
+        return ret;
+    }
+
     /**
      * Provides statistics about the {@link Selector} including the number
-     * of selects, number of immediate selects and the average select time.
+     * of selects, number of immediate selects and the average select time,
+     * as well as the load of the selector: the number of registered channels,
+     * the number of events and tasks handled, and the time spent handling them.
      * 
      */
     public static class SelectStats implements Inspectable {
+        private final int index;
         private long numSelects, numImmediateSelects, avgSelectTime;
+        private long numEvents, numTasks, busyTime;
+        private long lastSampleTime, lastSampleBusyTime;
+        private volatile int keyCount;
+
+        SelectStats(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Returns the number of selects, immediate selects, the average
+         * select time, the number of events and tasks handled, the time
+         * spent handling them (in nanoseconds) and the number of channels
+         * registered with the selector.
+         */
         public synchronized long[] getStats() {
-            return new long[]{numSelects, numImmediateSelects, avgSelectTime};
+            return new long[]{numSelects, numImmediateSelects, avgSelectTime,
+                    numEvents, numTasks, busyTime, keyCount};
+        }
+
+        /** Returns the number of channels registered with the selector. */
+        public int getKeyCount() {
+            return keyCount;
+        }
+
+        void setKeyCount(int keyCount) {
+            this.keyCount = keyCount;
         }
         
         /** Updates the counters for the select times */
@@ -1135,6 +1457,31 @@ public class NIODispatcher implements Runnable {
             numImmediateSelects = Math.max(0, numImmediateSelects +1 );   
         }
         
+        synchronized void countEvents(int events, long time) {
+            numEvents = Math.max(0, numEvents + events);
+            busyTime = Math.max(0, busyTime + time);
+        }
+
+        synchronized void countTasks(int tasks, long time) {
+            numTasks = Math.max(0, numTasks + tasks);
+            busyTime = Math.max(0, busyTime + time);
+        }
+
+        /**
+         * Returns the fraction of the time since the last sample that was
+         * spent handling events and tasks.
+         */
+        synchronized float sampleLoad(long now) {
+            long elapsed = now - lastSampleTime;
+            long busy = busyTime - lastSampleBusyTime;
+            boolean first = lastSampleTime == 0;
+            lastSampleTime = now;
+            lastSampleBusyTime = busyTime;
+            if(first || elapsed <= 0 || busy < 0)
+                return 0;
+            return Math.min(1, (float)busy / elapsed);
+        }
+
         @Override
         public Object inspect() {
             long [] data = getStats();
@@ -1143,8 +1490,12 @@ public class NIODispatcher implements Runnable {
             ret.put("num",data[0]);
             ret.put("numIm",data[1]);
             ret.put("avg",data[2]);
+            ret.put("idx",index);
+            ret.put("ev",data[3]);
+            ret.put("tasks",data[4]);
+            ret.put("busy",data[5]);
+            ret.put("keys",data[6]);
             return ret;
         }
     }
 }
-
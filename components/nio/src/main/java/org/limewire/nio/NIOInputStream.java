@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.Executor;
 
 import org.limewire.nio.channel.ChannelReadObserver;
 import org.limewire.nio.channel.InterestReadableByteChannel;
@@ -31,6 +32,7 @@ class NIOInputStream implements ChannelReadObserver, InterestScatteringByteChann
     
     private final Shutdownable shutdownHandler;
     private final SoTimeout soTimeoutHandler;
+    private final Executor executor;
     private InterestReadableByteChannel channel;
     private BufferInputStream source;
     private volatile Object bufferLock;
@@ -47,11 +49,15 @@ class NIOInputStream implements ChannelReadObserver, InterestScatteringByteChann
      *                    the input stream timing out while reading.
      * @param shutdowner  Object to shutdown when the InputStream is closed.
      * @param channel     Channel to do reads from.
+     * @param executor    Executor that runs tasks on the thread handling the
+     *                    socket's events.
      */
-    NIOInputStream(SoTimeout soTimeouter, Shutdownable shutdowner, InterestReadableByteChannel channel) {
+    NIOInputStream(SoTimeout soTimeouter, Shutdownable shutdowner, InterestReadableByteChannel channel,
+                   Executor executor) {
         this.soTimeoutHandler = soTimeouter;
         this.shutdownHandler = shutdowner;
         this.channel = channel;
+        this.executor = executor;
     }
     
     /**
@@ -150,7 +156,7 @@ class NIOInputStream implements ChannelReadObserver, InterestScatteringByteChann
     void readHappening() {
         synchronized(bufferLock) {
             if(lastFilled) {
-                NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+                executor.execute(new Runnable() {
                     public void run() {
                         try {
                             handleRead();
@@ -177,7 +183,7 @@ class NIOInputStream implements ChannelReadObserver, InterestScatteringByteChann
             source.shutdown();
         
         if(buffer != null) {
-            NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+            executor.execute(new Runnable() {
                 public void run() {
                     NIODispatcher.instance().getBufferCache().release(buffer);
                 }
@@ -3,6 +3,7 @@ package org.limewire.nio;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 import org.limewire.nio.channel.InterestWritableByteChannel;
 import org.limewire.nio.observer.Shutdownable;
@@ -19,6 +20,7 @@ class NIOOutputStream implements WriteObserver {
     
     private final Shutdownable handler;
     private final InterestWritableByteChannel channel;
+    private final Executor executor;
     private BufferOutputStream sink;
     private volatile Object bufferLock;
     private ByteBuffer buffer;
@@ -28,9 +30,10 @@ class NIOOutputStream implements WriteObserver {
      * Constructs a new pipe to allow SocketChannel's reading to funnel
      * to a blocking InputStream.
      */
-    NIOOutputStream(Shutdownable handler, InterestWritableByteChannel channel) {
+    NIOOutputStream(Shutdownable handler, InterestWritableByteChannel channel, Executor executor) {
         this.handler = handler;
         this.channel = channel;
+        this.executor = executor;
     }
     
     /**
@@ -105,7 +108,7 @@ class NIOOutputStream implements WriteObserver {
             sink.shutdown();
         
         if(buffer != null) {
-            NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+            executor.execute(new Runnable() {
                 public void run() {
                     NIODispatcher.instance().getBufferCache().release(buffer);
                 }
@@ -0,0 +1,84 @@
+package org.limewire.nio;
+
+import java.util.Stack;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Provides a cache of {@link Deflater Deflaters} and {@link Inflater Inflaters},
+ * so that connections that come and go reuse the native zlib state instead of
+ * allocating it for each connection and leaving it for the garbage collector.
+ * <p>
+ * Released objects are reset before they are cached.  Clearing the cache ends
+ * them, freeing their native memory.
+ */
+public class ZlibCache {
+
+    private final Stack<Deflater> DEFLATERS = new Stack<Deflater>();
+
+    private final Stack<Inflater> INFLATERS = new Stack<Inflater>();
+
+    /**
+     * Returns a deflater that compresses at the given level.
+     */
+    public Deflater getDeflater(int level) {
+        synchronized (DEFLATERS) {
+            if (DEFLATERS.isEmpty())
+                return new Deflater(level);
+            Deflater deflater = DEFLATERS.pop();
+            deflater.setLevel(level);
+            return deflater;
+        }
+    }
+
+    public Inflater getInflater() {
+        synchronized (INFLATERS) {
+            if (INFLATERS.isEmpty())
+                return new Inflater();
+            return INFLATERS.pop();
+        }
+    }
+
+    /**
+     * Resets the deflater and caches it.  It must not be used by the caller
+     * afterwards.
+     */
+    public void release(Deflater deflater) {
+        deflater.reset();
+        DEFLATERS.push(deflater);
+    }
+
+    /**
+     * Resets the inflater and caches it.  It must not be used by the caller
+     * afterwards.
+     */
+    public void release(Inflater inflater) {
+        inflater.reset();
+        INFLATERS.push(inflater);
+    }
+
+    /** Returns the number of cached deflaters. */
+    public int getDeflaterCacheSize() {
+        return DEFLATERS.size();
+    }
+
+    /** Returns the number of cached inflaters. */
+    public int getInflaterCacheSize() {
+        return INFLATERS.size();
+    }
+
+    /** Ends all cached deflaters and inflaters. */
+    public void clearCache() {
+        synchronized (DEFLATERS) {
+            for (Deflater deflater : DEFLATERS)
+                deflater.end();
+            DEFLATERS.clear();
+        }
+        synchronized (INFLATERS) {
+            for (Inflater inflater : INFLATERS)
+                inflater.end();
+            INFLATERS.clear();
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package org.limewire.nio.channel;
+
+/**
+ * Decides the level a {@link DeflaterWriter} compresses at.
+ */
+public interface DeflateLevel {
+
+    /**
+     * Returns the level to compress at, one of the levels of
+     * {@link java.util.zip.Deflater}.  Called each time the writer flushes,
+     * so the level can change while the stream is open.  The writer
+     * compresses at BEST_SPEED instead of NO_COMPRESSION.
+     */
+    int getLevel();
+}
@@ -3,6 +3,7 @@ package org.limewire.nio.channel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
 import java.util.zip.Deflater;
 
 import org.limewire.nio.observer.Shutdownable;
@@ -26,10 +27,14 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
     private ByteBuffer outgoing;
     /** The buffer used for writing data into. */
     private ByteBuffer incoming;
-    /** The deflater to use */
-    private Deflater deflater;
-    /** The sync level we're on.  0: not sync, 1: NO_COMPRESSION, 2: DEFAULT */
+    /** The deflater to use, null once released. */
+    private volatile Deflater deflater;
+    /** The level to go back to after syncing, or null for the default level. */
+    private final DeflateLevel level;
+    /** The sync level we're on.  0: not sync, 1: NO_COMPRESSION, 2: level */
     private int sync = 0;
+    /** The time spent deflating, in nanoseconds. */
+    private volatile long deflateTime;
     /** An empty byte array to reuse. */
     private static final byte[] EMPTY = new byte[0];
         
@@ -40,7 +45,19 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
      * <code>handleWrite</code>.
      */
     public DeflaterWriter(Deflater deflater) {
-        this(deflater, null);
+        this(deflater, (InterestWritableByteChannel)null);
+    }
+    
+    /**
+     * Constructs a new <code>DeflaterWriter</code> with the given deflater,
+     * that compresses at the level given by <code>level</code> from the
+     * first flush on.
+     * <p>
+     * <b>NOTE:</b> You must call <code>setWriteChannel</code> prior to 
+     * <code>handleWrite</code>.
+     */
+    public DeflaterWriter(Deflater deflater, DeflateLevel level) {
+        this(deflater, null, level);
     }
     
     /**
@@ -48,13 +65,31 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
      * and channel.
      */
     public DeflaterWriter(Deflater deflater, InterestWritableByteChannel channel) {
+        this(deflater, channel, null);
+    }
+    
+    private DeflaterWriter(Deflater deflater, InterestWritableByteChannel channel, DeflateLevel level) {
         this.deflater = deflater;
+        this.level = level;
         this.incoming = ByteBuffer.allocate(4 * 1024);
         this.outgoing = ByteBuffer.allocate(512);
         outgoing.flip();
         this.channel = channel;
     }
     
+    /** Returns the time spent deflating, in nanoseconds. */
+    public long getDeflateTime() {
+        return deflateTime;
+    }
+    
+    /**
+     * Stops using the deflater, so that it can be handed to another writer.
+     * Any later write throws an <code>IOException</code>.
+     */
+    public void release() {
+        deflater = null;
+    }
+    
     /** {@inheritDoc} */
     public InterestWritableByteChannel getWriteChannel() {
         return channel;
@@ -87,6 +122,9 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
      * Writes data to our internal buffer, if there's room.
      */
     public int write(ByteBuffer buffer) throws IOException {
+        if(deflater == null)
+            throw new ClosedChannelException();
+        
         int wrote = 0;
         
         if(incoming.hasRemaining()) {
@@ -132,6 +170,9 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
         InterestWritableByteChannel source = channel;
         if(source == null)
             throw new IllegalStateException("writing with no source.");
+        Deflater deflater = this.deflater;
+        if(deflater == null)
+            throw new ClosedChannelException();
             
         while(true) {
             // Step 1: See if there is any pending deflated data to be written.
@@ -142,11 +183,14 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
             while(true) {
                 // Step 2: Try and deflate the existing data.
                 int deflated;
+                long start = System.nanoTime();
                 try {
                     deflated = deflater.deflate(outgoing.array());
                 } catch(NullPointerException npe) {
                     // stupid deflater not supporting asynchronous ends..
                     throw (IOException) new IOException().initCause(npe);
+                } finally {
+                    deflateTime += System.nanoTime() - start;
                 }
                 if(deflated > 0) {
                     outgoing.position(0).limit(deflated);
@@ -166,7 +210,7 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
                         sync = 1;
                         continue;
                     } else if(sync == 1) {
-                        deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+                        deflater.setLevel(getLevel());
                         sync = 2;
                         continue;
                     }
@@ -208,6 +252,17 @@ public class DeflaterWriter implements ChannelWriter, InterestWritableByteChanne
         }
     }
     
+    /**
+     * Returns the level to go back to after syncing.  This can't be
+     * NO_COMPRESSION, since syncing depends on switching to it.
+     */
+    private int getLevel() {
+        if(level == null)
+            return Deflater.DEFAULT_COMPRESSION;
+        int current = level.getLevel();
+        return current == Deflater.NO_COMPRESSION ? Deflater.BEST_SPEED : current;
+    }
+    
     /** Shuts down the last observer. */
     public void shutdown() {
         Shutdownable listener = observer;
@@ -56,7 +56,19 @@ public class DelayedBufferWriter implements ChannelWriter, InterestWritableByteC
     	this(size, delay, NIODispatcher.instance().getScheduledExecutorService());
     }
     
-    DelayedBufferWriter(int size, long delay, ScheduledExecutorService scheduler) {
+    /** Constructs a new <code>DelayedBufferWriter</code> whose buffer is the
+     * given size, scheduling forced flushes on <code>scheduler</code>. */
+    public DelayedBufferWriter(int size, ScheduledExecutorService scheduler) {
+        this(size, DEFAULT_DELAY, scheduler);
+    }
+    
+    /**
+     * Constructs a new <code>DelayedBufferWriter</code> whose buffer is the
+     * given size and delay, scheduling forced flushes on <code>scheduler</code>.
+     * The scheduler should run tasks on the thread that handles the channel
+     * written to, see {@link NIODispatcher#getScheduledExecutorService(java.nio.channels.SelectableChannel)}.
+     */
+    public DelayedBufferWriter(int size, long delay, ScheduledExecutorService scheduler) {
     	buf = ByteBuffer.allocate(size);
     	this.delay = TimeUnit.MILLISECONDS.toNanos(delay);
     	this.interester = new Periodic(
@@ -2,6 +2,7 @@ package org.limewire.nio.channel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -16,8 +17,8 @@ import java.util.zip.Inflater;
  */
 public class InflaterReader implements ChannelReader, InterestReadableByteChannel {
     
-    /** the inflater that will do the decompressing for us */
-    private Inflater inflater;
+    /** the inflater that will do the decompressing for us, null once released */
+    private volatile Inflater inflater;
     
     /** the channel this reads from */
     private InterestReadableByteChannel channel;
@@ -25,6 +26,9 @@ public class InflaterReader implements ChannelReader, InterestReadableByteChanne
     /** the temporary buffer that data from the channel goes to prior to inflating */
     private ByteBuffer data;
     
+    /** the time spent inflating, in nanoseconds */
+    private volatile long inflateTime;
+    
     /**
      * Constructs a new InflaterReader without an underlying source.
      * <p>
@@ -58,6 +62,19 @@ public class InflaterReader implements ChannelReader, InterestReadableByteChanne
         this.channel = channel;
     }
     
+    /** Returns the time spent inflating, in nanoseconds. */
+    public long getInflateTime() {
+        return inflateTime;
+    }
+    
+    /**
+     * Stops using the inflater, so that it can be handed to another reader.
+     * Any later read throws an <code>IOException</code>.
+     */
+    public void release() {
+        inflater = null;
+    }
+    
     /** Gets the read channel */
     public InterestReadableByteChannel getReadChannel() {
         return channel;
@@ -86,6 +103,10 @@ public class InflaterReader implements ChannelReader, InterestReadableByteChanne
      * a valid channel.
      */
     public int read(ByteBuffer buffer) throws IOException {
+        Inflater inflater = this.inflater;
+        if(inflater == null)
+            throw new ClosedChannelException();
+        
         int written = 0;
         int read = 0;
         
@@ -96,7 +117,7 @@ public class InflaterReader implements ChannelReader, InterestReadableByteChanne
         // c) no data can be inflated & no data can be read off the channel
         while(buffer.hasRemaining()) { // (case a above)
             // first try to inflate any prior input from the inflater.
-            int inflated = inflate(buffer);
+            int inflated = inflate(inflater, buffer);
             written += inflated;
             
             // if we couldn't inflate anything...
@@ -139,10 +160,11 @@ public class InflaterReader implements ChannelReader, InterestReadableByteChanne
     }
     
     /** Inflates data to this buffer. */
-    private int inflate(ByteBuffer buffer) throws IOException {
+    private int inflate(Inflater inflater, ByteBuffer buffer) throws IOException {
         int written = 0;
         
         int position = buffer.position();
+        long start = System.nanoTime();
         try {
             written = inflater.inflate(buffer.array(), position, buffer.remaining());
         } catch(DataFormatException dfe) {
@@ -154,6 +176,8 @@ public class InflaterReader implements ChannelReader, InterestReadableByteChanne
             IOException x = new IOException();
             x.initCause(npe);
             throw x;
+        } finally {
+            inflateTime += System.nanoTime() - start;
         }
             
         buffer.position(position + written);
@@ -1,8 +1,11 @@
 package org.limewire.nio.channel;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.Executor;
 
 import org.limewire.nio.NIODispatcher;
 import org.limewire.nio.RequiresSelectionKeyAttachment;
@@ -179,8 +182,12 @@ public class ThrottleWriter implements ChannelWriter, InterestWritableByteChanne
         return channel != null && channel.hasBufferedOutput();
     }
  
+    /**
+     * Changes the throttle on the thread that handles the socket this
+     * writes to.
+     */
     public void setThrottle(final Throttle throttle) {
-        NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+        getExecutor().execute(new Runnable() {
             public void run() {
                 setThrottleInternal(throttle);
             }
@@ -199,6 +206,18 @@ public class ThrottleWriter implements ChannelWriter, InterestWritableByteChanne
         }
     }
 
+    /**
+     * Returns the executor of the thread that handles the socket this writes
+     * to, or of the main NIO thread if it is not known yet.
+     */
+    private Executor getExecutor() {
+        Object attachment = throttleListener.getAttachment();
+        SelectableChannel socketChannel = null;
+        if (attachment instanceof Socket)
+            socketChannel = ((Socket)attachment).getChannel();
+        return NIODispatcher.instance().getScheduledExecutorService(socketChannel);
+    }
+
     /**
      * To work with the <code>Throttle</code>, <code>ThrottleWriter</code>
      * uses an attachment. This attachment must be the same as the
@@ -212,7 +231,7 @@ public class ThrottleWriter implements ChannelWriter, InterestWritableByteChanne
     private final class Listener implements ThrottleListener {        
 
         /** The object that the Throttle will recognize as the SelectionKey attachments */
-        private Object attachment;
+        private volatile Object attachment;
         
         /**
          * Notification from the <code>Throttle</code> that bandwidth is available.
@@ -1,9 +1,11 @@
 package org.limewire.nio.statemachine;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,13 +38,37 @@ public class IOStateMachine implements ChannelReadObserver, ChannelWriter, Inter
     private ByteBuffer readBuffer;
     /** Whether or not we've shutdown this handshaker. */
     private volatile boolean shutdown;
+    /** Runs tasks on the thread that handles the socket. */
+    private final Executor executor;
     
     public IOStateMachine(IOStateObserver observer, List<IOState> states) {
         this(observer, states, 2048);
     }
 
     public IOStateMachine(IOStateObserver observer, List<IOState> states, int bufferSize) {
+        this(observer, states, bufferSize, NIODispatcher.instance().getScheduledExecutorService());
+    }
+    
+    /**
+     * Constructs a state machine for the given socket, running added states
+     * on the thread that handles the socket.
+     */
+    public IOStateMachine(IOStateObserver observer, List<IOState> states, Socket socket) {
+        this(observer, states, 2048, socket);
+    }
+    
+    /**
+     * Constructs a state machine for the given socket, running added states
+     * on the thread that handles the socket.
+     */
+    public IOStateMachine(IOStateObserver observer, List<IOState> states, int bufferSize, Socket socket) {
+        this(observer, states, bufferSize,
+                NIODispatcher.instance().getScheduledExecutorService(socket.getChannel()));
+    }
+
+    private IOStateMachine(IOStateObserver observer, List<IOState> states, int bufferSize, Executor executor) {
         this.observer = observer;
+        this.executor = executor;
         this.states = states;
         this.readBuffer = NIODispatcher.instance().getBufferCache().getHeap(bufferSize);
         if(!states.isEmpty())
@@ -53,7 +79,7 @@ public class IOStateMachine implements ChannelReadObserver, ChannelWriter, Inter
      * Adds a new state to process.
      */
     public void addState(final IOState newState) {
-        NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+        executor.execute(new Runnable() {
             public void run() {
                 if(LOG.isDebugEnabled())
                     LOG.debug("Adding single state: " + newState);
@@ -69,7 +95,7 @@ public class IOStateMachine implements ChannelReadObserver, ChannelWriter, Inter
      * Adds a collection of new states to process.
      */
     public void addStates(final List<? extends IOState> newStates) {
-        NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+        executor.execute(new Runnable() {
             public void run() {
                 if(LOG.isDebugEnabled())
                     LOG.debug("Adding multiple states: " + newStates);
@@ -84,7 +110,7 @@ public class IOStateMachine implements ChannelReadObserver, ChannelWriter, Inter
      * Adds an array of new states to process.
      */
     public void addStates(final IOState... newStates) {
-        NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+        executor.execute(new Runnable() {
             public void run() {
                 if(LOG.isDebugEnabled())
                     LOG.debug("Adding multiple states...");
@@ -285,10 +311,10 @@ public class IOStateMachine implements ChannelReadObserver, ChannelWriter, Inter
             observer.shutdown();
         }
         
-        // This must be done on the NIO thread, else the NIO thread could
+        // This must be done on the socket's NIO thread, else that thread could
         // currently be processing this buffer, and things may continue to
         // process it after we release it.
-        NIODispatcher.instance().getScheduledExecutorService().execute(new Runnable() {
+        executor.execute(new Runnable() {
             public void run() {
                 NIODispatcher.instance().getBufferCache().release(readBuffer);
             }
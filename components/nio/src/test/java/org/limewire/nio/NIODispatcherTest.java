@@ -12,6 +12,8 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
@@ -574,6 +576,100 @@ public class NIODispatcherTest extends BaseTestCase {
         c1.close();
     }
     
+    public void testSelectorPool() throws Exception {
+        NIODispatcher dispatcher = NIODispatcher.instance();
+        dispatcher.setSelectorCount(2);
+        try {
+            assertEquals(2, dispatcher.getSelectorCount());
+            assertGreaterThanOrEquals(2, dispatcher.getSelectorStats().size());
+            
+            Set<String> threads = new HashSet<String>();
+            for(int i = 0; i < 4; i++) {
+                StubReadObserver observer = new StubReadObserver();
+                final SocketChannel channel = observer.getChannel();
+                channel.connect(LISTEN_ADDR);
+                Socket accepted = LISTEN_SOCKET.accept();
+                while(!channel.finishConnect())
+                    Thread.sleep(5);
+                dispatcher.registerRead(channel, observer);
+                accepted.getOutputStream().write(StringUtils.toAsciiBytes("hello"));
+                
+                for(int j = 0; j < 100 && observer.getReadsHandled() == 0; j++)
+                    Thread.sleep(10);
+                assertEquals("hello", StringUtils.getASCIIString(observer.getReadBuffer().array(), 0, 5));
+                
+                // tasks for the channel run on the thread that handles its events
+                Future<String> f = dispatcher.getScheduledExecutorService(channel).submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        assertTrue(NIODispatcher.instance().isDispatchThread(channel));
+                        // only the primary thread is the dispatch thread of everything else
+                        assertEquals(Thread.currentThread().getName().equals("NIODispatcher"),
+                                NIODispatcher.instance().isDispatchThread());
+                        return Thread.currentThread().getName();
+                    }
+                });
+                threads.add(f.get());
+                assertFalse(dispatcher.isDispatchThread(channel));
+                
+                channel.close();
+                accepted.close();
+            }
+            assertTrue(threads.toString(), threads.contains("NIODispatcher-1"));
+            
+            // server sockets stay on the primary selector
+            final ServerSocketChannel server = ServerSocketChannel.open();
+            try {
+                Future<String> f = dispatcher.getScheduledExecutorService(server).submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return Thread.currentThread().getName();
+                    }
+                });
+                assertEquals("NIODispatcher", f.get());
+            } finally {
+                server.close();
+            }
+        } finally {
+            dispatcher.setSelectorCount(1);
+        }
+        assertEquals(1, dispatcher.getSelectorCount());
+    }
+    
+    /**
+     * Tests that a channel registered while there is only one selector stays
+     * on it when more selectors are added.
+     */
+    public void testChannelStaysOnPrimaryWhenPoolGrows() throws Exception {
+        NIODispatcher dispatcher = NIODispatcher.instance();
+        assertEquals(1, dispatcher.getSelectorCount());
+        StubReadObserver observer = new StubReadObserver();
+        final SocketChannel channel = observer.getChannel();
+        channel.connect(LISTEN_ADDR);
+        Socket accepted = LISTEN_SOCKET.accept();
+        while(!channel.finishConnect())
+            Thread.sleep(5);
+        dispatcher.registerRead(channel, observer);
+        
+        dispatcher.setSelectorCount(3);
+        try {
+            Future<String> f = dispatcher.getScheduledExecutorService(channel).submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return Thread.currentThread().getName();
+                }
+            });
+            assertEquals("NIODispatcher", f.get());
+            
+            // and its events are still handled
+            accepted.getOutputStream().write(StringUtils.toAsciiBytes("hello"));
+            for(int j = 0; j < 100 && observer.getReadsHandled() == 0; j++)
+                Thread.sleep(10);
+            assertEquals("hello", StringUtils.getASCIIString(observer.getReadBuffer().array(), 0, 5));
+        } finally {
+            dispatcher.setSelectorCount(1);
+            channel.close();
+            accepted.close();
+        }
+    }
+    
     private void connect(SocketChannel c, SocketAddress a, StubReadConnectObserver o) throws Exception {
         if(!c.connect(a)) {
             NIODispatcher.instance().registerConnect(c, o, 1000);
@@ -0,0 +1,92 @@
+package org.limewire.nio;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class ZlibCacheTest extends BaseTestCase {
+
+    public ZlibCacheTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(ZlibCacheTest.class);
+    }
+
+    private ZlibCache CACHE;
+
+    @Override
+    public void setUp() {
+        CACHE = new ZlibCache();
+    }
+
+    @Override
+    public void tearDown() {
+        CACHE.clearCache();
+    }
+
+    /**
+     * Tests that a released deflater is reset and handed out again at the
+     * requested level.
+     */
+    public void testReusesDeflater() throws Exception {
+        Deflater deflater = CACHE.getDeflater(Deflater.BEST_COMPRESSION);
+        byte[] data = new byte[1000];
+        deflater.setInput(data);
+        deflater.finish();
+        deflater.deflate(new byte[1000]);
+        assertEquals(1000, deflater.getTotalIn());
+
+        CACHE.release(deflater);
+        assertEquals(1, CACHE.getDeflaterCacheSize());
+        assertSame(deflater, CACHE.getDeflater(Deflater.NO_COMPRESSION));
+        assertEquals(0, CACHE.getDeflaterCacheSize());
+        assertEquals(0, deflater.getTotalIn());
+
+        // stored, so larger than the input
+        byte[] out = new byte[2000];
+        deflater.setInput(data);
+        deflater.finish();
+        int deflated = 0;
+        while(!deflater.finished())
+            deflated += deflater.deflate(out, deflated, out.length - deflated);
+        assertGreaterThan(data.length, deflated);
+        deflater.end();
+    }
+
+    public void testReusesInflater() throws Exception {
+        Inflater inflater = CACHE.getInflater();
+        CACHE.release(inflater);
+        assertEquals(1, CACHE.getInflaterCacheSize());
+        assertSame(inflater, CACHE.getInflater());
+        assertNotSame(inflater, CACHE.getInflater());
+        inflater.end();
+    }
+
+    /**
+     * Tests that clearing the cache ends the cached objects.
+     */
+    public void testClearEnds() throws Exception {
+        Deflater deflater = CACHE.getDeflater(Deflater.DEFAULT_COMPRESSION);
+        Inflater inflater = CACHE.getInflater();
+        CACHE.release(deflater);
+        CACHE.release(inflater);
+        CACHE.clearCache();
+        assertEquals(0, CACHE.getDeflaterCacheSize());
+        assertEquals(0, CACHE.getInflaterCacheSize());
+        try {
+            deflater.getTotalIn();
+            fail("expected ended deflater");
+        } catch (NullPointerException expected) {
+        }
+        try {
+            inflater.getTotalIn();
+            fail("expected ended inflater");
+        } catch (NullPointerException expected) {
+        }
+    }
+}
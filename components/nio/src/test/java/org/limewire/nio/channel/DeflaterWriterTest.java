@@ -1,9 +1,11 @@
 package org.limewire.nio.channel;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
@@ -160,6 +162,53 @@ public final class DeflaterWriterTest extends BaseTestCase {
         assertTrue("expected data in WRITER.outgoing", WRITER.hasBufferedOutput());
     }
 
+    public void testAsksForLevelAtEachFlush() throws Exception {
+        final AtomicInteger asked = new AtomicInteger();
+        WRITER = new DeflaterWriter(DEFLATER, new DeflateLevel() {
+            public int getLevel() {
+                // alternates, and never stores
+                return asked.incrementAndGet() % 2 == 0 ? Deflater.BEST_SPEED
+                        : Deflater.NO_COMPRESSION;
+            }
+        });
+        WRITER.setWriteChannel(SINK);
+        SOURCE = new WriteBufferChannel(WRITER);
+
+        for(int i = 0; i < 3; i++) {
+            SINK.clear();
+            byte[] data = data(3 * 1024);
+            SOURCE.setBuffer(buffer(data));
+            assertFalse(WRITER.handleWrite());
+            assertEquals(data, inflate(SINK.getBuffer()));
+        }
+
+        // once before the first write, and once after each
+        assertEquals(4, asked.get());
+        assertGreaterThan(0, WRITER.getDeflateTime());
+    }
+
+    /**
+     * Tests that a released writer stops using its deflater, so that the
+     * deflater can be reused by another writer.
+     */
+    public void testWriteAfterReleaseFails() throws Exception {
+        SOURCE.setBuffer(buffer(data(1024)));
+        assertFalse(WRITER.handleWrite());
+        long totalIn = DEFLATER.getBytesRead();
+        
+        WRITER.release();
+        try {
+            WRITER.write(buffer(data(1024)));
+            fail("expected IOException");
+        } catch(IOException expected) {}
+        SOURCE.setBuffer(buffer(data(1024)));
+        try {
+            WRITER.handleWrite();
+            fail("expected IOException");
+        } catch(IOException expected) {}
+        assertEquals(totalIn, DEFLATER.getBytesRead());
+    }
+
 	private byte[] data(int size) {
 	    byte[] data = new byte[size];
 	   // for(int i = 0; i < size; i++)
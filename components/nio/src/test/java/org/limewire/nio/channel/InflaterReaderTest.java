@@ -187,6 +187,33 @@ public final class InflaterReaderTest extends BaseTestCase {
         assertEquals("stream shouldn't have ended.", 0, READER.read(in));
     }
     
+    /**
+     * Tests that a released reader stops using its inflater, so that the
+     * inflater can be reused by another reader.
+     */
+    public void testReadAfterReleaseFails() throws Exception {
+        byte[] out = new byte[1024];
+        new Random().nextBytes(out);
+        ByteBuffer b = stream(out);
+        ByteBuffer b2 = b.duplicate();
+        b.limit(500);
+        b2.position(500);
+        
+        READER.setReadChannel(channel(b));
+        ByteBuffer in = ByteBuffer.allocate(out.length);
+        READER.read(in);
+        long totalIn = INFLATER.getBytesRead();
+        
+        READER.release();
+        READER.setReadChannel(channel(b2));
+        try {
+            READER.read(in);
+            fail("expected IOException");
+        } catch(IOException expected) {}
+        assertEquals(totalIn, INFLATER.getBytesRead());
+        assertTrue(b2.hasRemaining());
+    }
+    
     private InterestReadableByteChannel channel(ByteBuffer buffer) throws Exception {
         return new ReadBufferChannel(buffer);
     }
@@ -0,0 +1,229 @@
+package org.limewire.rudp;
+
+/**
+ * A hierarchical timing wheel of {@link UDPTimerEvent UDPTimerEvents} with
+ * one millisecond ticks.  Adding, moving and removing an event takes
+ * constant time, as does expiring it.
+ * <p>
+ * The first wheel has a slot for each of the next 256 ticks.  Each of the
+ * three wheels above it has 64 slots, each slot covering a whole turn of the
+ * wheel below.  When the wheel below completes a turn, the events in the
+ * next slot of the wheel above are moved down.  Events further away than
+ * the top wheel reaches, about 18 hours, are put in its last slot and
+ * moved on when they get there.
+ * <p>
+ * Events are kept in intrusive lists, so the wheel never allocates.  It is
+ * not thread safe; only the {@link UDPScheduler} thread uses it.
+ * <p>
+ * If the clock is set back, the wheel starts over from the new time, keeping
+ * how far ahead each event was.
+ */
+class TimingWheel {
+
+    private static final int FIRST_BITS = 8;
+    private static final int FIRST_SIZE = 1 << FIRST_BITS;
+    private static final int FIRST_MASK = FIRST_SIZE - 1;
+
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+
+    private static final int LEVELS = 4;
+
+    /** How many ticks ahead the top wheel reaches. */
+    private static final long HORIZON = 1L << (FIRST_BITS + (LEVELS - 1) * LEVEL_BITS);
+
+    /** The first event in each slot of each wheel. */
+    private final UDPTimerEvent[][] slots = new UDPTimerEvent[LEVELS][];
+
+    /** The number of events in each wheel. */
+    private final int[] counts = new int[LEVELS];
+
+    /** The next tick to expire. */
+    private long currentTick;
+
+    /** Called with each expired event. */
+    interface Expirer {
+        void expire(UDPTimerEvent evt);
+    }
+
+    TimingWheel(long now) {
+        slots[0] = new UDPTimerEvent[FIRST_SIZE];
+        for (int level = 1; level < LEVELS; level++)
+            slots[level] = new UDPTimerEvent[LEVEL_SIZE];
+        currentTick = now;
+    }
+
+    /**
+     * Adds the event to expire at <code>time</code>, moving it if it was
+     * added before.  Times that have passed expire on the next advance.
+     */
+    void schedule(UDPTimerEvent evt, long time) {
+        remove(evt);
+        insert(evt, Math.max(time, currentTick));
+    }
+
+    /** Removes the event, if it was added. */
+    void remove(UDPTimerEvent evt) {
+        if (evt._wheelLevel == -1)
+            return;
+        UDPTimerEvent[] wheel = slots[evt._wheelLevel];
+        if (evt._wheelPrev == null)
+            wheel[evt._wheelSlot] = evt._wheelNext;
+        else
+            evt._wheelPrev._wheelNext = evt._wheelNext;
+        if (evt._wheelNext != null)
+            evt._wheelNext._wheelPrev = evt._wheelPrev;
+        counts[evt._wheelLevel]--;
+        evt._wheelLevel = -1;
+        evt._wheelNext = null;
+        evt._wheelPrev = null;
+    }
+
+    /** Returns whether the event is in the wheel. */
+    boolean contains(UDPTimerEvent evt) {
+        return evt._wheelLevel != -1;
+    }
+
+    /** Returns the number of events in the wheel. */
+    int size() {
+        int size = 0;
+        for (int count : counts)
+            size += count;
+        return size;
+    }
+
+    private void insert(UDPTimerEvent evt, long tick) {
+        long delta = tick - currentTick;
+        if (delta >= HORIZON) {
+            tick = currentTick + HORIZON - 1;
+            delta = HORIZON - 1;
+        }
+        int level;
+        int slot;
+        if (delta < FIRST_SIZE) {
+            level = 0;
+            slot = (int)(tick & FIRST_MASK);
+        } else {
+            level = 1;
+            int shift = FIRST_BITS;
+            while (delta >= 1L << (shift + LEVEL_BITS)) {
+                level++;
+                shift += LEVEL_BITS;
+            }
+            slot = (int)((tick >>> shift) & LEVEL_MASK);
+        }
+        UDPTimerEvent[] wheel = slots[level];
+        evt._wheelTick = tick;
+        evt._wheelLevel = level;
+        evt._wheelSlot = slot;
+        evt._wheelPrev = null;
+        evt._wheelNext = wheel[slot];
+        if (wheel[slot] != null)
+            wheel[slot]._wheelPrev = evt;
+        wheel[slot] = evt;
+        counts[level]++;
+    }
+
+    /**
+     * Expires all events due at or before <code>now</code>, in the order of
+     * their ticks.  Expired events are removed before the expirer is
+     * called, so it may add them again.
+     */
+    void advance(long now, Expirer expirer) {
+        if (now < currentTick - FIRST_SIZE)
+            rebase(now);
+        if (size() == 0) {
+            currentTick = Math.max(currentTick, now + 1);
+            return;
+        }
+        while (currentTick <= now) {
+            if ((currentTick & FIRST_MASK) == 0)
+                cascade();
+            if (counts[0] == 0) {
+                // nothing to expire until the next turn
+                currentTick = Math.min((currentTick | FIRST_MASK) + 1, now + 1);
+                continue;
+            }
+            int slot = (int)(currentTick & FIRST_MASK);
+            UDPTimerEvent evt;
+            while ((evt = slots[0][slot]) != null) {
+                remove(evt);
+                expirer.expire(evt);
+            }
+            currentTick++;
+        }
+    }
+
+    /**
+     * Moves the wheel back to <code>now</code> after the clock was set back.
+     * Each event stays as far ahead of the current tick as it was; events
+     * added since the clock went back were put at the current tick, so they
+     * expire on this advance and the expirer can add them again.
+     */
+    private void rebase(long now) {
+        long shift = currentTick - now;
+        UDPTimerEvent moved = null;
+        for (int level = 0; level < LEVELS; level++) {
+            UDPTimerEvent[] wheel = slots[level];
+            for (int slot = 0; slot < wheel.length; slot++) {
+                UDPTimerEvent evt = wheel[slot];
+                wheel[slot] = null;
+                while (evt != null) {
+                    UDPTimerEvent next = evt._wheelNext;
+                    evt._wheelNext = moved;
+                    moved = evt;
+                    evt = next;
+                }
+            }
+            counts[level] = 0;
+        }
+        currentTick = now;
+        while (moved != null) {
+            UDPTimerEvent next = moved._wheelNext;
+            insert(moved, Math.max(moved._wheelTick - shift, now));
+            moved = next;
+        }
+    }
+
+    /**
+     * Moves the events of the next slot of each wheel above into the wheels
+     * below, when the wheel below has completed a turn.
+     */
+    private void cascade() {
+        int shift = FIRST_BITS;
+        for (int level = 1; level < LEVELS; level++) {
+            int slot = (int)((currentTick >>> shift) & LEVEL_MASK);
+            UDPTimerEvent evt = slots[level][slot];
+            slots[level][slot] = null;
+            while (evt != null) {
+                UDPTimerEvent next = evt._wheelNext;
+                counts[level]--;
+                evt._wheelLevel = -1;
+                insert(evt, evt._wheelTick);
+                evt = next;
+            }
+            if (slot != 0)
+                break;
+            shift += LEVEL_BITS;
+        }
+    }
+
+    /**
+     * Returns the time by which {@link #advance(long, Expirer)} has to be
+     * called next, or <code>Long.MAX_VALUE</code> if the wheel is empty.
+     */
+    long nextDeadline() {
+        if (counts[0] > 0) {
+            for (long tick = currentTick; tick < currentTick + FIRST_SIZE; tick++) {
+                if (slots[0][(int)(tick & FIRST_MASK)] != null)
+                    return tick;
+            }
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            if (counts[level] > 0)
+                return (currentTick + FIRST_MASK) & ~(long)FIRST_MASK;
+        }
+        return Long.MAX_VALUE;
+    }
+}
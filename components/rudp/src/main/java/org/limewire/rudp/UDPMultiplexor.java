@@ -10,10 +10,14 @@ import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.AbstractSelector;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
@@ -24,6 +28,11 @@ import org.limewire.rudp.messages.SynMessage;
 /** 
  *  Manages the assignment of connection IDs and the routing of 
  *  {@link RUDPMessage RUDPMessages}. 
+ *  <p>
+ *  Connection IDs only have to be unique per remote address, since messages
+ *  are routed on the address they came from and the ID they carry.  So up
+ *  to 255 connections can be open to each remote address, and any number
+ *  in total.
  */
 public class UDPMultiplexor extends AbstractSelector {
 
@@ -32,8 +41,14 @@ public class UDPMultiplexor extends AbstractSelector {
 	/** The 0 slot is for incoming new connections so it is not assigned */
 	public static final byte UNASSIGNED_SLOT   = 0;
 
-	/** Keep track of the assigned connections */
-	private volatile UDPSocketChannel[] _channels;
+	/** The assigned connections, by remote address and connection ID */
+	private final ConcurrentMap<ConnectionKey, UDPSocketChannel> _channels;
+
+    /**
+     * The assigned connections to each remote host, for matching SYNs that
+     * don't carry our connection ID yet.  The arrays are copied on write.
+     */
+    private final ConcurrentMap<InetAddress, UDPSocketChannel[]> _hosts;
     
     /** A list of overflowed channels when registering. */
     private final List<SelectableChannel> channelsToRemove = new LinkedList<SelectableChannel>();
@@ -55,7 +70,8 @@ public class UDPMultiplexor extends AbstractSelector {
     UDPMultiplexor(SelectorProvider provider, RUDPContext context) {
         super(provider);
         this.context = context;
-		_channels       = new UDPSocketChannel[256];
+		_channels       = new ConcurrentHashMap<ConnectionKey, UDPSocketChannel>();
+		_hosts          = new ConcurrentHashMap<InetAddress, UDPSocketChannel[]>();
 		_lastConnectionID  = 0;
     }
     
@@ -63,17 +79,7 @@ public class UDPMultiplexor extends AbstractSelector {
      * Determines if we're connected to the given host.
      */
     public boolean isConnectedTo(InetAddress host) {
-        UDPSocketChannel[] array = _channels;
-
-        if (_lastConnectionID == 0)
-            return false;
-        for (int i = 0; i < array.length; i++) {
-            UDPSocketChannel channel = array[i];
-            if (channel != null && host.equals(channel.getRemoteSocketAddress().getAddress())) {
-                return true;
-            }
-        }
-        return false;
+        return _hosts.containsKey(host);
     }
 
     /**
@@ -82,36 +88,32 @@ public class UDPMultiplexor extends AbstractSelector {
 	 *  Notifies the provided listener (if any) if the channel is ready to produce events.
      */
 	public void routeMessage(RUDPMessage msg, InetSocketAddress addr) {
-        UDPSocketChannel[] array = _channels;
-		int connID = msg.getConnectionID() & 0xff;
+		byte connID = msg.getConnectionID();
 		UDPSocketChannel channel = null;
 		// If connID equals 0 and SynMessage then associate with a connection
         // that appears to want it (connecting and with knowledge of it).
-		if ( connID == 0 && msg instanceof SynMessage ) {
+		if ( connID == UNASSIGNED_SLOT && msg instanceof SynMessage ) {
 		    LOG.debugf("route sym: {0}", msg);
-			for (int i = 1; i < array.length; i++) {
-                channel = array[i];
-                if(channel == null)
-                    continue;
-                
-                LOG.debugf("non-empty index: {0}, addr: {1}", i, channel.getRemoteSocketAddress());
-                
-				if ( channel.isConnectionPending() && channel.isForMe(addr, (SynMessage)msg)) {
-				    LOG.debugf("found index: {0}, sender id: {1}", i, ((SynMessage)msg).getSenderConnectionID());
-                    channel.getProcessor().handleMessage(msg);
-					break;
-				} 
-			}
+            UDPSocketChannel[] array = _hosts.get(addr.getAddress());
+            if (array != null) {
+                for (UDPSocketChannel candidate : array) {
+                    if ( candidate.isConnectionPending() && candidate.isForMe(addr, (SynMessage)msg)) {
+                        LOG.debugf("found channel: {0}, sender id: {1}", candidate, ((SynMessage)msg).getSenderConnectionID());
+                        channel = candidate;
+                        channel.getProcessor().handleMessage(msg);
+                        break;
+                    }
+                }
+            }
 			// Note: eventually these messages should find a match
 			// so it is safe to throw away premature ones
 
-		} else if(array[connID] != null) {  // If valid connID then send on to connection
-            channel = array[connID];
+		} else if((channel = _channels.get(new ConnectionKey(addr, connID))) != null) {
+            // If valid connID then send on to connection
             if (msg instanceof SynMessage) {
                 LOG.debugf("already assigned syn: {0}", msg);
             }
-			if (channel.getRemoteSocketAddress().equals(addr) )
-                channel.getProcessor().handleMessage(msg);
+            channel.getProcessor().handleMessage(msg);
 		} else {
 		    LOG.debugf("message for non-existing connection: {0}", msg);
 		}
@@ -127,8 +129,9 @@ public class UDPMultiplexor extends AbstractSelector {
 
     /**
      * Registers a new channel with this Selector.
-     * If we've already stored over the limit of channels, this will store
-     * the channel in a temporary list to be cancelled on the next selection.
+     * If we've already stored over the limit of channels to the channel's
+     * remote address, this will store the channel in a temporary list to be
+     * cancelled on the next selection.
      */
     @Override
     protected synchronized SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
@@ -138,12 +141,9 @@ public class UDPMultiplexor extends AbstractSelector {
             throw new IllegalSelectorException();
         
         UDPSocketChannel channel = (UDPSocketChannel)ch;
+        InetSocketAddress addr = channel.getRemoteSocketAddress();
 
-        UDPSocketChannel[] copy = new UDPSocketChannel[_channels.length];
-        for (int i = 0; i < _channels.length; i++)
-            copy[i] = _channels[i];
-
-        for (int i = 1; i <= copy.length; i++) {
+        for (int i = 1; i <= 256; i++) {
             connID = (_lastConnectionID + i) % 256;
 
             // We don't assign zero.
@@ -151,11 +151,13 @@ public class UDPMultiplexor extends AbstractSelector {
                 continue;
 
             // If the slot is open, take it.
-            if (copy[connID] == null) {
+            ConnectionKey key = new ConnectionKey(addr, (byte)connID);
+            if (!_channels.containsKey(key)) {
                 _lastConnectionID = connID;
-                copy[connID] = channel;
                 channel.getProcessor().setConnectionId((byte)connID);
-                _channels = copy;
+                _channels.put(key, channel);
+                if (addr != null)
+                    addToHost(addr.getAddress(), channel);
                 return new UDPSelectionKey(this, att, ch, ops);
             }
         }
@@ -167,17 +169,46 @@ public class UDPMultiplexor extends AbstractSelector {
         return new UDPSelectionKey(this, att, ch, ops);
     }
 
+    private void addToHost(InetAddress host, UDPSocketChannel channel) {
+        UDPSocketChannel[] array = _hosts.get(host);
+        UDPSocketChannel[] copy;
+        if (array == null) {
+            copy = new UDPSocketChannel[] { channel };
+        } else {
+            copy = new UDPSocketChannel[array.length + 1];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = channel;
+        }
+        _hosts.put(host, copy);
+    }
+
+    private void removeFromHost(InetAddress host, UDPSocketChannel channel) {
+        UDPSocketChannel[] array = _hosts.get(host);
+        if (array == null)
+            return;
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == channel) {
+                if (array.length == 1) {
+                    _hosts.remove(host);
+                } else {
+                    UDPSocketChannel[] copy = new UDPSocketChannel[array.length - 1];
+                    System.arraycopy(array, 0, copy, 0, i);
+                    System.arraycopy(array, i + 1, copy, i, copy.length - i);
+                    _hosts.put(host, copy);
+                }
+                return;
+            }
+        }
+    }
+
     /**
      * Returns all {@link SelectionKey SelectionKeys} this Selector is currently in control of.
      */
     @Override
     public Set<SelectionKey> keys() {
-        UDPSocketChannel[] channels = _channels;
         Set<SelectionKey> keys = new HashSet<SelectionKey>();
-        for(int i = 0; i < channels.length; i++) {
-            if(channels[i] != null)
-                keys.add(channels[i].keyFor(this));
-        }
+        for(UDPSocketChannel channel : _channels.values())
+            keys.add(channel.keyFor(this));
         synchronized(this) {
             for(SelectableChannel channel : channelsToRemove)
                 keys.add(channel.keyFor(this));
@@ -203,15 +234,12 @@ public class UDPMultiplexor extends AbstractSelector {
     /** Polls through all available channels and returns those that are ready. */
     @Override
     public int selectNow() throws IOException {
-        UDPSocketChannel[] array = _channels;
-        UDPSocketChannel[] removed = null;
+        List<Map.Entry<ConnectionKey, UDPSocketChannel>> removed = null;
 
         selectedKeys.clear();
         
-        for (int i = 0; i < array.length; i++) {
-            UDPSocketChannel channel = array[i];
-            if (channel == null)
-                continue;
+        for (Map.Entry<ConnectionKey, UDPSocketChannel> entry : _channels.entrySet()) {
+            UDPSocketChannel channel = entry.getValue();
 
             UDPSelectionKey key = (UDPSelectionKey)channel.keyFor(this);
             if (key != null) {
@@ -224,26 +252,23 @@ public class UDPMultiplexor extends AbstractSelector {
                     }
                 } else {
                     if (removed == null)
-                        removed = new UDPSocketChannel[array.length];
-                    removed[i] = channel;
+                        removed = new ArrayList<Map.Entry<ConnectionKey, UDPSocketChannel>>();
+                    removed.add(entry);
                 }
             }
         }
 
-        // Go through the removed list & remove them from _connections.
-        // _connections may have changed (since we didn't lock while polling),
-        // so we need to check and ensure the given UDPConnectionProcessor
-        // is the same.
+        // Go through the removed list & remove them from _channels.
+        // _channels may have changed (since we didn't lock while polling),
+        // so we need to check and ensure the given channel is the same.
         synchronized (this) {
             if (removed != null) {
-                UDPSocketChannel[] copy = new UDPSocketChannel[_channels.length];
-                for (int i = 0; i < _channels.length; i++) {
-                    if (_channels[i] == removed[i])
-                        copy[i] = null;
-                    else
-                        copy[i] = _channels[i];
+                for (Map.Entry<ConnectionKey, UDPSocketChannel> entry : removed) {
+                    ConnectionKey key = entry.getKey();
+                    UDPSocketChannel channel = entry.getValue();
+                    if (_channels.remove(key, channel) && key.address != null)
+                        removeFromHost(key.address.getAddress(), channel);
                 }
-                _channels = copy;
             }
             
             if(!channelsToRemove.isEmpty()) {
@@ -265,4 +290,32 @@ public class UDPMultiplexor extends AbstractSelector {
         // Does nothing, since this never blocks.
         return this;
     }
+
+    /** A remote address and the connection ID that messages from it carry. */
+    private static class ConnectionKey {
+
+        /** The remote address, or null if the channel isn't connecting. */
+        private final InetSocketAddress address;
+
+        private final byte connectionID;
+
+        ConnectionKey(InetSocketAddress address, byte connectionID) {
+            this.address = address;
+            this.connectionID = connectionID;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ConnectionKey))
+                return false;
+            ConnectionKey other = (ConnectionKey)obj;
+            return connectionID == other.connectionID
+                    && (address == null ? other.address == null : address.equals(other.address));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (address == null ? 0 : address.hashCode()) + connectionID;
+        }
+    }
 }
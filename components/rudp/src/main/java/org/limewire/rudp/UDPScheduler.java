@@ -1,9 +1,12 @@
 package org.limewire.rudp;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import org.limewire.concurrent.ManagedThread;
+import org.limewire.inspection.InspectionPoint;
+import org.limewire.statistic.LatencyHistogram;
 
 
 /** 
@@ -14,41 +17,52 @@ import org.limewire.concurrent.ManagedThread;
  *  a {@link UDPTimerEvent#handleEvent()} method defined.
  *  </p><p>
  *  Re-call {@link #scheduleEvent(UDPTimerEvent)} if the time of your event changes. 
- *  </p>
+ *  An event that has run is not run again until it is rescheduled.
+ *  </p><p>
  *  The events must be unregister when you are done with them via 
  *  {@link UDPTimerEvent#unregister()}. 
+ *  </p><p>
+ *  Events are kept in a {@link TimingWheel} that only the scheduler thread
+ *  touches.  Registering and scheduling just queue the event without
+ *  locking, and wake the thread if the event is due before it would wake
+ *  up anyway.
+ *  </p>
  */
 
 public class UDPScheduler extends ManagedThread {
     
    // private static final Log LOG = LogFactory.getLog(UDPScheduler.class);
 
-    /** This is the default event when nothing is scheduled */
-	public static final  UDPTimerEvent NO_EVENT  = new NoEvent(Long.MAX_VALUE);
-
     /** The name that the scheduler thread will have */
 	private static final String NAME_OF_THREAD = "UDPScheduler";
 
-    /** The active list of scheduled events */
-	private List<UDPTimerEvent> _connectionEvents;
+    /** Events that were registered or rescheduled since the thread last looked */
+	private final Queue<UDPTimerEvent> _updates;
+
+    /** The scheduled events, only used by the scheduler thread */
+	private final TimingWheel _wheel;
 
-    /** The next event to be handled */
-	private UDPTimerEvent       _scheduledEvent;
+    /**
+     * When the scheduler thread will wake up, or 0 while it is running.
+     */
+	private volatile long _wakeTime;
+
+    /**
+     * How late events ran, in milliseconds.  Static so it can be inspected,
+     * there is only one scheduler.
+     */
+    @InspectionPoint("rudp timer lag")
+	private static final LatencyHistogram LAG = new LatencyHistogram();
 
     private boolean             _started;
 
 	/** Keep track of a singleton instance */
     private static UDPScheduler _instance    = null;
 
-    /** For offloading the synchronization issues, maintain a second thread
-        for updating events */
-    private UpdateThread                _updateThread;
-    
     /**
-     * object used to make sure only one copy of the two threads exist per
+     * object used to make sure only one copy of the thread exists per
      * enclosing object
      */
-    private final Object _updateThreadLock = new Object();
     private final Object _mainThreadLock = new Object();
 
     /**
@@ -68,10 +82,9 @@ public class UDPScheduler extends ManagedThread {
     private UDPScheduler() {
         super(NAME_OF_THREAD);
         
-		_connectionEvents    = new ArrayList<UDPTimerEvent>();
-		_scheduledEvent      = NO_EVENT;
+		_updates             = new ConcurrentLinkedQueue<UDPTimerEvent>();
+		_wheel               = new TimingWheel(System.currentTimeMillis());
         _started             = false;
-        _updateThread        = null;
     }
 
     /**
@@ -79,20 +92,16 @@ public class UDPScheduler extends ManagedThread {
      */
 	public void register(UDPTimerEvent evt) {
         
-		startThreads();
-        _updateThread.registerEvent(evt);
+		startThread();
+		evt._scheduler = this;
+		queue(evt);
 
 	}
 	
-
-	private final synchronized void registerSync(UDPTimerEvent evt) {
-		_connectionEvents.add(evt);
-	}
-
 	/**
-	 * starts both threads if they haven't been started yet.
+	 * starts the thread if it hasn't been started yet.
 	 */
-	private final void startThreads() {
+	private final void startThread() {
 		synchronized(_mainThreadLock) {
 		    if ( !_started ) {
 		        _started = true;
@@ -100,14 +109,6 @@ public class UDPScheduler extends ManagedThread {
 		        start();
 		    }
 		}
-		
-		synchronized(_updateThreadLock) {
-			if ( _updateThread == null ) {
-				_updateThread = new UpdateThread();
-				_updateThread.setDaemon(true);
-				_updateThread.start();
-			}
-		}
 	}
 
 
@@ -116,106 +117,30 @@ public class UDPScheduler extends ManagedThread {
      */
 	public void scheduleEvent(UDPTimerEvent evt) {
 
-        startThreads();
+        startThread();
 
-        // Pass the event update to the update thread.
-        _updateThread.addEvent(evt);
+        // Events that were never registered are not scheduled
+        if (evt._scheduler == this)
+            queue(evt);
 	}
 
     /**
-     *  Shortcut test for a second thread to deal with the new schedule handoff
+     * Hands the event to the scheduler thread, waking it if the event is
+     * due before the thread would wake up.
      */
-    class UpdateThread extends ManagedThread {
-        List<UDPTimerEvent> _listSchedule;
-        List<UDPTimerEvent> _listRegister;
-
-        /**
-         *  Initialize the list of pending event updates
-         */
-        public UpdateThread() {
-            super("UDPUpdateThread");
-            _listSchedule = new ArrayList<UDPTimerEvent>();
-            _listRegister = new ArrayList<UDPTimerEvent>();
-        }
-
-        /**
-         *  Schedule an event for update in the main event list
-         */
-        public synchronized void addEvent(UDPTimerEvent evt) {
-              _listSchedule.add(evt);
-              notify();
-        }
-        
-        
-        public synchronized void registerEvent(UDPTimerEvent evt) {
-        	_listRegister.add(evt);
-        	notify();
-        }
-        
-        /**
-         *  Process incoming event updates by interacting with the main thread.
-         */
-        @Override
-        public void run() {
-            UDPTimerEvent evt;
-            List<UDPTimerEvent> localListSchedule;
-            List<UDPTimerEvent> localListRegister;
-            while (true) {
-               // Make sure that there is some idle time in the event updating
-               // Otherwise, it will burn cpu
-               try {
-                    Thread.sleep(1);
-               } catch(InterruptedException e) {}
-
-                // Clone list for safe unlocked access
-                synchronized(this) {
-                    localListSchedule = new ArrayList<UDPTimerEvent>(_listSchedule);
-                    _listSchedule.clear();
-                    localListRegister = new ArrayList<UDPTimerEvent>(_listRegister);
-                    _listRegister.clear();
-                }
-
-                
-                //then add any events
-                for(int i = 0; i < localListRegister.size(); i++)
-                    registerSync(localListRegister.get(i));
-                
-                //then reschedule any events
-                for (int i=0; i < localListSchedule.size(); i++) {
-                    evt = localListSchedule.get(i);
-                    updateSchedule(evt);
-                }
-                
-                
-
-
-                // Wait for more event updates
-                synchronized(this) {
-                    if (_listSchedule.size() > 0 || 
-							_listRegister.size() > 0)
-                        continue;
-                    try {
-                        wait();
-                    } catch(InterruptedException e) {}
-                }
-            }
-        }
+    private void queue(UDPTimerEvent evt) {
+        if (evt._queued.compareAndSet(false, true))
+            _updates.add(evt);
+        if (evt.getEventTime() < _wakeTime)
+            LockSupport.unpark(this);
+    }
 
-        /**
-         *  Process the updating of an event
-         */
-        private void updateSchedule(UDPTimerEvent evt) {
-            synchronized(UDPScheduler.this) {
-                // If the event is sooner and still active, make it current
-                if ( evt.getEventTime() < _scheduledEvent.getEventTime() &&
-                     _connectionEvents.contains(evt) ) {
-                    _scheduledEvent      = evt;
-                    
-                    // Notifying 
-                    UDPScheduler.this.notify();
-                }
-            }
-        }
+    /**
+     * Returns how late events ran after their scheduled time, in
+     * milliseconds.
+     */
+    public LatencyHistogram.Snapshot getTimerLag() {
+        return LAG.snapshot();
     }
 
     /**
@@ -224,88 +149,85 @@ public class UDPScheduler extends ManagedThread {
      */
  	@Override
     public void run() {
-		long  waitTime;
-	
-        // Specify that an interrupt is okay
+        TimingWheel.Expirer runner = new TimingWheel.Expirer() {
+            public void expire(UDPTimerEvent evt) {
+                runEvent(evt);
+            }
+        };
 
 		while (true) {
-            // wait for an existing or future event
-            try {
-            	synchronized(this) {
-                    if ( _scheduledEvent == NO_EVENT ) {
-                        // Wait a long time since there is nothing to do
-                        waitTime = 0;
-                    } else {
-                        // Wait for specific event
-                        waitTime = _scheduledEvent.getEventTime() - 
-                          System.currentTimeMillis();
-                        if (waitTime ==0)
-                        	waitTime=-1;
-                    }
-                    
-                    if (waitTime >=0)
-                		wait(waitTime);
-                }
-            } catch(InterruptedException e) {
+            // Move the queued events in the wheel
+            UDPTimerEvent evt;
+            while ((evt = _updates.poll()) != null) {
+                evt._queued.set(false);
+                updateSchedule(evt);
             }
 
-            // Determine whether to run existing event
-            // or to just sleep on a possibly changed event
-            synchronized(this) {
-
-                waitTime = _scheduledEvent.getEventTime() - 
-                  System.currentTimeMillis();
-                if ( waitTime > 0 )
-                    continue;
+            // Run the events that are due
+            _wheel.advance(System.currentTimeMillis(), runner);
+
+            // Wait for the next event or a sooner one to be queued.  The
+            // wake time is published before checking the queue, so an
+            // event queued after the check sees it and unparks us.
+            long deadline = _wheel.nextDeadline();
+            _wakeTime = deadline;
+            if (_updates.isEmpty()) {
+                if (deadline == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    long waitTime = deadline - System.currentTimeMillis();
+                    if (waitTime > 0)
+                        LockSupport.parkNanos(this, waitTime * 1000000L);
+                }
             }
-
-            // Run the event and rework the schedule.
-            runEvent();
-            reworkSchedule();
+            _wakeTime = 0;
+            Thread.interrupted();
 		}
 	}
 
     /**
-	 *  Run the scheduled UDPTimerEvent event
+     *  Process the updating of an event
      */
- 	private synchronized void runEvent() {
-
-		if (_scheduledEvent.shouldUnregister())
-			_connectionEvents.remove(_scheduledEvent);
-		else
-			_scheduledEvent.handleEvent();
-
-	}
+    private void updateSchedule(UDPTimerEvent evt) {
+        long time = evt.getEventTime();
+        if (evt.shouldUnregister()) {
+            evt._scheduler = null;
+            _wheel.remove(evt);
+        } else if (time == Long.MAX_VALUE) {
+            _wheel.remove(evt);
+        } else {
+            _wheel.schedule(evt, time);
+        }
+    }
 
     /**
-	 *  Go through the active UDPTimerEvent and find the next event.
-     *  For now, I don't think it is necessary to resort the list.
+	 *  Run the scheduled UDPTimerEvent event
      */
- 	private synchronized void reworkSchedule() {
-		UDPTimerEvent evt;
-		long          time;
-
-		_scheduledEvent      = NO_EVENT;
-		for (int i = 0; i < _connectionEvents.size(); i++) {
-			evt = _connectionEvents.get(i);
-			time = evt.getEventTime();
-			if ( evt  != NO_EVENT && 
-				 (time < _scheduledEvent.getEventTime() || 
-                 _scheduledEvent == NO_EVENT)) {
-				_scheduledEvent = evt;
-			}
-		}
-	}
+ 	private void runEvent(UDPTimerEvent evt) {
+        if (evt.shouldUnregister()) {
+            evt._scheduler = null;
+            return;
+        }
 
-	private static final class NoEvent extends UDPTimerEvent {
-		public NoEvent(long time) {
-			super(time,null);
-		}
+        long now = System.currentTimeMillis();
+        long time = evt.getEventTime();
+        if (time > now) {
+            // moved later without being rescheduled
+            if (time != Long.MAX_VALUE)
+                _wheel.schedule(evt, time);
+            return;
+        }
 
-		@Override
-        protected void doActualEvent(UDPConnectionProcessor udpCon) {
-		}
+        // events due now are stored as 0 or any past time, so count the
+        // lag from when the wheel was due to run them
+        LAG.record(now - Math.max(time, evt._wheelTick));
+        evt.handleEvent();
+
+        // handlers that set a later time without rescheduling still get it
+        time = evt.getEventTime();
+        if (time > now && time != Long.MAX_VALUE && !evt._queued.get()
+                && !evt.shouldUnregister())
+            _wheel.schedule(evt, time);
 	} 
 
 }
-
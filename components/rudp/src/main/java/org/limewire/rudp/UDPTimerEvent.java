@@ -1,6 +1,7 @@
 package org.limewire.rudp;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -24,6 +25,21 @@ public abstract class UDPTimerEvent implements Comparable<UDPTimerEvent> {
     
     /** the UDPConnectionProcessor this event refers to */
     protected final WeakReference<UDPConnectionProcessor> _udpCon;
+    
+    /** The scheduler this event is registered with, if any. */
+    volatile UDPScheduler _scheduler;
+    
+    /** Whether this event is waiting for the scheduler to update it. */
+    final AtomicBoolean _queued = new AtomicBoolean();
+    
+    /*
+     * The position of this event in the TimingWheel of the scheduler.
+     * Only used by the scheduler thread.
+     */
+    UDPTimerEvent _wheelNext, _wheelPrev;
+    long _wheelTick;
+    int _wheelLevel = -1;
+    int _wheelSlot;
 
    /**
     *  Create a timer event with a default time.
@@ -52,6 +68,11 @@ public abstract class UDPTimerEvent implements Comparable<UDPTimerEvent> {
     protected final void unregister() {
     	_shouldUnregister=true;
     	_eventTime=1;
+    	
+    	// let the scheduler drop it now rather than when it was due
+    	UDPScheduler scheduler = _scheduler;
+    	if (scheduler != null)
+    		scheduler.scheduleEvent(this);
     }
 
    /**
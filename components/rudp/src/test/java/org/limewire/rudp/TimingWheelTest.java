@@ -0,0 +1,206 @@
+package org.limewire.rudp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class TimingWheelTest extends BaseTestCase {
+
+    private static final long START = 1000000007L;
+
+    private TimingWheel wheel;
+
+    private Recorder recorder;
+
+    public TimingWheelTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(TimingWheelTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        wheel = new TimingWheel(START);
+        recorder = new Recorder();
+    }
+
+    public void testExpiresAtTheirTimes() {
+        Random random = new Random(22);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 2000; i++) {
+            // spread over all wheels, up to about 9 hours
+            long delay = (long)Math.pow(2, random.nextDouble() * 25);
+            Event evt = new Event(START + delay);
+            events.add(evt);
+            wheel.schedule(evt, evt.getEventTime());
+        }
+        assertEquals(2000, wheel.size());
+
+        long now = START;
+        while (wheel.size() > 0) {
+            long deadline = wheel.nextDeadline();
+            assertGreaterThanOrEquals(now, deadline);
+            // sometimes oversleep
+            now = deadline + (random.nextInt(4) == 0 ? random.nextInt(2000) : 0);
+            advance(now);
+            for (Event evt : recorder.expired) {
+                assertLessThanOrEquals(now, evt.getEventTime());
+                evt.expiredAt = now;
+            }
+            recorder.expired.clear();
+        }
+
+        for (Event evt : events) {
+            // never early, and only late if we overslept
+            assertGreaterThanOrEquals(evt.getEventTime(), evt.expiredAt);
+            assertLessThan(evt.getEventTime() + 2000, evt.expiredAt);
+            assertFalse(wheel.contains(evt));
+        }
+    }
+
+    public void testExpiresInOrder() {
+        Event first = new Event(START + 10);
+        Event second = new Event(START + 300);
+        Event third = new Event(START + 70000);
+        wheel.schedule(third, third.getEventTime());
+        wheel.schedule(second, second.getEventTime());
+        wheel.schedule(first, first.getEventTime());
+
+        advance(START + 100000);
+        assertEquals(3, recorder.expired.size());
+        assertSame(first, recorder.expired.get(0));
+        assertSame(second, recorder.expired.get(1));
+        assertSame(third, recorder.expired.get(2));
+    }
+
+    public void testMoveAndRemove() {
+        Event evt = new Event(START + 50);
+        Event other = new Event(START + 50);
+        wheel.schedule(evt, START + 50);
+        wheel.schedule(other, START + 50);
+        assertEquals(START + 50, wheel.nextDeadline());
+
+        // moving doesn't add it twice
+        wheel.schedule(evt, START + 5000);
+        assertEquals(2, wheel.size());
+        advance(START + 100);
+        assertEquals(1, recorder.expired.size());
+        assertSame(other, recorder.expired.get(0));
+        assertTrue(wheel.contains(evt));
+
+        wheel.remove(evt);
+        wheel.remove(evt);
+        assertFalse(wheel.contains(evt));
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+        advance(START + 10000);
+        assertEquals(1, recorder.expired.size());
+    }
+
+    public void testPastTimesExpireNext() {
+        advance(START + 500);
+        Event evt = new Event(START);
+        wheel.schedule(evt, evt.getEventTime());
+        assertEquals(START + 501, wheel.nextDeadline());
+        advance(START + 501);
+        assertSame(evt, recorder.expired.get(0));
+    }
+
+    public void testImmediateEventsAreDueWhenAdded() {
+        advance(START + 500);
+        // the scheduler counts the lag of events scheduled at time 0 from
+        // the tick they were due at
+        Event evt = new Event(0);
+        wheel.schedule(evt, evt.getEventTime());
+        assertEquals(START + 501, evt._wheelTick);
+        advance(START + 501);
+        assertSame(evt, recorder.expired.get(0));
+        assertEquals(START + 501, evt._wheelTick);
+    }
+
+    public void testBeyondHorizonWaitsInTopWheel() {
+        Event evt = new Event(START + 100L * 24 * 60 * 60 * 1000);
+        wheel.schedule(evt, evt.getEventTime());
+        assertTrue(wheel.contains(evt));
+        // a day later it is still waiting
+        advance(START + 24L * 60 * 60 * 1000);
+        assertEquals(0, recorder.expired.size());
+        assertTrue(wheel.contains(evt));
+    }
+
+    public void testClockGoingBackStartsOver() {
+        Event old = new Event(START + 10000);
+        wheel.schedule(old, old.getEventTime());
+        advance(START + 5000);
+
+        // the clock is set back an hour
+        long back = START - 60 * 60 * 1000;
+        Event evt = new Event(back + 50);
+        wheel.schedule(evt, evt.getEventTime());
+        advance(back);
+        assertEquals(0, recorder.expired.size());
+        assertEquals(back + 50, wheel.nextDeadline());
+        advance(back + 50);
+        assertEquals(1, recorder.expired.size());
+        assertSame(evt, recorder.expired.get(0));
+
+        // events added before wait for their own time
+        advance(back + 60 * 60 * 1000);
+        assertEquals(1, recorder.expired.size());
+        advance(START + 10000);
+        assertSame(old, recorder.expired.get(1));
+    }
+
+    public void testClockGoingBackWhileEmpty() {
+        advance(START + 5000);
+        long back = START - 1000;
+        Event evt = new Event(back + 50);
+        wheel.schedule(evt, evt.getEventTime());
+        advance(back + 50);
+        assertSame(evt, recorder.expired.get(0));
+    }
+
+    private static class Event extends UDPTimerEvent {
+
+        long expiredAt;
+
+        Event(long time) {
+            super(time, null);
+        }
+
+        @Override
+        protected void doActualEvent(UDPConnectionProcessor proc) {
+        }
+    }
+
+    /** Expires events, as the scheduler would. */
+    private class Recorder implements TimingWheel.Expirer {
+
+        final List<Event> expired = new ArrayList<Event>();
+
+        long now;
+
+        public void expire(UDPTimerEvent evt) {
+            // events beyond the horizon come back at their own time
+            if (evt.getEventTime() > now)
+                wheel.schedule(evt, evt.getEventTime());
+            else
+                expired.add((Event)evt);
+        }
+    }
+
+    private void advance(long now) {
+        recorder.now = now;
+        wheel.advance(now, recorder);
+    }
+}
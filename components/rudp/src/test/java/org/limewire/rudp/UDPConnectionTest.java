@@ -9,6 +9,9 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -642,6 +645,82 @@ public final class UDPConnectionTest extends BaseTestCase {
         assertTrue(threadEnder.await(1000 * 60 * 2, TimeUnit.MILLISECONDS));
     }
 
+    /**
+     * Tests that far more connections than there are connection IDs can be
+     * open at once, as long as no more than 255 go to the same address.
+     */
+    public void testManyConcurrentConnections() throws Exception {
+        final int PORTS = 5;
+        final int CONNECTIONS_PER_PORT = 200;
+        final int CONNECTIONS = PORTS * CONNECTIONS_PER_PORT;
+
+        // clear out routes from setUp()
+        stubService.clearReceivers();
+
+        final List<Socket> requestors = Collections.synchronizedList(new ArrayList<Socket>());
+        final List<Socket> acceptors = Collections.synchronizedList(new ArrayList<Socket>());
+        final CountDownLatch connectLatch = new CountDownLatch(2 * CONNECTIONS);
+        List<NBSocket> sockets = new ArrayList<NBSocket>();
+        try {
+            for (int port = 7000; port < 7000 + 2 * PORTS; port += 2) {
+                stubService.addReceiver(port, port + 1, 0, 0);
+                stubService.addReceiver(port + 1, port, 0, 0);
+                for (int i = 0; i < CONNECTIONS_PER_PORT; i++) {
+                    NBSocket requestor = udpSelectorProvider.openSocketChannel().socket();
+                    sockets.add(requestor);
+                    requestor.connect(new InetSocketAddress("127.0.0.1", port), 20000,
+                            new Connector(requestors, connectLatch));
+                    NBSocket acceptor = udpSelectorProvider.openAcceptorSocketChannel().socket();
+                    sockets.add(acceptor);
+                    acceptor.connect(new InetSocketAddress("127.0.0.1", port + 1), 20000,
+                            new Connector(acceptors, connectLatch));
+                }
+            }
+            assertTrue(connectLatch.await(30, TimeUnit.SECONDS));
+            assertEquals(2 * CONNECTIONS, udpMultiplexor.keys().size());
+
+            // every acceptor echoes the number its requestor sent
+            for (int i = 0; i < CONNECTIONS; i++)
+                writeInt(i, requestors.get(i).getOutputStream());
+            for (Socket acceptor : acceptors) {
+                acceptor.setSoTimeout(TIMEOUT);
+                writeInt(readInt(acceptor.getInputStream()), acceptor.getOutputStream());
+            }
+            for (int i = 0; i < CONNECTIONS; i++) {
+                Socket requestor = requestors.get(i);
+                requestor.setSoTimeout(TIMEOUT);
+                assertEquals(i, readInt(requestor.getInputStream()));
+            }
+        } finally {
+            for (NBSocket socket : sockets)
+                socket.close();
+        }
+    }
+
+    /** Adds the connected socket to a list. */
+    private static class Connector implements ConnectObserver {
+
+        private final List<Socket> sockets;
+
+        private final CountDownLatch latch;
+
+        Connector(List<Socket> sockets, CountDownLatch latch) {
+            this.sockets = sockets;
+            this.latch = latch;
+        }
+
+        public void handleConnect(Socket socket) throws IOException {
+            sockets.add(socket);
+            latch.countDown();
+        }
+
+        public void handleIOException(IOException iox) {
+        }
+
+        public void shutdown() {
+        }
+    }
+
     /**
      * Ensures that the new acceptor code still accepts old syn messages coming
      * in, this is achieved by creating the UDPSocketChannel manually and specifying
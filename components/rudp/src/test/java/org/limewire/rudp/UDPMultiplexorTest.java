@@ -146,6 +146,77 @@ public class UDPMultiplexorTest extends BaseTestCase {
         assertEquals(SelectionKey.OP_READ | SelectionKey.OP_WRITE, key.readyOps());        
     }
     
+    public void testConnectionIDsArePerAddress() throws Exception {
+        Selector selector = provider.openSelector();
+        UDPMultiplexor plexor = (UDPMultiplexor) selector;
+        InetSocketAddress first = new InetSocketAddress(InetAddress.getLocalHost(), 1);
+        InetSocketAddress second = new InetSocketAddress(InetAddress.getLocalHost(), 2);
+        
+        StubUDPSocketChannel[] channels = new StubUDPSocketChannel[255];
+        for(int i = 0; i < channels.length; i++) {
+            channels[i] = new StubUDPSocketChannel();
+            channels[i].addr = first;
+            channels[i].register(selector, 0);
+        }
+        // the ids of the first address are used up, but not the second's
+        StubUDPSocketChannel other = new StubUDPSocketChannel();
+        other.addr = second;
+        SelectionKey otherKey = other.register(selector, 0);
+        StubUDPSocketChannel overflow = new StubUDPSocketChannel();
+        overflow.addr = first;
+        SelectionKey overflowKey = overflow.register(selector, 0);
+        
+        assertEquals(1, selector.selectNow());
+        assertFalse(overflowKey.isValid());
+        assertTrue(otherKey.isValid());
+        assertEquals(256, selector.keys().size());
+        
+        // the same id routes to different channels by address
+        byte id = other.stubProcessor.connectionId;
+        StubUDPSocketChannel sameId = null;
+        for(StubUDPSocketChannel channel : channels) {
+            if(channel.stubProcessor.connectionId == id)
+                sameId = channel;
+        }
+        assertNotNull(sameId);
+        RUDPMessage msg = new DefaultMessageFactory().createKeepAliveMessage(id, 0, 0);
+        plexor.routeMessage(msg, second);
+        assertSame(msg, other.stubProcessor.msg);
+        assertNull(sameId.stubProcessor.msg);
+        plexor.routeMessage(msg, first);
+        assertSame(msg, sameId.stubProcessor.msg);
+        
+        // unknown ports get nothing
+        msg = new DefaultMessageFactory().createKeepAliveMessage(id, 1, 0);
+        plexor.routeMessage(msg, new InetSocketAddress(InetAddress.getLocalHost(), 3));
+        assertNotSame(msg, other.stubProcessor.msg);
+        assertNotSame(msg, sameId.stubProcessor.msg);
+    }
+    
+    public void testIsConnectedTo() throws Exception {
+        Selector selector = provider.openSelector();
+        UDPMultiplexor plexor = (UDPMultiplexor) selector;
+        InetAddress host = InetAddress.getByName("1.2.3.4");
+        assertFalse(plexor.isConnectedTo(host));
+        
+        StubUDPSocketChannel channel = new StubUDPSocketChannel();
+        channel.addr = new InetSocketAddress(host, 1);
+        channel.register(selector, 0);
+        StubUDPSocketChannel sameHost = new StubUDPSocketChannel();
+        sameHost.addr = new InetSocketAddress(host, 2);
+        sameHost.register(selector, 0);
+        assertTrue(plexor.isConnectedTo(host));
+        assertFalse(plexor.isConnectedTo(InetAddress.getByName("1.2.3.5")));
+        
+        channel.close();
+        assertEquals(0, selector.selectNow());
+        assertTrue(plexor.isConnectedTo(host));
+        sameHost.close();
+        assertEquals(0, selector.selectNow());
+        assertFalse(plexor.isConnectedTo(host));
+        assertEquals(0, selector.keys().size());
+    }
+    
     /** 
      * Tests that if a channel becomes ready for 
      * some event, a provided listener is notified 
@@ -213,10 +284,16 @@ public class UDPMultiplexorTest extends BaseTestCase {
         private int readyOps;
 
         RUDPMessage msg;
+        byte connectionId;
         StubProcessor(UDPSocketChannel channel) {
             super(channel, context, Role.UNDEFINED, new EventListenerList<UDPSocketChannelConnectionEvent>());
         }
         
+        @Override
+        protected void setConnectionId(byte id) {
+            this.connectionId = id;
+        }
+        
         @Override
         protected int readyOps() {
             return readyOps;
@@ -1,19 +1,58 @@
 package org.limewire.security;
 
 import java.io.File;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
 import org.limewire.concurrent.ExecutorsHelper;
 
 import com.google.inject.Singleton;
 
-/** A class that verifies secure messages sequentially. */
+/**
+ * A class that verifies secure messages, sequentially or on a pool of
+ * threads.  Optionally remembers the results of recent verifications, so a
+ * signed payload seen from many hosts is only verified once.
+ * <p>
+ * Callbacks are always made one at a time, in the order the messages were
+ * given, so callers need not be thread safe even when verifying on a pool.
+ */
 @Singleton
 public class SecureMessageVerifierImpl implements SecureMessageVerifier {
     
     private final ExecutorService QUEUE;
     
+    /**
+     * The queue the callbacks are made on when verifying on several threads,
+     * or null when verifying on one thread, which makes the callbacks itself.
+     */
+    private final ExecutorService CALLBACKS;
+    
+    /**
+     * The results of recent verifications, or null if they aren't kept.
+     * LOCKING: itself.
+     */
+    private final Map<ResultKey, Boolean> results;
+    
+    /** The Signature each thread uses to digest messages for the results. */
+    private final ThreadLocal<DigestingSignature> digests = new ThreadLocal<DigestingSignature>() {
+        @Override
+        protected DigestingSignature initialValue() {
+            return new DigestingSignature();
+        }
+    };
+    
     /** The public key. */
     private PublicKey pubKey;
     
@@ -47,11 +86,46 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
         this(null, null, pubKey, name);
     }
     
+    /**
+     * @param threads the number of threads that verify messages
+     * @param resultCacheSize the number of results to remember, 0 for none
+     */
+    public SecureMessageVerifierImpl(String keyBase32, String name, int threads, int resultCacheSize) {
+        this(null, keyBase32, null, name, threads, resultCacheSize);
+    }
+    
+    /**
+     * @param threads the number of threads that verify messages
+     * @param resultCacheSize the number of results to remember, 0 for none
+     */
+    public SecureMessageVerifierImpl(PublicKey pubKey, String name, int threads, int resultCacheSize) {
+        this(null, null, pubKey, name, threads, resultCacheSize);
+    }
+    
     private SecureMessageVerifierImpl(File keyFile, String keyBase32, PublicKey pubKey, String name) {
-        if (name == null) {
-            QUEUE = ExecutorsHelper.newProcessingQueue("SecureMessageVerifier");
+        this(keyFile, keyBase32, pubKey, name, 1, 0);
+    }
+    
+    private SecureMessageVerifierImpl(File keyFile, String keyBase32, PublicKey pubKey, String name,
+            int threads, final int resultCacheSize) {
+        String queueName = name == null ? "SecureMessageVerifier" : name + "-SecureMessageVerifier";
+        if (threads <= 1) {
+            QUEUE = ExecutorsHelper.newProcessingQueue(queueName);
+            CALLBACKS = null;
         } else {
-            QUEUE = ExecutorsHelper.newProcessingQueue(name + "-SecureMessageVerifier");
+            QUEUE = ExecutorsHelper.newFixedSizeThreadPool(threads, queueName);
+            CALLBACKS = ExecutorsHelper.newProcessingQueue(queueName + "-Callbacks");
+        }
+        
+        if (resultCacheSize > 0) {
+            results = new LinkedHashMap<ResultKey, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ResultKey, Boolean> eldest) {
+                    return size() > resultCacheSize;
+                }
+            };
+        } else {
+            results = null;
         }
         
         if (pubKey == null && (keyFile == null) == (keyBase32 == null))
@@ -66,7 +140,7 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
      * @see org.limewire.security.SecureMessageVerifier#verify(org.limewire.security.SecureMessage, org.limewire.security.SecureMessageCallback)
      */
     public void verify(SecureMessage sm, SecureMessageCallback smc) {
-        QUEUE.execute(new VerifierImpl(pubKey, "SHA1withDSA", sm, smc));
+        execute(pubKey, "SHA1withDSA", sm, smc);
     }
     
     /* (non-Javadoc)
@@ -82,14 +156,40 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
             throw new IllegalArgumentException("PublicKey is null");
         }
         
-        QUEUE.execute(new VerifierImpl(pubKey, algorithm, sm, smc));
+        execute(pubKey, algorithm, sm, smc);
     }
     
-    /* (non-Javadoc)
-     * @see org.limewire.security.SecureMessageVerifier#verify(org.limewire.security.Verifier)
+    /**
+     * Runs the verifier on the callback queue when verifying on several
+     * threads, since its callback can't be separated from its verification.
      */
     public void verify(Verifier verifier) {
-        QUEUE.execute(verifier);
+        if (CALLBACKS != null)
+            CALLBACKS.execute(verifier);
+        else
+            QUEUE.execute(verifier);
+    }
+    
+    /**
+     * Verifies a message.  When verifying on several threads, the callback
+     * is made on the callback queue after those of the messages given before.
+     */
+    private void execute(PublicKey pubKey, String algorithm, SecureMessage sm,
+            SecureMessageCallback smc) {
+        if (CALLBACKS == null) {
+            QUEUE.execute(new VerifierImpl(pubKey, algorithm, sm, smc));
+            return;
+        }
+        
+        final DeferredCallback callback = new DeferredCallback(smc);
+        final FutureTask<Object> verification = new FutureTask<Object>(
+                new VerifierImpl(pubKey, algorithm, sm, callback), null);
+        QUEUE.execute(verification);
+        CALLBACKS.execute(new Runnable() {
+            public void run() {
+                callback.deliver(verification);
+            }
+        });
     }
     
     /** Initializes the public key if one isn't set. */
@@ -116,7 +216,10 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
         return keyFile;
     }
 
-    /** Simple runnable to insert into the ProcessingQueue. */
+    /**
+     * Simple runnable to insert into the ProcessingQueue, which looks up
+     * and remembers its result if results are kept.
+     */
     private class VerifierImpl extends Verifier {
         
         private PublicKey pubKey;
@@ -144,5 +247,155 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
             
             return pubKey;
         }
+        
+        @Override
+        protected boolean verify(PublicKey pubKey, String algorithm, SecureMessage message,
+                byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException,
+                SignatureException {
+            if (results == null)
+                return super.verify(pubKey, algorithm, message, signature);
+            
+            DigestingSignature digest = digests.get();
+            digest.initVerify(pubKey);
+            message.updateSignatureWithSecuredBytes(digest);
+            ResultKey key = new ResultKey(pubKey, algorithm, digest.digest(), signature.clone());
+            Boolean result;
+            synchronized (results) {
+                result = results.get(key);
+            }
+            if (result == null) {
+                result = super.verify(pubKey, algorithm, message, signature);
+                synchronized (results) {
+                    results.put(key, result);
+                }
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Keeps the result of a verification made on the pool until the
+     * callback queue hands it on.
+     */
+    private static class DeferredCallback implements SecureMessageCallback {
+        private final SecureMessageCallback callback;
+        private volatile SecureMessage message;
+        private volatile boolean passed;
+        
+        DeferredCallback(SecureMessageCallback callback) {
+            this.callback = callback;
+        }
+        
+        public void handleSecureMessage(SecureMessage sm, boolean passed) {
+            this.passed = passed;
+            this.message = sm;
+        }
+        
+        /** Waits for the verification, then makes the callback. */
+        void deliver(FutureTask<?> verification) {
+            try {
+                verification.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // the pool doesn't see exceptions of a FutureTask, report it here
+                throw new IllegalStateException(e.getCause());
+            }
+            callback.handleSecureMessage(message, passed);
+        }
+    }
+    
+    /**
+     * Identifies a verification by its key, algorithm, signed data and
+     * signature.  The signature is compared whole rather than digested with
+     * the data, so that moving bytes from one to the other is a different
+     * verification.
+     */
+    private static class ResultKey {
+        private final PublicKey pubKey;
+        private final String algorithm;
+        private final byte[] digest;
+        private final byte[] signature;
+        
+        ResultKey(PublicKey pubKey, String algorithm, byte[] digest, byte[] signature) {
+            this.pubKey = pubKey;
+            this.algorithm = algorithm;
+            this.digest = digest;
+            this.signature = signature;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResultKey))
+                return false;
+            ResultKey other = (ResultKey)o;
+            return Arrays.equals(digest, other.digest) && Arrays.equals(signature, other.signature)
+                && algorithm.equals(other.algorithm) && pubKey.equals(other.pubKey);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest);
+        }
+    }
+    
+    /**
+     * A Signature that only digests the bytes it is given, to get at the
+     * bytes a message secures.
+     */
+    private static class DigestingSignature extends Signature {
+        private final MessageDigest digest = new SHA1();
+        
+        DigestingSignature() {
+            super("SHA-1");
+        }
+        
+        /** Returns the digest of the bytes given so far. */
+        byte[] digest() {
+            return digest.digest();
+        }
+        
+        @Override
+        protected void engineInitVerify(PublicKey publicKey) {
+            digest.reset();
+        }
+        
+        @Override
+        protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+            throw new InvalidKeyException("cannot sign");
+        }
+        
+        @Override
+        protected void engineUpdate(byte b) {
+            digest.update(b);
+        }
+        
+        @Override
+        protected void engineUpdate(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+        
+        @Override
+        protected byte[] engineSign() throws SignatureException {
+            throw new SignatureException("cannot sign");
+        }
+        
+        @Override
+        protected boolean engineVerify(byte[] sigBytes) throws SignatureException {
+            throw new SignatureException("only digests");
+        }
+        
+        @Override
+        @Deprecated
+        protected void engineSetParameter(String param, Object value) {
+            throw new InvalidParameterException();
+        }
+        
+        @Override
+        @Deprecated
+        protected Object engineGetParameter(String param) {
+            throw new InvalidParameterException();
+        }
     }
 }
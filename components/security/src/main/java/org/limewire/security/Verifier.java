@@ -5,6 +5,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,6 +21,18 @@ public abstract class Verifier implements Runnable {
     
     private static final Log LOG = LogFactory.getLog(Verifier.class);
     
+    /**
+     * The Signatures used on each thread, by algorithm.  Looking up a
+     * Signature goes through every security provider, so they are reused.
+     */
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES =
+        new ThreadLocal<Map<String, Signature>>() {
+            @Override
+            protected Map<String, Signature> initialValue() {
+                return new HashMap<String, Signature>(4);
+            }
+        };
+    
     private SecureMessage message;
     
     private SecureMessageCallback callback;
@@ -77,10 +91,7 @@ public abstract class Verifier implements Runnable {
         }
         
         try {
-            Signature verifier = Signature.getInstance(algorithm);
-            verifier.initVerify(pubKey);
-            message.updateSignatureWithSecuredBytes(verifier);
-            if(verifier.verify(signature)) {
+            if(verify(pubKey, algorithm, message, signature)) {
                 message.setSecureStatus(Status.SECURE);
                 callback.handleSecureMessage(message, true);
                 return;
@@ -99,4 +110,29 @@ public abstract class Verifier implements Runnable {
         message.setSecureStatus(Status.FAILED);
         callback.handleSecureMessage(message, false);
     }
+    
+    /**
+     * Checks the signature of the message.
+     * 
+     * @return true if the signature is good
+     */
+    protected boolean verify(PublicKey pubKey, String algorithm, SecureMessage message,
+            byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException,
+            SignatureException {
+        Signature verifier = getSignature(algorithm);
+        verifier.initVerify(pubKey);
+        message.updateSignatureWithSecuredBytes(verifier);
+        return verifier.verify(signature);
+    }
+    
+    /** Returns this thread's Signature for the algorithm. */
+    private static Signature getSignature(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature signature = signatures.get(algorithm);
+        if(signature == null) {
+            signature = Signature.getInstance(algorithm);
+            signatures.put(algorithm, signature);
+        }
+        return signature;
+    }
 }
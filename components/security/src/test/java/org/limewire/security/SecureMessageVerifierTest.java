@@ -7,7 +7,14 @@ import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Test;
 
@@ -121,6 +128,118 @@ public class SecureMessageVerifierTest extends BaseTestCase {
         assertEquals(Status.FAILED, m1.getSecureStatus());
     }    
 
+    /** Tests that a payload verified before isn't verified again. */
+    public void testResultsAreRemembered() throws Exception {
+        SecureMessageVerifier vf = new SecureMessageVerifierImpl(PUBLIC_KEY, "Caching Verifier", 2, 10);
+        StubSecureMessage m1 = new StubSecureMessage();
+        StubSecureMessageCallback cb = new StubSecureMessageCallback();
+        vf.verify(m1, cb);
+        cb.waitForReply();
+        assertEquals(true, cb.getPassed());
+        // digested once for the result, and once to verify
+        assertEquals(2, m1.updates);
+        
+        StubSecureMessage m2 = new StubSecureMessage(m1.data, m1.signature.clone());
+        cb = new StubSecureMessageCallback();
+        vf.verify(m2, cb);
+        cb.waitForReply();
+        assertEquals(true, cb.getPassed());
+        assertEquals(Status.SECURE, m2.getSecureStatus());
+        assertEquals(1, m2.updates);
+        
+        // the same payload with another signature is verified
+        byte[] signature = m1.signature.clone();
+        signature[signature.length - 1]++;
+        StubSecureMessage m3 = new StubSecureMessage(m1.data, signature);
+        cb = new StubSecureMessageCallback();
+        vf.verify(m3, cb);
+        cb.waitForReply();
+        assertEquals(false, cb.getPassed());
+        assertEquals(Status.FAILED, m3.getSecureStatus());
+        assertEquals(2, m3.updates);
+    }
+    
+    /**
+     * Tests that moving bytes from the signature to the data doesn't match
+     * a remembered result.
+     */
+    public void testShiftedSignatureIsVerified() throws Exception {
+        SecureMessageVerifier vf = new SecureMessageVerifierImpl(PUBLIC_KEY, "Caching Verifier", 2, 10);
+        StubSecureMessage m1 = new StubSecureMessage();
+        StubSecureMessageCallback cb = new StubSecureMessageCallback();
+        vf.verify(m1, cb);
+        cb.waitForReply();
+        assertEquals(true, cb.getPassed());
+
+        byte[] data = new byte[m1.data.length + 1];
+        System.arraycopy(m1.data, 0, data, 0, m1.data.length);
+        data[m1.data.length] = m1.signature[0];
+        byte[] signature = new byte[m1.signature.length - 1];
+        System.arraycopy(m1.signature, 1, signature, 0, signature.length);
+        StubSecureMessage m2 = new StubSecureMessage(data, signature);
+        cb = new StubSecureMessageCallback();
+        vf.verify(m2, cb);
+        cb.waitForReply();
+        assertEquals(false, cb.getPassed());
+        assertEquals(Status.FAILED, m2.getSecureStatus());
+        // digested for the result, then verified
+        assertEquals(2, m2.updates);
+    }
+    
+    /** Tests verifying many messages on several threads. */
+    public void testManyThreads() throws Exception {
+        SecureMessageVerifier vf = new SecureMessageVerifierImpl(PUBLIC_KEY, "Pooled Verifier", 4, 0);
+        List<StubSecureMessage> messages = new ArrayList<StubSecureMessage>();
+        List<StubSecureMessageCallback> callbacks = new ArrayList<StubSecureMessageCallback>();
+        for (int i = 0; i < 50; i++) {
+            StubSecureMessage m = new StubSecureMessage();
+            StubSecureMessageCallback cb = new StubSecureMessageCallback();
+            messages.add(m);
+            callbacks.add(cb);
+            vf.verify(m, cb);
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            callbacks.get(i).waitForReply();
+            assertEquals(true, callbacks.get(i).getPassed());
+            assertEquals(Status.SECURE, messages.get(i).getSecureStatus());
+        }
+    }
+
+    /**
+     * Tests that verifying on several threads still makes the callbacks one
+     * at a time, in the order the messages were given.
+     */
+    public void testCallbacksAreMadeInOrder() throws Exception {
+        SecureMessageVerifier vf = new SecureMessageVerifierImpl(PUBLIC_KEY, "Pooled Verifier", 4, 0);
+        final List<SecureMessage> messages = new ArrayList<SecureMessage>();
+        final List<SecureMessage> called = Collections.synchronizedList(new ArrayList<SecureMessage>());
+        final AtomicInteger inCallback = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(50);
+        SecureMessageCallback callback = new SecureMessageCallback() {
+            public void handleSecureMessage(SecureMessage sm, boolean passed) {
+                if (inCallback.incrementAndGet() > 1)
+                    overlapped.set(true);
+                called.add(sm);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                }
+                inCallback.decrementAndGet();
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < 50; i++) {
+            // some fail quickly, without a signature
+            SecureMessage m = i % 7 == 0 ? new SecureMessageAdapter() : new StubSecureMessage();
+            messages.add(m);
+            vf.verify(m, callback);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        assertEquals(messages, called);
+    }
+
     /** Verifier that'll use our fake public key. */
     private static class SimpleVerifier extends SecureMessageVerifierImpl {
         SimpleVerifier() {
@@ -136,6 +255,8 @@ public class SecureMessageVerifierTest extends BaseTestCase {
 
         private byte[] signature;
 
+        private volatile int updates;
+
         StubSecureMessage() throws Exception {
             data = new byte[1024];
             random.nextBytes(data);
@@ -145,6 +266,11 @@ public class SecureMessageVerifierTest extends BaseTestCase {
             signature = sig.sign();
         }
 
+        StubSecureMessage(byte[] data, byte[] signature) {
+            this.data = data;
+            this.signature = signature;
+        }
+
         @Override
         public byte[] getSecureSignature() {
             return signature;
@@ -152,6 +278,7 @@ public class SecureMessageVerifierTest extends BaseTestCase {
 
         @Override
         public void updateSignatureWithSecuredBytes(Signature signature) throws SignatureException {
+            updates++;
             signature.update(data);
         }
     }
@@ -0,0 +1,196 @@
+package org.limewire.statistic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.limewire.inspection.Inspectable;
+
+/**
+ * Records values, usually latencies in nanoseconds, in a histogram with
+ * buckets of logarithmic size, like an HdrHistogram.  Values below 32 have
+ * a bucket each, and every power of two above that is split into 32
+ * buckets, so a recorded value is known to within about 3%.  Values above
+ * the highest trackable value are counted as that value.
+ * <p>
+ * Recording a value takes a few atomic operations and allocates nothing.
+ * Counts, the mean and percentiles are read from a {@link Snapshot}.
+ * Values recorded while a snapshot is taken may or may not be included.
+ * <p>
+ * When inspected, <code>LatencyHistogram</code> returns the map of its
+ * snapshot, see {@link Snapshot#toMap(long)}.
+ */
+public class LatencyHistogram implements Inspectable {
+
+    private static final int SUB_BITS = 5;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** The default highest trackable value, about 18 minutes in nanoseconds. */
+    public static final long DEFAULT_HIGHEST_VALUE = (1L << 40) - 1;
+
+    private final long highestValue;
+
+    private final AtomicLongArray counts;
+
+    private final StripedCounter total = new StripedCounter();
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_VALUE);
+    }
+
+    /**
+     * @param highestValue the highest value that is told apart from
+     * higher values
+     */
+    public LatencyHistogram(long highestValue) {
+        if (highestValue < 1)
+            throw new IllegalArgumentException("highest value: " + highestValue);
+        this.highestValue = highestValue;
+        this.counts = new AtomicLongArray(index(highestValue) + 1);
+    }
+
+    /** Records a value, negative values are recorded as 0. */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        else if (value > highestValue)
+            value = highestValue;
+        counts.incrementAndGet(index(value));
+        total.add(value);
+
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value));
+        while (value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+    /** Forgets all recorded values. */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        total.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    /** Returns a copy of the recorded values. */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.sum(), min.get(), max.get());
+    }
+
+    public Object inspect() {
+        return snapshot().toMap(1);
+    }
+
+    /** Returns the bucket of a value. */
+    static int index(long value) {
+        if (value < SUB_COUNT)
+            return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int)(value >>> shift) - SUB_COUNT;
+    }
+
+    /** Returns the lowest value counted in a bucket. */
+    static long lowestValue(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int shift = (index >> SUB_BITS) - 1;
+        return (long)((index & (SUB_COUNT - 1)) + SUB_COUNT) << shift;
+    }
+
+    /** Returns the highest value counted in a bucket. */
+    static long highestValue(int index) {
+        return lowestValue(index + 1) - 1;
+    }
+
+    /** The values a histogram had recorded at one point in time. */
+    public static class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long total;
+
+        private final long min;
+
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.min = count == 0 ? 0 : min;
+            this.max = count == 0 ? 0 : max;
+        }
+
+        /** Returns the number of values recorded. */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /** Returns the mean of the values, or 0 if there are none. */
+        public double getMean() {
+            return count == 0 ? 0 : (double)total / count;
+        }
+
+        /**
+         * Returns the value that <code>percentile</code> percent of the
+         * values are at or below, to within the precision of a bucket.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            long rank = (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+            rank = Math.max(1, rank);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.max(min, Math.min(max, highestValue(i)));
+            }
+            return max;
+        }
+
+        /**
+         * Returns the count, and the mean, minimum, maximum and 50th, 90th,
+         * 99th and 99.9th percentiles divided by <code>unit</code>.
+         */
+        public Map<String, Object> toMap(long unit) {
+            Map<String, Object> ret = new HashMap<String, Object>();
+            ret.put("count", count);
+            ret.put("mean", (long)(getMean() / unit));
+            ret.put("min", min / unit);
+            ret.put("max", max / unit);
+            ret.put("p50", getValueAtPercentile(50) / unit);
+            ret.put("p90", getValueAtPercentile(90) / unit);
+            ret.put("p99", getValueAtPercentile(99) / unit);
+            ret.put("p999", getValueAtPercentile(99.9) / unit);
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return toMap(1).toString();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.limewire.statistic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.inspection.Inspectable;
+
+/**
+ * Times operations on hot paths, recording how long they take in a
+ * {@link LatencyHistogram}:
+ * <pre>
+ *     long start = timer.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         timer.stop(start);
+ *     }
+ * </pre>
+ * Neither call allocates.
+ * <p>
+ * When inspected, <code>LatencyTimer</code> returns the count of timed
+ * operations, and the mean, minimum, maximum and percentiles of their
+ * times in microseconds.
+ */
+public class LatencyTimer implements Inspectable {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /** Returns the time to pass to {@link #stop(long)}. */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since <code>start</code>.
+     * 
+     * @return the time in nanoseconds
+     */
+    public long stop(long start) {
+        long nanos = System.nanoTime() - start;
+        histogram.record(nanos);
+        return nanos;
+    }
+
+    /** Records an operation that took <code>nanos</code>. */
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /** Returns the recorded times, in nanoseconds. */
+    public LatencyHistogram.Snapshot snapshot() {
+        return histogram.snapshot();
+    }
+
+    /** Forgets all recorded times. */
+    public void reset() {
+        histogram.reset();
+    }
+
+    public Object inspect() {
+        return histogram.snapshot().toMap(TimeUnit.MICROSECONDS.toNanos(1));
+    }
+}
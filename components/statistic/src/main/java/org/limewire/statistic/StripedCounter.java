@@ -0,0 +1,89 @@
+package org.limewire.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.limewire.inspection.Inspectable;
+
+/**
+ * A counter that many threads can add to without losing counts or
+ * contending on one value.  Each thread adds to one of several cells,
+ * chosen by its id, and the value of the counter is the sum of the cells.
+ * Adding to the counter allocates nothing.
+ * <p>
+ * When inspected, <code>StripedCounter</code> returns its current sum.
+ */
+public class StripedCounter implements Inspectable {
+
+    /** The longs from one cell to the next, so cells don't share a cache line. */
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    /** Creates a counter with a cell for every two processors. */
+    public StripedCounter() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes the number of cells, rounded up to a power of two
+     */
+    public StripedCounter(int stripes) {
+        int size = 1;
+        while (size < stripes)
+            size <<= 1;
+        mask = size - 1;
+        cells = new AtomicLongArray(size * PAD);
+    }
+
+    /** Adds one to the counter. */
+    public void increment() {
+        add(1);
+    }
+
+    /** Adds <code>x</code> to the counter. */
+    public void add(long x) {
+        cells.addAndGet(cell(), x);
+    }
+
+    /**
+     * Returns the sum of the counter.  Additions made while summing may
+     * or may not be included.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD)
+            sum += cells.get(i);
+        return sum;
+    }
+
+    /** Returns the sum of the counter and sets it to zero. */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD)
+            sum += cells.getAndSet(i, 0);
+        return sum;
+    }
+
+    /** Sets the counter to zero. */
+    public void reset() {
+        sumThenReset();
+    }
+
+    public Object inspect() {
+        return sum();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    /** Returns the index of the calling thread's cell. */
+    private int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & mask) * PAD;
+    }
+}
@@ -0,0 +1,121 @@
+package org.limewire.statistic;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+public class LatencyHistogramTest extends BaseTestCase {
+
+    public LatencyHistogramTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(LatencyHistogramTest.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public void testBuckets() {
+        for (long v = 0; v < 32; v++) {
+            assertEquals(v, LatencyHistogram.index(v));
+            assertEquals(v, LatencyHistogram.lowestValue((int)v));
+        }
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            long v = random.nextLong() >>> (1 + random.nextInt(63));
+            int index = LatencyHistogram.index(v);
+            assertLessThanOrEquals(v, LatencyHistogram.lowestValue(index));
+            assertGreaterThanOrEquals(v, LatencyHistogram.highestValue(index));
+            // a bucket is no wider than 1/32 of its values
+            long width = LatencyHistogram.highestValue(index) - LatencyHistogram.lowestValue(index) + 1;
+            assertLessThanOrEquals(Math.max(1, LatencyHistogram.lowestValue(index) / 32), width);
+        }
+        // buckets are contiguous
+        for (int index = 0; index < 32 * 40; index++)
+            assertEquals(LatencyHistogram.highestValue(index) + 1, LatencyHistogram.lowestValue(index + 1));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[10000];
+        Random random = new Random(9);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(10000000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[0], snapshot.getMin());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double percentile : new double[] { 1, 50, 90, 99, 99.9, 100 }) {
+            long expected = values[(int)Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = snapshot.getValueAtPercentile(percentile);
+            assertGreaterThanOrEquals(expected, actual);
+            assertLessThanOrEquals(expected + expected / 32 + 1, actual);
+        }
+        long sum = 0;
+        for (long value : values)
+            sum += value;
+        assertEquals((double)sum / values.length, snapshot.getMean(), 0.001);
+
+        histogram.reset();
+        snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    public void testHighValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(1000, snapshot.getValueAtPercentile(100));
+    }
+
+    public void testInspect() {
+        LatencyTimer timer = new LatencyTimer();
+        timer.record(1500);
+        timer.record(2500000);
+        Map<?, ?> map = (Map<?, ?>)timer.inspect();
+        assertEquals(2L, map.get("count"));
+        assertEquals(2500L, map.get("max"));
+        assertEquals(1L, map.get("min"));
+    }
+
+    public void testConcurrentCounts() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        counter.increment();
+                        histogram.record(j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(800000, counter.sum());
+        assertEquals(800000, histogram.snapshot().getCount());
+        assertEquals(99999, histogram.snapshot().getMax());
+        assertEquals(800000, counter.sumThenReset());
+        assertEquals(0, counter.sum());
+    }
+}
@@ -2,6 +2,7 @@ package com.limegroup.gnutella.stubs;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Set;
 
@@ -246,6 +247,14 @@ public class QueryRequestStub implements QueryRequest {
 
     }
 
+    public void writeHeader(OutputStream out) throws IOException {
+
+    }
+
+    public ByteBuffer getPayloadBuffer() {
+        return null;
+    }
+
     public int compareTo(Message o) {
         return 0;
     }